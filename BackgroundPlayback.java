@@ -0,0 +1,185 @@
+/**
+ * The BackgroundPlayback class plays a snapshot of a composition on a background
+ * thread so that the caller can keep editing while the music plays. Playback can be
+ * paused, resumed and stopped from any thread. Phrase by phrase playback compiles the
+ * next phrases ahead through a CompilePipeline.
+ *
+ * Stopping waits for the background thread to end, and the engine refuses any
+ * sequence this playback asks for after a stop, so a stopped playback never plays
+ * over the one started after it.
+ */
+public class BackgroundPlayback {
+
+    /** The phrases to play */
+    private final PlaybackSnapshot snapshot;
+    /** Whether to stitch the phrases into one sequence instead of playing them one by one */
+    private final boolean gapless;
+    /** The engine that plays the sequences */
+    private final PlaybackEngine engine;
+    /** Compiles the next phrases while one plays, when not gapless */
+    private final CompilePipeline pipeline;
+    /** The engine's stop count when this playback was created */
+    private final int stopCount;
+    /** The playback thread, once started */
+    private Thread thread;
+    /** Set when playback should end early */
+    private volatile boolean stopped;
+    /** Set while playback is paused */
+    private volatile boolean paused;
+    /** Set once the playback thread has finished */
+    private volatile boolean finished;
+
+    /**
+     * Constructor to initialize playback of a snapshot with the shared engine.
+     *
+     * @param snapshot The phrases to play.
+     * @param gapless Whether to play the phrases as one continuous sequence.
+     */
+    public BackgroundPlayback(PlaybackSnapshot snapshot, boolean gapless) {
+        this.snapshot = snapshot;
+        this.gapless = gapless;
+        this.engine = PlaybackEngine.getShared();
+        this.stopCount = engine.getStopCount();
+        this.pipeline = new CompilePipeline(snapshot);
+    }
+
+    /**
+     * Starts playing on a background thread and returns immediately.
+     */
+    public synchronized void start() {
+        if (thread == null)
+            thread = ThreadSupport.start("background-playback", this::playAll);
+    }
+
+    /**
+     * Pauses playback. The current phrase stops where it is.
+     */
+    public synchronized void pause() {
+        if (finished || paused)
+            return;
+        paused = true;
+        engine.pause();
+    }
+
+    /**
+     * Resumes paused playback.
+     */
+    public synchronized void resume() {
+        if (!paused)
+            return;
+        paused = false;
+        engine.resume();
+        notifyAll();
+    }
+
+    /**
+     * Stops playback and waits for the background thread to end, which it does as
+     * soon as the current phrase is cut off.
+     */
+    public void stop() {
+        Thread started;
+        synchronized (this) {
+            stopped = true;
+            paused = false;
+            notifyAll();
+            pipeline.close();
+            engine.stop();
+            started = thread;
+        }
+        if (started == null || started == Thread.currentThread())
+            return;
+        try {
+            started.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns whether playback is paused.
+     *
+     * @return True if paused.
+     */
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Returns whether the playback thread has finished, either at the end of the
+     * snapshot or because it was stopped.
+     *
+     * @return True if finished.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Waits for the playback thread to finish.
+     *
+     * @throws InterruptedException If the wait is interrupted.
+     */
+    public void join() throws InterruptedException {
+        Thread started;
+        synchronized (this) {
+            started = thread;
+        }
+        if (started != null)
+            started.join();
+    }
+
+    /**
+     * Plays the snapshot on the background thread.
+     */
+    private void playAll() {
+        try {
+            if (gapless) {
+                SequenceBuilder builder = new SequenceBuilder(PhraseCache.getShared());
+                while (!stopped && snapshot.hasNext())
+                    builder.append(snapshot.nextPhraseId());
+                if (!stopped)
+                    engine.play(builder.build(), stopCount);
+                return;
+            }
+            pipeline.start();
+            boolean first = true;
+            while (!stopped) {
+                boolean resumed = awaitResume();
+                CompilePipeline.CompiledPhrase phrase = stopped ? null : pipeline.take();
+                if (phrase == null)
+                    break;
+                boolean played = first || resumed
+                        ? engine.play(phrase.getSequence(), stopCount)
+                        : engine.playNext(phrase.getSequence(), stopCount);
+                if (!played)
+                    break;
+                first = false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pipeline.close();
+            finished = true;
+        }
+    }
+
+    /**
+     * Blocks while playback is paused between phrases.
+     *
+     * @return True if playback was paused, so the next phrase does not directly
+     *         follow the previous one.
+     */
+    private synchronized boolean awaitResume() {
+        boolean waited = false;
+        while (paused && !stopped) {
+            waited = true;
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stopped = true;
+            }
+        }
+        return waited;
+    }
+}
@@ -0,0 +1,346 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * The CommandInterpreter class applies text commands to a composition without any
+ * interactive prompts. Edits produce no output; only commands that ask for output
+ * (such as show or current) write to the output, which should be buffered.
+ *
+ * Commands, one per line; blank lines and lines starting with # are ignored:
+ * <pre>
+ * add end|begin|current|INDEX PHRASE   remove current|INDEX
+ * repeat INDEX [TIMES]                 repeat-range FROM TO TIMES INDEX
+ * remove-range FROM TO                 move FROM TO
+ * goto INDEX                           forward | back
+ * show                                 current
+ * play [current|INDEX]                 export FILE
+ * save FILE                            import FILE
+ * mark NAME                            unmark NAME
+ * jump NAME                            play-from NAME
+ * move-to NAME TARGET                  move-range-to FROM TO TARGET
+ * find PHRASE|PHRASE|...               metrics
+ * exit
+ * </pre>
+ *
+ * An interpreter can be restricted for commands that come from other users, such as
+ * those of a server session: commands that read or write files or play through the
+ * sound devices (play, play-from, export, save and import) are then refused.
+ */
+public class CommandInterpreter {
+
+    /** The composition the commands are applied to */
+    private final Composition composition;
+    /** Where requested output is written */
+    private final Appendable out;
+    /** Whether commands that touch files or sound devices are refused */
+    private final boolean restricted;
+    /** Number of lines read so far, for error messages */
+    private int lineNumber;
+
+    /**
+     * Constructor to initialize an interpreter for a composition.
+     *
+     * @param composition The composition to edit.
+     * @param out Where requested output is written.
+     */
+    public CommandInterpreter(Composition composition, Appendable out) {
+        this(composition, out, false);
+    }
+
+    /**
+     * Constructor to initialize an interpreter for a composition, optionally refusing
+     * commands that touch files or sound devices.
+     *
+     * @param composition The composition to edit.
+     * @param out Where requested output is written.
+     * @param restricted True to refuse play, play-from, export, save and import.
+     */
+    public CommandInterpreter(Composition composition, Appendable out, boolean restricted) {
+        this.composition = composition;
+        this.out = out;
+        this.restricted = restricted;
+    }
+
+    /**
+     * Executes every command from a reader until the input ends or an exit command.
+     *
+     * @param in The command source.
+     * @return The number of lines read.
+     * @throws IOException If reading or writing fails.
+     */
+    public int run(BufferedReader in) throws IOException {
+        int start = lineNumber;
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (!execute(line))
+                break;
+        }
+        return lineNumber - start;
+    }
+
+    /**
+     * Executes a single command line.
+     *
+     * @param line The command line.
+     * @return False if the command asks to exit, true otherwise.
+     * @throws IOException If writing output fails.
+     */
+    public boolean execute(String line) throws IOException {
+        lineNumber++;
+        line = line.trim();
+        if (line.isEmpty() || line.charAt(0) == '#')
+            return true;
+        int space = line.indexOf(' ');
+        String command = space < 0 ? line : line.substring(0, space);
+        String rest = space < 0 ? "" : line.substring(space + 1).trim();
+        if (restricted && isLocalAccess(command)) {
+            error("'" + command + "' is not allowed in this session");
+            return true;
+        }
+        try {
+            switch (command) {
+                case "add": add(rest); break;
+                case "remove": remove(rest); break;
+                case "repeat": repeat(rest); break;
+                case "repeat-range": repeatRange(rest); break;
+                case "remove-range": removeRange(rest); break;
+                case "move": move(rest); break;
+                case "goto": composition.setCurrent(Integer.parseInt(rest)); break;
+                case "forward": composition.moveForward(); break;
+                case "back": composition.moveBackward(); break;
+                case "show": show(); break;
+                case "current": current(); break;
+                case "play": play(rest); break;
+                case "export": composition.exportToMidi(rest); break;
+                case "save": composition.save(rest); break;
+                case "import": importPhrases(rest); break;
+                case "mark": composition.setMarker(rest); break;
+                case "unmark": composition.removeMarker(rest); break;
+                case "jump": composition.jumpToMarker(rest); break;
+                case "play-from": composition.playFromMarker(rest); break;
+                case "move-to": moveToMarker(rest); break;
+                case "move-range-to": moveRangeToMarker(rest); break;
+                case "find": find(rest); break;
+                case "metrics": out.append(Metrics.getShared().dump()); break;
+                case "exit": return false;
+                default: error("unknown command '" + command + "'");
+            }
+        } catch (NumberFormatException e) {
+            error("expected a number in '" + line + "'");
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether a command reads or writes files or plays through the sound devices.
+     *
+     * @param command The command name.
+     * @return True for play, play-from, export, save and import.
+     */
+    private static boolean isLocalAccess(String command) {
+        switch (command) {
+            case "play":
+            case "play-from":
+            case "export":
+            case "save":
+            case "import":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Handles "add POSITION PHRASE".
+     */
+    private void add(String arguments) throws IOException {
+        int space = arguments.indexOf(' ');
+        if (space < 0) {
+            error("add needs a position and a phrase");
+            return;
+        }
+        String position = arguments.substring(0, space);
+        String phrase = arguments.substring(space + 1).trim();
+        if (position.equals("end"))
+            composition.addAtEnd(phrase);
+        else if (position.equals("begin"))
+            composition.addAtBeginning(phrase);
+        else if (position.equals("current"))
+            composition.addAtCurrent(phrase);
+        else
+            composition.add(phrase, Integer.parseInt(position));
+    }
+
+    /**
+     * Handles "remove current" and "remove INDEX".
+     */
+    private void remove(String arguments) {
+        if (arguments.equals("current"))
+            composition.removeCurrent();
+        else
+            composition.remove(Integer.parseInt(arguments));
+    }
+
+    /**
+     * Handles "repeat INDEX [TIMES]".
+     */
+    private void repeat(String arguments) throws IOException {
+        int[] values = numbers(arguments, arguments.indexOf(' ') < 0 ? 1 : 2);
+        if (values == null)
+            return;
+        if (values.length == 1)
+            composition.repeatPhraseToEnd(values[0]);
+        else
+            composition.repeatPhraseToEnd(values[0], values[1]);
+    }
+
+    /**
+     * Handles "repeat-range FROM TO TIMES INDEX".
+     */
+    private void repeatRange(String arguments) throws IOException {
+        int[] values = numbers(arguments, 4);
+        if (values != null)
+            composition.repeatRange(values[0], values[1], values[2], values[3]);
+    }
+
+    /**
+     * Handles "remove-range FROM TO".
+     */
+    private void removeRange(String arguments) throws IOException {
+        int[] values = numbers(arguments, 2);
+        if (values != null)
+            composition.removeRange(values[0], values[1]);
+    }
+
+    /**
+     * Handles "move FROM TO".
+     */
+    private void move(String arguments) throws IOException {
+        int[] values = numbers(arguments, 2);
+        if (values != null)
+            composition.move(values[0], values[1]);
+    }
+
+    /**
+     * Handles "move-to NAME TARGET".
+     */
+    private void moveToMarker(String arguments) throws IOException {
+        String[] names = arguments.split("\\s+");
+        if (names.length != 2)
+            error("move-to needs two marker names");
+        else
+            composition.moveToMarker(names[0], names[1]);
+    }
+
+    /**
+     * Handles "move-range-to FROM TO TARGET".
+     */
+    private void moveRangeToMarker(String arguments) throws IOException {
+        String[] names = arguments.split("\\s+");
+        if (names.length != 3)
+            error("move-range-to needs three marker names");
+        else
+            composition.moveRangeToMarker(names[0], names[1], names[2]);
+    }
+
+    /**
+     * Handles "play", "play current" and "play INDEX". Playback blocks until done.
+     */
+    private void play(String arguments) {
+        if (arguments.isEmpty())
+            composition.playCompositionGapless();
+        else if (arguments.equals("current"))
+            composition.playFromCurrentGapless();
+        else
+            composition.playSinglePhrase(Integer.parseInt(arguments));
+    }
+
+    /**
+     * Handles "import FILE", appending one phrase per line of a text file.
+     */
+    private void importPhrases(String fileName) throws IOException {
+        try {
+            new PhraseImporter(composition).importFile(Paths.get(fileName));
+        } catch (IOException e) {
+            error("could not import " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Handles "find PHRASE|PHRASE|...", writing the index of every occurrence of the
+     * motif on one line, separated by spaces.
+     */
+    private void find(String arguments) throws IOException {
+        if (arguments.isEmpty()) {
+            error("find needs a motif");
+            return;
+        }
+        String[] motif = arguments.split("\\s*\\|\\s*");
+        boolean first = true;
+        for (int index : composition.findMotif(motif)) {
+            if (!first)
+                out.append(' ');
+            out.append(Integer.toString(index));
+            first = false;
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Writes every phrase on one line, separated by spaces.
+     */
+    private void show() throws IOException {
+        boolean first = true;
+        for (Node temp = composition.getHead(); temp != null; temp = temp.getNext()) {
+            if (!first)
+                out.append(' ');
+            out.append(temp.getPhrase());
+            first = false;
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Writes the current phrase on its own line.
+     */
+    private void current() throws IOException {
+        Node current = composition.getCurrent();
+        out.append(current == null ? "None" : current.getPhrase()).append('\n');
+    }
+
+    /**
+     * Parses a fixed number of space-separated integers.
+     *
+     * @param arguments The text to parse.
+     * @param count The number of integers expected.
+     * @return The integers, or null if the count is wrong.
+     */
+    private int[] numbers(String arguments, int count) throws IOException {
+        int[] values = new int[count];
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            while (start < arguments.length() && arguments.charAt(start) == ' ')
+                start++;
+            int end = arguments.indexOf(' ', start);
+            if (end < 0)
+                end = arguments.length();
+            if (start == end) {
+                error("expected " + count + " numbers");
+                return null;
+            }
+            values[i] = Integer.parseInt(arguments.substring(start, end));
+            start = end;
+        }
+        return values;
+    }
+
+    /**
+     * Writes an error message that names the current line.
+     *
+     * @param message The problem.
+     */
+    private void error(String message) throws IOException {
+        out.append("Line ").append(Integer.toString(lineNumber)).append(": ").append(message).append('\n');
+    }
+}
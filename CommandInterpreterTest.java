@@ -0,0 +1,59 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for the CommandInterpreter implementation.
+ * It runs command scripts and checks the edits and the requested output.
+ */
+public class CommandInterpreterTest {
+
+    /**
+     * Tests a script that edits a composition and asks for output twice.
+     */
+    @Test
+    public void testScript() throws IOException {
+        DoublyLinkedList list = new DoublyLinkedList(new String[] {"C", "D"});
+        StringBuilder out = new StringBuilder();
+        String script = String.join("\n",
+                "# build a phrase",
+                "add end E5q F5q",
+                "add begin B4",
+                "add 2 C#",
+                "goto 1",
+                "add current A",
+                "remove 0",
+                "move 0 3",
+                "forward",
+                "show",
+                "current",
+                "repeat-range 0 2 2 5",
+                "remove-range 0 1",
+                "show",
+                "exit",
+                "add end never");
+        int lines = new CommandInterpreter(list, out).run(new BufferedReader(new StringReader(script)));
+
+        assertEquals(15, lines);
+        assertEquals("C C# D A E5q F5q\nE5q F5q\nC# D A E5q F5q C C# C C#\n", out.toString());
+    }
+
+    /**
+     * Tests that bad commands are reported with their line number.
+     */
+    @Test
+    public void testErrors() throws IOException {
+        StringBuilder out = new StringBuilder();
+        CommandInterpreter interpreter = new CommandInterpreter(new DoublyLinkedList(), out);
+        interpreter.execute("fly 3");
+        interpreter.execute("");
+        interpreter.execute("goto x");
+        interpreter.execute("move 1");
+        assertEquals("Line 1: unknown command 'fly'\nLine 3: expected a number in 'goto x'\n"
+                + "Line 4: expected 2 numbers\n", out.toString());
+    }
+}
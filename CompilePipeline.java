@@ -0,0 +1,197 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.sound.midi.Sequence;
+
+/**
+ * The CompilePipeline class compiles the phrases of a snapshot on a background thread
+ * while earlier phrases play, so the next phrase is usually ready by the time the
+ * previous one ends and compile time no longer adds to the silence between them.
+ *
+ * Compiled phrases wait in a bounded queue holding at most a fixed number of phrases,
+ * the look-ahead. When the queue is full the compiling thread blocks until playback
+ * takes a phrase, so the pipeline never holds more than that many compiled phrases
+ * however long the composition is.
+ */
+public class CompilePipeline {
+
+    /** The number of phrases compiled ahead by default, set with -Dcomposer.lookahead */
+    public static final int DEFAULT_LOOKAHEAD = Math.max(1, Integer.getInteger("composer.lookahead", 4));
+
+    /** Marks the end of the snapshot in the queue */
+    private static final CompiledPhrase END = new CompiledPhrase(PhraseDictionary.NO_PHRASE, null);
+
+    /** The phrases to compile */
+    private final PlaybackSnapshot source;
+    /** Source of compiled phrase fragments */
+    private final PhraseCache cache;
+    /** Compiled phrases waiting to be played */
+    private final BlockingQueue<CompiledPhrase> queue;
+    /** The largest number of compiled phrases waiting to be played */
+    private final int lookahead;
+    /** The compiling thread, once started */
+    private Thread compiler;
+    /** Set when the pipeline is closed before the end */
+    private volatile boolean closed;
+    /** The error that stopped the compiling thread, or null */
+    private volatile RuntimeException failure;
+    /** Number of times playback had to wait for a phrase to be compiled */
+    private int stalls;
+
+    /**
+     * Constructor to initialize a pipeline with the default look-ahead that compiles
+     * through the shared phrase cache.
+     *
+     * @param source The phrases to compile, in playing order.
+     */
+    public CompilePipeline(PlaybackSnapshot source) {
+        this(source, PhraseCache.getShared(), DEFAULT_LOOKAHEAD);
+    }
+
+    /**
+     * Constructor to initialize a pipeline.
+     *
+     * @param source The phrases to compile, in playing order.
+     * @param cache The compiled-phrase cache.
+     * @param lookahead The largest number of compiled phrases waiting to be played, at least 1.
+     */
+    public CompilePipeline(PlaybackSnapshot source, PhraseCache cache, int lookahead) {
+        this.source = source;
+        this.cache = cache;
+        this.lookahead = Math.max(1, lookahead);
+        this.queue = new ArrayBlockingQueue<>(this.lookahead);
+    }
+
+    /**
+     * Starts compiling on a background thread. Starting twice does nothing.
+     */
+    public synchronized void start() {
+        if (compiler == null)
+            compiler = ThreadSupport.start("phrase-compiler", this::compileAll);
+    }
+
+    /**
+     * Returns the next compiled phrase, waiting for it to be compiled if it is not
+     * ready yet. The pipeline is started if needed.
+     *
+     * @return The next phrase, or null at the end of the snapshot or once closed.
+     * @throws InterruptedException If the wait is interrupted.
+     * @throws RuntimeException If compiling a phrase failed; it is the compiler's error.
+     */
+    public CompiledPhrase take() throws InterruptedException {
+        start();
+        if (closed)
+            return null;
+        CompiledPhrase phrase = queue.poll();
+        if (phrase == null) {
+            stalls++;
+            phrase = queue.take();
+        }
+        if (phrase == END) {
+            // Leave the marker for any later call.
+            queue.offer(END);
+            if (failure != null)
+                throw failure;
+            return null;
+        }
+        return closed ? null : phrase;
+    }
+
+    /**
+     * Stops compiling and drops the phrases that were compiled but not played.
+     */
+    public void close() {
+        closed = true;
+        Thread started;
+        synchronized (this) {
+            started = compiler;
+        }
+        if (started != null)
+            started.interrupt();
+        queue.clear();
+        queue.offer(END);
+    }
+
+    /**
+     * Returns how many times playback had to wait for a phrase that was not compiled
+     * yet. The first phrase is counted unless it was compiled before the first take.
+     *
+     * @return The number of stalls.
+     */
+    public int getStalls() {
+        return stalls;
+    }
+
+    /**
+     * Returns the largest number of compiled phrases that wait to be played.
+     *
+     * @return The look-ahead.
+     */
+    public int getLookahead() {
+        return lookahead;
+    }
+
+    /**
+     * Compiles every phrase of the snapshot in order, blocking while the queue is full.
+     */
+    private void compileAll() {
+        try {
+            while (!closed && source.hasNext()) {
+                int phraseId = source.nextPhraseId();
+                queue.put(new CompiledPhrase(phraseId, cache.get(phraseId)));
+            }
+        } catch (InterruptedException e) {
+            // Closed.
+        } catch (RuntimeException e) {
+            failure = e;
+        } finally {
+            if (!closed) {
+                try {
+                    queue.put(END);
+                } catch (InterruptedException e) {
+                    // Closed while waiting for room.
+                }
+            }
+        }
+    }
+
+    /**
+     * The CompiledPhrase class pairs a phrase id with its compiled sequence.
+     */
+    public static class CompiledPhrase {
+
+        /** The dictionary id of the phrase */
+        private final int phraseId;
+        /** The compiled sequence, shared with the cache */
+        private final Sequence sequence;
+
+        /**
+         * Constructor to initialize a compiled phrase.
+         *
+         * @param phraseId The dictionary id of the phrase.
+         * @param sequence The compiled sequence.
+         */
+        CompiledPhrase(int phraseId, Sequence sequence) {
+            this.phraseId = phraseId;
+            this.sequence = sequence;
+        }
+
+        /**
+         * Returns the dictionary id of the phrase.
+         *
+         * @return The phrase id.
+         */
+        public int getPhraseId() {
+            return phraseId;
+        }
+
+        /**
+         * Returns the compiled sequence. It is shared and must not be modified.
+         *
+         * @return The sequence.
+         */
+        public Sequence getSequence() {
+            return sequence;
+        }
+    }
+}
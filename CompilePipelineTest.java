@@ -0,0 +1,107 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Sequence;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for CompilePipeline.
+ * It uses a cache whose compiler counts the phrases it has compiled.
+ */
+public class CompilePipelineTest {
+
+    /** Number of phrases compiled so far */
+    private final AtomicInteger compiled = new AtomicInteger();
+
+    /**
+     * Creates a cache that compiles every phrase to an empty sequence and counts it.
+     */
+    private PhraseCache countingCache() {
+        return new PhraseCache(64, phrase -> {
+            compiled.incrementAndGet();
+            try {
+                return new Sequence(Sequence.PPQ, 128);
+            } catch (InvalidMidiDataException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * Creates a snapshot of distinct phrases so that every one has to be compiled.
+     */
+    private static PlaybackSnapshot phrases(int count) {
+        String[] phrases = new String[count];
+        for (int i = 0; i < count; i++)
+            phrases[i] = "P" + i;
+        return PlaybackSnapshot.copyOf(new DoublyLinkedList(phrases).getHead());
+    }
+
+    /**
+     * Waits until the compiling thread has had time to fill the queue.
+     */
+    private void awaitCompiled(int count) throws InterruptedException {
+        for (int i = 0; i < 200 && compiled.get() < count; i++)
+            Thread.sleep(5);
+        Thread.sleep(20);
+    }
+
+    /**
+     * Tests that phrases come out in order and that the end is reported.
+     */
+    @Test
+    public void testPhrasesInOrder() throws InterruptedException {
+        CompilePipeline pipeline = new CompilePipeline(phrases(10), countingCache(), 3);
+        for (int i = 0; i < 10; i++)
+            assertEquals("P" + i, PhraseDictionary.getShared().phrase(pipeline.take().getPhraseId()));
+        assertNull(pipeline.take());
+        assertNull(pipeline.take());
+        assertEquals(10, compiled.get());
+    }
+
+    /**
+     * Tests that the compiling thread stops when the look-ahead is full and goes on
+     * when a phrase is taken.
+     */
+    @Test
+    public void testBackpressure() throws InterruptedException {
+        CompilePipeline pipeline = new CompilePipeline(phrases(20), countingCache(), 3);
+        pipeline.start();
+        awaitCompiled(3);
+        // Three phrases wait in the queue and one is compiled, blocked on putting it.
+        assertEquals(4, compiled.get());
+        pipeline.take();
+        awaitCompiled(5);
+        assertEquals(5, compiled.get());
+        pipeline.close();
+    }
+
+    /**
+     * Tests that closing stops compiling and ends the phrases.
+     */
+    @Test
+    public void testClose() throws InterruptedException {
+        CompilePipeline pipeline = new CompilePipeline(phrases(20), countingCache(), 2);
+        assertNotNull(pipeline.take());
+        pipeline.close();
+        assertNull(pipeline.take());
+        Thread.sleep(50);
+        assertTrue(compiled.get() < 20);
+    }
+
+    /**
+     * Tests that a compile error reaches the caller at the phrase that failed.
+     */
+    @Test
+    public void testFailure() throws InterruptedException {
+        PhraseCache failing = new PhraseCache(8, phrase -> {
+            throw new IllegalArgumentException("bad phrase " + phrase);
+        });
+        CompilePipeline pipeline = new CompilePipeline(phrases(3), failing, 2);
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, pipeline::take);
+        assertEquals("bad phrase P0", e.getMessage());
+    }
+}
@@ -1,3 +1,13 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Scanner;
 
 /**
@@ -7,30 +17,58 @@ import java.util.Scanner;
 public class Composer {
 
     /** Stores the musical phrases */
-    private DoublyLinkedList composition;
+    private Composition composition;
+    /** How the composition is stored */
+    private final StorageEngine engine;
     /** Scanner for user input */
     private Scanner scanner;
+    /** Shows a window of phrases around the current one */
+    private CompositionView view;
+    /** Playback running in the background, or null */
+    private BackgroundPlayback background;
 
     /**
      * Constructor initializes the composition with a sample melody and sets up input handling.
      */
     public Composer() {
+        this(StorageEngine.LINKED_LIST);
+    }
+
+    /**
+     * Constructor initializes the composition with a sample melody stored in the given
+     * storage engine and sets up input handling.
+     *
+     * @param engine The storage engine for the composition.
+     */
+    public Composer(StorageEngine engine) {
         String[] melody = {
                 "C", "C", "G", "G",
                 "A", "A", "G",
                 "F", "F", "E", "E",
                 "D", "D", "C"
         };
-        composition = new DoublyLinkedList(melody);
+        this.engine = engine;
+        composition = engine.create(melody);
         scanner = new Scanner(System.in);
+        view = new CompositionView();
+    }
+
+    /**
+     * Sets how many phrases are shown on each side of the current phrase.
+     *
+     * @param radius The number of phrases on each side.
+     */
+    public void setWindowRadius(int radius) {
+        view.setRadius(radius);
     }
 
     /**
      * Runs the interactive menu loop, allowing the user to modify and play the composition.
      */
     public void run() {
+        PlaybackEngine.getShared().open();
         while (true) {
-            System.out.println("\n1. Add phrase\n2. Remove phrase \n3. Repeat phrase\n4. Navigate\n5. Change position\n6. Playback\n7. Exit");
+            System.out.println("\n1. Add phrase\n2. Remove phrase \n3. Repeat phrase\n4. Navigate\n5. Change position\n6. Playback\n7. Export to MIDI file\n8. Save composition\n9. Load composition\n10. Import phrases from text file\n11. Markers\n12. Find motif\n13. Exit");
             System.out.print("Enter choice: ");
             int choice = scanner.nextInt();
             scanner.nextLine();
@@ -46,8 +84,26 @@ public class Composer {
                 changePosition();
             else if (choice == 6)
                 playback();
-            else if (choice == 7) {
+            else if (choice == 7)
+                exportMidi();
+            else if (choice == 8)
+                saveComposition();
+            else if (choice == 9)
+                loadComposition();
+            else if (choice == 10)
+                importPhrases();
+            else if (choice == 11)
+                markers();
+            else if (choice == 12)
+                findMotif();
+            else if (choice == 13) {
                 System.out.println("Exiting.");
+                if (Metrics.ENABLED)
+                    System.out.print(Metrics.getShared().dump());
+                if (background != null)
+                    background.stop();
+                closeComposition();
+                PlaybackEngine.getShared().close();
                 return;
             }
             else
@@ -72,8 +128,7 @@ public class Composer {
         System.out.print("Enter a musical phrase: ");
         String phrase = scanner.nextLine();
         System.out.println("Where would you like to add the phrase?");
-        composition.showAllPhrases();
-        showCurrent();
+        view.show(composition);
         System.out.println("1. At the end\n2. At the beginning\n3. At current location\n4. At specific index");
         System.out.print("Enter choice: ");
         int choice = scanner.nextInt();
@@ -90,7 +145,7 @@ public class Composer {
         }
         else
             System.out.println("Invalid choice.");
-        composition.showAllPhrases();
+        view.show(composition);
     }
 
     /**
@@ -98,8 +153,7 @@ public class Composer {
      */
     private void removePhrase() {
         System.out.println("Where would you like to remove the phrase?");
-        composition.showAllPhrases();
-        showCurrent();
+        view.show(composition);
         System.out.println("1. Remove current phrase\n2. Remove phrase at specific index");
         System.out.print("Enter choice: ");
         int choice = scanner.nextInt();
@@ -113,7 +167,7 @@ public class Composer {
         else
             System.out.println("Invalid choice.");
 
-        composition.showAllPhrases();
+        view.show(composition);
     }
 
 
@@ -121,19 +175,18 @@ public class Composer {
      * Allows the user to copy a phrase from a given index and append it to the end.
      */
     private void repeatPhrase() {
-        composition.showAllPhrases();
-        System.out.print("\nEnter the index of the phrase to copy: ");
+        view.show(composition);
+        System.out.print("Enter the index of the phrase to copy: ");
         int index = scanner.nextInt();
         composition.repeatPhraseToEnd(index);
-        composition.showAllPhrases();
+        view.show(composition);
     }
 
     /**
      * Allows the user to navigate through the composition by moving forward or backward.
      */
     private void navigate() {
-        composition.showAllPhrases();
-        showCurrent();
+        view.show(composition);
         System.out.println("1. Move forward\n2. Move backward");
         System.out.print("Enter choice: ");
         int choice = scanner.nextInt();
@@ -153,43 +206,394 @@ public class Composer {
      * Allows the user to change the position of a phrase within the composition.
      */
     private void changePosition() {
-        composition.showAllPhrases();
-        System.out.print("\nEnter the index of the phrase to change: ");
+        view.show(composition);
+        System.out.print("Enter the index of the phrase to change: ");
         int index = scanner.nextInt();
         System.out.print("Enter the new index position: ");
         int newIndex = scanner.nextInt();
         composition.move(index, newIndex);
-        composition.showAllPhrases();
+        view.show(composition);
     }
 
     /**
-     * Provides playback options for the user to listen to the composition.
+     * Provides playback options for the user to listen to the composition. Whole
+     * compositions play in the background, so editing can continue while they play.
      */
     private void playback() {
-        composition.showAllPhrases();
-        showCurrent();
-        System.out.println("1. Play entire composition\n2. Play from current\n3. Play single phrase");
+        view.show(composition);
+        System.out.println("1. Play entire composition\n2. Play from current\n3. Play single phrase"
+                + "\n4. Play entire composition without gaps\n5. Play from current without gaps"
+                + "\n6. Pause or resume playback\n7. Stop playback");
         System.out.print("Enter choice: ");
         int choice = scanner.nextInt();
         if (choice == 1)
-            composition.playComposition();
+            playInBackground(composition.snapshot(), false, "No phrases to play.");
         else if (choice == 2)
-            composition.playFromCurrent();
+            playInBackground(composition.snapshotFromCurrent(), false, "No current phrase to play from.");
         else if (choice == 3) {
             System.out.print("Enter index: ");
             int index = scanner.nextInt();
             scanner.nextLine();
             composition.playSinglePhrase(index);
+            double timeToFirstNote = PlaybackEngine.getShared().getTimeToFirstNoteMillis();
+            if (timeToFirstNote >= 0)
+                System.out.printf("Time to first note: %.1f ms%n", timeToFirstNote);
         }
+        else if (choice == 4)
+            playInBackground(composition.snapshot(), true, "No phrases to play.");
+        else if (choice == 5)
+            playInBackground(composition.snapshotFromCurrent(), true, "No current phrase to play from.");
+        else if (choice == 6)
+            togglePause();
+        else if (choice == 7)
+            stopPlayback();
         else
             System.out.println("Invalid choice.");
     }
 
     /**
-     * Main method to initialize and run the composer application.
+     * Starts playing a snapshot in the background, stopping any earlier playback.
+     *
+     * @param snapshot The phrases to play.
+     * @param gapless Whether to play the phrases as one continuous sequence.
+     * @param emptyMessage The message to show if there is nothing to play.
+     */
+    private void playInBackground(PlaybackSnapshot snapshot, boolean gapless, String emptyMessage) {
+        if (!snapshot.hasNext()) {
+            System.out.println(emptyMessage);
+            return;
+        }
+        if (background != null)
+            background.stop();
+        background = new BackgroundPlayback(snapshot, gapless);
+        background.start();
+        System.out.println("Playing in the background. You can keep editing.");
+    }
+
+    /**
+     * Pauses background playback, or resumes it if it is paused.
+     */
+    private void togglePause() {
+        if (background == null || background.isFinished()) {
+            System.out.println("Nothing is playing.");
+        } else if (background.isPaused()) {
+            background.resume();
+            System.out.println("Playback resumed.");
+        } else {
+            background.pause();
+            System.out.println("Playback paused.");
+        }
+    }
+
+    /**
+     * Stops background playback.
+     */
+    private void stopPlayback() {
+        if (background == null || background.isFinished()) {
+            System.out.println("Nothing is playing.");
+            return;
+        }
+        background.stop();
+        background = null;
+        System.out.println("Playback stopped.");
+    }
+
+    /**
+     * Lets the user name positions in the composition and jump, play or move by name.
+     */
+    private void markers() {
+        view.show(composition);
+        System.out.println("Markers: " + (composition.getMarkerNames().isEmpty() ? "None" : String.join(", ", composition.getMarkerNames())));
+        System.out.println("1. Mark current phrase\n2. Jump to marker\n3. Play from marker"
+                + "\n4. Move marked phrase before another marker\n5. Move marked range before another marker"
+                + "\n6. Remove marker");
+        System.out.print("Enter choice: ");
+        int choice = scanner.nextInt();
+        scanner.nextLine();
+        if (choice == 1)
+            composition.setMarker(askName("Enter marker name: "));
+        else if (choice == 2)
+            composition.jumpToMarker(askName("Enter marker name: "));
+        else if (choice == 3)
+            composition.playFromMarker(askName("Enter marker name: "));
+        else if (choice == 4)
+            composition.moveToMarker(askName("Enter the marker of the phrase to move: "), askName("Enter the marker to move it before: "));
+        else if (choice == 5)
+            composition.moveRangeToMarker(askName("Enter the marker of the first phrase to move: "),
+                    askName("Enter the marker of the last phrase to move: "), askName("Enter the marker to move them before: "));
+        else if (choice == 6)
+            composition.removeMarker(askName("Enter marker name: "));
+        else
+            System.out.println("Invalid choice.");
+        view.show(composition);
+    }
+
+    /**
+     * Asks for a motif, phrases separated by |, and lists the index of every
+     * occurrence. The first occurrence becomes current.
+     */
+    private void findMotif() {
+        System.out.print("Enter the motif, phrases separated by |: ");
+        String[] motif = scanner.nextLine().trim().split("\\s*\\|\\s*");
+        int[] found = composition.findMotif(motif);
+        if (found.length == 0) {
+            System.out.println("Motif not found.");
+            return;
+        }
+        StringBuilder text = new StringBuilder("Found at:");
+        for (int index : found)
+            text.append(' ').append(index);
+        System.out.println(text);
+        composition.setCurrent(found[0]);
+        view.show(composition);
+    }
+
+    /**
+     * Prompts for a marker name.
+     *
+     * @param prompt The prompt to show.
+     * @return The name entered, without surrounding spaces.
+     */
+    private String askName(String prompt) {
+        System.out.print(prompt);
+        return scanner.nextLine().trim();
+    }
+
+    /**
+     * Asks for a file name and exports the composition as a MIDI file.
+     */
+    private void exportMidi() {
+        System.out.print("Enter the MIDI file name: ");
+        String fileName = scanner.nextLine().trim();
+        composition.exportToMidi(fileName);
+    }
+
+    /**
+     * Asks for a file name and saves the composition to it.
+     */
+    private void saveComposition() {
+        System.out.print("Enter the file name: ");
+        String fileName = scanner.nextLine().trim();
+        composition.save(fileName);
+    }
+
+    /**
+     * Asks for a file name and replaces the composition with the one saved in it.
      */
-    public static void main(String[] args) {
-        Composer composer = new Composer();
-        composer.run();
+    private void loadComposition() {
+        System.out.print("Enter the file name: ");
+        String fileName = scanner.nextLine().trim();
+        if (open(fileName))
+            view.show(composition);
+    }
+
+    /**
+     * Asks for a text file with one phrase per line and appends its phrases to the
+     * composition as they are read, reporting progress and peak memory.
+     */
+    private void importPhrases() {
+        System.out.print("Enter the file name: ");
+        String fileName = scanner.nextLine().trim();
+        PhraseImporter importer = new PhraseImporter(composition);
+        importer.setProgressListener((phrases, characters) ->
+                System.out.println("Imported " + phrases + " phrases..."), PhraseImporter.DEFAULT_PROGRESS_INTERVAL);
+        try {
+            importer.importFile(Paths.get(fileName));
+        } catch (IOException e) {
+            System.out.println("Could not import: " + e.getMessage());
+        }
+        System.out.printf("Imported %d phrases in %.0f ms, peak heap %d MB%n", importer.getPhraseCount(),
+                importer.getElapsedMillis(), Math.max(0, importer.getPeakHeapBytes()) >> 20);
+        view.show(composition);
+    }
+
+    /**
+     * Replaces the composition with one loaded from a composition file, stored in this
+     * composer's storage engine.
+     *
+     * @param fileName The name of the file to load.
+     * @return True if the composition was loaded.
+     */
+    public boolean open(String fileName) {
+        Composition loaded = null;
+        try {
+            if (engine == StorageEngine.LINKED_LIST) {
+                loaded = CompositionFile.load(Paths.get(fileName));
+            } else {
+                loaded = engine.create(new String[0]);
+                CompositionFile.load(Paths.get(fileName), loaded);
+            }
+        } catch (IOException e) {
+            System.out.println("Could not load: " + e.getMessage());
+            close(loaded);
+            return false;
+        }
+        replaceComposition(loaded);
+        return true;
+    }
+
+    /**
+     * Replaces the composition with a memory-mapped store, which is created if the
+     * file does not exist. Edits are written to the file as they are made, and the
+     * store is closed when it is replaced or the composer exits.
+     *
+     * @param fileName The name of the store file.
+     * @return True if the store was opened.
+     */
+    public boolean openStore(String fileName) {
+        try {
+            replaceComposition(new MappedComposition(Paths.get(fileName)));
+        } catch (IOException e) {
+            System.out.println("Could not open store: " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Closes the composition if it holds resources, such as a memory-mapped store.
+     * The composer must not be used afterwards.
+     */
+    public void closeComposition() {
+        close(composition);
+    }
+
+    /**
+     * Closes a composition if it holds resources.
+     *
+     * @param closed The composition, may be null.
+     */
+    private static void close(Composition closed) {
+        if (closed instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) closed).close();
+            } catch (Exception e) {
+                System.out.println("Could not close the composition: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Closes the composition and replaces it with another.
+     *
+     * @param next The new composition.
+     */
+    private void replaceComposition(Composition next) {
+        closeComposition();
+        composition = next;
+    }
+
+    /**
+     * Runs a command script without prompts or automatic listings. Output is only
+     * written for commands that ask for it, and it is buffered and flushed at the end.
+     * See CommandInterpreter for the commands.
+     *
+     * @param input The command script.
+     * @param output Where requested output goes.
+     * @return The number of lines read.
+     * @throws IOException If reading or writing fails.
+     */
+    public int runBatch(Reader input, Writer output) throws IOException {
+        BufferedReader in = new BufferedReader(input, 1 << 16);
+        BufferedWriter out = new BufferedWriter(output, 1 << 16);
+        int lines = new CommandInterpreter(composition, out).run(in);
+        out.flush();
+        return lines;
+    }
+
+    /**
+     * Main method to initialize and run the composer application. Arguments:
+     * an optional storage engine name (linked_list, indexed, gap_buffer or mapped),
+     * --window N to show N phrases on each side of the current phrase,
+     * --open FILE to start from a saved composition instead of the sample melody,
+     * --store FILE to edit a memory-mapped store in place (see MappedComposition), and
+     * --batch [script] to run a command script, or standard input, without prompts,
+     * and --serve [PORT] to serve sessions to local clients instead (see
+     * CompositionServer). With -Dcomposer.metrics=true, metrics are registered over JMX, and
+     * -Dcomposer.metrics.dump=SECONDS also prints them periodically.
+     */
+    public static void main(String[] args) throws IOException {
+        StorageEngine engine = StorageEngine.LINKED_LIST;
+        boolean batch = false;
+        String script = null;
+        int window = CompositionView.DEFAULT_RADIUS;
+        String open = null;
+        String store = null;
+        int serve = -1;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--serve")) {
+                serve = 0;
+                if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                    try {
+                        serve = Integer.parseInt(args[++i]);
+                    } catch (NumberFormatException e) {
+                        System.out.println("Invalid port: " + args[i] + ". Using any free port.");
+                    }
+                }
+                continue;
+            }
+            if (args[i].equals("--batch")) {
+                batch = true;
+                if (i + 1 < args.length && !args[i + 1].startsWith("--"))
+                    script = args[++i];
+                continue;
+            }
+            if (args[i].equals("--open") && i + 1 < args.length) {
+                open = args[++i];
+                continue;
+            }
+            if (args[i].equals("--store") && i + 1 < args.length) {
+                store = args[++i];
+                continue;
+            }
+            if (args[i].equals("--window") && i + 1 < args.length) {
+                try {
+                    window = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Invalid window size: " + args[i] + ". Using " + window + ".");
+                }
+                continue;
+            }
+            try {
+                engine = StorageEngine.valueOf(args[i].trim().toUpperCase().replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                System.out.println("Unknown storage engine: " + args[i] + ". Using " + engine + ".");
+            }
+        }
+        if (Metrics.ENABLED) {
+            Metrics.getShared().register();
+            long period = Long.getLong("composer.metrics.dump", 0);
+            if (period > 0)
+                Metrics.getShared().startDumping(period, System.out);
+        }
+        if (serve >= 0) {
+            CompositionServer server = new CompositionServer(engine);
+            System.out.println("Serving compositions on localhost port " + server.start(serve));
+            try {
+                server.join();
+            } catch (InterruptedException e) {
+                server.stop();
+            }
+            return;
+        }
+        Composer composer = new Composer(engine);
+        composer.setWindowRadius(window);
+        if (open != null)
+            composer.open(open);
+        if (store != null)
+            composer.openStore(store);
+        if (!batch) {
+            composer.run();
+            return;
+        }
+        Reader input = script == null
+                ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+                : Files.newBufferedReader(Paths.get(script), StandardCharsets.UTF_8);
+        try (Reader in = input) {
+            composer.runBatch(in, new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        } finally {
+            composer.closeComposition();
+        }
+        PlaybackEngine.getShared().close();
     }
 }
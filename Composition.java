@@ -0,0 +1,483 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * The Composition interface describes the operations shared by every storage engine
+ * that can hold and edit a sequence of musical phrases with a current cursor.
+ *
+ * Only a DoublyLinkedList hands out its own nodes. The other engines do not store a
+ * node per phrase, so getHead, getTail, getCurrent and getNode return transient views:
+ * a new object on every call, valid only until the next edit that adds, removes or
+ * moves a phrase. Their phrase can be read and set and they can be walked with getNext
+ * and getPrev, but setNext and setPrev throw an UnsupportedOperationException. Take a
+ * node again after editing instead of keeping one.
+ */
+public interface Composition {
+
+    /**
+     * Returns the current node in the composition.
+     *
+     * @return The current node.
+     */
+    Node getCurrent();
+
+    /**
+     * Returns the index of the current node.
+     *
+     * @return The index of the current node, or -1 if there is none.
+     */
+    int getCurrentIndex();
+
+    /**
+     * Returns the number of phrases in the composition.
+     *
+     * @return The number of phrases.
+     */
+    int size();
+
+    /**
+     * Returns an estimate of the heap memory held by the composition: its nodes or
+     * slots and the indexes and caches it has built. The shared phrase dictionary and
+     * memory outside the heap, such as a mapped file, are not counted.
+     *
+     * @return The estimate in bytes.
+     */
+    long getEstimatedBytes();
+
+    /**
+     * Sets the current node to a specified index.
+     *
+     * @param index The index to set as the current node.
+     */
+    void setCurrent(int index);
+
+    /**
+     * Returns the node at a specified index. Depending on the engine this is the
+     * stored node or a transient view of the position; see the class comment.
+     *
+     * @param index The index of the node.
+     * @return The node at that index, or null if the index is out of range.
+     */
+    Node getNode(int index);
+
+    /**
+     * Returns the head node of the composition.
+     *
+     * @return The first node (head).
+     */
+    Node getHead();
+
+    /**
+     * Returns the tail node of the composition.
+     *
+     * @return The last node (tail).
+     */
+    Node getTail();
+
+    /**
+     * Moves the current pointer one step forward.
+     */
+    void moveForward();
+
+    /**
+     * Moves the current pointer one step backward.
+     */
+    void moveBackward();
+
+    /**
+     * Adds a new phrase to the end of the composition.
+     *
+     * @param phrase The musical phrase to be added.
+     */
+    void addAtEnd(String phrase);
+
+    /**
+     * Adds a new phrase to the beginning of the composition.
+     *
+     * @param phrase The musical phrase to be added.
+     */
+    void addAtBeginning(String phrase);
+
+    /**
+     * Adds a new phrase before the current node.
+     *
+     * @param phrase The musical phrase to be added.
+     */
+    void addAtCurrent(String phrase);
+
+    /**
+     * Adds a phrase at a specific index.
+     *
+     * @param phrase The musical phrase to be added.
+     * @param index The index at which to insert the phrase.
+     */
+    void add(String phrase, int index);
+
+    /**
+     * Copies a phrase at a given index and adds it to the end of the composition.
+     *
+     * @param index The index of the phrase to copy.
+     */
+    void repeatPhraseToEnd(int index);
+
+    /**
+     * Copies a phrase at a given index and adds it to the end of the composition a
+     * number of times. The last copy becomes current.
+     *
+     * @param index The index of the phrase to copy.
+     * @param times How many copies to add.
+     */
+    default void repeatPhraseToEnd(int index, int times) {
+        if (times < 1 || getNode(index) == null) {
+            System.out.println("Invalid index. No phrase copied.");
+            return;
+        }
+        for (int t = 0; t < times; t++)
+            repeatPhraseToEnd(index);
+    }
+
+    /**
+     * Removes the current node from the composition.
+     *
+     * @return The removed node.
+     */
+    Node removeCurrent();
+
+    /**
+     * Removes a phrase at a specific index.
+     *
+     * @param index The index of the phrase to remove.
+     * @return The removed node.
+     */
+    Node remove(int index);
+
+    /**
+     * Moves a phrase from one index to another.
+     *
+     * @param currentIndex The current index of the phrase.
+     * @param newIndex The new index where the phrase should be moved.
+     */
+    void move(int currentIndex, int newIndex);
+
+    /**
+     * Adds every phrase of an array to the end of the composition, in order.
+     *
+     * @param phrases The phrases to add.
+     */
+    default void addAll(String[] phrases) {
+        for (String phrase : phrases)
+            addAtEnd(phrase);
+    }
+
+    /**
+     * Inserts every phrase of an array, in order, starting at a specific index. The
+     * last inserted phrase becomes current.
+     *
+     * @param phrases The phrases to add.
+     * @param index The index at which the first phrase is inserted.
+     */
+    default void addAll(String[] phrases, int index) {
+        if (index < 0 || (index > 0 && getNode(index - 1) == null)) {
+            System.out.println("Invalid index. No phrases added.");
+            return;
+        }
+        for (int i = 0; i < phrases.length; i++)
+            add(phrases[i], index + i);
+    }
+
+    /**
+     * Removes the phrases from one index up to, but not including, another. The
+     * phrase after the range becomes current, or the new last phrase if the range
+     * reached the end.
+     *
+     * @param from The index of the first phrase to remove.
+     * @param to The index after the last phrase to remove.
+     * @return The number of phrases removed.
+     */
+    default int removeRange(int from, int to) {
+        if (from < 0 || from > to || (to > from && getNode(to - 1) == null)) {
+            System.out.println("Invalid range. No phrases removed.");
+            return 0;
+        }
+        for (int i = from; i < to; i++)
+            remove(from);
+        return to - from;
+    }
+
+    /**
+     * Copies the phrases from one index up to, but not including, another and
+     * inserts the copies a number of times at a specific index. The last inserted
+     * phrase becomes current.
+     *
+     * @param from The index of the first phrase to copy.
+     * @param to The index after the last phrase to copy.
+     * @param times How many copies of the range to insert.
+     * @param index The index, in the list before inserting, at which the copies go.
+     */
+    default void repeatRange(int from, int to, int times, int index) {
+        if (from < 0 || from >= to || times < 1 || getNode(to - 1) == null
+                || index < 0 || (index > 0 && getNode(index - 1) == null)) {
+            System.out.println("Invalid range. No phrases repeated.");
+            return;
+        }
+        String[] section = new String[to - from];
+        Node ptr = getNode(from);
+        for (int i = 0; i < section.length; i++, ptr = ptr.getNext())
+            section[i] = ptr.getPhrase();
+        for (int t = 0; t < times; t++)
+            addAll(section, index + t * section.length);
+    }
+
+    /**
+     * Finds the index of every occurrence of a motif, a sequence of phrases, in one
+     * O(n + m) pass. Occurrences may overlap.
+     *
+     * @param motif The phrases of the motif, in order.
+     * @return The index of the first phrase of each occurrence, in increasing order.
+     */
+    default int[] findMotif(String... motif) {
+        return MotifIndex.scan(getHead(), MotifIndex.toIds(motif));
+    }
+
+    /**
+     * Takes a snapshot of the whole composition that another thread can play while
+     * this one keeps editing. This default copies the phrase ids; engines that can
+     * share their storage override it with an O(1) copy-on-write snapshot.
+     *
+     * @return The snapshot.
+     */
+    default PlaybackSnapshot snapshot() {
+        return PlaybackSnapshot.copyOf(getHead());
+    }
+
+    /**
+     * Takes a snapshot of the composition from the current node onward that another
+     * thread can play while this one keeps editing.
+     *
+     * @return The snapshot.
+     */
+    default PlaybackSnapshot snapshotFromCurrent() {
+        return PlaybackSnapshot.copyOf(getCurrent());
+    }
+
+    /**
+     * Plays the entire composition from the beginning.
+     */
+    default void playComposition() {
+        if (getHead() == null) {
+            System.out.println("No phrases to play.");
+            return;
+        }
+        playFrom(getHead());
+    }
+
+    /**
+     * Plays the composition from the current node onward.
+     */
+    default void playFromCurrent() {
+        if (getCurrent() == null) {
+            System.out.println("No current phrase to play from.");
+            return;
+        }
+        playFrom(getCurrent());
+    }
+
+    /**
+     * Plays the entire composition as one continuous sequence, without gaps between
+     * phrases.
+     */
+    default void playCompositionGapless() {
+        if (getHead() == null) {
+            System.out.println("No phrases to play.");
+            return;
+        }
+        playGapless(getHead());
+    }
+
+    /**
+     * Plays the composition from the current node onward as one continuous sequence,
+     * without gaps between phrases.
+     */
+    default void playFromCurrentGapless() {
+        if (getCurrent() == null) {
+            System.out.println("No current phrase to play from.");
+            return;
+        }
+        playGapless(getCurrent());
+    }
+
+    /**
+     * Plays every phrase from a node to the end, one phrase at a time. A compile
+     * pipeline prepares the next phrases on a background thread while each phrase
+     * plays, so compile time is hidden behind the music.
+     *
+     * @param start The first node to play.
+     */
+    default void playFrom(Node start) {
+        PlaybackEngine engine = PlaybackEngine.getShared();
+        CompilePipeline pipeline = new CompilePipeline(new PlaybackSnapshot(start));
+        try {
+            boolean first = true;
+            CompilePipeline.CompiledPhrase phrase;
+            while ((phrase = pipeline.take()) != null) {
+                if (first)
+                    engine.play(phrase.getSequence());
+                else
+                    engine.playNext(phrase.getSequence());
+                first = false;
+                System.out.println("Playing: " + PhraseDictionary.getShared().phrase(phrase.getPhraseId()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    /**
+     * Plays a single phrase at a given index.
+     *
+     * @param index The index of the phrase to play.
+     */
+    default void playSinglePhrase(int index) {
+        Node node = getNode(index);
+        if (node == null) {
+            System.out.println("Invalid index. No phrase played.");
+            return;
+        }
+        PlaybackEngine.getShared().play(PhraseCache.getShared().get(node.getPhraseId()));
+        System.out.println("Playing: " + node.getPhrase());
+    }
+
+    /**
+     * Writes the composition to a Standard MIDI File, one phrase at a time.
+     *
+     * @param fileName The name of the file to write.
+     */
+    default void exportToMidi(String fileName) {
+        if (getHead() == null) {
+            System.out.println("No phrases to export.");
+            return;
+        }
+        try {
+            int count = new MidiExporter(PhraseCache.getShared()).export(getHead(), Paths.get(fileName));
+            System.out.println("Exported " + count + " phrases to " + fileName);
+        } catch (IOException e) {
+            System.out.println("Could not export: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Puts a named marker on the current node. Markers follow their node through
+     * edits and moves. This default reports that markers are not supported.
+     *
+     * @param name The marker name.
+     */
+    default void setMarker(String name) {
+        System.out.println("Markers are not supported by this storage engine.");
+    }
+
+    /**
+     * Removes a named marker.
+     *
+     * @param name The marker name.
+     */
+    default void removeMarker(String name) {
+        System.out.println("Markers are not supported by this storage engine.");
+    }
+
+    /**
+     * Returns the names of all markers, in alphabetical order.
+     *
+     * @return The marker names.
+     */
+    default Set<String> getMarkerNames() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Returns the node a marker is on.
+     *
+     * @param name The marker name.
+     * @return The marked node, or null if there is no such marker.
+     */
+    default Node getMarker(String name) {
+        return null;
+    }
+
+    /**
+     * Makes the marked node current.
+     *
+     * @param name The marker name.
+     */
+    default void jumpToMarker(String name) {
+        System.out.println("Markers are not supported by this storage engine.");
+    }
+
+    /**
+     * Plays the composition from a marked node onward.
+     *
+     * @param name The marker name.
+     */
+    default void playFromMarker(String name) {
+        System.out.println("Markers are not supported by this storage engine.");
+    }
+
+    /**
+     * Moves the marked node so that it comes just before another marked node.
+     *
+     * @param source The marker on the node to move.
+     * @param target The marker on the node it should come before.
+     */
+    default void moveToMarker(String source, String target) {
+        System.out.println("Markers are not supported by this storage engine.");
+    }
+
+    /**
+     * Moves the nodes from one marked node through another so that they come just
+     * before a third marked node.
+     *
+     * @param from The marker on the first node to move.
+     * @param to The marker on the last node to move.
+     * @param target The marker on the node the range should come before.
+     */
+    default void moveRangeToMarker(String from, String to, String target) {
+        System.out.println("Markers are not supported by this storage engine.");
+    }
+
+    /**
+     * Saves the composition, including its current position, to a composition file.
+     *
+     * @param fileName The name of the file to write.
+     */
+    default void save(String fileName) {
+        try {
+            int count = new CompositionFile().save(this, Paths.get(fileName));
+            System.out.println("Saved " + count + " phrases to " + fileName);
+        } catch (IOException e) {
+            System.out.println("Could not save: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Displays all phrases in the composition. Prefer CompositionView, which only
+     * shows a window around the current phrase, for long compositions.
+     */
+    void showAllPhrases();
+
+    /**
+     * Stitches every phrase from a node to the end into one sequence and plays it in
+     * a single call.
+     *
+     * @param start The first node to play.
+     */
+    private void playGapless(Node start) {
+        SequenceBuilder builder = new SequenceBuilder(PhraseCache.getShared());
+        for (Node temp = start; temp != null; temp = temp.getNext())
+            builder.append(temp.getPhraseId());
+        System.out.println("Playing " + builder.getPhraseCount() + " phrases without gaps.");
+        PlaybackEngine.getShared().play(builder.build());
+    }
+}
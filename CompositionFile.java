@@ -0,0 +1,364 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The CompositionFile class saves compositions in a compact binary format and loads
+ * them back. A file holds a header, a dictionary of the distinct phrases used, and
+ * the phrase of every position as a packed id into that dictionary. Ids take 1, 2 or
+ * 4 bytes each depending on the size of the dictionary.
+ *
+ * Loading maps the file into memory and builds the list in a single pass, without
+ * reading the file through a stream. Compositions of other storage engines are
+ * loaded by adding the phrases to them a block at a time.
+ *
+ * Layout, all numbers big-endian:
+ * <pre>
+ * offset  size  field
+ *      0     4  magic "MCMP"
+ *      4     1  major version; readers reject a newer major version
+ *      5     1  minor version; newer minor versions only append header fields
+ *      6     2  header length in bytes; readers skip fields they do not know
+ *      8     4  number of phrases
+ *     12     4  number of dictionary entries
+ *     16     4  index of the current phrase, or -1
+ *     20     1  bytes per packed id (1, 2 or 4)
+ *     21     3  reserved
+ * then, per dictionary entry: 4-byte UTF-8 length (-1 for a missing phrase) and bytes
+ * then, per phrase: its dictionary id
+ * </pre>
+ */
+public class CompositionFile {
+
+    /** The first four bytes of every composition file, "MCMP" */
+    public static final int MAGIC = 0x4D434D50;
+    /** The major version written and the newest one that can be read */
+    public static final int MAJOR_VERSION = 1;
+    /** The minor version written */
+    public static final int MINOR_VERSION = 0;
+
+    /** Length of the header written by this version */
+    private static final int HEADER_LENGTH = 24;
+    /** Size of the output buffer in bytes */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** Number of phrases added to a composition at a time when loading into one */
+    private static final int APPEND_BLOCK = 4096;
+
+    /** Output buffer, flushed to the channel whenever it fills */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    /** The file being written */
+    private FileChannel channel;
+
+    /**
+     * Saves a composition, including its current position, to a file.
+     *
+     * @param composition The composition to save.
+     * @param file The file to write; it is replaced if it exists.
+     * @return The number of phrases written.
+     * @throws IOException If the file cannot be written.
+     */
+    public int save(Composition composition, Path file) throws IOException {
+        // First pass: give every distinct phrase a local id in order of appearance.
+        PhraseDictionary dictionary = PhraseDictionary.getShared();
+        int[] localIds = new int[dictionary.size()];
+        Arrays.fill(localIds, -1);
+        int[] entries = new int[16];
+        int entryCount = 0;
+        boolean hasMissing = false;
+        int missingId = -1;
+        int count = 0;
+        for (Node temp = composition.getHead(); temp != null; temp = temp.getNext()) {
+            int phraseId = temp.getPhraseId();
+            if (phraseId == PhraseDictionary.NO_PHRASE) {
+                if (!hasMissing) {
+                    hasMissing = true;
+                    missingId = entryCount;
+                    entries = add(entries, entryCount++, phraseId);
+                }
+            } else if (localIds[phraseId] < 0) {
+                localIds[phraseId] = entryCount;
+                entries = add(entries, entryCount++, phraseId);
+            }
+            count++;
+        }
+        int width = entryCount <= 0x100 ? 1 : entryCount <= 0x10000 ? 2 : 4;
+
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel = out;
+            buffer.clear();
+            buffer.putInt(MAGIC);
+            buffer.put((byte) MAJOR_VERSION);
+            buffer.put((byte) MINOR_VERSION);
+            buffer.putShort((short) HEADER_LENGTH);
+            buffer.putInt(count);
+            buffer.putInt(entryCount);
+            buffer.putInt(composition.getCurrentIndex());
+            buffer.put((byte) width);
+            buffer.put(new byte[3]);
+            for (int i = 0; i < entryCount; i++)
+                writePhrase(dictionary.phrase(entries[i]));
+
+            // Second pass: write the packed ids.
+            for (Node temp = composition.getHead(); temp != null; temp = temp.getNext()) {
+                int phraseId = temp.getPhraseId();
+                int localId = phraseId == PhraseDictionary.NO_PHRASE ? missingId : localIds[phraseId];
+                if (buffer.remaining() < 4)
+                    flush();
+                if (width == 1)
+                    buffer.put((byte) localId);
+                else if (width == 2)
+                    buffer.putShort((short) localId);
+                else
+                    buffer.putInt(localId);
+            }
+            flush();
+        } finally {
+            channel = null;
+        }
+        return count;
+    }
+
+    /**
+     * Loads a composition saved by save into a new doubly linked list, with the saved
+     * current position restored.
+     *
+     * @param file The file to read.
+     * @return The loaded list.
+     * @throws IOException If the file cannot be read or is not a valid composition file.
+     */
+    public static DoublyLinkedList load(Path file) throws IOException {
+        DoublyLinkedList[] loaded = new DoublyLinkedList[1];
+        load(file, data -> loaded[0] = read(data));
+        return loaded[0];
+    }
+
+    /**
+     * Loads a composition saved by save and adds its phrases to the end of a
+     * composition of any storage engine, a block at a time, without building a list
+     * first. The saved current phrase becomes current.
+     *
+     * @param file The file to read.
+     * @param target The composition to add the phrases to.
+     * @throws IOException If the file cannot be read or is not a valid composition file.
+     */
+    public static void load(Path file, Composition target) throws IOException {
+        load(file, data -> append(data, target));
+    }
+
+    /**
+     * Maps a composition file and reads it, reporting bad contents as an IOException.
+     *
+     * @param file The file to read.
+     * @param reader Reads the mapped contents.
+     * @throws IOException If the file cannot be read or is not a valid composition file.
+     */
+    private static void load(Path file, Reader reader) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (in.size() > Integer.MAX_VALUE)
+                throw new IOException("Composition file is too large to map: " + file);
+            MappedByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            try {
+                reader.read(data);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new IOException("Composition file is truncated or corrupt: " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Builds a list from the mapped contents of a composition file.
+     *
+     * @param data The file contents, positioned at the start.
+     * @return The loaded list.
+     * @throws IOException If the contents are not a valid composition file.
+     */
+    private static DoublyLinkedList read(ByteBuffer data) throws IOException {
+        Contents contents = new Contents(data);
+        Node head = null, last = null, current = null;
+        for (int i = 0; i < contents.count; i++) {
+            Node node = new Node(contents.nextPhraseId());
+            if (last == null)
+                head = node;
+            else {
+                last.setNext(node);
+                node.setPrev(last);
+            }
+            if (i == contents.currentIndex)
+                current = node;
+            last = node;
+        }
+        return new DoublyLinkedList(head, last, contents.count, current, contents.currentIndex);
+    }
+
+    /**
+     * Adds the phrases in the mapped contents of a composition file to the end of a
+     * composition, APPEND_BLOCK phrases at a time.
+     *
+     * @param data The file contents, positioned at the start.
+     * @param target The composition to add the phrases to.
+     * @throws IOException If the contents are not a valid composition file.
+     */
+    private static void append(ByteBuffer data, Composition target) throws IOException {
+        Contents contents = new Contents(data);
+        PhraseDictionary dictionary = PhraseDictionary.getShared();
+        int start = target.size();
+        String[] block = new String[Math.min(contents.count, APPEND_BLOCK)];
+        for (int added = 0; added < contents.count; added += block.length) {
+            if (contents.count - added < block.length)
+                block = new String[contents.count - added];
+            for (int i = 0; i < block.length; i++)
+                block[i] = dictionary.phrase(contents.nextPhraseId());
+            target.addAll(block);
+        }
+        if (contents.currentIndex >= 0)
+            target.setCurrent(start + contents.currentIndex);
+    }
+
+    /**
+     * The Reader interface reads the mapped contents of a composition file.
+     */
+    private interface Reader {
+
+        /**
+         * Reads the contents.
+         *
+         * @param data The file contents, positioned at the start.
+         * @throws IOException If the contents are not a valid composition file.
+         */
+        void read(ByteBuffer data) throws IOException;
+    }
+
+    /**
+     * The Contents class checks the header and dictionary of a composition file and
+     * then reads the packed ids that follow them, one at a time.
+     */
+    private static class Contents {
+
+        /** The number of phrases */
+        final int count;
+        /** The index of the current phrase, or -1 */
+        final int currentIndex;
+        /** The file contents, positioned at the next packed id */
+        private final ByteBuffer data;
+        /** Bytes per packed id */
+        private final int width;
+        /** The interned id of every dictionary entry */
+        private final int[] phraseIds;
+
+        /**
+         * Constructor to read the header and dictionary of a composition file.
+         *
+         * @param data The file contents, positioned at the start.
+         * @throws IOException If the header or dictionary is not valid.
+         */
+        Contents(ByteBuffer data) throws IOException {
+            this.data = data;
+            if (data.remaining() < 8 || data.getInt() != MAGIC)
+                throw new IOException("Not a composition file");
+            int major = data.get() & 0xFF;
+            int minor = data.get() & 0xFF;
+            if (major > MAJOR_VERSION)
+                throw new IOException("Unsupported composition file version " + major + "." + minor);
+            int headerLength = data.getShort() & 0xFFFF;
+            count = data.getInt();
+            int entryCount = data.getInt();
+            currentIndex = data.getInt();
+            width = data.get();
+            if (headerLength < HEADER_LENGTH || count < 0 || entryCount < 0 || currentIndex < -1
+                    || currentIndex >= count || (width != 1 && width != 2 && width != 4))
+                throw new IOException("Composition file has an invalid header");
+            data.position(headerLength);
+            if (entryCount > data.remaining() / 4)
+                throw new IOException("Composition file has an invalid header");
+
+            PhraseDictionary dictionary = PhraseDictionary.getShared();
+            phraseIds = new int[entryCount];
+            for (int i = 0; i < entryCount; i++) {
+                int length = data.getInt();
+                if (length == -1) {
+                    phraseIds[i] = PhraseDictionary.NO_PHRASE;
+                    continue;
+                }
+                if (length < 0 || length > data.remaining())
+                    throw new IOException("Composition file has an invalid phrase length");
+                byte[] bytes = new byte[length];
+                data.get(bytes);
+                phraseIds[i] = dictionary.intern(new String(bytes, StandardCharsets.UTF_8));
+            }
+            if ((long) count * width > data.remaining())
+                throw new IOException("Composition file is truncated");
+        }
+
+        /**
+         * Reads the next packed id and returns the phrase id it stands for.
+         *
+         * @return The interned phrase id.
+         * @throws IOException If the id is not in the dictionary.
+         */
+        int nextPhraseId() throws IOException {
+            int localId = width == 1 ? data.get() & 0xFF : width == 2 ? data.getShort() & 0xFFFF : data.getInt();
+            if (localId < 0 || localId >= phraseIds.length)
+                throw new IOException("Composition file refers to a missing phrase");
+            return phraseIds[localId];
+        }
+    }
+
+    /**
+     * Writes one dictionary entry.
+     *
+     * @param phrase The phrase, may be null.
+     * @throws IOException If the file cannot be written.
+     */
+    private void writePhrase(String phrase) throws IOException {
+        if (buffer.remaining() < 4)
+            flush();
+        if (phrase == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        byte[] bytes = phrase.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        if (bytes.length > buffer.remaining()) {
+            flush();
+            if (bytes.length > buffer.remaining()) {
+                channel.write(ByteBuffer.wrap(bytes));
+                return;
+            }
+        }
+        buffer.put(bytes);
+    }
+
+    /**
+     * Stores a value in a growable array.
+     *
+     * @param array The array.
+     * @param index The index to store at, at most the array length.
+     * @param value The value.
+     * @return The array, or a larger copy if it was full.
+     */
+    private static int[] add(int[] array, int index, int value) {
+        if (index == array.length)
+            array = Arrays.copyOf(array, index * 2);
+        array[index] = value;
+        return array;
+    }
+
+    /**
+     * Writes the buffered bytes to the file.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+}
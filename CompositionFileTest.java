@@ -0,0 +1,133 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for the CompositionFile save and load format.
+ */
+public class CompositionFileTest {
+
+    /** Directory for saved files */
+    @TempDir
+    Path folder;
+
+    /**
+     * Tests that phrases and the current position survive a save and load.
+     */
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        DoublyLinkedList list = new DoublyLinkedList(new String[] {"C", "D", "C", "E5q", "D"});
+        list.setCurrent(2);
+        Path file = folder.resolve("song.mcmp");
+        assertEquals(5, new CompositionFile().save(list, file));
+        DoublyLinkedList loaded = CompositionFile.load(file);
+        assertEquals(5, loaded.size());
+        assertEquals(2, loaded.getCurrentIndex());
+        StringBuilder phrases = new StringBuilder();
+        for (Node temp = loaded.getHead(); temp != null; temp = temp.getNext())
+            phrases.append(temp.getPhrase()).append(',');
+        assertEquals("C,D,C,E5q,D,", phrases.toString());
+        assertEquals("D", loaded.getTail().getPhrase());
+        assertSame(loaded.getTail(), loaded.getHead().getNext().getNext().getNext().getNext());
+        // Three distinct phrases fit in one byte per id: 24-byte header, dictionary, 5 ids.
+        assertEquals(24 + (4 + 1) * 2 + (4 + 3) + 5, Files.size(file));
+    }
+
+    /**
+     * Tests that a file loads into every storage engine, in more than one block, and
+     * that loading into a composition that already holds phrases adds to its end.
+     */
+    @Test
+    public void testLoadIntoEveryEngine() throws IOException {
+        DoublyLinkedList list = new DoublyLinkedList();
+        for (int i = 0; i < 10000; i++)
+            list.addAtEnd("N" + i % 300);
+        list.setCurrent(9000);
+        Path file = folder.resolve("engines.mcmp");
+        new CompositionFile().save(list, file);
+        for (StorageEngine engine : StorageEngine.values()) {
+            Composition loaded = engine.create(new String[] {"A", "B"});
+            try {
+                CompositionFile.load(file, loaded);
+                assertEquals(10002, loaded.size(), engine.name());
+                assertEquals(9002, loaded.getCurrentIndex(), engine.name());
+                assertEquals("N0", loaded.getCurrent().getPhrase(), engine.name());
+                assertEquals("N99", loaded.getTail().getPhrase(), engine.name());
+                assertEquals("N0", loaded.getNode(2).getPhrase(), engine.name());
+            } finally {
+                if (loaded instanceof MappedComposition)
+                    ((MappedComposition) loaded).close();
+            }
+        }
+    }
+
+    /**
+     * Tests that wide dictionaries switch to larger ids and that an empty composition
+     * round-trips.
+     */
+    @Test
+    public void testWideIdsAndEmpty() throws IOException {
+        DoublyLinkedList list = new DoublyLinkedList();
+        for (int i = 0; i < 300; i++)
+            list.addAtEnd("W" + i);
+        Path file = folder.resolve("wide.mcmp");
+        new CompositionFile().save(list, file);
+        DoublyLinkedList loaded = CompositionFile.load(file);
+        assertEquals(300, loaded.size());
+        assertEquals("W299", loaded.getCurrent().getPhrase());
+        assertEquals("W256", loaded.getNode(256).getPhrase());
+
+        Path empty = folder.resolve("empty.mcmp");
+        new CompositionFile().save(new DoublyLinkedList(), empty);
+        loaded = CompositionFile.load(empty);
+        assertNull(loaded.getHead());
+        assertEquals(-1, loaded.getCurrentIndex());
+    }
+
+    /**
+     * Tests that files from a newer major version and other files are rejected.
+     */
+    @Test
+    public void testRejectsUnknownFiles() throws IOException {
+        Path file = folder.resolve("song.mcmp");
+        new CompositionFile().save(new DoublyLinkedList(new String[] {"C"}), file);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[4] = (byte) (CompositionFile.MAJOR_VERSION + 1);
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> CompositionFile.load(file));
+
+        Path other = folder.resolve("other.txt");
+        Files.write(other, "not a composition".getBytes());
+        assertThrows(IOException.class, () -> CompositionFile.load(other));
+    }
+
+    /**
+     * Tests that a dictionary entry longer than the file and a current index below
+     * -1 are rejected as corrupt.
+     */
+    @Test
+    public void testRejectsCorruptFields() throws IOException {
+        Path file = folder.resolve("song.mcmp");
+        new CompositionFile().save(new DoublyLinkedList(new String[] {"C", "D"}), file);
+        byte[] saved = Files.readAllBytes(file);
+
+        byte[] bytes = saved.clone();
+        bytes[24] = 0x7F;
+        bytes[25] = (byte) 0xFF;
+        bytes[26] = (byte) 0xFF;
+        bytes[27] = (byte) 0xF0;
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> CompositionFile.load(file));
+
+        bytes = saved.clone();
+        bytes[16] = bytes[17] = bytes[18] = (byte) 0xFF;
+        bytes[19] = (byte) 0xFE;
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> CompositionFile.load(file));
+    }
+}
@@ -0,0 +1,418 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The CompositionServer class runs the composer as a shared local service. Clients
+ * connect to a socket on the loopback address and send the commands of the batch
+ * language, one per line. Every connection is a session with its own composition,
+ * handled on its own virtual thread (or a pooled daemon thread before Java 21), so
+ * an idle session costs a parked thread and its buffers rather than an operating
+ * system thread. All sessions share the global phrase dictionary and compiled-phrase
+ * cache.
+ *
+ * After each command the server writes the command's output, if any, followed by a
+ * line holding a single ".". Besides the batch commands, sessions understand:
+ * <pre>
+ * memory      estimated memory held by this session
+ * sessions    number of open sessions and their estimated memory
+ * exit        close the session
+ * </pre>
+ *
+ * Sessions run with the server's identity, so commands that read or write files or
+ * play through the sound devices (play, play-from, export, save and import) are
+ * refused. Messages a composition prints, such as an invalid index, are sent to the
+ * session that caused them rather than to the server's console.
+ *
+ * Phrases are never removed from the shared dictionary, so the new phrases each
+ * session adds are charged to it, up to a limit per session and a limit for all
+ * sessions together; a command that would go over either is refused. Phrases stay
+ * charged to the server after their session closes. The memory reports count each
+ * session's buffers, what its composition holds on the heap and the phrases it added.
+ */
+public class CompositionServer {
+
+    /** Ends the response to every command */
+    public static final String END_OF_RESPONSE = ".";
+    /** Size of each session's read and write buffers in characters */
+    private static final int BUFFER_SIZE = 1024;
+    /** Default most bytes of new phrases each session can add to the dictionary, 4 MB */
+    public static final long DEFAULT_SESSION_PHRASE_BYTES = 4L << 20;
+    /** Default most bytes of new phrases all sessions together can add to the dictionary, 256 MB */
+    public static final long DEFAULT_SERVER_PHRASE_BYTES = 256L << 20;
+    /**
+     * Estimated bytes per session besides its phrases: the two character buffers, the
+     * 8 KB byte buffers of the reader and writer encoders, and about 2 KB for the
+     * socket, the parked thread and the session objects
+     */
+    private static final long BYTES_PER_SESSION = 2L * 2 * BUFFER_SIZE + 2L * 8192 + 2048;
+
+    /** How new sessions store their compositions */
+    private final StorageEngine engine;
+    /** The most bytes of new phrases each session can add */
+    private final long sessionPhraseBytes;
+    /** Charged for the new phrases of every session, for as long as the server runs */
+    private final PhraseDictionary.Account phrases;
+    /** Runs every session on its own thread */
+    private final ExecutorService sessions = ThreadSupport.newPerTaskExecutor("composition-session");
+    /** The open sessions */
+    private final Set<Session> open = ConcurrentHashMap.newKeySet();
+    /** Number of sessions accepted so far, used to number them */
+    private final AtomicInteger accepted = new AtomicInteger();
+    /** The listening socket, once started */
+    private ServerSocket serverSocket;
+    /** The thread accepting connections, once started */
+    private Thread acceptor;
+
+    /**
+     * Constructor to initialize a server whose sessions use doubly linked lists.
+     */
+    public CompositionServer() {
+        this(StorageEngine.LINKED_LIST);
+    }
+
+    /**
+     * Constructor to initialize a server.
+     *
+     * @param engine How new sessions store their compositions.
+     */
+    public CompositionServer(StorageEngine engine) {
+        this(engine, DEFAULT_SESSION_PHRASE_BYTES, DEFAULT_SERVER_PHRASE_BYTES);
+    }
+
+    /**
+     * Constructor to initialize a server with limits on the new phrases sessions add
+     * to the shared dictionary.
+     *
+     * @param engine How new sessions store their compositions.
+     * @param sessionPhraseBytes The most bytes of new phrases each session can add.
+     * @param serverPhraseBytes The most bytes of new phrases all sessions can add.
+     */
+    public CompositionServer(StorageEngine engine, long sessionPhraseBytes, long serverPhraseBytes) {
+        this.engine = engine;
+        this.sessionPhraseBytes = sessionPhraseBytes;
+        this.phrases = new PhraseDictionary.Account(serverPhraseBytes, null);
+    }
+
+    /**
+     * Starts listening on the loopback address and accepting sessions in the
+     * background.
+     *
+     * @param port The port to listen on, or 0 for any free port.
+     * @return The port the server listens on.
+     * @throws IOException If the socket cannot be opened.
+     */
+    public synchronized int start(int port) throws IOException {
+        if (serverSocket != null)
+            return serverSocket.getLocalPort();
+        serverSocket = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+        SessionOutput.install();
+        ServerSocket listening = serverSocket;
+        acceptor = ThreadSupport.start("composition-server", () -> acceptAll(listening));
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stops accepting sessions and closes every open one. A stopped server cannot be
+     * started again.
+     */
+    public void stop() {
+        synchronized (this) {
+            if (serverSocket == null)
+                return;
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                // Closing anyway.
+            }
+            serverSocket = null;
+        }
+        for (Session session : open)
+            session.close();
+        sessions.shutdownNow();
+    }
+
+    /**
+     * Waits until the server has stopped accepting sessions.
+     *
+     * @throws InterruptedException If the wait is interrupted.
+     */
+    public void join() throws InterruptedException {
+        Thread started;
+        synchronized (this) {
+            started = acceptor;
+        }
+        if (started != null)
+            started.join();
+    }
+
+    /**
+     * Returns the number of open sessions.
+     *
+     * @return The session count.
+     */
+    public int getSessionCount() {
+        return open.size();
+    }
+
+    /**
+     * Returns the estimated memory held by all open sessions and by the phrases every
+     * session, open or closed, added to the dictionary.
+     *
+     * @return The estimate in bytes.
+     */
+    public long getEstimatedBytes() {
+        long total = phrases.getUsedBytes();
+        for (Session session : open)
+            total += session.getEstimatedBytes() - session.account.getUsedBytes();
+        return total;
+    }
+
+    /**
+     * Accepts connections until the socket is closed, starting a session for each.
+     *
+     * @param listening The listening socket.
+     */
+    private void acceptAll(ServerSocket listening) {
+        while (!listening.isClosed()) {
+            try {
+                Socket socket = listening.accept();
+                Session session = new Session(accepted.incrementAndGet(), socket);
+                open.add(session);
+                try {
+                    sessions.execute(session);
+                } catch (RejectedExecutionException e) {
+                    open.remove(session);
+                    session.close();
+                }
+            } catch (SocketException e) {
+                // Closed by stop.
+            } catch (IOException e) {
+                System.out.println("Could not accept a session: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The Session class serves one client connection with its own composition.
+     */
+    private class Session implements Runnable {
+
+        /** The session number, for the sessions report */
+        private final int id;
+        /** The client connection */
+        private final Socket socket;
+        /** Charged for the new phrases this session adds to the dictionary */
+        private final PhraseDictionary.Account account = new PhraseDictionary.Account(sessionPhraseBytes, phrases);
+        /** The number of phrases after the last command, readable from other sessions */
+        private volatile int phraseCount;
+        /** The heap memory held by the composition after the last command, readable from other sessions */
+        private volatile long compositionBytes;
+
+        /**
+         * Constructor to initialize a session for a connection.
+         *
+         * @param id The session number.
+         * @param socket The client connection.
+         */
+        Session(int id, Socket socket) {
+            this.id = id;
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            Composition composition = null;
+            ByteArrayOutputStream printed = new ByteArrayOutputStream();
+            SessionOutput.redirect(printed);
+            PhraseDictionary.setAccount(account);
+            try (Socket client = socket;
+                 BufferedReader in = new BufferedReader(
+                         new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8), BUFFER_SIZE);
+                 Writer out = new BufferedWriter(
+                         new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+                composition = engine.create(new String[0]);
+                CommandInterpreter interpreter = new CommandInterpreter(composition, out, true);
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String command = line.trim();
+                    boolean more = true;
+                    if (command.equals("memory"))
+                        out.write("Session " + id + ": " + phraseCount + " phrases, about "
+                                + getEstimatedBytes() + " bytes\n");
+                    else if (command.equals("sessions"))
+                        out.write(getSessionCount() + " sessions, about " + CompositionServer.this.getEstimatedBytes()
+                                + " bytes\n");
+                    else {
+                        try {
+                            more = interpreter.execute(line);
+                        } catch (IllegalStateException e) {
+                            out.write(e.getMessage() + "\n");
+                        }
+                    }
+                    phraseCount = composition.size();
+                    compositionBytes = composition.getEstimatedBytes();
+                    writePrinted(printed, out);
+                    out.write(END_OF_RESPONSE + "\n");
+                    out.flush();
+                    if (!more)
+                        break;
+                }
+            } catch (IOException e) {
+                // The client went away.
+            } finally {
+                SessionOutput.redirect(null);
+                PhraseDictionary.setAccount(null);
+                if (composition instanceof AutoCloseable) {
+                    try {
+                        ((AutoCloseable) composition).close();
+                    } catch (Exception e) {
+                        System.out.println("Could not close session " + id + ": " + e.getMessage());
+                    }
+                }
+                open.remove(this);
+            }
+        }
+
+        /**
+         * Sends what the composition printed during a command to the client, ending it
+         * with a line break so that the end of the response stays on its own line.
+         *
+         * @param printed What was printed since the last command; emptied.
+         * @param out The client's writer.
+         * @throws IOException If writing fails.
+         */
+        private void writePrinted(ByteArrayOutputStream printed, Writer out) throws IOException {
+            if (printed.size() == 0)
+                return;
+            String text = new String(printed.toByteArray(), Charset.defaultCharset());
+            printed.reset();
+            out.write(text);
+            if (!text.endsWith("\n"))
+                out.write('\n');
+        }
+
+        /**
+         * Closes the connection, which ends the session.
+         */
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Closing anyway.
+            }
+        }
+
+        /**
+         * Returns the estimated memory held by this session: its buffers and
+         * connection, what its composition holds on the heap, and the new phrases it
+         * added to the dictionary.
+         *
+         * @return The estimate in bytes.
+         */
+        long getEstimatedBytes() {
+            return BYTES_PER_SESSION + compositionBytes + account.getUsedBytes();
+        }
+    }
+
+    /**
+     * The SessionOutput class is the stream System.out is replaced with while a server
+     * runs. Each thread can send what it prints to a stream of its own; threads that do
+     * not, such as the console's, print to the original System.out.
+     */
+    private static class SessionOutput extends OutputStream {
+
+        /** Where each session thread's printing goes; read on every write */
+        private static final ThreadLocal<OutputStream> TARGET = new ThreadLocal<>();
+
+        /** The System.out replaced when the stream was installed */
+        private final PrintStream console;
+
+        /**
+         * Constructor to initialize a stream in front of the console.
+         *
+         * @param console The original System.out.
+         */
+        private SessionOutput(PrintStream console) {
+            this.console = console;
+        }
+
+        /**
+         * Replaces System.out with a session output stream, once.
+         */
+        static synchronized void install() {
+            if (!(System.out instanceof Installed))
+                System.setOut(new Installed(new SessionOutput(System.out)));
+        }
+
+        /**
+         * Sends what the current thread prints to a stream of its own.
+         *
+         * @param target The stream, or null to print to the console again.
+         */
+        static void redirect(OutputStream target) {
+            if (target == null)
+                TARGET.remove();
+            else
+                TARGET.set(target);
+        }
+
+        /**
+         * Returns where the current thread's printing goes.
+         *
+         * @return The thread's stream or the console.
+         */
+        private OutputStream target() {
+            OutputStream target = TARGET.get();
+            return target == null ? console : target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            target().write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target().flush();
+        }
+
+        /**
+         * The Installed class marks the PrintStream wrapping a session output stream, so
+         * that it is installed only once.
+         */
+        private static class Installed extends PrintStream {
+
+            /**
+             * Constructor to initialize the replacement System.out.
+             *
+             * @param output The session output stream.
+             */
+            Installed(SessionOutput output) {
+                super(output, true);
+            }
+        }
+    }
+}
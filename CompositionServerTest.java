@@ -0,0 +1,225 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for CompositionServer.
+ * It connects local clients to a server on a free port.
+ */
+public class CompositionServerTest {
+
+    /** The server under test */
+    private CompositionServer server;
+    /** The port it listens on */
+    private int port;
+
+    /**
+     * Starts a server before each test.
+     */
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new CompositionServer();
+        port = server.start(0);
+    }
+
+    /**
+     * Stops the server after each test.
+     */
+    @AfterEach
+    public void tearDown() {
+        server.stop();
+    }
+
+    /**
+     * The Client class is a minimal line-based client for the tests.
+     */
+    private class Client implements AutoCloseable {
+
+        /** The connection */
+        private final Socket socket;
+        /** Responses from the server */
+        private final BufferedReader in;
+        /** Commands to the server */
+        private final Writer out;
+
+        /**
+         * Constructor to connect a client to the server.
+         */
+        Client() throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Sends a command and returns its response without the end line.
+         */
+        String send(String command) throws IOException {
+            out.write(command + "\n");
+            out.flush();
+            StringBuilder response = new StringBuilder();
+            String line;
+            while ((line = in.readLine()) != null && !line.equals(CompositionServer.END_OF_RESPONSE))
+                response.append(line).append('\n');
+            return response.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    /**
+     * Tests that every session edits its own composition.
+     */
+    @Test
+    public void testSessionsAreIsolated() throws IOException {
+        try (Client first = new Client(); Client second = new Client()) {
+            assertEquals("", first.send("add end C"));
+            first.send("add end D");
+            second.send("add end E");
+            assertEquals("C D\n", first.send("show"));
+            assertEquals("E\n", second.send("show"));
+            first.send("add end E");
+            assertEquals("C D E\n", first.send("show"));
+            assertEquals("1\n", first.send("find D|E"));
+            assertTrue(first.send("memory").startsWith("Session "));
+        }
+    }
+
+    /**
+     * Tests that many idle sessions are served at once and are counted.
+     */
+    @Test
+    public void testManyIdleSessions() throws Exception {
+        List<Client> clients = new ArrayList<>();
+        try {
+            for (int i = 0; i < 200; i++) {
+                Client client = new Client();
+                clients.add(client);
+                client.send("add end " + i);
+            }
+            assertEquals(200, server.getSessionCount());
+            String report = clients.get(0).send("sessions");
+            assertTrue(report.startsWith("200 sessions"), report);
+            assertTrue(server.getEstimatedBytes() > 200L * 32);
+            assertEquals("199\n", clients.get(199).send("show"));
+        } finally {
+            for (Client client : clients)
+                client.close();
+        }
+        for (int i = 0; i < 200 && server.getSessionCount() > 0; i++)
+            Thread.sleep(10);
+        assertEquals(0, server.getSessionCount());
+    }
+
+    /**
+     * Tests that the exit command closes the session.
+     */
+    @Test
+    public void testExit() throws IOException {
+        try (Client client = new Client()) {
+            assertEquals("", client.send("exit"));
+            assertNull(client.in.readLine());
+        }
+    }
+
+    /**
+     * Tests that commands touching files or sound devices are refused and that
+     * messages printed by the composition go to the session that caused them.
+     */
+    @Test
+    public void testSessionsAreConfined() throws IOException {
+        try (Client client = new Client()) {
+            assertEquals("Line 1: 'save' is not allowed in this session\n", client.send("save /tmp/x.txt"));
+            assertTrue(client.send("export ../x.mid").contains("not allowed"));
+            assertTrue(client.send("import x.txt").contains("not allowed"));
+            assertTrue(client.send("play").contains("not allowed"));
+            assertTrue(client.send("play-from a").contains("not allowed"));
+            assertEquals("The list is empty\n", client.send("goto 5"));
+            assertEquals("", client.send("add end C"));
+            assertEquals("Invalid index. Current remains unchanged.\n", client.send("goto 5"));
+            assertEquals("C\n", client.send("show"));
+        }
+    }
+
+    /**
+     * Counts the temporary mapped stores in the temporary directory.
+     */
+    private static int temporaryStores() throws IOException {
+        int count = 0;
+        Path directory = Paths.get(System.getProperty("java.io.tmpdir"));
+        try (DirectoryStream<Path> stores = Files.newDirectoryStream(directory, "composition*.mcms*")) {
+            for (Path store : stores)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Tests that a session's mapped composition is closed, and its files deleted,
+     * when the session ends.
+     */
+    @Test
+    public void testSessionsCloseTheirComposition() throws Exception {
+        CompositionServer mapped = new CompositionServer(StorageEngine.MAPPED);
+        int before = temporaryStores();
+        try {
+            port = mapped.start(0);
+            try (Client client = new Client()) {
+                client.send("add end C");
+                assertEquals(before + 2, temporaryStores());
+                client.send("exit");
+            }
+            for (int i = 0; i < 200 && mapped.getSessionCount() > 0; i++)
+                Thread.sleep(10);
+            assertEquals(before, temporaryStores());
+        } finally {
+            mapped.stop();
+        }
+    }
+
+    /**
+     * Tests that a session cannot add new phrases past its limit, while phrases
+     * already in the dictionary stay free, and that the estimate follows the
+     * composition.
+     */
+    @Test
+    public void testSessionPhraseLimit() throws IOException {
+        CompositionServer limited = new CompositionServer(StorageEngine.LINKED_LIST, 1000, 1L << 20);
+        try {
+            port = limited.start(0);
+            try (Client client = new Client()) {
+                client.send("add end C");
+                long small = limited.getEstimatedBytes();
+                String refused = "";
+                for (int i = 0; i < 100 && refused.isEmpty(); i++)
+                    refused = client.send("add end Cw Dq" + i + System.nanoTime());
+                assertEquals("Phrase limit reached: no more new phrases can be added\n", refused);
+                assertEquals("", client.send("add end C"));
+                assertTrue(limited.getEstimatedBytes() > small);
+                assertTrue(limited.getEstimatedBytes() < small + 1000 + 100 * 64);
+            }
+        } finally {
+            limited.stop();
+        }
+    }
+}
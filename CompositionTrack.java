@@ -0,0 +1,73 @@
+/**
+ * The CompositionTrack class is one voice of a multi-track composition: a composition
+ * of phrases together with the MIDI instrument and channel it is played on.
+ */
+public class CompositionTrack {
+
+    /** The MIDI channel reserved for percussion */
+    public static final int DRUM_CHANNEL = 9;
+
+    /** The name of the track, such as "melody" or "bass" */
+    private final String name;
+    /** The phrases of the track */
+    private final Composition composition;
+    /** The General MIDI program number of the instrument, 0 to 127 */
+    private final int program;
+    /** The MIDI channel the track is played on, 0 to 15 */
+    private final int channel;
+
+    /**
+     * Constructor to initialize a track.
+     *
+     * @param name The name of the track.
+     * @param composition The phrases of the track.
+     * @param program The General MIDI program number of the instrument, 0 to 127.
+     * @param channel The MIDI channel, 0 to 15.
+     */
+    public CompositionTrack(String name, Composition composition, int program, int channel) {
+        if (program < 0 || program > 127)
+            throw new IllegalArgumentException("Program must be between 0 and 127");
+        if (channel < 0 || channel > 15)
+            throw new IllegalArgumentException("Channel must be between 0 and 15");
+        this.name = name;
+        this.composition = composition;
+        this.program = program;
+        this.channel = channel;
+    }
+
+    /**
+     * Returns the name of the track.
+     *
+     * @return The name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the phrases of the track.
+     *
+     * @return The composition.
+     */
+    public Composition getComposition() {
+        return composition;
+    }
+
+    /**
+     * Returns the General MIDI program number of the instrument.
+     *
+     * @return The program number.
+     */
+    public int getProgram() {
+        return program;
+    }
+
+    /**
+     * Returns the MIDI channel the track is played on.
+     *
+     * @return The channel.
+     */
+    public int getChannel() {
+        return channel;
+    }
+}
@@ -0,0 +1,124 @@
+import java.io.PrintStream;
+
+/**
+ * The CompositionView class shows a window of indexed phrases around the current
+ * phrase instead of the whole composition. Only the phrases in the window are
+ * visited, and the output is built in one buffer and written with a single call, so
+ * showing a composition costs the same however long it gets.
+ *
+ * A view with radius 2 looks like this, with "..." where phrases are left out:
+ * <pre>
+ *   ...
+ *    5  G
+ *    6  A
+ * >  7  A
+ *    8  G
+ *    9  F
+ *   ...
+ * </pre>
+ */
+public class CompositionView {
+
+    /** The number of phrases shown on each side of the current phrase by default */
+    public static final int DEFAULT_RADIUS = 5;
+
+    /** The number of phrases shown on each side of the current phrase */
+    private int radius;
+    /** Where the view is written */
+    private final PrintStream out;
+
+    /**
+     * Constructor to initialize a view with the default radius that writes to
+     * standard output.
+     */
+    public CompositionView() {
+        this(DEFAULT_RADIUS, System.out);
+    }
+
+    /**
+     * Constructor to initialize a view.
+     *
+     * @param radius The number of phrases shown on each side of the current phrase.
+     * @param out Where the view is written.
+     */
+    public CompositionView(int radius, PrintStream out) {
+        this.radius = Math.max(0, radius);
+        this.out = out;
+    }
+
+    /**
+     * Returns the number of phrases shown on each side of the current phrase.
+     *
+     * @return The radius.
+     */
+    public int getRadius() {
+        return radius;
+    }
+
+    /**
+     * Sets the number of phrases shown on each side of the current phrase.
+     *
+     * @param radius The radius, at least 0.
+     */
+    public void setRadius(int radius) {
+        if (radius < 0) {
+            System.out.println("Invalid window size. Window remains unchanged.");
+            return;
+        }
+        this.radius = radius;
+    }
+
+    /**
+     * Writes the window around the current phrase in a single call.
+     *
+     * @param composition The composition to show.
+     */
+    public void show(Composition composition) {
+        out.print(render(composition));
+        out.flush();
+    }
+
+    /**
+     * Builds the window around the current phrase. The window holds up to
+     * 2 * radius + 1 phrases; near either end it is shifted so that it stays full.
+     *
+     * @param composition The composition to show.
+     * @return The rendered window, ending with a line break.
+     */
+    public String render(Composition composition) {
+        int currentIndex = composition.getCurrentIndex();
+        Node start = currentIndex < 0 ? composition.getHead() : composition.getCurrent();
+        if (start == null)
+            return "No phrases.\n";
+        int startIndex = Math.max(currentIndex, 0);
+
+        // Count the phrases after the current one, up to the radius, so that a window
+        // near the end can take the missing ones from before the current phrase.
+        int after = 0;
+        for (Node temp = start.getNext(); temp != null && after < radius; temp = temp.getNext())
+            after++;
+        int before = currentIndex < 0 ? 0 : 2 * radius - after;
+        for (int i = 0; i < before && start.getPrev() != null; i++) {
+            start = start.getPrev();
+            startIndex--;
+        }
+
+        int limit = 2 * radius + 1;
+        int width = Integer.toString(startIndex + limit - 1).length();
+        StringBuilder text = new StringBuilder(16 + limit * (width + 16));
+        if (startIndex > 0)
+            text.append("  ...\n");
+        Node temp = start;
+        for (int shown = 0; temp != null && shown < limit; shown++, temp = temp.getNext()) {
+            int index = startIndex + shown;
+            text.append(index == currentIndex ? "> " : "  ");
+            String number = Integer.toString(index);
+            for (int pad = number.length(); pad < width; pad++)
+                text.append(' ');
+            text.append(number).append("  ").append(temp.getPhrase()).append('\n');
+        }
+        if (temp != null)
+            text.append("  ...\n");
+        return text.toString();
+    }
+}
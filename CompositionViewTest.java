@@ -0,0 +1,58 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for the CompositionView window renderer.
+ */
+public class CompositionViewTest {
+
+    /**
+     * Tests that only the window around the current phrase is rendered, with indices.
+     */
+    @Test
+    public void testRenderWindow() {
+        Composition composition = new DoublyLinkedList(new String[] {"A", "B", "C", "D", "E", "F", "G"});
+        composition.setCurrent(3);
+        CompositionView view = new CompositionView(1, System.out);
+        assertEquals("  ...\n  2  C\n> 3  D\n  4  E\n  ...\n", view.render(composition));
+    }
+
+    /**
+     * Tests that the window stays full when the current phrase is near either end.
+     */
+    @Test
+    public void testRenderNearEnds() {
+        Composition composition = new GapBufferComposition(new String[] {"A", "B", "C", "D", "E"});
+        CompositionView view = new CompositionView(1, System.out);
+        assertEquals("  ...\n  2  C\n  3  D\n> 4  E\n", view.render(composition));
+        composition.setCurrent(0);
+        assertEquals("> 0  A\n  1  B\n  2  C\n  ...\n", view.render(composition));
+    }
+
+    /**
+     * Tests that indices are padded to the widest index in the window.
+     */
+    @Test
+    public void testRenderPadsIndices() {
+        Composition composition = new IndexedComposition(new String[] {"A", "B", "C", "D", "E", "F", "G", "H", "I", "J", "K"});
+        composition.setCurrent(9);
+        CompositionView view = new CompositionView(1, System.out);
+        assertEquals("  ...\n   8  I\n>  9  J\n  10  K\n", view.render(composition));
+    }
+
+    /**
+     * Tests that an empty composition is shown without errors, and that show writes
+     * the rendered window.
+     */
+    @Test
+    public void testShowEmpty() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CompositionView view = new CompositionView(CompositionView.DEFAULT_RADIUS, new PrintStream(bytes, true));
+        view.show(new DoublyLinkedList());
+        assertEquals("No phrases.\n", bytes.toString());
+    }
+}
@@ -1,10 +1,43 @@
-import org.jfugue.player.Player;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.sound.midi.Sequence;
 
 /**
  * The DoublyLinkedList class represents a doubly linked list structure
  * to store and manage musical phrases.
+ *
+ * Repeated copies of a phrase or range are stored as a single RepeatNode link, which
+ * walking with getNext and getPrev expands into one position view per phrase. Indices
+ * and the size count phrases, not links. Whenever an index, a move of the current
+ * node or a removal lands inside a repeat, the repeat is split in O(1) so that the
+ * phrase there becomes an ordinary node; the current node and marked nodes are
+ * always ordinary nodes.
+ *
+ * The list is Iterable over its nodes and can be streamed, in parallel too; its
+ * spliterator knows its exact size and splits in half by skipping whole repeats.
+ * Iterators and spliterators are read-only and fail fast: a structural change to the
+ * list made other than through them throws a ConcurrentModificationException on the
+ * next step. Nodes inside a repeat are returned as position views; setting the
+ * phrase of one splits the repeat around it, and views taken before a split find
+ * their phrase again by themselves.
  */
-public class DoublyLinkedList {
+public class DoublyLinkedList implements Composition, Iterable<Node> {
 
     /** The first node in the list */
     private Node head;
@@ -12,6 +45,33 @@ public class DoublyLinkedList {
     private Node tail;
     /** The current selected node */
     private Node current;
+    /** The index of the current node, or UNKNOWN_INDEX after a jump to a marker */
+    private int currentIndex;
+    /** The number of phrases in the list, counting every phrase of a repeat */
+    private int size;
+    /** The number of links in the list, counting a repeat once */
+    private int linkCount;
+    /** Nodes visited by the last positional walk, for the metrics */
+    private int walked;
+    /** Named markers and the nodes they point to, or null if there are none */
+    private HashMap<String, Node> markers;
+    /** Index of the nodes holding each phrase, or null until the first motif search */
+    private MotifIndex motifs;
+    /** Rendered MIDI in segments, or null until the first render */
+    private RenderCache render;
+    /** The owner the nodes of this list point to, so that setPhrase reaches the list */
+    private NodeOwner owner = new NodeOwner(this);
+
+    /** Value of currentIndex when it has to be counted again */
+    private static final int UNKNOWN_INDEX = -1;
+    /** Estimated bytes per link: a node with a header, an id and three references */
+    private static final long BYTES_PER_LINK = 32;
+    /** Estimated bytes per marker: a map entry and the name */
+    private static final long BYTES_PER_MARKER = 64;
+    /** Playback snapshots that still read this list's nodes, or null if there are none */
+    private ArrayList<PlaybackSnapshot> snapshots;
+    /** The number of structural changes so far, so that iterators can fail fast */
+    private int modCount;
 
     /**
      * Constructor to initialize an empty doubly linked list.
@@ -30,6 +90,26 @@ public class DoublyLinkedList {
             addAtEnd(phrase);
     }
 
+    /**
+     * Constructor that takes over a chain of nodes that are already linked to each
+     * other. Used when loading a saved composition.
+     *
+     * @param head The first node, or null for an empty list.
+     * @param tail The last node.
+     * @param size The number of nodes in the chain.
+     * @param current The current node, or null.
+     * @param currentIndex The index of the current node.
+     */
+    DoublyLinkedList(Node head, Node tail, int size, Node current, int currentIndex) {
+        this.head = head;
+        this.tail = tail;
+        this.size = size;
+        this.current = current;
+        this.currentIndex = currentIndex;
+        for (Node temp = head; temp != null; temp = temp.nextLink())
+            adopt(temp);
+    }
+
     /**
      * Returns the current node in the list.
      *
@@ -39,6 +119,183 @@ public class DoublyLinkedList {
         return current;
     }
 
+    /**
+     * Returns the number of phrases in the list.
+     *
+     * @return The number of phrases.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns an estimate of the heap memory held by the list: its links, markers,
+     * motif index and render cache. A repeat counts as one link.
+     *
+     * @return The estimate in bytes.
+     */
+    @Override
+    public long getEstimatedBytes() {
+        long bytes = BYTES_PER_LINK * linkCount;
+        if (markers != null)
+            bytes += BYTES_PER_MARKER * markers.size();
+        if (motifs != null)
+            bytes += motifs.getEstimatedBytes();
+        if (render != null)
+            bytes += render.getEstimatedBytes();
+        return bytes;
+    }
+
+    /**
+     * Points a node that is being linked into the list to the list's owner and counts it.
+     *
+     * @param node The node.
+     */
+    private void adopt(Node node) {
+        node.setOwner(owner);
+        linkCount++;
+    }
+
+    /**
+     * Detaches a node that was unlinked from the list from its owner and stops counting it.
+     *
+     * @param node The node.
+     */
+    private void release(Node node) {
+        node.setOwner(null);
+        linkCount--;
+    }
+
+    /**
+     * Returns the index of the current node. The index is kept up to date by every
+     * positional edit, so this is O(1). After a jump or move by marker the index is
+     * counted once, walking back to the head, and then kept up to date again.
+     *
+     * @return The index of the current node, or -1 if there is none.
+     */
+    public int getCurrentIndex() {
+        if (current == null)
+            return -1;
+        if (currentIndex == UNKNOWN_INDEX)
+            currentIndex = indexOf(current);
+        return currentIndex;
+    }
+
+    /**
+     * Counts the nodes before a node by walking back to the head.
+     *
+     * @param node A node of this list.
+     * @return The index of the node.
+     */
+    private static int indexOf(Node node) {
+        int index = 0;
+        for (Node temp = node.prevLink(); temp != null; temp = temp.prevLink())
+            index += temp.length();
+        return index;
+    }
+
+    /**
+     * Finds the node for the phrase at an index, skipping whole repeats, and records
+     * the links visited in walked. A phrase inside a repeat is returned as a position
+     * view; the repeat is not split.
+     *
+     * @param index The index of the phrase.
+     * @return The node, or null if the index is out of range.
+     */
+    private Node positionAt(int index) {
+        walked = 0;
+        if (index < 0 || index >= size)
+            return null;
+        Node link = head;
+        int count = 0;
+        while (count + link.length() <= index) {
+            count += link.length();
+            link = link.nextLink();
+            walked++;
+        }
+        return link instanceof RepeatNode ? ((RepeatNode) link).position(index - count) : link;
+    }
+
+    /**
+     * Finds the node at an index like positionAt, splitting a repeat so that the
+     * phrase is an ordinary node of its own.
+     *
+     * @param index The index of the phrase.
+     * @return The node, or null if the index is out of range.
+     */
+    private Node locate(int index) {
+        return settle(positionAt(index));
+    }
+
+    /**
+     * Turns a phrase inside a repeat into an ordinary node of its own by splitting
+     * the repeat around it. Ordinary nodes are returned as they are.
+     *
+     * @param position A node of this list, or null.
+     * @return The ordinary node holding the same phrase at the same index.
+     */
+    private Node settle(Node position) {
+        if (position instanceof RepeatNode)
+            return split((RepeatNode) position, 0);
+        if (position instanceof RepeatNode.Position) {
+            RepeatNode.Position view = (RepeatNode.Position) position;
+            return split(view.getRun(), view.getOffset());
+        }
+        return position;
+    }
+
+    /**
+     * Splits a repeat into the run before a phrase, an ordinary node for the phrase
+     * and the run after it, in O(1). The repeat itself is kept, shortened, as the run
+     * before, so views of phrases before the split stay valid, and its next link
+     * points at the new node, so later views find their phrase again. The motif index
+     * is told about the new links and the render cache about the new node.
+     *
+     * @param run The repeat to split.
+     * @param offset The offset of the phrase that gets its own node.
+     * @return The new ordinary node.
+     */
+    private Node split(RepeatNode run, int offset) {
+        detachSnapshots();
+        Node before = run.prevLink();
+        Node after = run.nextLink();
+        Node plain = new Node(run.getPhraseId(offset));
+        adopt(plain);
+        Node first = plain, last = plain;
+        if (offset < run.length() - 1) {
+            last = run.slice(offset + 1, run.length() - offset - 1);
+            adopt(last);
+            plain.setNext(last);
+            last.setPrev(plain);
+        }
+        run.shorten(offset);
+        run.setNext(plain);
+        if (offset == 0)
+            linkCount--;
+        if (offset > 0) {
+            plain.setPrev(run);
+            first = run;
+        }
+        first.setPrev(before);
+        last.setNext(after);
+        if (before == null)
+            head = first;
+        else
+            before.setNext(first);
+        if (after == null)
+            tail = last;
+        else
+            after.setPrev(last);
+        if (motifs != null) {
+            if (offset == 0)
+                motifs.remove(run);
+            motifs.addAll(plain, last);
+        }
+        if (render != null)
+            render.split(run, offset, plain, last == plain ? null : (RepeatNode) last);
+        return plain;
+    }
+
     /**
      * Sets the current node to a specified index.
      *
@@ -49,17 +306,27 @@ public class DoublyLinkedList {
             System.out.print("The list is empty");
             return;
         }
-        Node temp = head;
-        int count = 0;
-        while (temp != null) {
-            if (count == index) {
-                current = temp;
-                return;
-            }
-            temp = temp.getNext();
-            count++;
+        Node node = locate(index);
+        record(EditOperation.SET_CURRENT, walked);
+        if (node == null) {
+            System.out.println("Invalid index. Current remains unchanged.");
+            return;
         }
-        System.out.println("Invalid index. Current remains unchanged.");
+        current = node;
+        currentIndex = index;
+    }
+
+    /**
+     * Returns the node at a specified index. A phrase inside a repeat is split out of
+     * it, so the node returned is always an ordinary one.
+     *
+     * @param index The index of the node.
+     * @return The node at that index, or null if the index is out of range.
+     */
+    public Node getNode(int index) {
+        Node node = locate(index);
+        record(EditOperation.GET_NODE, walked);
+        return node;
     }
 
     /**
@@ -72,12 +339,13 @@ public class DoublyLinkedList {
     }
 
     /**
-     * Returns the tail node of the list.
+     * Returns the tail node of the list. If the list ends with a repeat, this is a
+     * view of its last phrase.
      *
      * @return The last node (tail).
      */
     public Node getTail() {
-        return tail;
+        return tail == null ? null : tail.lastPosition();
     }
 
     /**
@@ -85,7 +353,9 @@ public class DoublyLinkedList {
      */
     public void moveForward() {
         if (current != null && current.getNext() != null) {
-            current = current.getNext();
+            current = settle(current.getNext());
+            if (currentIndex != UNKNOWN_INDEX)
+                currentIndex++;
         } else {
             System.out.println("Already at the last phrase.");
         }
@@ -96,7 +366,9 @@ public class DoublyLinkedList {
      */
     public void moveBackward() {
         if (current != null && current.getPrev() != null) {
-            current = current.getPrev();
+            current = settle(current.getPrev());
+            if (currentIndex != UNKNOWN_INDEX)
+                currentIndex--;
         } else {
             System.out.println("Already at the first phrase.");
         }
@@ -108,7 +380,20 @@ public class DoublyLinkedList {
      * @param phrase The musical phrase to be added.
      */
     public void addAtEnd (String phrase) {
+        linkAtEnd(phrase);
+        record(EditOperation.ADD_AT_END, 0);
+    }
+
+    /**
+     * Links a new node holding a phrase after the tail and makes it current.
+     *
+     * @param phrase The musical phrase to be added.
+     */
+    private void linkAtEnd(String phrase) {
+        detachSnapshots();
+        modCount++;
         Node newNode = new Node(phrase);
+        adopt(newNode);
         if (head == null)
             head = tail = newNode;
         else {
@@ -117,6 +402,11 @@ public class DoublyLinkedList {
             tail = newNode;
         }
         current = tail;
+        currentIndex = size++;
+        if (motifs != null)
+            motifs.add(newNode);
+        if (render != null)
+            render.inserted(currentIndex, 1, newNode);
     }
 
     /**
@@ -125,7 +415,10 @@ public class DoublyLinkedList {
      * @param phrase The musical phrase to be added.
      */
     public void addAtBeginning (String phrase) {
+        detachSnapshots();
+        modCount++;
         Node newNode = new Node(phrase);
+        adopt(newNode);
         if (head == null)
             head = tail = newNode;
         else {
@@ -134,6 +427,13 @@ public class DoublyLinkedList {
             head = newNode;
         }
         current = head;
+        currentIndex = 0;
+        size++;
+        if (motifs != null)
+            motifs.add(newNode);
+        if (render != null)
+            render.inserted(0, 1, newNode);
+        record(EditOperation.ADD_AT_BEGINNING, 0);
     }
 
     /**
@@ -142,17 +442,37 @@ public class DoublyLinkedList {
      * @param phrase The musical phrase to be added.
      */
     public void addAtCurrent (String phrase) {
+        linkAtCurrent(phrase);
+        record(EditOperation.ADD_AT_CURRENT, 0);
+    }
+
+    /**
+     * Links a new node holding a phrase before the current node, or at the end if
+     * there is no current node, and makes it current.
+     *
+     * @param phrase The musical phrase to be added.
+     */
+    private void linkAtCurrent(String phrase) {
         if (current == null) {
-            addAtEnd(phrase);
+            linkAtEnd(phrase);
             return;
         }
-        Node newNode = new Node (phrase, current.getPrev(), current);
+        detachSnapshots();
+        modCount++;
+        int index = render == null ? 0 : getCurrentIndex();
+        Node newNode = new Node (phrase, current.prevLink(), current);
+        adopt(newNode);
         if (current == head)
             head = newNode;
         else
-            current.getPrev().setNext(newNode);
+            current.prevLink().setNext(newNode);
         current.setPrev(newNode);
         current = newNode;
+        size++;
+        if (motifs != null)
+            motifs.add(newNode);
+        if (render != null)
+            render.inserted(index, 1, newNode);
     }
 
     /**
@@ -162,19 +482,24 @@ public class DoublyLinkedList {
      * @param index The index at which to insert the phrase.
      */
     public void add (String phrase, int index) {
-        Node ptr = head;
-        int count = 0;
-        while (ptr != null) {
-            if (count == index) {
-                current = ptr;
-                addAtCurrent(phrase);
-                return;
-            }
-            ptr = ptr.getNext();
-            count++;
-        }
-        if (count == index) {
-            addAtEnd(phrase);
+        addAt(phrase, index);
+        record(EditOperation.ADD, walked);
+    }
+
+    /**
+     * Inserts a phrase at a specific index and records the nodes visited in walked.
+     *
+     * @param phrase The musical phrase to be added.
+     * @param index The index at which to insert the phrase.
+     */
+    private void addAt(String phrase, int index) {
+        Node ptr = locate(index);
+        if (ptr != null) {
+            current = ptr;
+            currentIndex = index;
+            linkAtCurrent(phrase);
+        } else if (index == size) {
+            linkAtEnd(phrase);
         }
     }
 
@@ -184,17 +509,32 @@ public class DoublyLinkedList {
      * @param index The index of the phrase to copy.
      */
     public void repeatPhraseToEnd (int index) {
-        Node ptr = head;
-        int count = 0;
-        while (ptr != null) {
-            if (count == index) {
-                addAtEnd(ptr.getPhrase());
-                return;
-            }
-            ptr = ptr.getNext();
-            count++;
+        Node ptr = positionAt(index);
+        record(EditOperation.REPEAT_PHRASE, walked);
+        if (ptr == null) {
+            System.out.println("Invalid index. No phrase copied.");
+            return;
         }
-        System.out.println("Invalid index. No phrase copied.");
+        linkAtEnd(ptr.getPhrase());
+    }
+
+    /**
+     * Adds a phrase at a given index to the end of the list a number of times, as a
+     * single repeat node rather than one node per copy. The last copy becomes current.
+     *
+     * @param index The index of the phrase to copy.
+     * @param times How many copies to add.
+     */
+    @Override
+    public void repeatPhraseToEnd(int index, int times) {
+        Node ptr = positionAt(index);
+        record(EditOperation.REPEAT_PHRASE, walked);
+        if (ptr == null || times < 1) {
+            System.out.println("Invalid index. No phrase copied.");
+            return;
+        }
+        current = insertRepeat(new int[] {ptr.getPhraseId()}, times, null, size);
+        currentIndex = size - 1;
     }
 
     /**
@@ -203,27 +543,49 @@ public class DoublyLinkedList {
      * @return The removed node.
      */
     public Node removeCurrent () {
+        Node removed = unlinkCurrent();
+        dropMarkers(removed);
+        record(EditOperation.REMOVE_CURRENT, 0);
+        return removed;
+    }
+
+    /**
+     * Unlinks the current node; the node after it, or the new tail, becomes current.
+     *
+     * @return The removed node, or null if there is no current node.
+     */
+    private Node unlinkCurrent() {
         if (current == null) {
             System.out.println("No phrase to remove.");
             return null;
         }
+        detachSnapshots();
+        modCount++;
         Node save = current;
+        release(save);
+        if (render != null)
+            render.removed(getCurrentIndex(), 1, save.getNext());
+        size--;
+        if (motifs != null)
+            motifs.remove(save);
         if (current == head && current == tail)
             current = head = tail = null;
         else if (current == head) {
-            head = head.getNext();
+            head = head.nextLink();
             head.setPrev(null);
-            current = head;
+            current = settle(head);
+            currentIndex = 0;
         }
         else if (current == tail) {
-            tail = tail.getPrev();
+            tail = tail.prevLink();
             tail.setNext(null);
-            current = tail;
+            current = settle(tail.lastPosition());
+            currentIndex = size - 1;
         }
         else {
-            current.getPrev().setNext(current.getNext());
-            current.getNext().setPrev(current.getPrev());
-            current = current.getNext();
+            current.prevLink().setNext(current.nextLink());
+            current.nextLink().setPrev(current.prevLink());
+            current = settle(current.nextLink());
         }
         return save;
     }
@@ -235,101 +597,1029 @@ public class DoublyLinkedList {
      * @return The removed node.
      */
     public Node remove (int index) {
-        Node ptr = head;
-        int count = 0;
-        while (ptr != null) {
-            if (count == index) {
-                current = ptr;
-                return removeCurrent();
-            }
-            ptr = ptr.getNext();
-            count++;
+        Node removed = removeAt(index);
+        dropMarkers(removed);
+        record(EditOperation.REMOVE, walked);
+        return removed;
+    }
+
+    /**
+     * Removes the phrase at a specific index and records the nodes visited in walked.
+     *
+     * @param index The index of the phrase to remove.
+     * @return The removed node, or null if the index is out of range.
+     */
+    private Node removeAt(int index) {
+        Node ptr = locate(index);
+        if (ptr == null) {
+            System.out.println("Invalid index. No phrase removed.");
+            return null;
         }
-        System.out.println("Invalid index. No phrase removed.");
-        return null;
+        current = ptr;
+        currentIndex = index;
+        return unlinkCurrent();
     }
 
     /**
-     * Moves a phrase from one index to another.
+     * Moves a phrase from one index to another. The node itself is unlinked and
+     * linked in again, so markers on it follow it. The new index refers to the list
+     * after the phrase was taken out; if it is out of range the phrase is dropped.
      *
      * @param currentIndex The current index of the phrase.
      * @param newIndex The new index where the phrase should be moved.
      */
     public void move (int currentIndex, int newIndex) {
-        Node oldCurrent = remove(currentIndex);
-        if (oldCurrent == null) {
+        Node moved = removeAt(currentIndex);
+        if (moved == null) {
+            record(EditOperation.MOVE, walked);
             System.out.println("Invalid move: Source index does not exist.");
             return;
         }
-        add(oldCurrent.getPhrase(), newIndex);
+        int removing = walked;
+        Node anchor = locate(newIndex);
+        record(EditOperation.MOVE, removing + walked);
+        if (anchor == null && newIndex != size) {
+            dropMarkers(moved);
+            return;
+        }
+        adopt(moved);
+        linkBefore(moved, moved, 1, anchor, newIndex);
+        current = moved;
+        this.currentIndex = newIndex;
     }
 
     /**
-     * Plays the entire composition from the beginning.
+     * Adds every phrase of an array to the end of the list. The new nodes are chained
+     * together first and linked to the list once.
+     *
+     * @param phrases The phrases to add.
      */
-    public void playComposition() {
-        Player player = new Player();
-        Node temp = head;
-        if (temp == null) {
-            System.out.println("No phrases to play.");
+    public void addAll(String[] phrases) {
+        Node last = insertPhrases(phrases, null, size);
+        if (last != null) {
+            current = last;
+            currentIndex = size - 1;
+        }
+        record(EditOperation.ADD_ALL, 0);
+    }
+
+    /**
+     * Inserts every phrase of an array, in order, starting at a specific index. The
+     * position is found in one walk and the new nodes are linked in once. The last
+     * inserted phrase becomes current.
+     *
+     * @param phrases The phrases to add.
+     * @param index The index at which the first phrase is inserted.
+     */
+    public void addAll(String[] phrases, int index) {
+        Node anchor = locate(index);
+        record(EditOperation.ADD_ALL, walked);
+        if (anchor == null && index != size) {
+            System.out.println("Invalid index. No phrases added.");
+            return;
+        }
+        Node last = insertPhrases(phrases, anchor, index);
+        if (last != null) {
+            current = last;
+            currentIndex = index + phrases.length - 1;
+        }
+    }
+
+    /**
+     * Appends a copy of every phrase of another list. The other list is unchanged.
+     * Repeats are copied as repeats, sharing their pattern.
+     *
+     * @param other The list to copy from.
+     */
+    public void addAll(DoublyLinkedList other) {
+        if (other.head == null)
             return;
+        insertCopies(other.head, other.tail, other.size, null, size);
+        current = settle(tail.lastPosition());
+        currentIndex = size - 1;
+        record(EditOperation.ADD_ALL, 0);
+    }
+
+    /**
+     * Removes the phrases from one index up to, but not including, another. The range
+     * is found in one walk and unlinked as a whole. The phrase after the range becomes
+     * current, or the new last phrase if the range reached the end.
+     *
+     * @param from The index of the first phrase to remove.
+     * @param to The index after the last phrase to remove.
+     * @return The number of phrases removed.
+     */
+    public int removeRange(int from, int to) {
+        if (from < 0 || from > to) {
+            System.out.println("Invalid range. No phrases removed.");
+            return 0;
         }
-        while (temp != null) {
-            player.play(temp.getPhrase());
-            System.out.println("Playing: " + temp.getPhrase());
-            temp = temp.getNext();
+        if (from == to)
+            return 0;
+        if (to > size) {
+            System.out.println("Invalid range. No phrases removed.");
+            return 0;
         }
+        Node start = locate(from);
+        int count = walked;
+        Node end = locate(to - 1);
+        record(EditOperation.REMOVE_RANGE, count + walked);
+        detachSnapshots();
+        modCount++;
+        Node before = start.prevLink();
+        Node after = end.nextLink();
+        if (before == null)
+            head = after;
+        else
+            before.setNext(after);
+        if (after == null)
+            tail = before;
+        else
+            after.setPrev(before);
+        start.setPrev(null);
+        end.setNext(null);
+        Set<Node> removed = markers == null ? null : Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Node temp = start; temp != null; temp = temp.nextLink()) {
+            release(temp);
+            if (removed != null)
+                removed.add(temp);
+            if (motifs != null)
+                motifs.remove(temp);
+            if (render != null && temp instanceof RepeatNode)
+                render.removedRun((RepeatNode) temp);
+        }
+        if (removed != null)
+            markers.values().removeIf(removed::contains);
+        if (render != null)
+            render.removed(from, to - from, after);
+        size -= to - from;
+        current = after != null ? settle(after) : before == null ? null : settle(before.lastPosition());
+        currentIndex = after != null ? from : from - 1;
+        return to - from;
     }
 
     /**
-     * Plays the composition from the current node onward.
+     * Copies the phrases from one index up to, but not including, another and inserts
+     * them a number of times at a specific index. More than one copy is inserted as a
+     * repeat node holding the phrase ids of the range once, so the memory used does
+     * not grow with the number of copies; the repeat is split only where an edit or
+     * the current position lands inside it. The last inserted phrase becomes current.
+     *
+     * @param from The index of the first phrase to copy.
+     * @param to The index after the last phrase to copy.
+     * @param times How many copies of the range to insert.
+     * @param index The index, in the list before inserting, at which the copies go.
      */
-    public void playFromCurrent() {
-        Player player = new Player();
-        Node temp = current;
+    public void repeatRange(int from, int to, int times, int index) {
+        // An index equal to the length of the list means "at the end".
+        if (from < 0 || from >= to || to > size || times < 1 || index < 0 || index > size) {
+            System.out.println("Invalid range. No phrases repeated.");
+            return;
+        }
+        Node anchor = locate(index);
+        int count = walked;
+        int[] pattern = new int[to - from];
+        Node ptr = positionAt(from);
+        for (int i = 0; i < pattern.length; i++, ptr = ptr.getNext())
+            pattern[i] = ptr.getPhraseId();
+        record(EditOperation.REPEAT_RANGE, count + walked + pattern.length);
+        current = insertRepeat(pattern, times, anchor, index);
+        currentIndex = index + times * pattern.length - 1;
+    }
+
+    /**
+     * Moves every node of another list to the end of this list in O(1) by relinking
+     * the head and tail. The other list is left empty. If this list had no current
+     * node, the first moved node becomes current.
+     *
+     * @param other The list whose nodes are moved.
+     */
+    public void splice(DoublyLinkedList other) {
+        if (other == this || other.head == null)
+            return;
+        spliceBefore(other, null, size);
+        record(EditOperation.SPLICE, 0);
+    }
+
+    /**
+     * Moves every node of another list into this list before a specific index by
+     * relinking, without copying. The other list is left empty. If this list had no
+     * current node, the first moved node becomes current.
+     *
+     * @param other The list whose nodes are moved.
+     * @param index The index at which the first moved node ends up.
+     */
+    public void splice(DoublyLinkedList other, int index) {
+        if (other == this || other.head == null)
+            return;
+        Node anchor = locate(index);
+        record(EditOperation.SPLICE, walked);
+        if (anchor == null && index != size) {
+            System.out.println("Invalid index. No phrases spliced.");
+            return;
+        }
+        spliceBefore(other, anchor, index);
+    }
+
+    /**
+     * Links the whole chain of another list before an anchor and empties the other list.
+     *
+     * @param other The list whose nodes are moved.
+     * @param anchor The node that should follow the moved nodes, or null for the end.
+     * @param index The index of the anchor.
+     */
+    private void spliceBefore(DoublyLinkedList other, Node anchor, int index) {
+        other.detachSnapshots();
+        other.modCount++;
+        Node first = other.head;
+        int count = other.size;
+        // The moved nodes still point to the other list's owner; forward it to ours.
+        other.owner.forwardTo(owner);
+        other.owner = new NodeOwner(other);
+        linkBefore(first, other.tail, count, anchor, index);
+        linkCount += other.linkCount;
+        other.head = other.tail = other.current = null;
+        other.size = 0;
+        other.linkCount = 0;
+        other.markers = null;
+        other.motifs = null;
+        other.render = null;
         if (current == null) {
-            System.out.println("No current phrase to play from.");
+            current = settle(first);
+            currentIndex = index;
+        } else if (currentIndex >= index) {
+            currentIndex += count;
+        }
+    }
+
+    /**
+     * Creates a node for every phrase of an array and links them before an anchor.
+     *
+     * @param phrases The phrases to insert.
+     * @param anchor The node that should follow the new nodes, or null for the end.
+     * @param index The index of the anchor.
+     * @return The last inserted node, or null if the array is empty.
+     */
+    private Node insertPhrases(String[] phrases, Node anchor, int index) {
+        Node first = null, last = null;
+        for (String phrase : phrases) {
+            Node newNode = new Node(phrase, last, null);
+            adopt(newNode);
+            if (last == null)
+                first = newNode;
+            else
+                last.setNext(newNode);
+            last = newNode;
+        }
+        if (first != null)
+            linkBefore(first, last, phrases.length, anchor, index);
+        return last;
+    }
+
+    /**
+     * Copies the links from start to end and links the copies before an anchor. A
+     * repeat is copied as a repeat sharing the same pattern. The copies are chained
+     * together before anything is linked, so the anchor may lie inside the copied
+     * range.
+     *
+     * @param start The first link to copy.
+     * @param end The last link to copy.
+     * @param length The number of phrases from start to end.
+     * @param anchor The node that should follow the copies, or null for the end.
+     * @param index The index of the anchor.
+     */
+    private void insertCopies(Node start, Node end, int length, Node anchor, int index) {
+        Node first = null, last = null;
+        for (Node ptr = start; ; ptr = ptr.nextLink()) {
+            Node copy = ptr instanceof RepeatNode
+                    ? ((RepeatNode) ptr).copy() : new Node(ptr.getPhraseId());
+            adopt(copy);
+            if (last == null)
+                first = copy;
+            else {
+                last.setNext(copy);
+                copy.setPrev(last);
+            }
+            last = copy;
+            if (ptr == end)
+                break;
+        }
+        linkBefore(first, last, length, anchor, index);
+    }
+
+    /**
+     * Links a pattern of phrases, repeated a number of times, before an anchor. A
+     * single copy is linked as ordinary nodes. More copies are linked as one repeat
+     * for all but the last phrase, followed by an ordinary node for the last phrase so
+     * that it can become current without splitting the repeat.
+     *
+     * @param pattern The phrase ids of the pattern.
+     * @param times How many times to repeat the pattern.
+     * @param anchor The node that should follow the phrases, or null for the end.
+     * @param index The index of the anchor.
+     * @return The node holding the last inserted phrase.
+     */
+    private Node insertRepeat(int[] pattern, int times, Node anchor, int index) {
+        int count = pattern.length * times;
+        Node last = new Node(pattern[pattern.length - 1]);
+        adopt(last);
+        Node first = last;
+        if (times == 1) {
+            for (int i = pattern.length - 2; i >= 0; i--) {
+                Node newNode = new Node(pattern[i]);
+                adopt(newNode);
+                newNode.setNext(first);
+                first.setPrev(newNode);
+                first = newNode;
+            }
+        } else {
+            first = new RepeatNode(pattern, 0, count - 1);
+            adopt(first);
+            first.setNext(last);
+            last.setPrev(first);
+        }
+        linkBefore(first, last, count, anchor, index);
+        return last;
+    }
+
+    /**
+     * Links a chain of nodes, already linked to each other, before an anchor.
+     *
+     * @param first The first node of the chain.
+     * @param last The last node of the chain.
+     * @param count The number of nodes in the chain.
+     * @param anchor The node that should follow the chain, or null for the end.
+     * @param index The index of the anchor, which the first node of the chain takes.
+     */
+    private void linkBefore(Node first, Node last, int count, Node anchor, int index) {
+        detachSnapshots();
+        modCount++;
+        size += count;
+        Node before = anchor == null ? tail : anchor.prevLink();
+        first.setPrev(before);
+        last.setNext(anchor);
+        if (before == null)
+            head = first;
+        else
+            before.setNext(first);
+        if (anchor == null)
+            tail = last;
+        else
+            anchor.setPrev(last);
+        if (motifs != null)
+            motifs.addAll(first, last);
+        if (render != null)
+            render.inserted(index, count, first);
+    }
+
+    /**
+     * Finds the first node of every occurrence of a motif, in no particular order,
+     * without walking the whole list. The first search builds an index of the nodes
+     * holding each phrase; every edit after that keeps it up to date, so later searches
+     * only visit the occurrences of the motif's rarest phrase and their neighbours.
+     * An occurrence starting inside a repeat is returned as a position view, and
+     * nothing is split, so searching leaves the index as it was.
+     *
+     * @param motif The phrases of the motif, in order.
+     * @return The first node of each occurrence.
+     */
+    public List<Node> findMotifNodes(String... motif) {
+        if (motifs == null)
+            motifs = new MotifIndex(head);
+        return motifs.find(MotifIndex.toIds(motif));
+    }
+
+    /**
+     * Finds the index of every occurrence of a motif with the motif index, so only
+     * the occurrences are compared rather than every phrase of the list. The
+     * occurrences are then numbered in one walk over the links, which skips each
+     * repeat in one step and stops once every occurrence is numbered.
+     *
+     * @param motif The phrases of the motif, in order.
+     * @return The indices of the first phrase of each occurrence, in increasing order.
+     */
+    @Override
+    public int[] findMotif(String... motif) {
+        List<Node> found = findMotifNodes(motif);
+        IdentityHashMap<Node, List<Integer>> offsets = new IdentityHashMap<>();
+        for (Node node : found) {
+            Node link = node;
+            int offset = 0;
+            if (node instanceof RepeatNode.Position) {
+                link = ((RepeatNode.Position) node).getRun();
+                offset = ((RepeatNode.Position) node).getOffset();
+            }
+            offsets.computeIfAbsent(link, key -> new ArrayList<>()).add(offset);
+        }
+        int[] indices = new int[found.size()];
+        int count = 0;
+        int index = 0;
+        for (Node link = head; link != null && count < indices.length; link = link.nextLink()) {
+            List<Integer> at = offsets.get(link);
+            if (at != null)
+                for (int offset : at)
+                    indices[count++] = index + offset;
+            index += link.length();
+        }
+        Arrays.sort(indices);
+        return indices;
+    }
+
+    /**
+     * Replaces the phrase of the current node.
+     *
+     * @param phrase The new phrase.
+     */
+    public void replaceCurrent(String phrase) {
+        if (current == null) {
+            System.out.println("No current phrase to replace.");
             return;
         }
-        while (temp != null) {
-            player.play(temp.getPhrase());
-            System.out.println("Playing: " + temp.getPhrase());
-            temp = temp.getNext();
+        replacePhrase(current, PhraseDictionary.getShared().intern(phrase));
+    }
+
+    /**
+     * Replaces the phrase of a node of this list; Node.setPhrase calls this for the
+     * nodes of a list. A phrase inside a repeat is split out of it first. The motif
+     * index and the render cache are told exactly which node changed, so neither has
+     * to look for the change, and snapshots still reading the old phrase are detached
+     * first.
+     *
+     * @param node A node or position view of this list.
+     * @param phraseId The dictionary id of the new phrase.
+     */
+    void replacePhrase(Node node, int phraseId) {
+        node = settle(node);
+        detachSnapshots();
+        if (motifs != null)
+            motifs.remove(node);
+        node.setPhraseId(phraseId);
+        if (motifs != null)
+            motifs.add(node);
+        if (render != null)
+            render.changed(node);
+    }
+
+    /**
+     * Renders the whole composition as one MIDI sequence. The first call renders every
+     * phrase in segments; after that only the segments touched by edits since the
+     * last render are rendered again, and the rest are only copied into the result.
+     * Playback and export use the segments directly and skip the copy.
+     *
+     * @return The rendered composition.
+     */
+    public Sequence render() {
+        return getRenderCache().toSequence();
+    }
+
+    /**
+     * Returns the render cache of the list, created on first use and refreshed so that
+     * no segment is dirty.
+     *
+     * @return The refreshed render cache.
+     */
+    public RenderCache getRenderCache() {
+        if (render == null)
+            render = new RenderCache(head, PhraseCache.getShared());
+        render.refresh();
+        return render;
+    }
+
+    /**
+     * Drops the render cache to free the memory held by the rendered segments. The
+     * next render starts from scratch.
+     */
+    public void dropRenderCache() {
+        render = null;
+    }
+
+    /**
+     * Plays the entire composition from the render cache, so that after small edits
+     * only the edited segments are rendered again. The rendered segments are handed
+     * to the engine one after another rather than copied into one sequence first, so
+     * playback starts without a pass over the whole composition. A stop ends the
+     * playback instead of only the segment playing.
+     */
+    @Override
+    public void playCompositionGapless() {
+        if (head == null) {
+            System.out.println("No phrases to play.");
+            return;
+        }
+        RenderCache cache = getRenderCache();
+        PlaybackEngine engine = PlaybackEngine.getShared();
+        int stopCount = engine.getStopCount();
+        for (int k = 0; k < cache.getSegmentCount(); k++) {
+            boolean played = k == 0
+                    ? engine.play(cache.getSegment(k), stopCount)
+                    : engine.playNext(cache.getSegment(k), stopCount);
+            if (!played)
+                return;
         }
     }
 
     /**
-     * Plays a single phrase at a given index.
+     * Exports the composition to a MIDI file. If the list has a render cache, the
+     * file is written from it, so after small edits only the edited segments are
+     * rendered again; otherwise phrases are streamed one at a time as usual, without
+     * keeping the rendered composition in memory.
      *
-     * @param index The index of the phrase to play.
+     * @param fileName The name of the MIDI file to write.
      */
-    public void playSinglePhrase(int index) {
-        Player player = new Player();
-        Node ptr = head;
+    @Override
+    public void exportToMidi(String fileName) {
+        if (head == null || render == null) {
+            Composition.super.exportToMidi(fileName);
+            return;
+        }
+        try {
+            new MidiExporter(PhraseCache.getShared()).exportSegments(getRenderCache(), Paths.get(fileName));
+            System.out.println("Exported " + size + " phrases to " + fileName);
+        } catch (IOException e) {
+            System.out.println("Could not export: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Puts a named marker on the current node, replacing any marker with that name.
+     * The marker stays on the node through edits elsewhere and through moves of the
+     * node, and goes away when the node is removed.
+     *
+     * @param name The marker name.
+     */
+    public void setMarker(String name) {
+        if (current == null) {
+            System.out.println("No current phrase to mark.");
+            return;
+        }
+        if (markers == null)
+            markers = new HashMap<>();
+        markers.put(name, current);
+    }
+
+    /**
+     * Removes a named marker.
+     *
+     * @param name The marker name.
+     */
+    public void removeMarker(String name) {
+        if (markers == null || markers.remove(name) == null)
+            System.out.println("No marker named " + name + ".");
+    }
+
+    /**
+     * Returns the names of all markers, in alphabetical order.
+     *
+     * @return The marker names.
+     */
+    public Set<String> getMarkerNames() {
+        return markers == null ? Collections.emptySet() : new TreeSet<>(markers.keySet());
+    }
+
+    /**
+     * Returns the node a marker is on.
+     *
+     * @param name The marker name.
+     * @return The marked node, or null if there is no such marker.
+     */
+    public Node getMarker(String name) {
+        return markers == null ? null : markers.get(name);
+    }
+
+    /**
+     * Makes the marked node current in O(1).
+     *
+     * @param name The marker name.
+     */
+    public void jumpToMarker(String name) {
+        Node node = findMarker(name);
+        if (node == null)
+            return;
+        current = node;
+        currentIndex = UNKNOWN_INDEX;
+    }
+
+    /**
+     * Plays the composition from a marked node onward, without changing the current
+     * node.
+     *
+     * @param name The marker name.
+     */
+    public void playFromMarker(String name) {
+        Node node = findMarker(name);
+        if (node != null)
+            playFrom(node);
+    }
+
+    /**
+     * Moves the marked node so that it comes just before another marked node, by
+     * relinking in O(1). The moved node becomes current.
+     *
+     * @param source The marker on the node to move.
+     * @param target The marker on the node it should come before.
+     */
+    public void moveToMarker(String source, String target) {
+        moveRangeToMarker(source, source, target);
+    }
+
+    /**
+     * Moves the nodes from one marked node through another so that they come just
+     * before a third marked node. The range is relinked in O(1); only the range itself
+     * is walked, to check that the markers are in order and that the target lies
+     * outside it. The first moved node becomes current.
+     *
+     * @param from The marker on the first node to move.
+     * @param to The marker on the last node to move.
+     * @param target The marker on the node the range should come before.
+     */
+    public void moveRangeToMarker(String from, String to, String target) {
+        Node first = findMarker(from);
+        Node last = findMarker(to);
+        Node anchor = findMarker(target);
+        if (first == null || last == null || anchor == null)
+            return;
         int count = 0;
-        while (ptr != null) {
-            if (count == index) {
-                player.play(ptr.getPhrase());
-                System.out.println("Playing: " + ptr.getPhrase());
+        for (Node temp = first; ; temp = temp.nextLink()) {
+            if (temp == null) {
+                System.out.println("Invalid range: " + from + " does not come before " + to + ".");
+                return;
+            }
+            if (temp == anchor) {
+                System.out.println("Invalid move: " + target + " is inside the range.");
                 return;
             }
-            ptr = ptr.getNext();
-            count++;
+            count += temp.length();
+            if (temp == last)
+                break;
+        }
+        detachSnapshots();
+        modCount++;
+        // The render cache works by index; finding them is the one walk to the head.
+        int firstIndex = render == null ? 0 : indexOf(first);
+        int anchorIndex = render == null ? 0 : indexOf(anchor);
+        Node before = first.prevLink();
+        Node after = last.nextLink();
+        if (before == null)
+            head = after;
+        else
+            before.setNext(after);
+        if (after == null)
+            tail = before;
+        else
+            after.setPrev(before);
+        Node anchorPrev = anchor.prevLink();
+        first.setPrev(anchorPrev);
+        last.setNext(anchor);
+        if (anchorPrev == null)
+            head = first;
+        else
+            anchorPrev.setNext(first);
+        anchor.setPrev(last);
+        current = first;
+        currentIndex = UNKNOWN_INDEX;
+        if (render != null) {
+            render.removed(firstIndex, count, after);
+            render.inserted(anchorIndex > firstIndex ? anchorIndex - count : anchorIndex, count, first);
         }
-        System.out.println("Invalid index. No phrase played.");
     }
 
     /**
-     * Displays all phrases in the doubly linked list with their corresponding indices.
+     * Looks up a marker, printing a message if it does not exist.
+     *
+     * @param name The marker name.
+     * @return The marked node, or null.
+     */
+    private Node findMarker(String name) {
+        Node node = getMarker(name);
+        if (node == null)
+            System.out.println("No marker named " + name + ".");
+        return node;
+    }
+
+    /**
+     * Removes every marker on a node that has been taken out of the list.
+     *
+     * @param removed The removed node, may be null.
+     */
+    private void dropMarkers(Node removed) {
+        if (markers != null && removed != null)
+            markers.values().removeIf(node -> node == removed);
+    }
+
+    /**
+     * Returns an iterator over the nodes of the list from the head.
+     *
+     * @return The iterator.
+     */
+    @Override
+    public ListIterator<Node> iterator() {
+        return new NodeIterator(head, 0);
+    }
+
+    /**
+     * Returns an iterator over the nodes of the list that starts at an index and can
+     * go forward with next or backward with previous.
+     *
+     * @param index The index of the node the first call to next returns.
+     * @return The iterator.
+     * @throws IndexOutOfBoundsException If the index is not between 0 and the size.
+     */
+    public ListIterator<Node> listIterator(int index) {
+        if (index < 0 || index > size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        return new NodeIterator(index == size ? null : positionAt(index), index);
+    }
+
+    /**
+     * Returns an iterator that starts at the current node without walking to it:
+     * next returns the current node and previous the node before it.
+     *
+     * @return The iterator; it starts at the head if there is no current node.
+     */
+    public ListIterator<Node> listIteratorFromCurrent() {
+        return current == null ? iterator() : new NodeIterator(current, getCurrentIndex());
+    }
+
+    /**
+     * Returns a spliterator over the nodes of the list. It is SIZED and SUBSIZED, and
+     * splits in half, walking only the links of the first half.
+     *
+     * @return The spliterator.
+     */
+    @Override
+    public Spliterator<Node> spliterator() {
+        return new NodeSpliterator(head, 0, size, modCount);
+    }
+
+    /**
+     * Returns a sequential stream of the nodes of the list.
+     *
+     * @return The stream.
+     */
+    public Stream<Node> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns a parallel stream of the nodes of the list, for passes such as
+     * compiling or validating every phrase. The list must not be changed while the
+     * stream runs.
+     *
+     * @return The stream.
+     */
+    public Stream<Node> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * Takes an O(1) snapshot of the whole list for playback on another thread.
+     *
+     * @return The snapshot.
+     */
+    public PlaybackSnapshot snapshot() {
+        return attachSnapshot(head);
+    }
+
+    /**
+     * Takes an O(1) snapshot of the list from the current node for playback on
+     * another thread.
+     *
+     * @return The snapshot.
+     */
+    public PlaybackSnapshot snapshotFromCurrent() {
+        return attachSnapshot(current);
+    }
+
+    /**
+     * Creates a snapshot that reads the live nodes from a start node and remembers it
+     * so it can be detached before the next structural change.
+     *
+     * @param start The first node of the snapshot.
+     * @return The snapshot.
+     */
+    private PlaybackSnapshot attachSnapshot(Node start) {
+        PlaybackSnapshot snapshot = new PlaybackSnapshot(start);
+        if (snapshots == null)
+            snapshots = new ArrayList<>();
+        snapshots.add(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Detaches every snapshot that still reads this list's nodes. Called before any
+     * change to the links between nodes; costs a single null check when there are no
+     * snapshots.
+     */
+    private void detachSnapshots() {
+        if (snapshots == null)
+            return;
+        for (PlaybackSnapshot snapshot : snapshots)
+            snapshot.detach();
+        snapshots = null;
+    }
+
+    /**
+     * Records an edit in the metrics when they are enabled. When they are not, the
+     * compiler removes the call.
+     *
+     * @param operation The kind of edit.
+     * @param traversed The number of nodes visited to find the position.
+     */
+    private static void record(EditOperation operation, int traversed) {
+        if (Metrics.ENABLED)
+            Metrics.getShared().recordOperation(operation, traversed);
+    }
+
+    /**
+     * Displays all phrases in the doubly linked list, separated by spaces. The output
+     * is built in one buffer and printed once; an empty list prints nothing.
      */
     public void showAllPhrases() {
-        Node temp = head;
-        int index = 0;
-        while (temp.getNext() != null) {
-            System.out.print(temp.getPhrase() + " ");
-            temp = temp.getNext();
+        StringBuilder out = new StringBuilder();
+        for (Node temp = head; temp != null; temp = temp.getNext()) {
+            if (temp != head)
+                out.append(' ');
+            out.append(temp.getPhrase());
+        }
+        System.out.print(out);
+    }
+
+    /**
+     * The NodeIterator class walks the nodes of the list in either direction. When a
+     * repeat is split under it, the view it holds finds its phrase again.
+     */
+    private class NodeIterator implements ListIterator<Node> {
+
+        /** The node the next call to next returns, or null at the end */
+        private Node next;
+        /** The index of that node */
+        private int nextIndex;
+        /** The structural change count the iterator expects */
+        private int expectedModCount = modCount;
+
+        /**
+         * Constructor to initialize an iterator before a node.
+         *
+         * @param next The node the first call to next returns, or null at the end.
+         * @param nextIndex The index of that node.
+         */
+        NodeIterator(Node next, int nextIndex) {
+            this.next = next;
+            this.nextIndex = nextIndex;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextIndex < size;
+        }
+
+        @Override
+        public Node next() {
+            check();
+            if (next == null)
+                throw new NoSuchElementException();
+            Node node = next;
+            next = node.getNext();
+            nextIndex++;
+            return node;
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            return nextIndex > 0;
+        }
+
+        @Override
+        public Node previous() {
+            check();
+            if (nextIndex == 0)
+                throw new NoSuchElementException();
+            next = next == null ? getTail() : next.getPrev();
+            nextIndex--;
+            return next;
+        }
+
+        @Override
+        public int nextIndex() {
+            return nextIndex;
+        }
+
+        @Override
+        public int previousIndex() {
+            return nextIndex - 1;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("The iterator is read-only");
+        }
+
+        @Override
+        public void set(Node node) {
+            throw new UnsupportedOperationException("The iterator is read-only");
+        }
+
+        @Override
+        public void add(Node node) {
+            throw new UnsupportedOperationException("The iterator is read-only");
+        }
+
+        /**
+         * Fails if the list was changed structurally, and takes the node now holding
+         * the next phrase if a repeat was split since it was found.
+         */
+        private void check() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (next != null)
+                next = next.resolve();
+        }
+    }
+
+    /**
+     * The NodeSpliterator class traverses and splits a range of the list's nodes for
+     * streams. Splitting walks to the middle of the range, skipping each repeat in
+     * one step, and hands off the first half.
+     */
+    private class NodeSpliterator implements Spliterator<Node> {
+
+        /** The next node of the range, or null when the range is empty */
+        private Node next;
+        /** The index of that node */
+        private int index;
+        /** The number of nodes left in the range */
+        private int remaining;
+        /** The structural change count the spliterator expects */
+        private final int expectedModCount;
+
+        /**
+         * Constructor to initialize a spliterator over a range of nodes.
+         *
+         * @param next The first node of the range.
+         * @param index The index of that node.
+         * @param remaining The number of nodes in the range.
+         * @param expectedModCount The structural change count of the list.
+         */
+        NodeSpliterator(Node next, int index, int remaining, int expectedModCount) {
+            this.next = next;
+            this.index = index;
+            this.remaining = remaining;
+            this.expectedModCount = expectedModCount;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Node> action) {
+            check();
+            if (remaining == 0)
+                return false;
+            Node node = next;
+            next = node.getNext();
             index++;
+            remaining--;
+            action.accept(node);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Node> action) {
+            while (remaining > 0)
+                tryAdvance(action);
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+        }
+
+        @Override
+        public Spliterator<Node> trySplit() {
+            check();
+            if (remaining < 2)
+                return null;
+            int half = remaining / 2;
+            NodeSpliterator prefix = new NodeSpliterator(next, index, half, expectedModCount);
+            next = RepeatNode.skip(next, half);
+            index += half;
+            remaining -= half;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return remaining;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL;
+        }
+
+        /**
+         * Fails if the list was changed structurally, and takes the node now holding
+         * the next phrase if a repeat was split since it was found.
+         */
+        private void check() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (next != null)
+                next = next.resolve();
         }
-        System.out.print(temp.getPhrase());
     }
 }
@@ -1,4 +1,10 @@
 import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntConsumer;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -9,9 +15,20 @@ import org.junit.jupiter.api.Test;
 public class DoublyLinkedListTest {
 
     /** A list initialized with sample phrases */
-    private DoublyLinkedList list;
+    protected Composition list;
     /** An empty list for testing edge cases */
-    private DoublyLinkedList emptyList;
+    protected Composition emptyList;
+
+    /**
+     * Creates the composition under test. Subclasses override this to run the same
+     * cases against other storage engines.
+     *
+     * @param phrases The initial phrases.
+     * @return A new composition holding the phrases.
+     */
+    protected Composition createComposition(String[] phrases) {
+        return new DoublyLinkedList(phrases);
+    }
 
     /**
      * Initializes test data before each test.
@@ -19,8 +36,8 @@ public class DoublyLinkedListTest {
     @BeforeEach
     public void setUp() {
         String[] sample = {"1","2","3","4"};
-        list = new DoublyLinkedList(sample);
-        emptyList = new DoublyLinkedList();
+        list = createComposition(sample);
+        emptyList = createComposition(new String[0]);
     }
 
     /**
@@ -176,4 +193,215 @@ public class DoublyLinkedListTest {
         assertEquals("3", list.getTail().getPhrase());
         assertEquals("4", list.getTail().getPrev().getPhrase());
     }
+
+    /**
+     * Tests appending and inserting whole arrays of phrases.
+     */
+    @Test
+    public void testAddAll() {
+        list.addAll(new String[] {"5", "6"});
+        assertEquals(List.of("1", "2", "3", "4", "5", "6"), phrases(list));
+        assertEquals("6", list.getCurrent().getPhrase());
+
+        list.addAll(new String[] {"a", "b"}, 1);
+        assertEquals(List.of("1", "a", "b", "2", "3", "4", "5", "6"), phrases(list));
+        assertEquals("b", list.getCurrent().getPhrase());
+
+        list.addAll(new String[] {"x"}, 20);
+        assertEquals(8, phrases(list).size());
+    }
+
+    /**
+     * Tests removing a range of phrases.
+     */
+    @Test
+    public void testRemoveRange() {
+        assertEquals(2, list.removeRange(1, 3));
+        assertEquals(List.of("1", "4"), phrases(list));
+        assertEquals("4", list.getCurrent().getPhrase());
+
+        assertEquals(0, list.removeRange(1, 5));
+        assertEquals(1, list.removeRange(1, 2));
+        assertEquals("1", list.getCurrent().getPhrase());
+        assertEquals("1", list.getTail().getPhrase());
+    }
+
+    /**
+     * Tests repeating a range of phrases several times at a position.
+     */
+    @Test
+    public void testRepeatRange() {
+        list.repeatRange(1, 3, 3, 4);
+        assertEquals(List.of("1", "2", "3", "4", "2", "3", "2", "3", "2", "3"), phrases(list));
+        assertEquals("3", list.getCurrent().getPhrase());
+
+        list.repeatRange(0, 1, 2, 0);
+        assertEquals("1", list.getHead().getPhrase());
+        assertEquals("1", list.getHead().getNext().getNext().getPhrase());
+        assertEquals("2", list.getHead().getNext().getNext().getNext().getPhrase());
+
+        list.repeatRange(2, 1, 1, 0);
+        list.repeatRange(0, 1, 1, 50);
+        assertEquals(12, phrases(list).size());
+    }
+
+    /**
+     * Tests moving all nodes of one list into another without copying.
+     */
+    @Test
+    public void testSplice() {
+        DoublyLinkedList target = new DoublyLinkedList(new String[] {"1", "2"});
+        DoublyLinkedList source = new DoublyLinkedList(new String[] {"a", "b"});
+        Node first = source.getHead();
+        target.splice(source, 1);
+        assertSame(first, target.getHead().getNext());
+        assertEquals(List.of("1", "a", "b", "2"), phrases(target));
+        assertNull(source.getHead());
+
+        DoublyLinkedList more = new DoublyLinkedList(new String[] {"c"});
+        target.splice(more);
+        assertEquals("c", target.getTail().getPhrase());
+        assertEquals("b", target.getTail().getPrev().getPrev().getPhrase());
+
+        target.addAll(new DoublyLinkedList(new String[] {"d", "e"}));
+        assertEquals(List.of("1", "a", "b", "2", "c", "d", "e"), phrases(target));
+    }
+
+    /**
+     * Tests that the memory estimate counts links rather than phrases and follows
+     * splices, removals and edits inside repeats. A repeat is one link in
+     * front of the real node that ends it.
+     */
+    @Test
+    public void testEstimatedBytes() {
+        DoublyLinkedList target = new DoublyLinkedList(new String[] {"1", "2", "3", "4"});
+        assertEquals(4 * 32, target.getEstimatedBytes());
+        target.splice(new DoublyLinkedList(new String[] {"a", "b"}), 2);
+        target.removeRange(0, 1);
+        assertEquals(5 * 32, target.getEstimatedBytes());
+        target.repeatPhraseToEnd(0, 1000);
+        assertEquals(7 * 32, target.getEstimatedBytes());
+        target.remove(500);
+        assertTrue(target.getEstimatedBytes() > 7 * 32);
+        assertTrue(target.getEstimatedBytes() <= 9 * 32);
+        target.removeRange(4, target.size());
+        assertEquals(4 * 32, target.getEstimatedBytes());
+    }
+
+    /**
+     * Collects the phrases of a composition from head to tail.
+     */
+    private static List<String> phrases(Composition composition) {
+        List<String> result = new ArrayList<>();
+        for (Node node = composition.getHead(); node != null; node = node.getNext())
+            result.add(node.getPhrase());
+        return result;
+    }
+
+    /**
+     * Applies the same random edits to every composition given and runs a check
+     * after each edit. Indexes run from one before the head to one past the tail, so
+     * that invalid indexes are tried as well.
+     *
+     * @param random The source of the edits.
+     * @param steps The number of edits.
+     * @param maxTimes The most copies a repeat adds.
+     * @param alphabet The phrases to add.
+     * @param check Run after every edit with the step number.
+     * @param compositions The compositions to edit, all holding the same phrases.
+     */
+    static void randomEdits(Random random, int steps, int maxTimes, String[] alphabet, IntConsumer check,
+                            Composition... compositions) {
+        for (int step = 0; step < steps; step++) {
+            int size = compositions[0].size();
+            int index = random.nextInt(size + 2) - 1;
+            int target = random.nextInt(size + 1);
+            int end = Math.min(size, index + 1 + random.nextInt(4));
+            int times = 1 + random.nextInt(maxTimes);
+            String phrase = alphabet[random.nextInt(alphabet.length)];
+            int kind = random.nextInt(15);
+            for (Composition composition : compositions) {
+                switch (kind) {
+                    case 0: composition.addAtEnd(phrase); break;
+                    case 1: composition.addAtBeginning(phrase); break;
+                    case 2: composition.addAtCurrent(phrase); break;
+                    case 3: composition.add(phrase, index); break;
+                    case 4: composition.remove(index); break;
+                    case 5: composition.removeCurrent(); break;
+                    case 6: composition.move(index, target); break;
+                    case 7: composition.setCurrent(index); break;
+                    case 8: composition.addAll(new String[] {phrase, alphabet[0]}, index); break;
+                    case 9: composition.removeRange(Math.min(index, target), target); break;
+                    case 10: composition.repeatRange(index, end, times, target); break;
+                    case 11: composition.repeatPhraseToEnd(index, times); break;
+                    case 12: composition.moveForward(); break;
+                    case 13: composition.moveBackward(); break;
+                    default:
+                        if (composition.getCurrent() != null)
+                            composition.getCurrent().setPhrase(phrase);
+                }
+            }
+            check.accept(step);
+        }
+    }
+
+    /**
+     * Tests that random edits leave the composition under test with the same phrases
+     * and cursor as a DoublyLinkedList.
+     */
+    @Test
+    public void testMatchesDoublyLinkedList() {
+        DoublyLinkedList expected = new DoublyLinkedList();
+        Composition actual = createComposition(new String[0]);
+        String[] alphabet = new String[50];
+        for (int i = 0; i < alphabet.length; i++)
+            alphabet[i] = "P" + i;
+        randomEdits(new Random(42), 5000, 2, alphabet, step -> {
+            assertEquals(phrases(expected), phrases(actual), "step " + step);
+            if (expected.getCurrent() == null)
+                assertNull(actual.getCurrent());
+            else
+                assertEquals(expected.getCurrent().getPhrase(), actual.getCurrent().getPhrase());
+            assertEquals(countToCurrent(expected), actual.getCurrentIndex(), "step " + step);
+        }, expected, actual);
+    }
+
+    /**
+     * Tests that the current index follows every kind of edit.
+     */
+    @Test
+    public void testGetCurrentIndex() {
+        assertEquals(-1, emptyList.getCurrentIndex());
+        assertEquals(3, list.getCurrentIndex());
+        list.addAtBeginning("0");
+        assertEquals(0, list.getCurrentIndex());
+        list.setCurrent(2);
+        list.addAtCurrent("1.5");
+        assertEquals(2, list.getCurrentIndex());
+        list.moveForward();
+        assertEquals(3, list.getCurrentIndex());
+        list.remove(5);
+        assertEquals(4, list.getCurrentIndex());
+        list.removeRange(0, 2);
+        assertEquals(0, list.getCurrentIndex());
+        list.repeatRange(0, 2, 2, 1);
+        assertEquals(4, list.getCurrentIndex());
+        list.move(4, 0);
+        assertEquals(0, list.getCurrentIndex());
+    }
+
+    /**
+     * Counts the steps from the head to the current node by identity.
+     *
+     * @param composition A list whose nodes are real nodes.
+     * @return The index of the current node, or -1 if there is none.
+     */
+    private static int countToCurrent(DoublyLinkedList composition) {
+        int index = 0;
+        for (Node temp = composition.getHead(); temp != null; temp = temp.getNext(), index++) {
+            if (temp == composition.getCurrent())
+                return index;
+        }
+        return -1;
+    }
 }
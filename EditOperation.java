@@ -0,0 +1,20 @@
+/**
+ * The EditOperation enum lists the kinds of composition edits and lookups that are
+ * counted by the metrics.
+ */
+public enum EditOperation {
+    ADD_AT_END,
+    ADD_AT_BEGINNING,
+    ADD_AT_CURRENT,
+    ADD,
+    ADD_ALL,
+    REPEAT_PHRASE,
+    REPEAT_RANGE,
+    REMOVE_CURRENT,
+    REMOVE,
+    REMOVE_RANGE,
+    MOVE,
+    SET_CURRENT,
+    GET_NODE,
+    SPLICE
+}
@@ -0,0 +1,449 @@
+import java.util.Arrays;
+
+/**
+ * The GapBufferComposition class stores the phrase ids of a composition in a single
+ * int array with a movable gap. Editing happens at the gap, which follows the current
+ * position, so adding or removing around the cursor costs O(1) amortized and there is
+ * no object per phrase.
+ *
+ * The nodes returned by getHead, getTail, getCurrent and getNode are lightweight
+ * views of a position, created on each call. Their phrase can be read and changed,
+ * and getNext and getPrev step to the neighbouring positions, but they cannot be
+ * relinked. A view is valid only until the next edit that adds, removes or moves a
+ * phrase; after that every use of it throws an IllegalStateException instead of
+ * showing whatever phrase has moved into its position. Two views of the same valid
+ * position are equal. The node returned by a remove method is a detached copy of the
+ * removed phrase.
+ *
+ * Snapshots for playback share the buffer in O(1); the buffer is copied before the
+ * next change to it, so a playing snapshot never sees an edit.
+ */
+public class GapBufferComposition implements Composition {
+
+    /** Phrase ids, with the gap between gapStart and gapEnd */
+    private int[] buffer;
+    /** First slot of the gap */
+    private int gapStart;
+    /** First slot after the gap */
+    private int gapEnd;
+    /** Index of the current phrase, or -1 if there is none */
+    private int current;
+    /** The number of edits that added, removed or moved phrases, so views can tell they are stale */
+    private int modCount;
+    /** Whether a snapshot reads the buffer, so it has to be copied before it changes */
+    private boolean shared;
+
+    /**
+     * Constructor to initialize an empty composition.
+     */
+    public GapBufferComposition() {
+        buffer = new int[16];
+        gapStart = 0;
+        gapEnd = buffer.length;
+        current = -1;
+    }
+
+    /**
+     * Constructor that initializes the composition with an array of phrases.
+     *
+     * @param phrases Array of phrases to be added to the composition.
+     */
+    public GapBufferComposition(String[] phrases) {
+        this();
+        for (String phrase : phrases)
+            addAtEnd(phrase);
+    }
+
+    /**
+     * Returns the number of phrases in the composition.
+     *
+     * @return The number of phrases.
+     */
+    public int size() {
+        return buffer.length - (gapEnd - gapStart);
+    }
+
+    /**
+     * Returns an estimate of the heap memory held by the composition: the buffer,
+     * gap included.
+     *
+     * @return The estimate in bytes.
+     */
+    @Override
+    public long getEstimatedBytes() {
+        return 16 + 4L * buffer.length;
+    }
+
+    /**
+     * Returns the index of the current phrase.
+     *
+     * @return The index of the current phrase, or -1 if there is none.
+     */
+    public int getCurrentIndex() {
+        return current;
+    }
+
+    @Override
+    public Node getCurrent() {
+        return current < 0 ? null : new PositionNode(current);
+    }
+
+    @Override
+    public void setCurrent(int index) {
+        if (size() == 0) {
+            System.out.print("The list is empty");
+            return;
+        }
+        if (index < 0 || index >= size()) {
+            System.out.println("Invalid index. Current remains unchanged.");
+            return;
+        }
+        current = index;
+    }
+
+    @Override
+    public Node getNode(int index) {
+        return index < 0 || index >= size() ? null : new PositionNode(index);
+    }
+
+    @Override
+    public Node getHead() {
+        return getNode(0);
+    }
+
+    @Override
+    public Node getTail() {
+        return getNode(size() - 1);
+    }
+
+    @Override
+    public void moveForward() {
+        if (current >= 0 && current < size() - 1) {
+            current++;
+        } else {
+            System.out.println("Already at the last phrase.");
+        }
+    }
+
+    @Override
+    public void moveBackward() {
+        if (current > 0) {
+            current--;
+        } else {
+            System.out.println("Already at the first phrase.");
+        }
+    }
+
+    @Override
+    public void addAtEnd(String phrase) {
+        appendId(PhraseDictionary.getShared().intern(phrase));
+    }
+
+    @Override
+    public void addAtBeginning(String phrase) {
+        insertId(0, PhraseDictionary.getShared().intern(phrase));
+        current = 0;
+    }
+
+    @Override
+    public void addAtCurrent(String phrase) {
+        if (current < 0) {
+            addAtEnd(phrase);
+            return;
+        }
+        insertId(current, PhraseDictionary.getShared().intern(phrase));
+    }
+
+    @Override
+    public void add(String phrase, int index) {
+        if (index >= 0 && index < size()) {
+            current = index;
+            addAtCurrent(phrase);
+        } else if (index == size()) {
+            addAtEnd(phrase);
+        }
+    }
+
+    @Override
+    public void repeatPhraseToEnd(int index) {
+        if (index < 0 || index >= size()) {
+            System.out.println("Invalid index. No phrase copied.");
+            return;
+        }
+        appendId(idAt(index));
+    }
+
+    @Override
+    public Node removeCurrent() {
+        if (current < 0) {
+            System.out.println("No phrase to remove.");
+            return null;
+        }
+        int phraseId = removeId(current);
+        if (size() == 0)
+            current = -1;
+        else if (current == size())
+            current--;
+        return new Node(phraseId);
+    }
+
+    @Override
+    public Node remove(int index) {
+        if (index < 0 || index >= size()) {
+            System.out.println("Invalid index. No phrase removed.");
+            return null;
+        }
+        current = index;
+        return removeCurrent();
+    }
+
+    @Override
+    public void move(int currentIndex, int newIndex) {
+        Node oldCurrent = remove(currentIndex);
+        if (oldCurrent == null) {
+            System.out.println("Invalid move: Source index does not exist.");
+            return;
+        }
+        if (newIndex >= 0 && newIndex <= size()) {
+            insertId(newIndex, oldCurrent.getPhraseId());
+            current = newIndex;
+        }
+    }
+
+    /**
+     * Takes a snapshot of the whole composition in O(1). The snapshot reads the
+     * buffer itself, which is copied before its next change.
+     *
+     * @return The snapshot.
+     */
+    @Override
+    public PlaybackSnapshot snapshot() {
+        shared = true;
+        return new PlaybackSnapshot(buffer, 0, gapStart, gapEnd);
+    }
+
+    /**
+     * Takes a snapshot of the composition from the current phrase onward in O(1),
+     * sharing the buffer like snapshot.
+     *
+     * @return The snapshot.
+     */
+    @Override
+    public PlaybackSnapshot snapshotFromCurrent() {
+        if (current < 0)
+            return new PlaybackSnapshot(new int[0]);
+        shared = true;
+        return new PlaybackSnapshot(buffer, slot(current), gapStart, gapEnd);
+    }
+
+    @Override
+    public void showAllPhrases() {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < size(); i++) {
+            if (i > 0)
+                out.append(' ');
+            out.append(PhraseDictionary.getShared().phrase(idAt(i)));
+        }
+        System.out.print(out);
+    }
+
+    /**
+     * Appends a phrase id at the end and makes it current.
+     *
+     * @param phraseId The id to append.
+     */
+    private void appendId(int phraseId) {
+        insertId(size(), phraseId);
+        current = size() - 1;
+    }
+
+    /**
+     * Returns the phrase id at a valid index.
+     *
+     * @param index The logical index.
+     * @return The phrase id.
+     */
+    private int idAt(int index) {
+        return buffer[slot(index)];
+    }
+
+    /**
+     * Returns the slot of the buffer holding a logical index.
+     *
+     * @param index The logical index.
+     * @return The slot.
+     * @throws IndexOutOfBoundsException If the index is not that of a phrase.
+     */
+    private int slot(int index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        return index < gapStart ? index : index + gapEnd - gapStart;
+    }
+
+    /**
+     * Inserts a phrase id so that it ends up at the given index.
+     *
+     * @param index The logical index, between 0 and size() inclusive.
+     * @param phraseId The id to insert.
+     */
+    private void insertId(int index, int phraseId) {
+        modCount++;
+        if (gapStart == gapEnd)
+            grow();
+        unshare();
+        moveGap(index);
+        buffer[gapStart++] = phraseId;
+    }
+
+    /**
+     * Removes the phrase id at a valid index.
+     *
+     * @param index The logical index.
+     * @return The removed phrase id.
+     */
+    private int removeId(int index) {
+        modCount++;
+        unshare();
+        moveGap(index);
+        return buffer[gapEnd++];
+    }
+
+    /**
+     * Moves the gap so that it starts at a logical index. Only the phrases between
+     * the old and new gap position are copied.
+     *
+     * @param index The logical index, between 0 and size() inclusive.
+     */
+    private void moveGap(int index) {
+        if (index < gapStart) {
+            int count = gapStart - index;
+            System.arraycopy(buffer, index, buffer, gapEnd - count, count);
+            gapStart -= count;
+            gapEnd -= count;
+        } else if (index > gapStart) {
+            int count = index - gapStart;
+            System.arraycopy(buffer, gapEnd, buffer, gapStart, count);
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+
+    /**
+     * Doubles the buffer, keeping the gap where it is.
+     */
+    private void grow() {
+        int tailLength = buffer.length - gapEnd;
+        int[] larger = Arrays.copyOf(buffer, buffer.length * 2);
+        System.arraycopy(buffer, gapEnd, larger, larger.length - tailLength, tailLength);
+        gapEnd = larger.length - tailLength;
+        buffer = larger;
+        shared = false;
+    }
+
+    /**
+     * Copies the buffer if a snapshot still reads it, so that the snapshot keeps
+     * seeing the phrases it was taken from.
+     */
+    private void unshare() {
+        if (shared) {
+            buffer = buffer.clone();
+            shared = false;
+        }
+    }
+
+    /**
+     * The PositionNode class is a node view of one position in the buffer, valid
+     * until the next edit that adds, removes or moves a phrase.
+     */
+    private class PositionNode extends Node {
+
+        /** The logical index this view refers to */
+        private final int index;
+        /** The edit count of the buffer when the view was made */
+        private final int version;
+
+        /**
+         * Constructor to initialize a view of a position.
+         *
+         * @param index The logical index.
+         */
+        PositionNode(int index) {
+            super(PhraseDictionary.NO_PHRASE);
+            this.index = index;
+            this.version = modCount;
+        }
+
+        @Override
+        public String getPhrase() {
+            return PhraseDictionary.getShared().phrase(getPhraseId());
+        }
+
+        @Override
+        public int getPhraseId() {
+            return idAt(checkedIndex());
+        }
+
+        @Override
+        public void setPhrase(String phrase) {
+            int slot = slot(checkedIndex());
+            unshare();
+            buffer[slot] = PhraseDictionary.getShared().intern(phrase);
+        }
+
+        @Override
+        public Node getNext() {
+            return getNode(checkedIndex() + 1);
+        }
+
+        @Override
+        public Node getPrev() {
+            return getNode(checkedIndex() - 1);
+        }
+
+        @Override
+        public void setNext(Node next) {
+            throw new UnsupportedOperationException("Positions in a gap buffer cannot be relinked");
+        }
+
+        @Override
+        public void setPrev(Node prev) {
+            throw new UnsupportedOperationException("Positions in a gap buffer cannot be relinked");
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof PositionNode))
+                return false;
+            PositionNode view = (PositionNode) other;
+            return view.owner() == GapBufferComposition.this && view.index == index && view.version == version;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * index + version;
+        }
+
+        /**
+         * Returns the composition this view belongs to.
+         *
+         * @return The composition.
+         */
+        private GapBufferComposition owner() {
+            return GapBufferComposition.this;
+        }
+
+        /**
+         * Returns the index of the view, checking that the buffer has not been edited
+         * since the view was made.
+         *
+         * @return The logical index.
+         * @throws IllegalStateException If phrases were added, removed or moved since.
+         */
+        private int checkedIndex() {
+            if (version != modCount)
+                throw new IllegalStateException(
+                        "The composition was edited after this node was taken; get the node again");
+            return index;
+        }
+    }
+}
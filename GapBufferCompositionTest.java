@@ -0,0 +1,69 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for the GapBufferComposition implementation.
+ * It runs every DoublyLinkedList case against the gap buffer engine.
+ */
+public class GapBufferCompositionTest extends DoublyLinkedListTest {
+
+    @Override
+    protected Composition createComposition(String[] phrases) {
+        return new GapBufferComposition(phrases);
+    }
+
+    /**
+     * Tests editing around the cursor on a composition that outgrows its buffer.
+     */
+    @Test
+    public void testCursorEditing() {
+        GapBufferComposition composition = new GapBufferComposition();
+        for (int i = 0; i < 1000; i++)
+            composition.addAtEnd(Integer.toString(i));
+        composition.setCurrent(500);
+        for (int i = 0; i < 100; i++)
+            composition.addAtCurrent("x");
+        assertEquals(1100, composition.size());
+        assertEquals("x", composition.getCurrent().getPhrase());
+        assertEquals("499", composition.getCurrent().getPrev().getPhrase());
+        for (int i = 0; i < 100; i++)
+            composition.removeCurrent();
+        assertEquals("500", composition.getCurrent().getPhrase());
+        assertEquals(500, composition.getCurrentIndex());
+        assertEquals("999", composition.getTail().getPhrase());
+    }
+
+    /**
+     * Tests that a removed phrase is returned as a detached node.
+     */
+    @Test
+    public void testRemovedNodeIsDetached() {
+        Node removed = list.remove(1);
+        assertEquals("2", removed.getPhrase());
+        assertNull(removed.getNext());
+        list.getCurrent().setPhrase("three");
+        assertEquals("three", list.getNode(1).getPhrase());
+    }
+
+    /**
+     * Tests that views of the same position are equal and that a view taken before
+     * an edit is refused instead of reading outside the phrases.
+     */
+    @Test
+    public void testStaleViews() {
+        GapBufferComposition composition = new GapBufferComposition();
+        for (int i = 0; i < 16; i++)
+            composition.addAtEnd(Integer.toString(i));
+        assertEquals(composition.getHead(), composition.getHead());
+        Node tail = composition.getTail();
+        composition.getHead().setPhrase("zero");
+        assertEquals("15", tail.getPhrase());
+        composition.remove(2);
+        composition.remove(1);
+        assertThrows(IllegalStateException.class, tail::getPhrase);
+        assertThrows(IllegalStateException.class, tail::getPrev);
+        assertNotEquals(tail, composition.getTail());
+        assertEquals("15", composition.getTail().getPhrase());
+    }
+}
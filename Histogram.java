@@ -0,0 +1,118 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The Histogram class records a distribution of non-negative values, such as
+ * latencies in nanoseconds or nodes visited per operation, in power-of-two buckets.
+ * Recording is lock-free and costs a few atomic additions, so it can be used on
+ * editing and playback paths from any thread. Percentiles are reported as the upper
+ * bound of the bucket they fall in, so they are accurate to within a factor of two.
+ */
+public class Histogram {
+
+    /** Bucket i counts values v with 2^(i-1) <= v < 2^i; bucket 0 counts zeros */
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+    /** Number of values recorded */
+    private final LongAdder count = new LongAdder();
+    /** Sum of the values recorded */
+    private final LongAdder sum = new LongAdder();
+    /** Largest value recorded */
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a value. Negative values are recorded as zero.
+     *
+     * @param value The value.
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        buckets.incrementAndGet(Math.min(63, 64 - Long.numberOfLeadingZeros(value)));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return The count.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the mean of the values recorded.
+     *
+     * @return The mean, or 0 if nothing was recorded.
+     */
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * Returns the largest value recorded.
+     *
+     * @return The maximum, or 0 if nothing was recorded.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns an upper bound for a percentile of the values recorded.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The upper bound of the bucket holding the percentile, never more than
+     *         the maximum, or 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        long[] counts = new long[buckets.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0)
+            return 0;
+        long rank = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(1, rank))
+                return Math.min(i == 0 ? 0 : (1L << i) - 1, getMax());
+        }
+        return getMax();
+    }
+
+    /**
+     * Forgets every value recorded.
+     */
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++)
+            buckets.set(i, 0);
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    /**
+     * Returns the count, mean, median, 99th percentile and maximum, with every value
+     * divided by a scale, for example 1000 to show nanoseconds as microseconds.
+     *
+     * @param scale The divisor applied to every value.
+     * @return The summary text.
+     */
+    public String toString(double scale) {
+        return String.format("count=%d mean=%.1f p50<=%.1f p99<=%.1f max=%.1f", getCount(), getMean() / scale,
+                getPercentile(50) / scale, getPercentile(99) / scale, getMax() / scale);
+    }
+
+    @Override
+    public String toString() {
+        return toString(1);
+    }
+}
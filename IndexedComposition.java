@@ -0,0 +1,431 @@
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * The IndexedComposition class stores musical phrases in a doubly linked list that
+ * is also threaded through a balanced tree keyed by position. It behaves exactly like
+ * DoublyLinkedList, but finding, inserting, removing and moving a phrase by index
+ * takes O(log n) time instead of a walk from the head.
+ */
+public class IndexedComposition implements Composition {
+
+    /** Estimated bytes per node: a node header, an id, six references and two ints */
+    private static final long BYTES_PER_NODE = 56;
+
+    /** The first node in the list */
+    private IndexedNode head;
+    /** The last node in the list */
+    private IndexedNode tail;
+    /** The current selected node */
+    private IndexedNode current;
+    /** The root of the position tree */
+    private IndexedNode root;
+    /** Source of tree priorities */
+    private final Random random = new Random();
+    /** Playback snapshots that still read this composition's nodes, or null if there are none */
+    private ArrayList<PlaybackSnapshot> snapshots;
+
+    /**
+     * Constructor to initialize an empty composition.
+     */
+    public IndexedComposition() {
+        head = tail = current = root = null;
+    }
+
+    /**
+     * Constructor that initializes the composition with an array of phrases.
+     *
+     * @param phrases Array of phrases to be added to the composition.
+     */
+    public IndexedComposition(String[] phrases) {
+        for (String phrase : phrases)
+            addAtEnd(phrase);
+    }
+
+    /**
+     * Returns the number of phrases in the composition.
+     *
+     * @return The number of phrases.
+     */
+    public int size() {
+        return IndexedNode.sizeOf(root);
+    }
+
+    /**
+     * Returns an estimate of the heap memory held by the composition: a tree node
+     * per phrase.
+     *
+     * @return The estimate in bytes.
+     */
+    @Override
+    public long getEstimatedBytes() {
+        return BYTES_PER_NODE * size();
+    }
+
+    /**
+     * Returns the index of the current node.
+     *
+     * @return The index of the current node, or -1 if there is none.
+     */
+    public int getCurrentIndex() {
+        return current == null ? -1 : indexOf(current);
+    }
+
+    @Override
+    public Node getCurrent() {
+        return current;
+    }
+
+    @Override
+    public void setCurrent(int index) {
+        if (head == null) {
+            System.out.print("The list is empty");
+            return;
+        }
+        if (index < 0 || index >= size()) {
+            System.out.println("Invalid index. Current remains unchanged.");
+            return;
+        }
+        current = nodeAt(index);
+    }
+
+    @Override
+    public Node getNode(int index) {
+        return index < 0 || index >= size() ? null : nodeAt(index);
+    }
+
+    @Override
+    public Node getHead() {
+        return head;
+    }
+
+    @Override
+    public Node getTail() {
+        return tail;
+    }
+
+    @Override
+    public void moveForward() {
+        if (current != null && current.getNext() != null) {
+            current = (IndexedNode) current.getNext();
+        } else {
+            System.out.println("Already at the last phrase.");
+        }
+    }
+
+    @Override
+    public void moveBackward() {
+        if (current != null && current.getPrev() != null) {
+            current = (IndexedNode) current.getPrev();
+        } else {
+            System.out.println("Already at the first phrase.");
+        }
+    }
+
+    @Override
+    public void addAtEnd(String phrase) {
+        IndexedNode newNode = newNode(phrase);
+        insertBefore(newNode, null);
+        current = newNode;
+    }
+
+    @Override
+    public void addAtBeginning(String phrase) {
+        IndexedNode newNode = newNode(phrase);
+        insertBefore(newNode, head);
+        current = newNode;
+    }
+
+    @Override
+    public void addAtCurrent(String phrase) {
+        if (current == null) {
+            addAtEnd(phrase);
+            return;
+        }
+        IndexedNode newNode = newNode(phrase);
+        insertBefore(newNode, current);
+        current = newNode;
+    }
+
+    @Override
+    public void add(String phrase, int index) {
+        if (index < 0 || index > size())
+            return;
+        insertAt(newNode(phrase), index);
+    }
+
+    @Override
+    public void repeatPhraseToEnd(int index) {
+        if (index < 0 || index >= size()) {
+            System.out.println("Invalid index. No phrase copied.");
+            return;
+        }
+        IndexedNode newNode = new IndexedNode(nodeAt(index).getPhraseId(), random.nextInt(), this);
+        insertBefore(newNode, null);
+        current = newNode;
+    }
+
+    @Override
+    public Node removeCurrent() {
+        if (current == null) {
+            System.out.println("No phrase to remove.");
+            return null;
+        }
+        IndexedNode save = current;
+        if (current == head && current == tail)
+            current = null;
+        else if (current == head)
+            current = (IndexedNode) head.getNext();
+        else if (current == tail)
+            current = (IndexedNode) tail.getPrev();
+        else
+            current = (IndexedNode) current.getNext();
+        unlink(save);
+        return save;
+    }
+
+    @Override
+    public Node remove(int index) {
+        if (index < 0 || index >= size()) {
+            System.out.println("Invalid index. No phrase removed.");
+            return null;
+        }
+        current = nodeAt(index);
+        return removeCurrent();
+    }
+
+    /**
+     * Moves a phrase from one index to another. The node itself is relinked at its
+     * new position instead of being copied.
+     *
+     * @param currentIndex The current index of the phrase.
+     * @param newIndex The new index where the phrase should be moved.
+     */
+    @Override
+    public void move(int currentIndex, int newIndex) {
+        IndexedNode oldCurrent = (IndexedNode) remove(currentIndex);
+        if (oldCurrent == null) {
+            System.out.println("Invalid move: Source index does not exist.");
+            return;
+        }
+        if (newIndex >= 0 && newIndex <= size())
+            insertAt(oldCurrent, newIndex);
+    }
+
+    @Override
+    public PlaybackSnapshot snapshot() {
+        return attachSnapshot(head);
+    }
+
+    @Override
+    public PlaybackSnapshot snapshotFromCurrent() {
+        return attachSnapshot(current);
+    }
+
+    @Override
+    public void showAllPhrases() {
+        StringBuilder out = new StringBuilder();
+        for (Node temp = head; temp != null; temp = temp.getNext()) {
+            if (temp != head)
+                out.append(' ');
+            out.append(temp.getPhrase());
+        }
+        System.out.print(out);
+    }
+
+    /**
+     * Creates a snapshot that reads the live nodes from a start node and remembers it
+     * so it can be detached before the next structural change.
+     *
+     * @param start The first node of the snapshot.
+     * @return The snapshot.
+     */
+    private PlaybackSnapshot attachSnapshot(Node start) {
+        PlaybackSnapshot snapshot = new PlaybackSnapshot(start);
+        if (snapshots == null)
+            snapshots = new ArrayList<>();
+        snapshots.add(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Detaches every snapshot that still reads this composition's nodes. Called
+     * before any change to the links between nodes or to a node's phrase.
+     */
+    void detachSnapshots() {
+        if (snapshots == null)
+            return;
+        for (PlaybackSnapshot snapshot : snapshots)
+            snapshot.detach();
+        snapshots = null;
+    }
+
+    /**
+     * Creates a detached node with a fresh random priority.
+     *
+     * @param phrase The phrase for the node.
+     * @return The new node.
+     */
+    private IndexedNode newNode(String phrase) {
+        return new IndexedNode(phrase, random.nextInt(), this);
+    }
+
+    /**
+     * Inserts a detached node so that it ends up at the given index and makes it current.
+     *
+     * @param node The node to insert.
+     * @param index The index the node should have, between 0 and size() inclusive.
+     */
+    private void insertAt(IndexedNode node, int index) {
+        insertBefore(node, index == size() ? null : nodeAt(index));
+        current = node;
+    }
+
+    /**
+     * Finds the node at a valid index by descending the tree.
+     *
+     * @param index The index of the node, between 0 and size() - 1.
+     * @return The node at that index.
+     */
+    private IndexedNode nodeAt(int index) {
+        IndexedNode node = root;
+        while (true) {
+            int leftSize = IndexedNode.sizeOf(node.left);
+            if (index < leftSize)
+                node = node.left;
+            else if (index == leftSize)
+                return node;
+            else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Computes the index of a node by climbing to the root.
+     *
+     * @param node A node in this composition.
+     * @return The index of the node.
+     */
+    private int indexOf(IndexedNode node) {
+        int index = IndexedNode.sizeOf(node.left);
+        while (node.parent != null) {
+            if (node == node.parent.right)
+                index += IndexedNode.sizeOf(node.parent.left) + 1;
+            node = node.parent;
+        }
+        return index;
+    }
+
+    /**
+     * Links a detached node into both the list and the tree directly before an anchor.
+     *
+     * @param node The node to insert.
+     * @param anchor The node that should follow it, or null to insert at the end.
+     */
+    private void insertBefore(IndexedNode node, IndexedNode anchor) {
+        detachSnapshots();
+        IndexedNode prev = anchor == null ? tail : (IndexedNode) anchor.getPrev();
+        node.setPrev(prev);
+        node.setNext(anchor);
+        if (prev == null)
+            head = node;
+        else
+            prev.setNext(node);
+        if (anchor == null)
+            tail = node;
+        else
+            anchor.setPrev(node);
+
+        node.left = node.right = node.parent = null;
+        node.size = 1;
+        if (root == null) {
+            root = node;
+            return;
+        }
+        // The new node becomes a leaf: either the left child of its successor or the
+        // right child of its predecessor, whichever slot is free.
+        if (anchor != null && anchor.left == null)
+            anchor.left = node;
+        else
+            prev.right = node;
+        node.parent = (anchor != null && anchor.left == node) ? anchor : prev;
+        for (IndexedNode p = node.parent; p != null; p = p.parent)
+            p.size++;
+        while (node.parent != null && node.priority > node.parent.priority)
+            rotateUp(node);
+    }
+
+    /**
+     * Removes a node from both the list and the tree.
+     *
+     * @param node The node to remove.
+     */
+    private void unlink(IndexedNode node) {
+        detachSnapshots();
+        while (node.left != null || node.right != null) {
+            IndexedNode child;
+            if (node.left == null)
+                child = node.right;
+            else if (node.right == null)
+                child = node.left;
+            else
+                child = node.left.priority > node.right.priority ? node.left : node.right;
+            rotateUp(child);
+        }
+        IndexedNode parent = node.parent;
+        if (parent == null)
+            root = null;
+        else if (parent.left == node)
+            parent.left = null;
+        else
+            parent.right = null;
+        for (IndexedNode p = parent; p != null; p = p.parent)
+            p.size--;
+        node.parent = null;
+
+        IndexedNode prev = (IndexedNode) node.getPrev();
+        IndexedNode next = (IndexedNode) node.getNext();
+        if (prev == null)
+            head = next;
+        else
+            prev.setNext(next);
+        if (next == null)
+            tail = prev;
+        else
+            next.setPrev(prev);
+    }
+
+    /**
+     * Rotates a node above its parent while keeping the in-order sequence and the
+     * subtree sizes intact.
+     *
+     * @param node The node to lift; it must have a parent.
+     */
+    private void rotateUp(IndexedNode node) {
+        IndexedNode parent = node.parent;
+        IndexedNode grandparent = parent.parent;
+        if (node == parent.left) {
+            parent.left = node.right;
+            if (node.right != null)
+                node.right.parent = parent;
+            node.right = parent;
+        } else {
+            parent.right = node.left;
+            if (node.left != null)
+                node.left.parent = parent;
+            node.left = parent;
+        }
+        parent.parent = node;
+        node.parent = grandparent;
+        if (grandparent == null)
+            root = node;
+        else if (grandparent.left == parent)
+            grandparent.left = node;
+        else
+            grandparent.right = node;
+        parent.updateSize();
+        node.updateSize();
+    }
+}
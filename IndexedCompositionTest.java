@@ -0,0 +1,34 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for the IndexedComposition implementation.
+ * It runs every DoublyLinkedList case against the tree-backed engine.
+ */
+public class IndexedCompositionTest extends DoublyLinkedListTest {
+
+    @Override
+    protected Composition createComposition(String[] phrases) {
+        return new IndexedComposition(phrases);
+    }
+
+    /**
+     * Tests index lookups and the current index on a large composition.
+     */
+    @Test
+    public void testLargeComposition() {
+        IndexedComposition composition = new IndexedComposition();
+        for (int i = 0; i < 100000; i++)
+            composition.addAtEnd(Integer.toString(i));
+        composition.setCurrent(54321);
+        assertEquals("54321", composition.getCurrent().getPhrase());
+        assertEquals(54321, composition.getCurrentIndex());
+
+        composition.move(0, 99999);
+        assertEquals("0", composition.getTail().getPhrase());
+        assertEquals("1", composition.getHead().getPhrase());
+        assertEquals(99999, composition.getCurrentIndex());
+        assertEquals(100000, composition.size());
+    }
+}
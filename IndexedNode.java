@@ -0,0 +1,75 @@
+/**
+ * The IndexedNode class is a node of an IndexedComposition. Besides the usual
+ * previous and next links it is also a node of a balanced search tree (a treap)
+ * ordered by position, and it records the size of its subtree so positions can be
+ * found in logarithmic time.
+ */
+class IndexedNode extends Node {
+
+    /** Left child in the tree (phrases before this one) */
+    IndexedNode left;
+    /** Right child in the tree (phrases after this one) */
+    IndexedNode right;
+    /** Parent in the tree, or null for the root */
+    IndexedNode parent;
+    /** Number of nodes in the subtree rooted at this node */
+    int size;
+    /** Random heap priority that keeps the tree balanced */
+    final int priority;
+    /** The composition the node was made for, told when its phrase changes */
+    private final IndexedComposition composition;
+
+    /**
+     * Constructor to initialize a detached node with a phrase and a tree priority.
+     *
+     * @param phrase      The musical phrase stored in this node.
+     * @param priority    The random priority of this node in the tree.
+     * @param composition The composition the node is made for.
+     */
+    IndexedNode(String phrase, int priority, IndexedComposition composition) {
+        this(PhraseDictionary.getShared().intern(phrase), priority, composition);
+    }
+
+    /**
+     * Constructor to initialize a detached node with a phrase id and a tree priority.
+     *
+     * @param phraseId    The dictionary id of the phrase stored in this node.
+     * @param priority    The random priority of this node in the tree.
+     * @param composition The composition the node is made for.
+     */
+    IndexedNode(int phraseId, int priority, IndexedComposition composition) {
+        super(phraseId);
+        this.priority = priority;
+        this.size = 1;
+        this.composition = composition;
+    }
+
+    /**
+     * Updates the phrase stored in this node, detaching the composition's playback
+     * snapshots first so that they keep the phrase they were taken with.
+     *
+     * @param phrase The new phrase to store in the node.
+     */
+    @Override
+    public void setPhrase(String phrase) {
+        composition.detachSnapshots();
+        super.setPhrase(phrase);
+    }
+
+    /**
+     * Recomputes the subtree size from the sizes of the children.
+     */
+    void updateSize() {
+        size = 1 + sizeOf(left) + sizeOf(right);
+    }
+
+    /**
+     * Returns the subtree size of a node, treating null as an empty subtree.
+     *
+     * @param node The node to measure, may be null.
+     * @return The number of nodes in the subtree.
+     */
+    static int sizeOf(IndexedNode node) {
+        return node == null ? 0 : node.size;
+    }
+}
@@ -0,0 +1,123 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for iterating and streaming the nodes of a DoublyLinkedList.
+ */
+public class IterationTest {
+
+    /**
+     * Lists the phrases of a composition by walking forward from the head.
+     */
+    private static List<String> walk(Composition composition) {
+        List<String> phrases = new ArrayList<>();
+        for (Node temp = composition.getHead(); temp != null; temp = temp.getNext())
+            phrases.add(temp.getPhrase());
+        return phrases;
+    }
+
+    /**
+     * Creates a list of 16 phrases followed by a repeat of them, 1000 times.
+     */
+    private static DoublyLinkedList withRepeats() {
+        String[] loop = new String[16];
+        for (int i = 0; i < loop.length; i++)
+            loop[i] = String.valueOf("CDEFGAB".charAt(i % 7)) + (i / 7 + 4);
+        DoublyLinkedList list = new DoublyLinkedList(loop);
+        list.repeatRange(0, 16, 1000, 16);
+        list.add("R", 5000);
+        return list;
+    }
+
+    /**
+     * Tests that iterating gives the same phrases as walking the links.
+     */
+    @Test
+    public void testIterator() {
+        DoublyLinkedList list = withRepeats();
+        List<String> phrases = new ArrayList<>();
+        for (Node node : list)
+            phrases.add(node.getPhrase());
+        assertEquals(walk(list), phrases);
+        assertFalse(new DoublyLinkedList().iterator().hasNext());
+    }
+
+    /**
+     * Tests going forward and backward from the current node.
+     */
+    @Test
+    public void testFromCurrent() {
+        DoublyLinkedList list = new DoublyLinkedList(new String[] {"A", "B", "C", "D"});
+        list.setCurrent(2);
+        ListIterator<Node> iterator = list.listIteratorFromCurrent();
+        assertEquals(2, iterator.nextIndex());
+        assertEquals("C", iterator.next().getPhrase());
+        assertEquals("D", iterator.next().getPhrase());
+        assertFalse(iterator.hasNext());
+        assertEquals("D", iterator.previous().getPhrase());
+        assertEquals("C", iterator.previous().getPhrase());
+        assertEquals("B", iterator.previous().getPhrase());
+        assertEquals("A", iterator.previous().getPhrase());
+        assertFalse(iterator.hasPrevious());
+
+        ListIterator<Node> fromEnd = list.listIterator(list.size());
+        assertEquals("D", fromEnd.previous().getPhrase());
+        assertThrows(IndexOutOfBoundsException.class, () -> list.listIterator(5));
+    }
+
+    /**
+     * Tests that iterators fail fast after a structural change but carry on after a
+     * repeat is split under them.
+     */
+    @Test
+    public void testFailFast() {
+        DoublyLinkedList list = withRepeats();
+        Iterator<Node> iterator = list.iterator();
+        iterator.next();
+        list.addAtEnd("C");
+        assertThrows(ConcurrentModificationException.class, iterator::next);
+
+        List<String> expected = walk(list);
+        ListIterator<Node> splitting = list.listIterator(100);
+        assertEquals(expected.get(100), splitting.next().getPhrase());
+        list.getNode(101);
+        list.getNode(250);
+        list.setCurrent(105);
+        for (int i = 101; i < 300; i++)
+            assertEquals(expected.get(i), splitting.next().getPhrase(), "index " + i);
+        for (int i = 299; i >= 90; i--)
+            assertEquals(expected.get(i), splitting.previous().getPhrase(), "index " + i);
+    }
+
+    /**
+     * Tests that the spliterator reports exact sizes, splits in half and that
+     * parallel streams see every phrase in order.
+     */
+    @Test
+    public void testSpliterator() {
+        DoublyLinkedList list = withRepeats();
+        Spliterator<Node> spliterator = list.spliterator();
+        assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED));
+        assertEquals(list.size(), spliterator.getExactSizeIfKnown());
+        Spliterator<Node> prefix = spliterator.trySplit();
+        assertEquals(list.size() / 2, prefix.getExactSizeIfKnown());
+        assertEquals(list.size() - list.size() / 2, spliterator.getExactSizeIfKnown());
+        List<String> phrases = new ArrayList<>();
+        prefix.forEachRemaining(node -> phrases.add(node.getPhrase()));
+        spliterator.forEachRemaining(node -> phrases.add(node.getPhrase()));
+        assertEquals(walk(list), phrases);
+
+        assertEquals(walk(list), list.parallelStream().map(Node::getPhrase).collect(Collectors.toList()));
+        assertEquals(list.size(), list.stream().count());
+        assertEquals(1, list.parallelStream().filter(node -> node.getPhrase().equals("R")).count());
+    }
+}
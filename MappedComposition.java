@@ -0,0 +1,1023 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The MappedComposition class keeps a composition in a memory-mapped file instead of
+ * on the heap, for scores larger than the heap can hold. Every phrase is a fixed-size
+ * slot in the file holding its phrase id and the slots before and after it, so the
+ * slots form a doubly linked list just like the nodes of a DoublyLinkedList, and
+ * removed slots are reused through a free list. The file is mapped in regions as
+ * slots are first touched, and the operating system pages them in and out on demand;
+ * the heap only holds the phrase dictionary and the region buffers, so editing a
+ * score of any length creates no garbage beyond short-lived node views.
+ *
+ * Phrase ids in the file are local to it. The phrases themselves are kept in a
+ * sidecar text file, the file name followed by ".phrases", one phrase per line in
+ * local id order, so a store can be closed and opened again later. Backslashes and
+ * line breaks in a phrase are escaped as \\, \n and \r, so every phrase stays on one
+ * line. New phrases are buffered and written out before the first slot that uses
+ * them, once per bulk add, and the header records how many phrases the sidecar
+ * holds, so a store whose sidecar lost phrases is rejected when it is opened.
+ *
+ * Positional operations walk from the head, the tail or the current phrase,
+ * whichever is closest. Like the views of a GapBufferComposition, the nodes returned
+ * by getHead, getTail, getCurrent and getNode are lightweight views of a slot,
+ * created on each call: their phrase can be read and changed and getNext and getPrev
+ * follow the links, but they cannot be relinked. A view stays valid while phrases
+ * are added, but a removal or a move frees a slot that may be reused, so after one
+ * every use of an older view throws an IllegalStateException instead of showing
+ * whatever phrase has been stored in its slot. Two views of the same valid slot are
+ * equal. The node returned by a remove method is a detached copy of the removed
+ * phrase.
+ *
+ * The file is mapped in regions. A store starts with a region sized for the phrases
+ * it holds, and each new region is twice as large as the one before, up to the
+ * region size of the store, so a small temporary store maps little. Regions are
+ * mapped when the store is opened and when a slot is allocated, never when one is
+ * read, so a playback snapshot can read the slots while another thread reads them.
+ *
+ * Layout, all numbers big-endian:
+ * <pre>
+ * offset  size  field
+ *      0     4  magic "MCMS"
+ *      4     1  major version; readers reject a newer major version
+ *      5     1  minor version
+ *      6     2  header length in bytes; slots start after the header
+ *      8     4  number of phrases
+ *     12     4  number of slots ever allocated
+ *     16     4  head slot, or -1
+ *     20     4  tail slot, or -1
+ *     24     4  first free slot, or -1
+ *     28     4  current slot, or -1
+ *     32     4  index of the current phrase, or -1
+ *     36     4  number of phrases written to the sidecar
+ * then, per slot: local phrase id, previous slot, next slot, 4 bytes each
+ * </pre>
+ */
+public class MappedComposition implements Composition, AutoCloseable {
+
+    /** The first four bytes of every store, "MCMS" */
+    public static final int MAGIC = 0x4D434D53;
+    /** The major version written and the newest one that can be read */
+    public static final int MAJOR_VERSION = 1;
+    /** The minor version written */
+    public static final int MINOR_VERSION = 0;
+    /** Extension added to the file name for the phrase sidecar */
+    public static final String PHRASES_SUFFIX = ".phrases";
+
+    /** Length of the header written by this version */
+    private static final int HEADER_LENGTH = 64;
+    /** Bytes per slot */
+    private static final int SLOT_BYTES = 12;
+    /** Offset of the phrase id within a slot */
+    private static final int PHRASE = 0;
+    /** Offset of the previous slot within a slot */
+    private static final int PREV = 4;
+    /** Offset of the next slot within a slot */
+    private static final int NEXT = 8;
+    /** Slot number meaning "no slot" */
+    private static final int NONE = -1;
+    /** Slots per mapped region by default, 48 MB */
+    static final int DEFAULT_REGION_SLOTS = 1 << 22;
+    /** Slots in the first mapped region of a store at least, 12 KB */
+    private static final int MIN_FIRST_REGION_SLOTS = 1 << 10;
+
+    /** The store file */
+    private final Path file;
+    /** The phrase sidecar */
+    private final Path phraseFile;
+    /** Whether both files are deleted on close */
+    private final boolean temporary;
+    /** Slots per mapped region once regions have grown to full size */
+    private final int regionSlots;
+    /** Slots in the first mapped region */
+    private final int firstRegionSlots;
+    /** The open store file */
+    private final FileChannel channel;
+    /** The mapped header */
+    private final MappedByteBuffer header;
+    /** The regions mapped so far, in order */
+    private final ArrayList<MappedByteBuffer> regions = new ArrayList<>();
+    /** The first slot of each region mapped so far, and the slot after the last one */
+    private int[] regionStarts = new int[8];
+    /** Appends new phrases to the sidecar */
+    private final BufferedWriter phraseOut;
+    /** The shared dictionary id of each local phrase id */
+    private int[] sharedIds = new int[16];
+    /** One more than the local id of each shared dictionary id, or 0 if it has none */
+    private int[] localIds = new int[0];
+    /** The number of local phrase ids */
+    private int phraseCount;
+    /** Whether phrases were given local ids since the sidecar was last flushed */
+    private boolean phrasesPending;
+    /** Playback snapshots that still read this store's slots, or null if there are none */
+    private ArrayList<PlaybackSnapshot> snapshots;
+    /** The number of edits that freed a slot, so views can tell theirs may be reused */
+    private int removals;
+
+    /** The number of phrases, mirrored in the header */
+    private int size;
+    /** The number of slots ever allocated, mirrored in the header */
+    private int slotCount;
+    /** The first slot, mirrored in the header */
+    private int head;
+    /** The last slot, mirrored in the header */
+    private int tail;
+    /** The first free slot, mirrored in the header */
+    private int free;
+    /** The current slot, mirrored in the header */
+    private int current;
+    /** The index of the current phrase, mirrored in the header */
+    private int currentIndex;
+
+    /**
+     * Constructor to open a store, or create an empty one if the file does not exist
+     * or is empty.
+     *
+     * @param file The store file.
+     * @throws IOException If the file cannot be opened or is not a valid store.
+     */
+    public MappedComposition(Path file) throws IOException {
+        this(file, DEFAULT_REGION_SLOTS, false);
+    }
+
+    /**
+     * Constructor to open or create a store, sizing the first region for the phrases
+     * it already holds.
+     *
+     * @param file The store file.
+     * @param regionSlots Slots per mapped region once regions have grown to full size.
+     * @param temporary Whether the files are deleted on close.
+     * @throws IOException If the file cannot be opened or is not a valid store.
+     * @throws IllegalArgumentException If regionSlots is not positive.
+     */
+    MappedComposition(Path file, int regionSlots, boolean temporary) throws IOException {
+        this(file, regionSlots, temporary, 0);
+    }
+
+    /**
+     * Constructor to open or create a store.
+     *
+     * @param file The store file.
+     * @param regionSlots Slots per mapped region once regions have grown to full size.
+     * @param temporary Whether the files are deleted on close.
+     * @param expectedSlots The number of phrases about to be added, to size the first region.
+     * @throws IOException If the file cannot be opened or is not a valid store.
+     * @throws IllegalArgumentException If regionSlots is not positive.
+     */
+    MappedComposition(Path file, int regionSlots, boolean temporary, int expectedSlots) throws IOException {
+        if (regionSlots < 1)
+            throw new IllegalArgumentException("Regions must hold at least one slot");
+        this.file = file;
+        this.phraseFile = file.resolveSibling(file.getFileName() + PHRASES_SUFFIX);
+        this.temporary = temporary;
+        this.regionSlots = regionSlots;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            boolean exists = channel.size() > 0;
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH);
+            if (exists) {
+                readHeader();
+                readPhrases();
+            } else {
+                head = tail = free = current = currentIndex = NONE;
+                header.putInt(0, MAGIC);
+                header.put(4, (byte) MAJOR_VERSION);
+                header.put(5, (byte) MINOR_VERSION);
+                header.putShort(6, (short) HEADER_LENGTH);
+                storeHeader();
+            }
+            phraseOut = Files.newBufferedWriter(phraseFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        firstRegionSlots = firstRegionSlots(Math.max(slotCount, expectedSlots));
+        mapSlots(slotCount);
+    }
+
+    /**
+     * Creates a store in a temporary file that is deleted on close or when the
+     * program exits, and adds phrases to it.
+     *
+     * @param phrases The initial phrases.
+     * @return The new store.
+     * @throws UncheckedIOException If the temporary file cannot be created.
+     */
+    public static MappedComposition createTemporary(String[] phrases) {
+        try {
+            Path file = Files.createTempFile("composition", ".mcms");
+            file.toFile().deleteOnExit();
+            file.resolveSibling(file.getFileName() + PHRASES_SUFFIX).toFile().deleteOnExit();
+            MappedComposition composition = new MappedComposition(file, DEFAULT_REGION_SLOTS, true, phrases.length);
+            composition.addAll(phrases);
+            return composition;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the store file.
+     *
+     * @return The path of the file.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the number of phrases in the composition.
+     *
+     * @return The number of phrases.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns an estimate of the heap memory held by the store: its local phrase id
+     * tables and region buffers. The mapped slots are outside the heap and are not
+     * counted.
+     *
+     * @return The estimate in bytes.
+     */
+    @Override
+    public long getEstimatedBytes() {
+        return 4L * (sharedIds.length + localIds.length + regionStarts.length) + 64L * regions.size();
+    }
+
+    /**
+     * Returns the number of slots ever allocated, which is the size of the file in
+     * slots. Removed slots are reused before new ones are allocated.
+     *
+     * @return The slot count.
+     */
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    @Override
+    public int getCurrentIndex() {
+        return currentIndex;
+    }
+
+    @Override
+    public Node getCurrent() {
+        return view(current);
+    }
+
+    @Override
+    public void setCurrent(int index) {
+        if (size == 0) {
+            System.out.print("The list is empty");
+            return;
+        }
+        if (index < 0 || index >= size) {
+            System.out.println("Invalid index. Current remains unchanged.");
+            return;
+        }
+        current = slotAt(index);
+        currentIndex = index;
+        storeHeader();
+    }
+
+    @Override
+    public Node getNode(int index) {
+        return index < 0 || index >= size ? null : view(slotAt(index));
+    }
+
+    @Override
+    public Node getHead() {
+        return view(head);
+    }
+
+    @Override
+    public Node getTail() {
+        return view(tail);
+    }
+
+    @Override
+    public void moveForward() {
+        if (current != NONE && read(current, NEXT) != NONE) {
+            current = read(current, NEXT);
+            currentIndex++;
+            storeHeader();
+        } else {
+            System.out.println("Already at the last phrase.");
+        }
+    }
+
+    @Override
+    public void moveBackward() {
+        if (current != NONE && read(current, PREV) != NONE) {
+            current = read(current, PREV);
+            currentIndex--;
+            storeHeader();
+        } else {
+            System.out.println("Already at the first phrase.");
+        }
+    }
+
+    @Override
+    public void addAtEnd(String phrase) {
+        appendId(PhraseDictionary.getShared().intern(phrase));
+    }
+
+    @Override
+    public void addAtBeginning(String phrase) {
+        current = linkBefore(PhraseDictionary.getShared().intern(phrase), head);
+        currentIndex = 0;
+        storeHeader();
+    }
+
+    @Override
+    public void addAtCurrent(String phrase) {
+        if (current == NONE) {
+            addAtEnd(phrase);
+            return;
+        }
+        current = linkBefore(PhraseDictionary.getShared().intern(phrase), current);
+        storeHeader();
+    }
+
+    @Override
+    public void add(String phrase, int index) {
+        if (index >= 0 && index < size) {
+            current = slotAt(index);
+            currentIndex = index;
+            addAtCurrent(phrase);
+        } else if (index == size) {
+            addAtEnd(phrase);
+        }
+    }
+
+    @Override
+    public void repeatPhraseToEnd(int index) {
+        if (index < 0 || index >= size) {
+            System.out.println("Invalid index. No phrase copied.");
+            return;
+        }
+        appendId(phraseAt(slotAt(index)));
+    }
+
+    /**
+     * Adds every phrase of an array to the end of the composition, in order. New
+     * phrases are written to the sidecar together before any slot uses them.
+     *
+     * @param phrases The phrases to add.
+     */
+    @Override
+    public void addAll(String[] phrases) {
+        int[] phraseIds = new int[phrases.length];
+        for (int i = 0; i < phrases.length; i++) {
+            phraseIds[i] = PhraseDictionary.getShared().intern(phrases[i]);
+            localId(phraseIds[i]);
+        }
+        for (int phraseId : phraseIds)
+            appendId(phraseId);
+    }
+
+    @Override
+    public Node removeCurrent() {
+        if (current == NONE) {
+            System.out.println("No phrase to remove.");
+            return null;
+        }
+        int next = read(current, NEXT);
+        int prev = read(current, PREV);
+        int phraseId = unlink(current);
+        if (next != NONE)
+            current = next;
+        else {
+            current = prev;
+            currentIndex = size - 1;
+        }
+        storeHeader();
+        return new Node(phraseId);
+    }
+
+    @Override
+    public Node remove(int index) {
+        if (index < 0 || index >= size) {
+            System.out.println("Invalid index. No phrase removed.");
+            return null;
+        }
+        current = slotAt(index);
+        currentIndex = index;
+        return removeCurrent();
+    }
+
+    @Override
+    public void move(int currentIndex, int newIndex) {
+        Node moved = remove(currentIndex);
+        if (moved == null) {
+            System.out.println("Invalid move: Source index does not exist.");
+            return;
+        }
+        if (newIndex < 0 || newIndex > size)
+            return;
+        current = linkBefore(moved.getPhraseId(), newIndex == size ? NONE : slotAt(newIndex));
+        this.currentIndex = newIndex;
+        storeHeader();
+    }
+
+    /**
+     * Takes a snapshot of the whole composition that reads the slots until the next
+     * edit, so starting playback copies nothing.
+     *
+     * @return The snapshot.
+     */
+    @Override
+    public PlaybackSnapshot snapshot() {
+        return attachSnapshot(getHead());
+    }
+
+    /**
+     * Takes a snapshot of the composition from the current phrase that reads the
+     * slots until the next edit.
+     *
+     * @return The snapshot.
+     */
+    @Override
+    public PlaybackSnapshot snapshotFromCurrent() {
+        return attachSnapshot(getCurrent());
+    }
+
+    @Override
+    public void showAllPhrases() {
+        StringBuilder out = new StringBuilder();
+        for (int slot = head; slot != NONE; slot = read(slot, NEXT)) {
+            if (slot != head)
+                out.append(' ');
+            out.append(PhraseDictionary.getShared().phrase(phraseAt(slot)));
+        }
+        System.out.print(out);
+    }
+
+    /**
+     * Writes every changed page of the store and the sidecar to disk.
+     *
+     * @throws IOException If the sidecar cannot be written.
+     */
+    public void force() throws IOException {
+        flushPhrases();
+        header.force();
+        for (MappedByteBuffer region : regions)
+            region.force();
+    }
+
+    /**
+     * Writes the store to disk and closes it, deleting both files if the store is
+     * temporary. The composition must not be used after it is closed.
+     *
+     * @throws IOException If the files cannot be written or deleted.
+     */
+    @Override
+    public void close() throws IOException {
+        detachSnapshots();
+        try {
+            force();
+        } finally {
+            phraseOut.close();
+            channel.close();
+        }
+        if (temporary) {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(phraseFile);
+        }
+    }
+
+    /**
+     * Checks the header of an existing store and reads its fields.
+     *
+     * @throws IOException If the file is not a store this version can read.
+     */
+    private void readHeader() throws IOException {
+        if (channel.size() < HEADER_LENGTH || header.getInt(0) != MAGIC)
+            throw new IOException("Not a composition store: " + file);
+        if (header.get(4) > MAJOR_VERSION)
+            throw new IOException("Composition store version " + header.get(4) + " is newer than "
+                    + MAJOR_VERSION + ": " + file);
+        if (header.getShort(6) != HEADER_LENGTH)
+            throw new IOException("Unexpected header length " + header.getShort(6) + ": " + file);
+        size = header.getInt(8);
+        slotCount = header.getInt(12);
+        head = header.getInt(16);
+        tail = header.getInt(20);
+        free = header.getInt(24);
+        current = header.getInt(28);
+        currentIndex = header.getInt(32);
+        if (slotCount < 0 || size < 0 || size > slotCount || header.getInt(36) < 0
+                || channel.size() < HEADER_LENGTH + (long) slotCount * SLOT_BYTES
+                || !isSlot(head) || !isSlot(tail) || !isSlot(free) || !isSlot(current)
+                || currentIndex < NONE || currentIndex >= size)
+            throw new IOException("Corrupt composition store header: " + file);
+    }
+
+    /**
+     * Checks whether a header field names an allocated slot or NONE.
+     *
+     * @param slot The slot field.
+     * @return True if the slot is NONE or below the slot count.
+     */
+    private boolean isSlot(int slot) {
+        return slot >= NONE && slot < slotCount;
+    }
+
+    /**
+     * Writes the fields kept on the heap back to the header.
+     */
+    private void storeHeader() {
+        header.putInt(8, size);
+        header.putInt(12, slotCount);
+        header.putInt(16, head);
+        header.putInt(20, tail);
+        header.putInt(24, free);
+        header.putInt(28, current);
+        header.putInt(32, currentIndex);
+    }
+
+    /**
+     * Reads the sidecar of an existing store into the local dictionary.
+     *
+     * @throws IOException If the sidecar cannot be read or holds fewer phrases than
+     *                     the slots use.
+     */
+    private void readPhrases() throws IOException {
+        if (!Files.exists(phraseFile)) {
+            if (size > 0)
+                throw new IOException("Missing phrase file: " + phraseFile);
+            return;
+        }
+        try (BufferedReader in = Files.newBufferedReader(phraseFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null)
+                mapPhrase(PhraseDictionary.getShared().intern(unescape(line)));
+        }
+        if (phraseCount < header.getInt(36))
+            throw new IOException("Phrase file holds " + phraseCount + " of " + header.getInt(36)
+                    + " phrases: " + phraseFile);
+    }
+
+    /**
+     * Writes a phrase to the sidecar on a line of its own, escaping backslashes and
+     * line breaks.
+     *
+     * @param out The sidecar writer.
+     * @param phrase The phrase.
+     * @throws IOException If writing fails.
+     */
+    private static void writePhrase(Writer out, String phrase) throws IOException {
+        for (int i = 0; i < phrase.length(); i++) {
+            char c = phrase.charAt(i);
+            if (c == '\\')
+                out.write("\\\\");
+            else if (c == '\n')
+                out.write("\\n");
+            else if (c == '\r')
+                out.write("\\r");
+            else
+                out.write(c);
+        }
+        out.write('\n');
+    }
+
+    /**
+     * Reverses the escaping of a sidecar line.
+     *
+     * @param line The line.
+     * @return The phrase.
+     * @throws IOException If the line holds an unknown escape.
+     */
+    private static String unescape(String line) throws IOException {
+        if (line.indexOf('\\') < 0)
+            return line;
+        StringBuilder phrase = new StringBuilder(line.length());
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c != '\\') {
+                phrase.append(c);
+                continue;
+            }
+            char escaped = ++i < line.length() ? line.charAt(i) : ' ';
+            if (escaped == '\\')
+                phrase.append('\\');
+            else if (escaped == 'n')
+                phrase.append('\n');
+            else if (escaped == 'r')
+                phrase.append('\r');
+            else
+                throw new IOException("Bad escape in phrase file: " + line);
+        }
+        return phrase.toString();
+    }
+
+    /**
+     * Gives a shared phrase id the next local id.
+     *
+     * @param phraseId The shared id.
+     * @return The local id.
+     */
+    private int mapPhrase(int phraseId) {
+        if (phraseCount == sharedIds.length)
+            sharedIds = Arrays.copyOf(sharedIds, phraseCount * 2);
+        if (phraseId >= localIds.length)
+            localIds = Arrays.copyOf(localIds, Math.max(phraseId + 1, localIds.length * 2));
+        sharedIds[phraseCount] = phraseId;
+        localIds[phraseId] = phraseCount + 1;
+        return phraseCount++;
+    }
+
+    /**
+     * Returns the local id of a shared phrase id, adding the phrase to the sidecar
+     * buffer if the store has not used it before. The buffer must be flushed before a
+     * slot holding the id is written.
+     *
+     * @param phraseId The shared id.
+     * @return The local id.
+     */
+    private int localId(int phraseId) {
+        if (phraseId == PhraseDictionary.NO_PHRASE)
+            return NONE;
+        if (phraseId < localIds.length && localIds[phraseId] > 0)
+            return localIds[phraseId] - 1;
+        try {
+            writePhrase(phraseOut, PhraseDictionary.getShared().phrase(phraseId));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        phrasesPending = true;
+        return mapPhrase(phraseId);
+    }
+
+    /**
+     * Returns the local id of a shared phrase id, first writing any new phrases to
+     * the sidecar, so that a slot never holds an id the sidecar does not.
+     *
+     * @param phraseId The shared id.
+     * @return The local id, ready to be stored in a slot.
+     */
+    private int storedId(int phraseId) {
+        int local = localId(phraseId);
+        try {
+            flushPhrases();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return local;
+    }
+
+    /**
+     * Writes buffered phrases to the sidecar and records their number in the header.
+     *
+     * @throws IOException If the sidecar cannot be written.
+     */
+    private void flushPhrases() throws IOException {
+        if (!phrasesPending)
+            return;
+        phraseOut.flush();
+        header.putInt(36, phraseCount);
+        phrasesPending = false;
+    }
+
+    /**
+     * Returns the shared phrase id stored in a slot.
+     *
+     * @param slot The slot.
+     * @return The shared id.
+     * @throws IllegalStateException If the slot holds a local id the sidecar does not.
+     */
+    private int phraseAt(int slot) {
+        int local = read(slot, PHRASE);
+        if (local == NONE)
+            return PhraseDictionary.NO_PHRASE;
+        if (local < 0 || local >= phraseCount)
+            throw new IllegalStateException("Slot " + slot + " holds unknown phrase " + local + ": " + file);
+        return sharedIds[local];
+    }
+
+    /**
+     * Returns the slot holding the phrase at a valid index, walking from the head,
+     * the tail or the current slot, whichever is closest.
+     *
+     * @param index The index.
+     * @return The slot.
+     */
+    private int slotAt(int index) {
+        int slot = head, at = 0;
+        if (size - 1 - index < index) {
+            slot = tail;
+            at = size - 1;
+        }
+        if (current != NONE && Math.abs(index - currentIndex) < Math.abs(index - at)) {
+            slot = current;
+            at = currentIndex;
+        }
+        for (; at < index; at++)
+            slot = read(slot, NEXT);
+        for (; at > index; at--)
+            slot = read(slot, PREV);
+        return slot;
+    }
+
+    /**
+     * Appends a phrase id at the end and makes it current.
+     *
+     * @param phraseId The shared id to append.
+     */
+    private void appendId(int phraseId) {
+        current = linkBefore(phraseId, NONE);
+        currentIndex = size - 1;
+        storeHeader();
+    }
+
+    /**
+     * Stores a phrase in a free slot and links it before an anchor.
+     *
+     * @param phraseId The shared id of the phrase.
+     * @param anchor The slot that should follow it, or NONE for the end.
+     * @return The new slot.
+     */
+    private int linkBefore(int phraseId, int anchor) {
+        detachSnapshots();
+        int slot;
+        if (free != NONE) {
+            slot = free;
+            free = read(slot, NEXT);
+        } else {
+            mapSlots(slotCount + 1);
+            slot = slotCount++;
+        }
+        int before = anchor == NONE ? tail : read(anchor, PREV);
+        write(slot, PHRASE, storedId(phraseId));
+        write(slot, PREV, before);
+        write(slot, NEXT, anchor);
+        if (before == NONE)
+            head = slot;
+        else
+            write(before, NEXT, slot);
+        if (anchor == NONE)
+            tail = slot;
+        else
+            write(anchor, PREV, slot);
+        size++;
+        return slot;
+    }
+
+    /**
+     * Unlinks a slot and puts it on the free list. The caller updates the current slot.
+     *
+     * @param slot The slot.
+     * @return The shared id of the phrase it held.
+     */
+    private int unlink(int slot) {
+        detachSnapshots();
+        removals++;
+        int phraseId = phraseAt(slot);
+        int before = read(slot, PREV);
+        int after = read(slot, NEXT);
+        if (before == NONE)
+            head = after;
+        else
+            write(before, NEXT, after);
+        if (after == NONE)
+            tail = before;
+        else
+            write(after, PREV, before);
+        write(slot, NEXT, free);
+        free = slot;
+        size--;
+        return phraseId;
+    }
+
+    /**
+     * Reads a field of a slot.
+     *
+     * @param slot The slot.
+     * @param field The offset of the field within the slot.
+     * @return The value.
+     */
+    private int read(int slot, int field) {
+        int index = regionIndex(slot);
+        return regions.get(index).getInt((slot - regionStarts[index]) * SLOT_BYTES + field);
+    }
+
+    /**
+     * Writes a field of a slot.
+     *
+     * @param slot The slot.
+     * @param field The offset of the field within the slot.
+     * @param value The value.
+     */
+    private void write(int slot, int field, int value) {
+        int index = regionIndex(slot);
+        regions.get(index).putInt((slot - regionStarts[index]) * SLOT_BYTES + field, value);
+    }
+
+    /**
+     * Returns the size of the first region for a store that will hold a number of
+     * slots: the smallest power of two that holds them, between 1024 slots and the
+     * full region size.
+     *
+     * @param slots The number of slots.
+     * @return The slots in the first region.
+     */
+    private int firstRegionSlots(int slots) {
+        int first = MIN_FIRST_REGION_SLOTS;
+        while (first < slots && first < regionSlots)
+            first <<= 1;
+        return Math.min(first, regionSlots);
+    }
+
+    /**
+     * Maps regions until they hold a number of slots. Every region is twice as large
+     * as the one before, up to the full region size. Mapping past the end of the file
+     * extends it. Only the editing thread maps regions, and only while no snapshot
+     * reads the slots, so readers never see the regions change.
+     *
+     * @param slots The number of slots that must be mapped.
+     */
+    private void mapSlots(int slots) {
+        int mapped = regions.size();
+        while (regionStarts[mapped] < slots) {
+            int start = regionStarts[mapped];
+            int length = (int) Math.min(regionSlots, (long) firstRegionSlots << Math.min(mapped, 30));
+            long offset = HEADER_LENGTH + (long) start * SLOT_BYTES;
+            try {
+                regions.add(channel.map(FileChannel.MapMode.READ_WRITE, offset, (long) length * SLOT_BYTES));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            mapped++;
+            if (mapped == regionStarts.length)
+                regionStarts = Arrays.copyOf(regionStarts, mapped * 2);
+            regionStarts[mapped] = start + length;
+        }
+    }
+
+    /**
+     * Returns the index of the mapped region holding a slot.
+     *
+     * @param slot The slot.
+     * @return The region index.
+     * @throws IllegalStateException If the slot is not mapped, which only a corrupt
+     *                               link can cause.
+     */
+    private int regionIndex(int slot) {
+        int mapped = regions.size();
+        if (slot < 0 || slot >= regionStarts[mapped])
+            throw new IllegalStateException("Slot " + slot + " is outside the store: " + file);
+        if (slot >= regionStarts[mapped - 1])
+            return mapped - 1;
+        int index = Arrays.binarySearch(regionStarts, 0, mapped, slot);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * Returns a view of a slot.
+     *
+     * @param slot The slot, or NONE.
+     * @return The view, or null for NONE.
+     */
+    private Node view(int slot) {
+        return slot == NONE ? null : new SlotNode(slot);
+    }
+
+    /**
+     * Creates a snapshot that reads the slots from a start node and remembers it so it
+     * can be detached before the next edit.
+     *
+     * @param start The first node of the snapshot, may be null.
+     * @return The snapshot.
+     */
+    private PlaybackSnapshot attachSnapshot(Node start) {
+        PlaybackSnapshot snapshot = new PlaybackSnapshot(start);
+        if (snapshots == null)
+            snapshots = new ArrayList<>();
+        snapshots.add(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Detaches every snapshot that still reads this store's slots. Detaching copies
+     * the unread phrase ids to the heap, so edits during playback of a very long score
+     * are costly.
+     */
+    private void detachSnapshots() {
+        if (snapshots == null)
+            return;
+        for (PlaybackSnapshot snapshot : snapshots)
+            snapshot.detach();
+        snapshots = null;
+    }
+
+    /**
+     * The SlotNode class is a node view of one slot in the store, valid until the
+     * next edit that frees a slot.
+     */
+    private class SlotNode extends Node {
+
+        /** The slot this view refers to */
+        private final int slot;
+        /** The removal count of the store when the view was made */
+        private final int version;
+
+        /**
+         * Constructor to initialize a view of a slot.
+         *
+         * @param slot The slot.
+         */
+        SlotNode(int slot) {
+            super(PhraseDictionary.NO_PHRASE);
+            this.slot = slot;
+            this.version = removals;
+        }
+
+        @Override
+        public String getPhrase() {
+            return PhraseDictionary.getShared().phrase(getPhraseId());
+        }
+
+        @Override
+        public int getPhraseId() {
+            return phraseAt(checkedSlot());
+        }
+
+        @Override
+        public void setPhrase(String phrase) {
+            int checked = checkedSlot();
+            detachSnapshots();
+            write(checked, PHRASE, storedId(PhraseDictionary.getShared().intern(phrase)));
+        }
+
+        @Override
+        public Node getNext() {
+            return view(read(checkedSlot(), NEXT));
+        }
+
+        @Override
+        public Node getPrev() {
+            return view(read(checkedSlot(), PREV));
+        }
+
+        @Override
+        public void setNext(Node next) {
+            throw new UnsupportedOperationException("Slots in a mapped store cannot be relinked");
+        }
+
+        @Override
+        public void setPrev(Node prev) {
+            throw new UnsupportedOperationException("Slots in a mapped store cannot be relinked");
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof SlotNode))
+                return false;
+            SlotNode view = (SlotNode) other;
+            return view.owner() == MappedComposition.this && view.slot == slot && view.version == version;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * slot + version;
+        }
+
+        /**
+         * Returns the store this view belongs to.
+         *
+         * @return The store.
+         */
+        private MappedComposition owner() {
+            return MappedComposition.this;
+        }
+
+        /**
+         * Returns the slot of the view, checking that no slot has been freed since the
+         * view was made.
+         *
+         * @return The slot.
+         * @throws IllegalStateException If phrases were removed or moved since.
+         */
+        private int checkedSlot() {
+            if (version != removals)
+                throw new IllegalStateException(
+                        "The composition was edited after this node was taken; get the node again");
+            return slot;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for MappedComposition. It runs every DoublyLinkedList case against
+ * temporary stores; its own cases use small regions so that they cross region
+ * boundaries.
+ */
+public class MappedCompositionTest extends DoublyLinkedListTest {
+
+    /** Directory for store files */
+    @TempDir
+    Path folder;
+    /** The temporary stores created for the shared cases, closed after each test */
+    private final List<MappedComposition> created = new ArrayList<>();
+
+    @Override
+    protected Composition createComposition(String[] phrases) {
+        MappedComposition store = MappedComposition.createTemporary(phrases);
+        created.add(store);
+        return store;
+    }
+
+    /**
+     * Closes the temporary stores, which deletes their files.
+     */
+    @AfterEach
+    public void closeStores() throws IOException {
+        for (MappedComposition store : created)
+            store.close();
+        created.clear();
+    }
+
+    /**
+     * Lists the phrases of a composition by walking forward from the head.
+     */
+    private static List<String> phrases(Composition composition) {
+        List<String> phrases = new ArrayList<>();
+        for (Node temp = composition.getHead(); temp != null; temp = temp.getNext())
+            phrases.add(temp.getPhrase());
+        return phrases;
+    }
+
+    /**
+     * Tests random edits against a gap buffer on a store with small regions.
+     */
+    @Test
+    public void testRandomEdits() throws IOException {
+        GapBufferComposition expected = new GapBufferComposition();
+        String[] alphabet = {"C0", "D1", "E2", "F0", "G1", "A2", "B0"};
+        try (MappedComposition store = new MappedComposition(folder.resolve("edits.mcms"), 16, false)) {
+            DoublyLinkedListTest.randomEdits(new Random(23), 3000, 3, alphabet, step -> {
+                assertEquals(expected.size(), store.size(), "step " + step);
+                assertEquals(expected.getCurrentIndex(), store.getCurrentIndex(), "step " + step);
+            }, store, expected);
+            assertEquals(phrases(expected), phrases(store));
+            List<String> backward = new ArrayList<>();
+            for (Node temp = store.getTail(); temp != null; temp = temp.getPrev())
+                backward.add(0, temp.getPhrase());
+            assertEquals(phrases(expected), backward);
+        }
+    }
+
+    /**
+     * Tests that a store opened again holds the same phrases and current position.
+     */
+    @Test
+    public void testReopen() throws IOException {
+        Path file = folder.resolve("song.mcms");
+        try (MappedComposition store = new MappedComposition(file, 4, false)) {
+            store.addAll(new String[] {"C", "D", "E", "F", "G", "A", "B", "C6"});
+            store.remove(2);
+            store.setCurrent(5);
+            store.getNode(1).setPhrase("Dq");
+        }
+        assertTrue(Files.exists(folder.resolve("song.mcms" + MappedComposition.PHRASES_SUFFIX)));
+        try (MappedComposition store = new MappedComposition(file, 8, false)) {
+            assertEquals(List.of("C", "Dq", "F", "G", "A", "B", "C6"), phrases(store));
+            assertEquals(5, store.getCurrentIndex());
+            assertEquals("B", store.getCurrent().getPhrase());
+            store.addAtEnd("E");
+            assertEquals(8, store.getSlotCount());
+        }
+    }
+
+    /**
+     * Tests that removed slots are reused, so the file does not grow under churn.
+     */
+    @Test
+    public void testSlotsAreReused() throws IOException {
+        try (MappedComposition store = new MappedComposition(folder.resolve("churn.mcms"), 32, false)) {
+            for (int i = 0; i < 100; i++)
+                store.addAtEnd("C");
+            for (int round = 0; round < 50; round++) {
+                store.remove(round);
+                store.add("D", 100 - round - 1);
+            }
+            assertEquals(100, store.size());
+            assertEquals(100, store.getSlotCount());
+        }
+    }
+
+    /**
+     * Tests that a temporary store deletes its files on close.
+     */
+    @Test
+    public void testTemporaryStore() throws IOException {
+        MappedComposition store = MappedComposition.createTemporary(new String[] {"C", "D"});
+        Path file = store.getFile();
+        assertEquals(List.of("C", "D"), phrases(store));
+        assertTrue(Files.exists(file));
+        store.close();
+        assertFalse(Files.exists(file));
+    }
+
+    /**
+     * Tests that a small temporary store maps a small first region and that regions
+     * grow as phrases are added.
+     */
+    @Test
+    public void testRegionsGrow() throws IOException {
+        try (MappedComposition store = MappedComposition.createTemporary(new String[] {"C", "D"})) {
+            assertTrue(Files.size(store.getFile()) <= 64 + 1024 * 12);
+            for (int i = 0; i < 20000; i++)
+                store.addAtEnd(String.valueOf("CDEFGAB".charAt(i % 7)));
+            assertTrue(Files.size(store.getFile()) < 64 + 40000 * 12);
+            assertEquals("B", store.getNode(20000).getPhrase());
+            assertEquals("C", store.getTail().getPhrase());
+        }
+    }
+
+    /**
+     * Tests that phrases with line breaks and backslashes survive reopening.
+     */
+    @Test
+    public void testPhraseEscaping() throws IOException {
+        Path file = folder.resolve("escaped.mcms");
+        Path phraseFile = folder.resolve("escaped.mcms" + MappedComposition.PHRASES_SUFFIX);
+        try (MappedComposition store = new MappedComposition(file, 4, false)) {
+            store.addAll(new String[] {"C\nD", "E\\n", "F\r"});
+        }
+        assertEquals(3, Files.readAllLines(phraseFile, StandardCharsets.UTF_8).size());
+        try (MappedComposition store = new MappedComposition(file, 4, false)) {
+            assertEquals(List.of("C\nD", "E\\n", "F\r"), phrases(store));
+        }
+    }
+
+    /**
+     * Tests that a store that was never closed can be opened with its phrases, and
+     * that a store whose sidecar lost phrases is rejected.
+     */
+    @Test
+    public void testUnclosedStore() throws IOException {
+        Path file = folder.resolve("unclosed.mcms");
+        Path phraseFile = folder.resolve("unclosed.mcms" + MappedComposition.PHRASES_SUFFIX);
+        MappedComposition unclosed = new MappedComposition(file, 4, false);
+        unclosed.addAtEnd("C");
+        unclosed.addAll(new String[] {"D E", "F#5q"});
+        unclosed.getHead().setPhrase("G");
+        try (MappedComposition store = new MappedComposition(file, 4, false)) {
+            assertEquals(List.of("G", "D E", "F#5q"), phrases(store));
+        }
+        unclosed.close();
+
+        Files.write(phraseFile, List.of("C"), StandardCharsets.UTF_8);
+        assertThrows(IOException.class, () -> new MappedComposition(file, 4, false));
+    }
+
+    /**
+     * Tests that views stay valid while phrases are added and refuse to be used
+     * after a removal.
+     */
+    @Test
+    public void testStaleViews() throws IOException {
+        try (MappedComposition store = new MappedComposition(folder.resolve("views.mcms"), 4, false)) {
+            store.addAll(new String[] {"C", "D", "E"});
+            Node view = store.getNode(1);
+            assertEquals(store.getNode(1), view);
+            store.addAtBeginning("B");
+            assertEquals("D", view.getPhrase());
+            store.remove(0);
+            assertThrows(IllegalStateException.class, view::getPhrase);
+            assertThrows(IllegalStateException.class, () -> view.setPhrase("F"));
+            assertThrows(UnsupportedOperationException.class, () -> store.getHead().setNext(null));
+            assertEquals("D", store.getNode(1).getPhrase());
+        }
+    }
+
+    /**
+     * Tests that a file that is not a store is rejected.
+     */
+    @Test
+    public void testRejectsOtherFiles() throws IOException {
+        Path file = folder.resolve("other.mcms");
+        Files.write(file, new byte[100]);
+        assertThrows(IOException.class, () -> new MappedComposition(file));
+    }
+}
@@ -0,0 +1,101 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for named markers and in-place moves in DoublyLinkedList.
+ */
+public class MarkerTest {
+
+    /** A list with a marker on "C" and one on "E" */
+    private DoublyLinkedList list;
+
+    /**
+     * Initializes test data before each test.
+     */
+    @BeforeEach
+    public void setUp() {
+        list = new DoublyLinkedList(new String[] {"A", "B", "C", "D", "E"});
+        list.setCurrent(2);
+        list.setMarker("verse");
+        list.setCurrent(4);
+        list.setMarker("bridge");
+    }
+
+    /**
+     * Returns the phrases of the list joined by spaces.
+     */
+    private String phrases() {
+        StringBuilder text = new StringBuilder();
+        for (Node temp = list.getHead(); temp != null; temp = temp.getNext())
+            text.append(text.length() == 0 ? "" : " ").append(temp.getPhrase());
+        return text.toString();
+    }
+
+    /**
+     * Tests that markers survive edits around them and that jumping restores the
+     * current index.
+     */
+    @Test
+    public void testJumpAfterEdits() {
+        list.addAtBeginning("Z");
+        list.remove(1);
+        list.addAtEnd("F");
+        list.jumpToMarker("verse");
+        assertEquals("C", list.getCurrent().getPhrase());
+        assertEquals(2, list.getCurrentIndex());
+        list.moveForward();
+        assertEquals(3, list.getCurrentIndex());
+        assertEquals(Arrays.asList("bridge", "verse"), list.getMarkerNames().stream().toList());
+    }
+
+    /**
+     * Tests that removing a marked node removes its marker.
+     */
+    @Test
+    public void testRemoveDropsMarker() {
+        list.remove(2);
+        assertNull(list.getMarker("verse"));
+        list.removeRange(2, 4);
+        assertNull(list.getMarker("bridge"));
+        assertTrue(list.getMarkerNames().isEmpty());
+    }
+
+    /**
+     * Tests that move relinks the same node, so its marker follows it.
+     */
+    @Test
+    public void testMoveKeepsNode() {
+        Node verse = list.getMarker("verse");
+        list.move(2, 0);
+        assertEquals("C A B D E", phrases());
+        assertSame(verse, list.getHead());
+        assertSame(verse, list.getCurrent());
+        assertEquals(0, list.getCurrentIndex());
+    }
+
+    /**
+     * Tests moving a marked node and a marked range before another marker.
+     */
+    @Test
+    public void testMoveToMarker() {
+        list.setCurrent(0);
+        list.setMarker("intro");
+        list.moveToMarker("bridge", "intro");
+        assertEquals("E A B C D", phrases());
+        assertEquals(0, list.getCurrentIndex());
+        assertEquals("D", list.getTail().getPhrase());
+
+        list.moveRangeToMarker("intro", "verse", "bridge");
+        assertEquals("A B C E D", phrases());
+        assertEquals("A", list.getHead().getPhrase());
+        assertEquals(0, list.getCurrentIndex());
+
+        list.moveRangeToMarker("intro", "verse", "verse");
+        assertEquals("A B C E D", phrases());
+        assertSame(list.getTail().getPrev().getPrev().getPrev().getPrev(), list.getHead());
+    }
+}
@@ -0,0 +1,289 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The Metrics class collects counters and histograms about editing and playback:
+ * how often each edit runs and how many nodes it visits, how long phrases take to
+ * compile, how long playback takes to start, and how long the silence between
+ * phrases is. They can be read over JMX and dumped as text periodically.
+ *
+ * Instrumentation is switched on with -Dcomposer.metrics=true. Call sites check the
+ * ENABLED constant first; since it is static final, the JIT compiler removes the
+ * instrumentation entirely when it is off.
+ */
+public class Metrics implements MetricsMXBean {
+
+    /** Whether instrumentation is switched on for this run */
+    public static final boolean ENABLED = Boolean.getBoolean("composer.metrics");
+    /** The JMX name the metrics are registered under */
+    public static final String OBJECT_NAME = "MusicCompositor:type=Metrics";
+
+    /** The metrics shared by the whole application */
+    private static final Metrics shared = new Metrics();
+
+    /** Count of each edit operation, indexed by ordinal */
+    private final LongAdder[] operations = new LongAdder[EditOperation.values().length];
+    /** Nodes visited per edit */
+    private final Histogram nodesTraversed = new Histogram();
+    /** Phrase compile times in nanoseconds */
+    private final Histogram compileTime = new Histogram();
+    /** Times from play request to sequencer start in nanoseconds */
+    private final Histogram timeToFirstNote = new Histogram();
+    /** Silences between consecutive phrases in nanoseconds */
+    private final Histogram phraseGap = new Histogram();
+    /** The thread printing periodic dumps, or null */
+    private Thread dumper;
+
+    /**
+     * Constructor to initialize empty metrics.
+     */
+    Metrics() {
+        for (int i = 0; i < operations.length; i++)
+            operations[i] = new LongAdder();
+    }
+
+    /**
+     * Returns the metrics shared by the whole application.
+     *
+     * @return The shared metrics.
+     */
+    public static Metrics getShared() {
+        return shared;
+    }
+
+    /**
+     * Records one edit and the number of nodes it visited.
+     *
+     * @param operation The kind of edit.
+     * @param traversed The number of nodes visited to find the position.
+     */
+    public void recordOperation(EditOperation operation, int traversed) {
+        operations[operation.ordinal()].increment();
+        nodesTraversed.record(traversed);
+    }
+
+    /**
+     * Records the time taken to compile a phrase.
+     *
+     * @param nanos The compile time in nanoseconds.
+     */
+    public void recordCompile(long nanos) {
+        compileTime.record(nanos);
+    }
+
+    /**
+     * Records the time from a play request to the sequencer starting.
+     *
+     * @param nanos The time in nanoseconds.
+     */
+    public void recordTimeToFirstNote(long nanos) {
+        timeToFirstNote.record(nanos);
+    }
+
+    /**
+     * Records the silence between the end of one phrase and the start of the next.
+     *
+     * @param nanos The gap in nanoseconds.
+     */
+    public void recordPhraseGap(long nanos) {
+        phraseGap.record(nanos);
+    }
+
+    /**
+     * Returns how many times an edit ran.
+     *
+     * @param operation The kind of edit.
+     * @return The count.
+     */
+    public long getOperationCount(EditOperation operation) {
+        return operations[operation.ordinal()].sum();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return ENABLED;
+    }
+
+    @Override
+    public Map<String, Long> getOperationCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (EditOperation operation : EditOperation.values())
+            counts.put(operation.name(), getOperationCount(operation));
+        return counts;
+    }
+
+    @Override
+    public Summary getNodesTraversed() {
+        return new Summary(nodesTraversed, 1);
+    }
+
+    @Override
+    public Summary getCompileMicros() {
+        return new Summary(compileTime, 1000);
+    }
+
+    @Override
+    public Summary getTimeToFirstNoteMicros() {
+        return new Summary(timeToFirstNote, 1000);
+    }
+
+    @Override
+    public Summary getPhraseGapMicros() {
+        return new Summary(phraseGap, 1000);
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder text = new StringBuilder("Metrics\n  operations:");
+        for (EditOperation operation : EditOperation.values()) {
+            long count = getOperationCount(operation);
+            if (count > 0)
+                text.append(' ').append(operation.name()).append('=').append(count);
+        }
+        text.append("\n  nodes traversed: ").append(nodesTraversed.toString(1));
+        text.append("\n  compile time (us): ").append(compileTime.toString(1000));
+        text.append("\n  time to first note (us): ").append(timeToFirstNote.toString(1000));
+        text.append("\n  phrase gap (us): ").append(phraseGap.toString(1000)).append('\n');
+        return text.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder count : operations)
+            count.reset();
+        nodesTraversed.reset();
+        compileTime.reset();
+        timeToFirstNote.reset();
+        phraseGap.reset();
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server. Registering twice does
+     * nothing.
+     */
+    public synchronized void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // Already registered.
+        } catch (JMException e) {
+            System.out.println("Could not register metrics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts printing a dump every so many seconds, replacing any earlier schedule.
+     *
+     * @param periodSeconds The time between dumps in seconds, at least 1.
+     * @param out Where the dumps are printed.
+     */
+    public synchronized void startDumping(long periodSeconds, PrintStream out) {
+        stopDumping();
+        long periodMillis = Math.max(1, periodSeconds) * 1000;
+        dumper = ThreadSupport.start("metrics-dump", () -> {
+            try {
+                while (true) {
+                    Thread.sleep(periodMillis);
+                    out.print(dump());
+                    out.flush();
+                }
+            } catch (InterruptedException e) {
+                // Stopped.
+            }
+        });
+    }
+
+    /**
+     * Stops printing periodic dumps.
+     */
+    public synchronized void stopDumping() {
+        if (dumper != null) {
+            dumper.interrupt();
+            dumper = null;
+        }
+    }
+
+    /**
+     * The Summary class is a snapshot of a histogram, shown over JMX as a composite
+     * value.
+     */
+    public static class Summary {
+
+        /** Number of values */
+        private final long count;
+        /** Mean value */
+        private final double mean;
+        /** Upper bound of the median */
+        private final double p50;
+        /** Upper bound of the 99th percentile */
+        private final double p99;
+        /** Largest value */
+        private final double max;
+
+        /**
+         * Constructor to initialize a snapshot of a histogram.
+         *
+         * @param histogram The histogram.
+         * @param scale The divisor applied to every value.
+         */
+        Summary(Histogram histogram, double scale) {
+            count = histogram.getCount();
+            mean = histogram.getMean() / scale;
+            p50 = histogram.getPercentile(50) / scale;
+            p99 = histogram.getPercentile(99) / scale;
+            max = histogram.getMax() / scale;
+        }
+
+        /**
+         * Returns the number of values.
+         *
+         * @return The count.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the mean value.
+         *
+         * @return The mean.
+         */
+        public double getMean() {
+            return mean;
+        }
+
+        /**
+         * Returns the upper bound of the median.
+         *
+         * @return The median bound.
+         */
+        public double getP50() {
+            return p50;
+        }
+
+        /**
+         * Returns the upper bound of the 99th percentile.
+         *
+         * @return The 99th percentile bound.
+         */
+        public double getP99() {
+            return p99;
+        }
+
+        /**
+         * Returns the largest value.
+         *
+         * @return The maximum.
+         */
+        public double getMax() {
+            return max;
+        }
+    }
+}
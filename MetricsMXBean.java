@@ -0,0 +1,65 @@
+import java.util.Map;
+
+/**
+ * The MetricsMXBean interface is the JMX view of the composer's metrics. Histograms
+ * appear as composite values with a count, mean, median, 99th percentile and
+ * maximum.
+ */
+public interface MetricsMXBean {
+
+    /**
+     * Returns whether instrumentation is switched on for this run.
+     *
+     * @return True if metrics are being recorded.
+     */
+    boolean isEnabled();
+
+    /**
+     * Returns how many times each kind of edit ran.
+     *
+     * @return The count of each operation by name.
+     */
+    Map<String, Long> getOperationCounts();
+
+    /**
+     * Returns the distribution of nodes visited per edit.
+     *
+     * @return The summary.
+     */
+    Metrics.Summary getNodesTraversed();
+
+    /**
+     * Returns the distribution of phrase compile times in microseconds.
+     *
+     * @return The summary.
+     */
+    Metrics.Summary getCompileMicros();
+
+    /**
+     * Returns the distribution of times from a play request to the sequencer
+     * starting, in microseconds.
+     *
+     * @return The summary.
+     */
+    Metrics.Summary getTimeToFirstNoteMicros();
+
+    /**
+     * Returns the distribution of silences between consecutive phrases played one
+     * at a time, in microseconds.
+     *
+     * @return The summary.
+     */
+    Metrics.Summary getPhraseGapMicros();
+
+    /**
+     * Returns every metric as text.
+     *
+     * @return The text dump.
+     */
+    String dump();
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    void reset();
+}
@@ -0,0 +1,61 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for the Histogram and Metrics implementations.
+ */
+public class MetricsTest {
+
+    /**
+     * Tests counts, means and power-of-two percentile bounds.
+     */
+    @Test
+    public void testHistogram() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(50));
+        for (int i = 1; i <= 100; i++)
+            histogram.record(i);
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMean(), 1e-9);
+        assertEquals(100, histogram.getMax());
+        assertEquals(63, histogram.getPercentile(50));
+        assertEquals(100, histogram.getPercentile(99));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+
+    /**
+     * Tests that recorded edits show up in the counts, the dump and over JMX.
+     */
+    @Test
+    public void testMetrics() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.recordOperation(EditOperation.ADD, 7);
+        metrics.recordOperation(EditOperation.ADD, 1);
+        metrics.recordCompile(5_000);
+        assertEquals(2, metrics.getOperationCount(EditOperation.ADD));
+        assertEquals(2L, metrics.getOperationCounts().get("ADD"));
+        assertEquals(4.0, metrics.getNodesTraversed().getMean(), 1e-9);
+        assertEquals(5.0, metrics.getCompileMicros().getMax(), 1e-9);
+        assertTrue(metrics.dump().contains("ADD=2"));
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("MusicCompositorTest:type=Metrics");
+        server.registerMBean(metrics, name);
+        try {
+            CompositeData nodes = (CompositeData) server.getAttribute(name, "NodesTraversed");
+            assertEquals(2L, nodes.get("count"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+        metrics.reset();
+        assertEquals(0, metrics.getOperationCount(EditOperation.ADD));
+    }
+}
@@ -0,0 +1,270 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.SysexMessage;
+import javax.sound.midi.Track;
+
+/**
+ * The MidiExporter class writes a composition to a Standard MIDI File. Phrases are
+ * compiled one at a time through the phrase cache and their events are written
+ * straight to a buffered file channel, so the rendered composition is never held in
+ * memory as a whole. The file is a single-track (format 0) file; the track length is
+ * filled in once the last phrase has been written.
+ */
+public class MidiExporter {
+
+    /** Size of the output buffer in bytes */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** File offset of the track length field: 14-byte header plus "MTrk" */
+    private static final int TRACK_LENGTH_OFFSET = 18;
+    /** MIDI meta message type that marks the end of a track */
+    private static final int END_OF_TRACK = 0x2F;
+    /** Orders events within a phrase by tick, keeping track order for equal ticks */
+    private static final Comparator<MidiEvent> BY_TICK = Comparator.comparingLong(MidiEvent::getTick);
+
+    /** Source of compiled phrase fragments */
+    private final PhraseCache cache;
+    /** Output buffer, flushed to the channel whenever it fills */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    /** The file being written */
+    private FileChannel channel;
+    /** Ticks per quarter note of the file, taken from the first phrase */
+    private int resolution;
+    /** Absolute tick of the last event written */
+    private long lastTick;
+    /** Tick at which the next phrase starts */
+    private long offset;
+    /** Number of bytes written to the track chunk */
+    private long trackLength;
+
+    /**
+     * Constructor to initialize an exporter that takes fragments from a cache.
+     *
+     * @param cache The compiled-phrase cache.
+     */
+    public MidiExporter(PhraseCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Writes every phrase from a node to the end of the list to a MIDI file.
+     *
+     * @param start The first node to export.
+     * @param file The file to write; it is replaced if it exists.
+     * @return The number of phrases written.
+     * @throws IOException If the file cannot be written.
+     */
+    public int export(Node start, Path file) throws IOException {
+        int count = 0;
+        try (FileChannel out = open(file)) {
+            start(out);
+            for (Node temp = start; temp != null; temp = temp.getNext()) {
+                Sequence fragment = cache.get(temp.getPhraseId());
+                writePhrase(fragment, fragment.getTickLength());
+                count++;
+            }
+            finish();
+        } finally {
+            channel = null;
+        }
+        return count;
+    }
+
+    /**
+     * Writes the rendered segments of a composition to a MIDI file, without looking up
+     * any phrase. The render cache must be refreshed first.
+     *
+     * @param render The refreshed render cache.
+     * @param file The file to write; it is replaced if it exists.
+     * @return The number of segments written.
+     * @throws IOException If the file cannot be written.
+     */
+    public int exportSegments(RenderCache render, Path file) throws IOException {
+        int count = render.getSegmentCount();
+        try (FileChannel out = open(file)) {
+            start(out);
+            for (int k = 0; k < count; k++)
+                writePhrase(render.getSegment(k), render.getSegmentTicks(k));
+            finish();
+        } finally {
+            channel = null;
+        }
+        return count;
+    }
+
+    /**
+     * Opens a file for writing, replacing it if it exists.
+     *
+     * @param file The file to write.
+     * @return The open channel.
+     * @throws IOException If the file cannot be opened.
+     */
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Resets the writer state before writing a file.
+     *
+     * @param out The channel of the file being written.
+     */
+    private void start(FileChannel out) {
+        channel = out;
+        buffer.clear();
+        lastTick = offset = trackLength = 0;
+        resolution = 0;
+    }
+
+    /**
+     * Ends the track and fills in its length.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    private void finish() throws IOException {
+        if (resolution == 0)
+            writeHeader(128);
+        writeEvent(offset, new byte[] {(byte) 0xFF, END_OF_TRACK, 0});
+        flush();
+        ByteBuffer length = ByteBuffer.allocate(4).putInt(0, (int) trackLength);
+        channel.write(length, TRACK_LENGTH_OFFSET);
+    }
+
+    /**
+     * Writes the events of one compiled phrase after the phrases already written.
+     *
+     * @param fragment The compiled sequence of the phrase.
+     * @param length The length of the fragment in its own resolution.
+     * @throws IOException If the file cannot be written.
+     */
+    private void writePhrase(Sequence fragment, long length) throws IOException {
+        if (resolution == 0)
+            writeHeader(fragment.getResolution());
+        List<MidiEvent> events = new ArrayList<>();
+        for (Track track : fragment.getTracks())
+            for (int i = 0; i < track.size(); i++)
+                events.add(track.get(i));
+        events.sort(BY_TICK);
+        int from = fragment.getResolution();
+        for (MidiEvent event : events) {
+            MidiMessage message = event.getMessage();
+            if (message instanceof MetaMessage && ((MetaMessage) message).getType() == END_OF_TRACK)
+                continue;
+            writeEvent(offset + SequenceBuilder.rescale(event.getTick(), from, resolution), encode(message));
+        }
+        offset += SequenceBuilder.rescale(length, from, resolution);
+    }
+
+    /**
+     * Writes the file header and the start of the single track chunk.
+     *
+     * @param ticksPerBeat The resolution of the file.
+     * @throws IOException If the file cannot be written.
+     */
+    private void writeHeader(int ticksPerBeat) throws IOException {
+        resolution = ticksPerBeat;
+        buffer.put("MThd".getBytes(StandardCharsets.US_ASCII));
+        buffer.putInt(6);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 1);
+        buffer.putShort((short) ticksPerBeat);
+        buffer.put("MTrk".getBytes(StandardCharsets.US_ASCII));
+        buffer.putInt(0);
+    }
+
+    /**
+     * Writes one event with its delta time.
+     *
+     * @param tick The absolute tick of the event.
+     * @param data The encoded event bytes.
+     * @throws IOException If the file cannot be written.
+     */
+    private void writeEvent(long tick, byte[] data) throws IOException {
+        long delta = Math.max(0, tick - lastTick);
+        lastTick = Math.max(lastTick, tick);
+        if (buffer.remaining() < data.length + 5)
+            flush();
+        int before = buffer.position();
+        writeVariableLength(delta);
+        if (data.length > buffer.remaining()) {
+            trackLength += buffer.position() - before;
+            flush();
+            channel.write(ByteBuffer.wrap(data));
+            trackLength += data.length;
+            return;
+        }
+        buffer.put(data);
+        trackLength += buffer.position() - before;
+    }
+
+    /**
+     * Encodes a MIDI message the way it is stored in a track chunk.
+     *
+     * @param message The message to encode.
+     * @return The encoded bytes.
+     */
+    private static byte[] encode(MidiMessage message) {
+        if (message instanceof SysexMessage) {
+            // Stored as F0 (or F7), the data length, then the data.
+            byte[] data = ((SysexMessage) message).getData();
+            byte[] length = variableLength(data.length);
+            byte[] bytes = new byte[1 + length.length + data.length];
+            bytes[0] = (byte) message.getStatus();
+            System.arraycopy(length, 0, bytes, 1, length.length);
+            System.arraycopy(data, 0, bytes, 1 + length.length, data.length);
+            return bytes;
+        }
+        // Short messages and meta messages are already in file form.
+        return message.getMessage();
+    }
+
+    /**
+     * Writes a value as a MIDI variable-length quantity into the buffer.
+     *
+     * @param value The value to write.
+     */
+    private void writeVariableLength(long value) {
+        buffer.put(variableLength(value));
+    }
+
+    /**
+     * Encodes a value as a MIDI variable-length quantity.
+     *
+     * @param value The value to encode, at most 0x0FFFFFFF.
+     * @return The encoded bytes.
+     */
+    private static byte[] variableLength(long value) {
+        int count = 1;
+        for (long rest = value >>> 7; rest != 0; rest >>>= 7)
+            count++;
+        byte[] bytes = new byte[count];
+        for (int i = count - 1; i >= 0; i--) {
+            bytes[i] = (byte) ((value & 0x7F) | (i == count - 1 ? 0 : 0x80));
+            value >>>= 7;
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the buffered bytes to the file.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+}
@@ -0,0 +1,88 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for the MidiExporter implementation.
+ * It writes compositions to MIDI files and reads them back with the Java Sound API.
+ */
+public class MidiExporterTest {
+
+    /** Directory for exported files */
+    @TempDir
+    Path folder;
+
+    /**
+     * Creates a cache whose compiler turns each phrase into one quarter note whose
+     * key is the first character of the phrase.
+     */
+    private static PhraseCache noteCache() {
+        return new PhraseCache(16, phrase -> {
+            try {
+                Sequence sequence = new Sequence(Sequence.PPQ, 128);
+                Track track = sequence.createTrack();
+                track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, phrase.charAt(0), 64), 0));
+                track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 0, phrase.charAt(0), 0), 128));
+                return sequence;
+            } catch (InvalidMidiDataException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * Tests that exported phrases follow each other in a single track.
+     */
+    @Test
+    public void testExport() throws IOException, InvalidMidiDataException {
+        DoublyLinkedList list = new DoublyLinkedList(new String[] {"C", "D", "E"});
+        Path file = folder.resolve("song.mid");
+        assertEquals(3, new MidiExporter(noteCache()).export(list.getHead(), file));
+
+        Sequence sequence = MidiSystem.getSequence(file.toFile());
+        assertEquals(128, sequence.getResolution());
+        assertEquals(1, sequence.getTracks().length);
+        Track track = sequence.getTracks()[0];
+        assertEquals(7, track.size());
+        assertEquals('D', ((ShortMessage) track.get(2).getMessage()).getData1());
+        assertEquals(128, track.get(2).getTick());
+        assertEquals(384, sequence.getTickLength());
+    }
+
+    /**
+     * Tests a composition large enough to need several buffer flushes.
+     */
+    @Test
+    public void testLargeExport() throws IOException, InvalidMidiDataException {
+        DoublyLinkedList list = new DoublyLinkedList();
+        for (int i = 0; i < 50000; i++)
+            list.addAtEnd(i % 2 == 0 ? "C" : "G");
+        Path file = folder.resolve("large.mid");
+        new MidiExporter(noteCache()).export(list.getHead(), file);
+
+        Sequence sequence = MidiSystem.getSequence(file.toFile());
+        assertEquals(50000L * 128, sequence.getTickLength());
+        assertEquals(100001, sequence.getTracks()[0].size());
+    }
+
+    /**
+     * Tests that an empty list still produces a valid file.
+     */
+    @Test
+    public void testEmptyExport() throws IOException, InvalidMidiDataException {
+        Path file = folder.resolve("empty.mid");
+        assertEquals(0, new MidiExporter(noteCache()).export(null, file));
+        assertEquals(0, MidiSystem.getSequence(file.toFile()).getTickLength());
+    }
+}
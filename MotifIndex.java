@@ -0,0 +1,264 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The MotifIndex class finds every occurrence of a motif, a sequence of phrases, in a
+ * composition. It keeps the nodes holding each phrase id, and the list updates it as
+ * nodes are linked in, taken out or given another phrase, so it never has to be
+ * rebuilt after an edit. A repeat is indexed once, under each phrase id of its
+ * pattern, rather than once per phrase it stands for, and its count of a phrase is
+ * worked out from the pattern. A search starts from the occurrences of the motif's
+ * rarest phrase and checks the neighbours of each, so it costs O(k * m) for a motif
+ * of length m whose rarest phrase occurs k times, instead of a scan of the whole
+ * composition.
+ *
+ * The class also has a scan using the Knuth-Morris-Pratt automaton, which finds the
+ * indices of all occurrences in one O(n + m) pass without any index.
+ */
+public class MotifIndex {
+
+    /** The ordinary nodes holding each phrase id */
+    private final HashMap<Integer, Set<Node>> nodesByPhrase = new HashMap<>();
+    /** The repeats whose pattern holds each phrase id */
+    private final HashMap<Integer, Set<RepeatNode>> runsByPhrase = new HashMap<>();
+    /** The number of nodes and repeats held, counting a repeat once per phrase id */
+    private int entries;
+
+    /** Estimated bytes per phrase id: a map entry, the boxed id and its set */
+    private static final long BYTES_PER_PHRASE = 160;
+    /** Estimated bytes per node in a set: two identity map slots, with spare room */
+    private static final long BYTES_PER_ENTRY = 24;
+
+    /**
+     * Constructor to initialize an index over every link from a start node onward.
+     *
+     * @param head The first node of the composition, may be null.
+     */
+    public MotifIndex(Node head) {
+        for (Node temp = head; temp != null; temp = temp.nextLink())
+            add(temp);
+    }
+
+    /**
+     * Adds a link that was linked into the composition: an ordinary node, or a
+     * repeat under every phrase id of its pattern.
+     *
+     * @param node The node.
+     */
+    public void add(Node node) {
+        if (node instanceof RepeatNode) {
+            RepeatNode run = (RepeatNode) node;
+            for (int j = 0; j < run.getPatternLength(); j++)
+                if (runsByPhrase.computeIfAbsent(run.getPhraseId(j),
+                        id -> Collections.newSetFromMap(new IdentityHashMap<>())).add(run))
+                    entries++;
+        } else {
+            if (nodesByPhrase.computeIfAbsent(node.getPhraseId(),
+                    id -> Collections.newSetFromMap(new IdentityHashMap<>())).add(node))
+                entries++;
+        }
+    }
+
+    /**
+     * Adds a chain of links that was linked into the composition.
+     *
+     * @param first The first link of the chain.
+     * @param last The last link of the chain.
+     */
+    public void addAll(Node first, Node last) {
+        for (Node temp = first; ; temp = temp.nextLink()) {
+            add(temp);
+            if (temp == last)
+                break;
+        }
+    }
+
+    /**
+     * Removes a link that was taken out of the composition.
+     *
+     * @param node The node.
+     */
+    public void remove(Node node) {
+        if (node instanceof RepeatNode) {
+            RepeatNode run = (RepeatNode) node;
+            for (int j = 0; j < run.getPatternLength(); j++) {
+                Set<RepeatNode> runs = runsByPhrase.get(run.getPhraseId(j));
+                if (runs != null && runs.remove(run)) {
+                    entries--;
+                    if (runs.isEmpty())
+                        runsByPhrase.remove(run.getPhraseId(j));
+                }
+            }
+        } else {
+            Set<Node> nodes = nodesByPhrase.get(node.getPhraseId());
+            if (nodes != null && nodes.remove(node)) {
+                entries--;
+                if (nodes.isEmpty())
+                    nodesByPhrase.remove(node.getPhraseId());
+            }
+        }
+    }
+
+    /**
+     * Returns an estimate of the heap memory held by the index.
+     *
+     * @return The estimate in bytes.
+     */
+    public long getEstimatedBytes() {
+        return BYTES_PER_PHRASE * (nodesByPhrase.size() + runsByPhrase.size()) + BYTES_PER_ENTRY * entries;
+    }
+
+    /**
+     * Returns how many phrases of the composition are a given phrase.
+     *
+     * @param phrase The phrase.
+     * @return The number of occurrences.
+     */
+    public long count(String phrase) {
+        return count(PhraseDictionary.getShared().intern(phrase));
+    }
+
+    /**
+     * Finds the first node of every occurrence of a motif, in no particular order.
+     * Occurrences may overlap. An occurrence starting inside a repeat is returned as
+     * a position view; nothing is split.
+     *
+     * @param motif The phrase ids of the motif.
+     * @return The first node of each occurrence.
+     */
+    public List<Node> find(int[] motif) {
+        List<Node> starts = new ArrayList<>();
+        if (motif.length == 0)
+            return starts;
+        // Start from the phrase with the fewest occurrences.
+        int rarest = 0;
+        long fewest = Long.MAX_VALUE;
+        for (int i = 0; i < motif.length; i++) {
+            long count = count(motif[i]);
+            if (count == 0)
+                return starts;
+            if (count < fewest) {
+                fewest = count;
+                rarest = i;
+            }
+        }
+        int phraseId = motif[rarest];
+        for (Node candidate : nodesByPhrase.getOrDefault(phraseId, Collections.emptySet()))
+            check(candidate, rarest, motif, starts);
+        for (RepeatNode run : runsByPhrase.getOrDefault(phraseId, Collections.emptySet())) {
+            int period = run.getPatternLength();
+            for (int j = 0; j < period && j < run.length(); j++)
+                if (run.getPhraseId(j) == phraseId)
+                    for (int offset = j; offset < run.length(); offset += period)
+                        check(run.position(offset), rarest, motif, starts);
+        }
+        return starts;
+    }
+
+    /**
+     * Finds the index of every occurrence of a motif with the Knuth-Morris-Pratt
+     * automaton, in one pass over the nodes. Occurrences may overlap.
+     *
+     * @param head The first node to scan, may be null.
+     * @param motif The phrase ids of the motif.
+     * @return The indices of the first phrase of each occurrence, in increasing order.
+     */
+    public static int[] scan(Node head, int[] motif) {
+        if (motif.length == 0)
+            return new int[0];
+        // fallback[i] is the length of the longest proper prefix of motif[0..i] that
+        // is also a suffix of it.
+        int[] fallback = new int[motif.length];
+        for (int i = 1, k = 0; i < motif.length; i++) {
+            while (k > 0 && motif[i] != motif[k])
+                k = fallback[k - 1];
+            if (motif[i] == motif[k])
+                k++;
+            fallback[i] = k;
+        }
+        int[] found = new int[8];
+        int count = 0;
+        int matched = 0;
+        int index = 0;
+        for (Node temp = head; temp != null; temp = temp.getNext(), index++) {
+            int phraseId = temp.getPhraseId();
+            while (matched > 0 && phraseId != motif[matched])
+                matched = fallback[matched - 1];
+            if (phraseId == motif[matched])
+                matched++;
+            if (matched == motif.length) {
+                if (count == found.length)
+                    found = Arrays.copyOf(found, count * 2);
+                found[count++] = index - motif.length + 1;
+                matched = fallback[matched - 1];
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Turns phrases into their dictionary ids.
+     *
+     * @param phrases The phrases.
+     * @return The ids.
+     */
+    public static int[] toIds(String... phrases) {
+        int[] ids = new int[phrases.length];
+        for (int i = 0; i < phrases.length; i++)
+            ids[i] = PhraseDictionary.getShared().intern(phrases[i]);
+        return ids;
+    }
+
+    /**
+     * Checks whether the motif starts at a node.
+     *
+     * @param start The node to check from.
+     * @param motif The phrase ids of the motif.
+     * @return True if the motif occurs there.
+     */
+    private static boolean matchesAt(Node start, int[] motif) {
+        Node temp = start;
+        for (int phraseId : motif) {
+            if (temp == null || temp.getPhraseId() != phraseId)
+                return false;
+            temp = temp.getNext();
+        }
+        return true;
+    }
+
+    /**
+     * Counts the phrases holding a phrase id, in ordinary nodes and in repeats.
+     *
+     * @param phraseId The phrase id.
+     * @return The number of occurrences.
+     */
+    private long count(int phraseId) {
+        Set<Node> nodes = nodesByPhrase.get(phraseId);
+        long count = nodes == null ? 0 : nodes.size();
+        for (RepeatNode run : runsByPhrase.getOrDefault(phraseId, Collections.emptySet()))
+            count += run.count(phraseId);
+        return count;
+    }
+
+    /**
+     * Adds the start of an occurrence to a list if the motif occurs around a node
+     * holding one of its phrases.
+     *
+     * @param candidate The node holding the phrase at a known offset of the motif.
+     * @param offset The offset of that phrase in the motif.
+     * @param motif The phrase ids of the motif.
+     * @param starts The list to add the start to.
+     */
+    private static void check(Node candidate, int offset, int[] motif, List<Node> starts) {
+        Node start = candidate;
+        for (int i = 0; i < offset && start != null; i++)
+            start = start.getPrev();
+        if (start != null && matchesAt(start, motif))
+            starts.add(start);
+    }
+}
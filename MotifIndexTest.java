@@ -0,0 +1,138 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for motif search with MotifIndex.
+ */
+public class MotifIndexTest {
+
+    /**
+     * Finds a motif by comparing it at every index, for checking the fast searches.
+     */
+    private static int[] naiveFind(Composition composition, String... motif) {
+        List<String> phrases = new ArrayList<>();
+        for (Node temp = composition.getHead(); temp != null; temp = temp.getNext())
+            phrases.add(temp.getPhrase());
+        List<Integer> found = new ArrayList<>();
+        for (int i = 0; i + motif.length <= phrases.size(); i++)
+            if (phrases.subList(i, i + motif.length).equals(Arrays.asList(motif)))
+                found.add(i);
+        return found.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Checks whether two nodes are the same node, or views of the same phrase of a repeat.
+     */
+    private static boolean same(Node a, Node b) {
+        if (a instanceof RepeatNode.Position && b instanceof RepeatNode.Position)
+            return ((RepeatNode.Position) a).getRun() == ((RepeatNode.Position) b).getRun()
+                    && ((RepeatNode.Position) a).getOffset() == ((RepeatNode.Position) b).getOffset();
+        return a == b;
+    }
+
+    /**
+     * Returns the indices of nodes found by findMotifNodes, sorted.
+     */
+    private static int[] indicesOf(DoublyLinkedList list, List<Node> nodes) {
+        List<Integer> found = new ArrayList<>();
+        int index = 0;
+        for (Node temp = list.getHead(); temp != null; temp = temp.getNext(), index++)
+            for (Node node : nodes)
+                if (same(node, temp))
+                    found.add(index);
+        return found.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Tests overlapping occurrences and motifs that do not occur.
+     */
+    @Test
+    public void testFindMotif() {
+        DoublyLinkedList list = new DoublyLinkedList(new String[] {"A", "A", "B", "A", "A", "A", "B"});
+        assertArrayEquals(new int[] {1, 5}, list.findMotif("A", "B"));
+        assertArrayEquals(new int[] {0, 3, 4}, list.findMotif("A", "A"));
+        assertArrayEquals(new int[] {3}, list.findMotif("A", "A", "A"));
+        assertArrayEquals(new int[0], list.findMotif("B", "B"));
+        assertArrayEquals(new int[0], list.findMotif("Z"));
+        assertArrayEquals(new int[0], list.findMotif());
+        assertArrayEquals(new int[0], new DoublyLinkedList().findMotif("A"));
+    }
+
+    /**
+     * Tests that the default search gives the same results on every storage engine.
+     */
+    @Test
+    public void testFindMotifOnEveryEngine() {
+        for (StorageEngine engine : StorageEngine.values()) {
+            Composition composition = engine.create(new String[] {"C", "D", "E", "C", "D", "E", "D"});
+            assertArrayEquals(new int[] {0, 3}, composition.findMotif("C", "D", "E"), engine.name());
+            assertArrayEquals(new int[] {4}, composition.findMotif("D", "E", "D"), engine.name());
+        }
+    }
+
+    /**
+     * Tests that the index follows every kind of edit, and lists spliced in, without
+     * being rebuilt.
+     */
+    @Test
+    public void testIndexFollowsEdits() {
+        Random random = new Random(17);
+        String[] alphabet = {"A", "B", "C"};
+        DoublyLinkedList list = new DoublyLinkedList();
+        list.findMotifNodes("A");
+        DoublyLinkedListTest.randomEdits(random, 2000, 2, alphabet, step -> {
+            if (step % 10 == 0)
+                list.splice(new DoublyLinkedList(new String[] {"B", "C"}), random.nextInt(list.size() + 1));
+            String[] motif = {alphabet[random.nextInt(3)], alphabet[random.nextInt(3)]};
+            int[] expected = naiveFind(list, motif);
+            assertArrayEquals(expected, list.findMotif(motif), "step " + step);
+            assertArrayEquals(expected, indicesOf(list, list.findMotifNodes(motif)), "step " + step);
+        }, list);
+    }
+
+    /**
+     * Tests that a phrase changed directly on a node is found after the change.
+     */
+    @Test
+    public void testSetPhraseIsNoticed() {
+        DoublyLinkedList list = new DoublyLinkedList(new String[] {"A", "B", "C"});
+        assertEquals(1, list.findMotifNodes("B", "C").size());
+        list.getNode(1).setPhrase("X");
+        assertTrue(list.findMotifNodes("B", "C").isEmpty());
+        assertSame(list.getNode(1), list.findMotifNodes("X", "C").get(0));
+        assertArrayEquals(new int[] {1}, list.findMotif("X", "C"));
+    }
+
+    /**
+     * Tests that a repeat is indexed as one entry, that searching inside it splits
+     * nothing and that a list spliced into another reports changes to its new list.
+     */
+    @Test
+    public void testRepeatsAreIndexedOnce() {
+        DoublyLinkedList list = new DoublyLinkedList(new String[] {"C", "D"});
+        list.repeatRange(0, 2, 100000, 2);
+        MotifIndex index = new MotifIndex(list.getHead());
+        assertEquals(100001, index.count("C"));
+        assertEquals(100001, list.findMotifNodes("C", "D").size());
+        assertEquals(200002, list.size());
+        int[] found = list.findMotif("D", "C", "D", "C");
+        assertEquals(99999, found.length);
+        assertEquals(1, found[0]);
+        assertEquals(199997, found[found.length - 1]);
+        assertTrue(list.getHead().getNext().getNext() instanceof RepeatNode);
+
+        DoublyLinkedList other = new DoublyLinkedList(new String[] {"E", "F"});
+        Node moved = other.getHead();
+        list.findMotifNodes("E");
+        list.splice(other, 0);
+        moved.setPhrase("Z");
+        assertArrayEquals(new int[] {0}, list.findMotif("Z", "F"));
+        assertEquals("Z", list.getHead().getPhrase());
+    }
+}
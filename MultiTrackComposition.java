@@ -0,0 +1,336 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+/**
+ * The MultiTrackComposition class arranges several compositions, such as melody,
+ * bass and drums, that play together. Every track has its own instrument and MIDI
+ * channel, and all tracks start at the same time.
+ *
+ * Rendering compiles the phrases on a fork-join pool. Each track is split into runs
+ * of phrases that are compiled as separate tasks, so a single long track keeps every
+ * core busy just as well as many short ones, and idle workers steal runs from busy
+ * ones. Each track is then stitched into one MIDI track on its own channel, and the
+ * tracks are merged into one sequence for playback and export.
+ */
+public class MultiTrackComposition {
+
+    /** Number of phrases below which a run is compiled without splitting it further */
+    private static final int COMPILE_THRESHOLD = 16;
+    /** MIDI meta message type that marks the end of a track */
+    private static final int END_OF_TRACK = 0x2F;
+
+    /** The tracks, in the order they were added */
+    private final List<CompositionTrack> tracks = new ArrayList<>();
+    /** Source of compiled phrase fragments */
+    private final PhraseCache cache;
+    /** The pool phrases are compiled on */
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructor to initialize an empty arrangement that compiles through the shared
+     * phrase cache on the common fork-join pool.
+     */
+    public MultiTrackComposition() {
+        this(PhraseCache.getShared(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor to initialize an empty arrangement.
+     *
+     * @param cache The compiled-phrase cache.
+     * @param pool The pool phrases are compiled on.
+     */
+    public MultiTrackComposition(PhraseCache cache, ForkJoinPool pool) {
+        this.cache = cache;
+        this.pool = pool;
+    }
+
+    /**
+     * Adds a track. Tracks with the same name are allowed but only the first can be
+     * found by name.
+     *
+     * @param track The track to add.
+     */
+    public void addTrack(CompositionTrack track) {
+        tracks.add(track);
+    }
+
+    /**
+     * Creates a track holding a new, empty doubly linked list and adds it.
+     *
+     * @param name The name of the track.
+     * @param program The General MIDI program number of the instrument, 0 to 127.
+     * @param channel The MIDI channel, 0 to 15.
+     * @return The new track.
+     */
+    public CompositionTrack addTrack(String name, int program, int channel) {
+        CompositionTrack track = new CompositionTrack(name, new DoublyLinkedList(), program, channel);
+        tracks.add(track);
+        return track;
+    }
+
+    /**
+     * Returns the first track with a name.
+     *
+     * @param name The track name.
+     * @return The track, or null if there is none with that name.
+     */
+    public CompositionTrack getTrack(String name) {
+        for (CompositionTrack track : tracks)
+            if (track.getName().equals(name))
+                return track;
+        return null;
+    }
+
+    /**
+     * Removes the first track with a name.
+     *
+     * @param name The track name.
+     * @return The removed track, or null if there is none with that name.
+     */
+    public CompositionTrack removeTrack(String name) {
+        CompositionTrack track = getTrack(name);
+        if (track == null)
+            System.out.println("No track named " + name + ".");
+        else
+            tracks.remove(track);
+        return track;
+    }
+
+    /**
+     * Returns the tracks in the order they were added.
+     *
+     * @return An unmodifiable view of the tracks.
+     */
+    public List<CompositionTrack> getTracks() {
+        return Collections.unmodifiableList(tracks);
+    }
+
+    /**
+     * Compiles every track in parallel and merges them into one sequence with one
+     * MIDI track per composition track. Each MIDI track starts with a program change
+     * selecting the track's instrument, and all its channel messages are moved to the
+     * track's channel. The compositions must not be edited while this runs.
+     *
+     * @return The merged sequence.
+     */
+    public Sequence render() {
+        int resolution = resolution();
+        List<ForkJoinTask<List<MidiEvent>>> rendered = new ArrayList<>();
+        for (CompositionTrack track : tracks)
+            rendered.add(pool.submit(new TrackTask(track, resolution)));
+        Sequence sequence;
+        try {
+            sequence = new Sequence(Sequence.PPQ, resolution);
+        } catch (InvalidMidiDataException e) {
+            throw new IllegalStateException(e);
+        }
+        for (ForkJoinTask<List<MidiEvent>> task : rendered) {
+            Track target = sequence.createTrack();
+            for (MidiEvent event : task.join())
+                target.add(event);
+        }
+        return sequence;
+    }
+
+    /**
+     * Plays all tracks together and waits until they have finished.
+     */
+    public void play() {
+        if (isEmpty()) {
+            System.out.println("No phrases to play.");
+            return;
+        }
+        PlaybackEngine.getShared().play(render());
+    }
+
+    /**
+     * Exports all tracks to a multi-track (format 1) MIDI file.
+     *
+     * @param fileName The file to write; it is replaced if it exists.
+     */
+    public void exportToMidi(String fileName) {
+        if (isEmpty()) {
+            System.out.println("No phrases to export.");
+            return;
+        }
+        try {
+            MidiSystem.write(render(), 1, new File(fileName));
+            System.out.println("Exported " + tracks.size() + " tracks to " + fileName);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Could not export: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Checks whether no track has any phrases.
+     *
+     * @return True if there is nothing to play.
+     */
+    private boolean isEmpty() {
+        for (CompositionTrack track : tracks)
+            if (track.getComposition().getHead() != null)
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns the resolution of the merged sequence, taken from the first phrase of
+     * the first track that has one.
+     *
+     * @return The resolution in ticks per quarter note.
+     */
+    private int resolution() {
+        for (CompositionTrack track : tracks) {
+            Node head = track.getComposition().getHead();
+            if (head != null)
+                return cache.get(head.getPhraseId()).getResolution();
+        }
+        return 128;
+    }
+
+    /**
+     * Creates the channel message a message becomes on another channel.
+     *
+     * @param message The message.
+     * @param channel The channel to move it to.
+     * @return The message on the new channel, or the message itself if it is not a
+     *         channel message.
+     */
+    private static MidiMessage onChannel(MidiMessage message, int channel) {
+        if (!(message instanceof ShortMessage))
+            return message;
+        ShortMessage shortMessage = (ShortMessage) message;
+        int command = shortMessage.getCommand();
+        if (command < ShortMessage.NOTE_OFF || command > ShortMessage.PITCH_BEND)
+            return message;
+        try {
+            return new ShortMessage(command, channel, shortMessage.getData1(), shortMessage.getData2());
+        } catch (InvalidMidiDataException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The TrackTask class compiles the phrases of one track and lays them end to end
+     * as the events of one MIDI track.
+     */
+    private class TrackTask extends RecursiveTask<List<MidiEvent>> {
+
+        /** The serialization version; tasks are serializable through ForkJoinTask */
+        private static final long serialVersionUID = 1L;
+
+        /** The track to render */
+        private final CompositionTrack track;
+        /** The resolution of the merged sequence */
+        private final int resolution;
+
+        /**
+         * Constructor to initialize a task for one track.
+         *
+         * @param track The track to render.
+         * @param resolution The resolution of the merged sequence.
+         */
+        TrackTask(CompositionTrack track, int resolution) {
+            this.track = track;
+            this.resolution = resolution;
+        }
+
+        @Override
+        protected List<MidiEvent> compute() {
+            int count = track.getComposition().size();
+            int[] phraseIds = new int[count];
+            int i = 0;
+            for (Node temp = track.getComposition().getHead(); temp != null; temp = temp.getNext())
+                phraseIds[i++] = temp.getPhraseId();
+            Sequence[] fragments = new Sequence[count];
+            new CompileTask(phraseIds, fragments, 0, count).invoke();
+
+            List<MidiEvent> events = new ArrayList<>();
+            int channel = track.getChannel();
+            try {
+                events.add(new MidiEvent(new ShortMessage(ShortMessage.PROGRAM_CHANGE, channel, track.getProgram(), 0), 0));
+            } catch (InvalidMidiDataException e) {
+                throw new IllegalStateException(e);
+            }
+            long offset = 0;
+            for (Sequence fragment : fragments) {
+                int from = fragment.getResolution();
+                for (Track source : fragment.getTracks()) {
+                    for (int e = 0; e < source.size(); e++) {
+                        MidiEvent event = source.get(e);
+                        MidiMessage message = event.getMessage();
+                        if (message instanceof MetaMessage && ((MetaMessage) message).getType() == END_OF_TRACK)
+                            continue;
+                        long tick = offset + SequenceBuilder.rescale(event.getTick(), from, resolution);
+                        events.add(new MidiEvent(onChannel(message, channel), tick));
+                    }
+                }
+                offset += SequenceBuilder.rescale(fragment.getTickLength(), from, resolution);
+            }
+            return events;
+        }
+    }
+
+    /**
+     * The CompileTask class compiles a run of phrases, splitting it in half until the
+     * halves are small enough to compile directly.
+     */
+    private class CompileTask extends RecursiveAction {
+
+        /** The serialization version; tasks are serializable through ForkJoinTask */
+        private static final long serialVersionUID = 1L;
+
+        /** The ids of all phrases of the track */
+        private final int[] phraseIds;
+        /** Where the compiled sequence of each phrase is stored */
+        private final Sequence[] fragments;
+        /** The index of the first phrase of the run */
+        private final int from;
+        /** The index after the last phrase of the run */
+        private final int to;
+
+        /**
+         * Constructor to initialize a task for a run of phrases.
+         *
+         * @param phraseIds The ids of all phrases of the track.
+         * @param fragments Where the compiled sequences are stored.
+         * @param from The index of the first phrase of the run.
+         * @param to The index after the last phrase of the run.
+         */
+        CompileTask(int[] phraseIds, Sequence[] fragments, int from, int to) {
+            this.phraseIds = phraseIds;
+            this.fragments = fragments;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= COMPILE_THRESHOLD) {
+                for (int i = from; i < to; i++)
+                    fragments[i] = cache.get(phraseIds[i]);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new CompileTask(phraseIds, fragments, from, middle),
+                    new CompileTask(phraseIds, fragments, middle, to));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for MultiTrackComposition.
+ * It uses a cache that compiles every phrase to a single note whose length is the
+ * phrase length times 16 ticks, so no synthesizer is needed.
+ */
+public class MultiTrackCompositionTest {
+
+    /** Names of the threads that compiled phrases */
+    private final Set<String> compilerThreads = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    /**
+     * Creates a cache whose compiler records the compiling thread.
+     */
+    private PhraseCache noteCache() {
+        return new PhraseCache(4096, phrase -> {
+            compilerThreads.add(Thread.currentThread().getName());
+            try {
+                // Long enough that idle workers get to steal runs of phrases.
+                Thread.sleep(1);
+                Sequence sequence = new Sequence(Sequence.PPQ, 128);
+                Track track = sequence.createTrack();
+                track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 64), 0));
+                track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 0, 60, 0), phrase.length() * 16L));
+                return sequence;
+            } catch (InvalidMidiDataException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * Tests that each composition track becomes a MIDI track on its own channel,
+     * starting with the instrument's program change, and that all tracks start at 0.
+     */
+    @Test
+    public void testTracksAreMerged() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        MultiTrackComposition arrangement = new MultiTrackComposition(noteCache(), pool);
+        arrangement.addTrack("melody", 0, 0).getComposition().addAll(new String[] {"C", "DD", "E"});
+        arrangement.addTrack("bass", 33, 1).getComposition().addAll(new String[] {"CCCC"});
+        arrangement.addTrack(new CompositionTrack("drums", new GapBufferComposition(new String[] {"B", "B"}), 0,
+                CompositionTrack.DRUM_CHANNEL));
+        Sequence sequence = arrangement.render();
+        pool.shutdown();
+
+        Track[] tracks = sequence.getTracks();
+        assertEquals(3, tracks.length);
+        ShortMessage program = (ShortMessage) tracks[1].get(0).getMessage();
+        assertEquals(ShortMessage.PROGRAM_CHANGE, program.getCommand());
+        assertEquals(33, program.getData1());
+        assertEquals(1, program.getChannel());
+        assertEquals(0, tracks[1].get(1).getTick());
+        assertEquals(1, ((ShortMessage) tracks[1].get(1).getMessage()).getChannel());
+        assertEquals(9, ((ShortMessage) tracks[2].get(3).getMessage()).getChannel());
+
+        // Melody: C at 0, DD at 16, E at 48; the second drum hit at 16.
+        assertEquals(16, tracks[0].get(3).getTick());
+        assertEquals(48, tracks[0].get(5).getTick());
+        assertEquals(16, tracks[2].get(3).getTick());
+        assertEquals(64, sequence.getTickLength());
+        assertSame(arrangement.getTrack("bass"), arrangement.getTracks().get(1));
+    }
+
+    /**
+     * Tests that the phrases of a single long track are compiled on several workers.
+     */
+    @Test
+    public void testLongTrackIsCompiledInParallel() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        MultiTrackComposition arrangement = new MultiTrackComposition(noteCache(), pool);
+        Composition melody = arrangement.addTrack("melody", 0, 0).getComposition();
+        String[] phrases = new String[400];
+        for (int i = 0; i < phrases.length; i++)
+            phrases[i] = "T" + i;
+        melody.addAll(phrases);
+        Sequence sequence = arrangement.render();
+        pool.shutdown();
+
+        assertEquals(1 + 2 * phrases.length, sequence.getTracks()[0].size() - 1);
+        assertTrue(compilerThreads.size() > 1, "compiled on " + compilerThreads);
+    }
+
+    /**
+     * Tests that tracks can be removed by name.
+     */
+    @Test
+    public void testRemoveTrack() {
+        MultiTrackComposition arrangement = new MultiTrackComposition(noteCache(), ForkJoinPool.commonPool());
+        arrangement.addTrack("melody", 0, 0);
+        assertNotNull(arrangement.removeTrack("melody"));
+        assertNull(arrangement.removeTrack("melody"));
+        assertEquals(0, arrangement.render().getTracks().length);
+        assertThrows(IllegalArgumentException.class, () -> arrangement.addTrack("bad", 0, 16));
+    }
+}
@@ -1,15 +1,18 @@
 /**
  * The Node class represents an individual node in a doubly linked list.
  * Each node contains a musical phrase and references to both the next and previous nodes.
+ * The phrase is stored as its id in the shared PhraseDictionary.
  */
 public class Node {
 
-    /** The musical phrase stored in this node */
-    private String phrase;
+    /** The dictionary id of the musical phrase stored in this node */
+    private int phraseId;
     /** Reference to the next node in the list */
     private Node next;
     /** Reference to the previous node in the list */
     private Node prev;
+    /** The owner of the list this node is linked into, or null if it is in none */
+    private NodeOwner owner;
 
     /**
      * Constructor to initialize a node with a phrase and references to the previous and next nodes.
@@ -19,7 +22,7 @@ public class Node {
      * @param next   The next node in the list.
      */
     public Node (String phrase, Node prev, Node next) {
-        this.phrase = phrase;
+        this.phraseId = PhraseDictionary.getShared().intern(phrase);
         this.prev = prev;
         this.next = next;
     }
@@ -31,7 +34,17 @@ public class Node {
      * @param phrase The musical phrase stored in this node.
      */
     public Node (String phrase) {
-        this.phrase = phrase;
+        this(PhraseDictionary.getShared().intern(phrase));
+    }
+
+    /**
+     * Constructor to initialize a node with a phrase that is already in the dictionary.
+     * The previous and next references are set to null.
+     *
+     * @param phraseId The dictionary id of the phrase stored in this node.
+     */
+    Node (int phraseId) {
+        this.phraseId = phraseId;
         this.next = null;
         this.prev = null;
     }
@@ -42,16 +55,86 @@ public class Node {
      * @return The phrase as a String.
      */
     public String getPhrase() {
-        return phrase;
+        return PhraseDictionary.getShared().phrase(getPhraseId());
+    }
+
+    /**
+     * Returns the dictionary id of the musical phrase stored in this node.
+     *
+     * @return The phrase id.
+     */
+    public int getPhraseId() {
+        return phraseId;
+    }
+
+    /**
+     * Checks whether this node holds the same phrase as another node.
+     *
+     * @param other The node to compare with.
+     * @return True if both nodes hold the same phrase.
+     */
+    public boolean hasSamePhrase(Node other) {
+        return other != null && getPhraseId() == other.getPhraseId();
     }
 
     /**
-     * Updates the musical phrase stored in this node.
+     * Updates the musical phrase stored in this node. If the node is linked into a
+     * DoublyLinkedList, the change goes through the list, so that its motif index,
+     * render cache and playback snapshots hear about this node only; a phrase inside
+     * a repeat is split out of it first.
      *
      * @param phrase The new phrase to store in the node.
      */
     public void setPhrase(String phrase) {
-        this.phrase = phrase;
+        int newId = PhraseDictionary.getShared().intern(phrase);
+        Node live = resolve();
+        DoublyLinkedList list = live.getList();
+        if (list == null)
+            live.setPhraseId(newId);
+        else
+            list.replacePhrase(live, newId);
+    }
+
+    /**
+     * Updates the phrase stored in this node without telling its list. Used by lists
+     * that update their own indexes when they replace a phrase.
+     *
+     * @param phraseId The dictionary id of the new phrase.
+     */
+    void setPhraseId(int phraseId) {
+        this.phraseId = phraseId;
+    }
+
+    /**
+     * Returns the node that holds this node's phrase now. Only a view of a repeat
+     * that has since been split differs from the node itself.
+     *
+     * @return The node holding the phrase.
+     */
+    Node resolve() {
+        return this;
+    }
+
+    /**
+     * Returns the DoublyLinkedList this node is linked into.
+     *
+     * @return The list, or null if the node is in none.
+     */
+    DoublyLinkedList getList() {
+        if (owner == null)
+            return null;
+        owner = owner.resolve();
+        return owner.getList();
+    }
+
+    /**
+     * Records the owner of the list this node was linked into, or null when it is
+     * taken out.
+     *
+     * @param owner The owner, or null.
+     */
+    void setOwner(NodeOwner owner) {
+        this.owner = owner;
     }
 
     /**
@@ -67,26 +150,69 @@ public class Node {
      * Updates the reference to the next node in the list.
      *
      * @param next The node to set as the next node.
+     * @throws UnsupportedOperationException If this node is a view that a composition
+     *                                       hands out instead of a stored node.
      */
     public void setNext(Node next) {
         this.next = next;
     }
 
     /**
-     * Returns the previous node in the list.
+     * Returns the previous node in the list. If the previous link is a repeat, this
+     * is its last position.
      *
      * @return The previous node or null if this is the first node.
      */
     public Node getPrev() {
-        return prev;
+        return prev == null ? null : prev.lastPosition();
     }
 
     /**
      * Updates the reference to the previous node in the list.
      *
      * @param prev The node to set as the previous node.
+     * @throws UnsupportedOperationException If this node is a view that a composition
+     *                                       hands out instead of a stored node.
      */
     public void setPrev(Node prev) {
         this.prev = prev;
     }
+
+    /**
+     * Returns the next link of the chain as stored, without stepping into a repeat.
+     * Used by lists when they relink nodes.
+     *
+     * @return The next link, or null.
+     */
+    Node nextLink() {
+        return next;
+    }
+
+    /**
+     * Returns the previous link of the chain as stored, without stepping into a
+     * repeat. Used by lists when they relink nodes.
+     *
+     * @return The previous link, or null.
+     */
+    Node prevLink() {
+        return prev;
+    }
+
+    /**
+     * Returns the number of phrases this link stands for.
+     *
+     * @return 1 for an ordinary node.
+     */
+    int length() {
+        return 1;
+    }
+
+    /**
+     * Returns the node for the last phrase this link stands for.
+     *
+     * @return This node, for an ordinary node.
+     */
+    Node lastPosition() {
+        return this;
+    }
 }
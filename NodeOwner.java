@@ -0,0 +1,59 @@
+/**
+ * The NodeOwner class ties the nodes of a DoublyLinkedList to the list, so that a
+ * phrase set directly on a node is reported to the list holding it. Nodes point to
+ * an owner rather than to the list so that splicing stays O(1): the emptied list's
+ * owner is forwarded to the owner of the list that took its nodes, instead of every
+ * moved node being updated, and a node finds its list by following the forwards.
+ */
+class NodeOwner {
+
+    /** The list whose nodes point to this owner */
+    private final DoublyLinkedList list;
+    /** The owner this one was forwarded to, or null */
+    private NodeOwner forward;
+
+    /**
+     * Constructor to initialize the owner of a list's nodes.
+     *
+     * @param list The list.
+     */
+    NodeOwner(DoublyLinkedList list) {
+        this.list = list;
+    }
+
+    /**
+     * Forwards this owner to another, after its nodes were moved into that owner's list.
+     *
+     * @param forward The owner of the list that now holds the nodes.
+     */
+    void forwardTo(NodeOwner forward) {
+        this.forward = forward;
+    }
+
+    /**
+     * Returns the owner at the end of the forwards, pointing every owner passed on
+     * the way straight to it so that the next lookup takes one step.
+     *
+     * @return The owner that is not forwarded.
+     */
+    NodeOwner resolve() {
+        NodeOwner end = this;
+        while (end.forward != null)
+            end = end.forward;
+        for (NodeOwner temp = this; temp != end; ) {
+            NodeOwner next = temp.forward;
+            temp.forward = end;
+            temp = next;
+        }
+        return end;
+    }
+
+    /**
+     * Returns the list whose nodes point to this owner.
+     *
+     * @return The list.
+     */
+    DoublyLinkedList getList() {
+        return list;
+    }
+}
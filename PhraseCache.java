@@ -0,0 +1,193 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import javax.sound.midi.Sequence;
+
+import org.jfugue.player.Player;
+
+/**
+ * The PhraseCache class keeps the compiled MIDI sequence of recently played phrases
+ * so that jFugue does not have to parse and render the same staccato text again.
+ * The cache holds at most a fixed number of phrases and evicts the least recently
+ * used one when it is full.
+ *
+ * Entries are keyed by the phrase id from the shared PhraseDictionary, so lookups
+ * compare integers, and when a node's phrase is changed through Node.setPhrase the
+ * next lookup is for the new id and can never return the old rendering. Cached
+ * sequences are shared and must not be modified.
+ */
+public class PhraseCache {
+
+    /** Default number of phrases kept by the shared cache */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /** The cache shared by all compositions */
+    private static final PhraseCache shared = new PhraseCache(DEFAULT_CAPACITY);
+
+    /** One jFugue player per thread, used only to compile phrases */
+    private static final ThreadLocal<Player> compilers = ThreadLocal.withInitial(Player::new);
+
+    /** Compiled sequences in least recently used order */
+    private final LinkedHashMap<Integer, Sequence> entries;
+    /** Turns a phrase into a MIDI sequence */
+    private final Function<String, Sequence> compiler;
+    /** Maximum number of cached phrases */
+    private final int capacity;
+    /** Number of lookups answered from the cache */
+    private long hits;
+    /** Number of lookups that had to compile */
+    private long misses;
+    /** Number of entries dropped to make room */
+    private long evictions;
+
+    /**
+     * Constructor to initialize a cache that compiles phrases with jFugue.
+     *
+     * @param capacity The maximum number of phrases to keep.
+     */
+    public PhraseCache(int capacity) {
+        this(capacity, phrase -> compilers.get().getSequence(phrase));
+    }
+
+    /**
+     * Constructor to initialize a cache with a custom phrase compiler.
+     *
+     * @param capacity The maximum number of phrases to keep.
+     * @param compiler The function that turns a phrase into a sequence.
+     */
+    PhraseCache(int capacity, Function<String, Sequence> compiler) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        this.capacity = capacity;
+        this.compiler = compiler;
+        this.entries = new LinkedHashMap<Integer, Sequence>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Sequence> eldest) {
+                if (size() <= PhraseCache.this.capacity)
+                    return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns the cache shared by all compositions.
+     *
+     * @return The shared cache.
+     */
+    public static PhraseCache getShared() {
+        return shared;
+    }
+
+    /**
+     * Returns the compiled sequence of a phrase, compiling and caching it on a miss.
+     *
+     * @param phrase The phrase to compile.
+     * @return The compiled sequence.
+     */
+    public Sequence get(String phrase) {
+        return get(PhraseDictionary.getShared().intern(phrase));
+    }
+
+    /**
+     * Returns the compiled sequence of a phrase id, compiling and caching it on a miss.
+     * Compilation happens outside the lock so several threads can compile at once.
+     *
+     * @param phraseId The dictionary id of the phrase to compile.
+     * @return The compiled sequence.
+     */
+    public Sequence get(int phraseId) {
+        synchronized (this) {
+            Sequence sequence = entries.get(phraseId);
+            if (sequence != null) {
+                hits++;
+                return sequence;
+            }
+            misses++;
+        }
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        Sequence compiled = compiler.apply(PhraseDictionary.getShared().phrase(phraseId));
+        if (Metrics.ENABLED)
+            Metrics.getShared().recordCompile(System.nanoTime() - start);
+        synchronized (this) {
+            Sequence existing = entries.putIfAbsent(phraseId, compiled);
+            return existing != null ? existing : compiled;
+        }
+    }
+
+    /**
+     * Drops the compiled sequence of a phrase, if it is cached.
+     *
+     * @param phrase The phrase to forget.
+     */
+    public synchronized void invalidate(String phrase) {
+        entries.remove(PhraseDictionary.getShared().intern(phrase));
+    }
+
+    /**
+     * Drops every cached sequence. The counters are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of cached phrases.
+     *
+     * @return The number of entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the maximum number of cached phrases.
+     *
+     * @return The capacity.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache.
+     *
+     * @return The hit count.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that had to compile the phrase.
+     *
+     * @return The miss count.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of entries evicted to stay within capacity.
+     *
+     * @return The eviction count.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns a one-line summary of the cache counters.
+     *
+     * @return The summary.
+     */
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        double hitRate = lookups == 0 ? 0 : 100.0 * hits / lookups;
+        return String.format("PhraseCache[size=%d/%d, hits=%d, misses=%d, evictions=%d, hit rate=%.1f%%]",
+                entries.size(), capacity, hits, misses, evictions, hitRate);
+    }
+}
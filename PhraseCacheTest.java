@@ -0,0 +1,79 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Sequence;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for the PhraseCache implementation.
+ * It tests hits, misses, least recently used eviction and invalidation.
+ */
+public class PhraseCacheTest {
+
+    /** Phrases handed to the compiler, in order */
+    private List<String> compiled;
+    /** A cache with room for two phrases */
+    private PhraseCache cache;
+
+    /**
+     * Initializes a small cache with a recording compiler before each test.
+     */
+    @BeforeEach
+    public void setUp() {
+        compiled = new ArrayList<>();
+        cache = new PhraseCache(2, phrase -> {
+            compiled.add(phrase);
+            try {
+                return new Sequence(Sequence.PPQ, 128);
+            } catch (InvalidMidiDataException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * Tests that a repeated phrase is compiled only once.
+     */
+    @Test
+    public void testHitsAndMisses() {
+        Sequence first = cache.get("C D E");
+        assertSame(first, cache.get("C D E"));
+        assertEquals(List.of("C D E"), compiled);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    /**
+     * Tests that the least recently used phrase is evicted when the cache is full.
+     */
+    @Test
+    public void testEviction() {
+        cache.get("A");
+        cache.get("B");
+        cache.get("A");
+        cache.get("C");
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+
+        cache.get("A");
+        cache.get("B");
+        assertEquals(List.of("A", "B", "C", "B"), compiled);
+    }
+
+    /**
+     * Tests that an invalidated phrase is compiled again.
+     */
+    @Test
+    public void testInvalidate() {
+        cache.get("G");
+        cache.invalidate("G");
+        cache.get("G");
+        assertEquals(2, cache.getMisses());
+        assertEquals(List.of("G", "G"), compiled);
+    }
+}
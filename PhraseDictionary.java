@@ -0,0 +1,165 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The PhraseDictionary class maps every distinct phrase to a compact integer id.
+ * Nodes store the id instead of their own copy of the text, so memory grows with the
+ * number of distinct phrases rather than with the length of the composition, and
+ * two phrases are equal exactly when their ids are equal. Ids are never reused.
+ *
+ * Because phrases are never removed, a thread that adds phrases on behalf of someone
+ * else, such as a server session, can be given an Account: every phrase the thread
+ * adds is charged to it, and a phrase that would take the account over its limit is
+ * refused with an IllegalStateException.
+ */
+public class PhraseDictionary {
+
+    /** Id used for a missing (null) phrase */
+    public static final int NO_PHRASE = -1;
+
+    /** The dictionary shared by all compositions */
+    private static final PhraseDictionary shared = new PhraseDictionary();
+    /** Estimated bytes of an entry besides its text: the map entry, the boxed id, the table slot and the string */
+    private static final long ENTRY_BYTES = 96;
+    /** The account charged for phrases added by each thread, if it has one */
+    private static final ThreadLocal<Account> account = new ThreadLocal<>();
+
+    /** Id of each known phrase */
+    private final HashMap<String, Integer> ids = new HashMap<>();
+    /** Phrase text indexed by id; replaced by a larger copy when it fills */
+    private volatile String[] phrases = new String[64];
+    /** Number of ids handed out */
+    private int size;
+
+    /**
+     * Returns the dictionary shared by all compositions.
+     *
+     * @return The shared dictionary.
+     */
+    public static PhraseDictionary getShared() {
+        return shared;
+    }
+
+    /**
+     * Charges the phrases the current thread adds from now on to an account.
+     *
+     * @param charged The account, or null to stop charging.
+     */
+    public static void setAccount(Account charged) {
+        if (charged == null)
+            account.remove();
+        else
+            account.set(charged);
+    }
+
+    /**
+     * Returns the estimated memory a phrase takes once it is in the dictionary.
+     *
+     * @param phrase The phrase.
+     * @return The estimate in bytes.
+     */
+    public static long estimateBytes(String phrase) {
+        return ENTRY_BYTES + 2L * phrase.length();
+    }
+
+    /**
+     * Returns the id of a phrase, adding the phrase if it is new.
+     *
+     * @param phrase The phrase to look up, may be null.
+     * @return The id of the phrase, or NO_PHRASE for null.
+     */
+    public synchronized int intern(String phrase) {
+        if (phrase == null)
+            return NO_PHRASE;
+        Integer id = ids.get(phrase);
+        if (id != null)
+            return id;
+        Account charged = account.get();
+        if (charged != null)
+            charged.charge(estimateBytes(phrase));
+        String[] table = phrases;
+        if (size == table.length)
+            table = Arrays.copyOf(table, size * 2);
+        table[size] = phrase;
+        phrases = table;
+        ids.put(phrase, size);
+        return size++;
+    }
+
+    /**
+     * Returns the phrase with a given id. This does not lock, so it is cheap to call
+     * from playback and iteration loops.
+     *
+     * @param id An id returned by intern, or NO_PHRASE.
+     * @return The phrase text, or null for NO_PHRASE.
+     */
+    public String phrase(int id) {
+        return id == NO_PHRASE ? null : phrases[id];
+    }
+
+    /**
+     * Returns the number of distinct phrases in the dictionary.
+     *
+     * @return The number of ids handed out.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * The Account class counts the memory of the phrases added by the threads charging
+     * it, up to a limit. An account can have a parent that is charged as well, so a
+     * limit can be shared by several accounts.
+     */
+    public static class Account {
+
+        /** The most bytes that can be charged */
+        private final long limit;
+        /** The account charged as well, or null */
+        private final Account parent;
+        /** The bytes charged so far */
+        private final AtomicLong used = new AtomicLong();
+
+        /**
+         * Constructor to initialize an account.
+         *
+         * @param limit The most bytes that can be charged.
+         * @param parent The account charged as well, or null.
+         */
+        public Account(long limit, Account parent) {
+            this.limit = limit;
+            this.parent = parent;
+        }
+
+        /**
+         * Returns the bytes charged so far.
+         *
+         * @return The estimate in bytes.
+         */
+        public long getUsedBytes() {
+            return used.get();
+        }
+
+        /**
+         * Charges the memory of a new phrase to this account and its parents.
+         *
+         * @param bytes The estimated bytes.
+         * @throws IllegalStateException If this account or a parent would go over its limit.
+         */
+        void charge(long bytes) {
+            if (used.addAndGet(bytes) > limit) {
+                used.addAndGet(-bytes);
+                throw new IllegalStateException("Phrase limit reached: no more new phrases can be added");
+            }
+            if (parent != null) {
+                try {
+                    parent.charge(bytes);
+                } catch (IllegalStateException e) {
+                    used.addAndGet(-bytes);
+                    throw e;
+                }
+            }
+        }
+    }
+}
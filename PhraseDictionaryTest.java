@@ -0,0 +1,49 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for the PhraseDictionary implementation.
+ * It tests that equal phrases share one id and that nodes compare by id.
+ */
+public class PhraseDictionaryTest {
+
+    /**
+     * Tests that equal phrases get the same id and distinct phrases different ids.
+     */
+    @Test
+    public void testIntern() {
+        PhraseDictionary dictionary = new PhraseDictionary();
+        int c = dictionary.intern("C");
+        int g = dictionary.intern("G");
+        assertEquals(c, dictionary.intern(new String("C")));
+        assertNotEquals(c, g);
+        assertEquals("G", dictionary.phrase(g));
+        assertEquals(2, dictionary.size());
+        assertEquals(PhraseDictionary.NO_PHRASE, dictionary.intern(null));
+        assertNull(dictionary.phrase(PhraseDictionary.NO_PHRASE));
+    }
+
+    /**
+     * Tests that the dictionary grows past its initial table.
+     */
+    @Test
+    public void testGrowth() {
+        PhraseDictionary dictionary = new PhraseDictionary();
+        for (int i = 0; i < 1000; i++)
+            assertEquals(i, dictionary.intern("P" + i));
+        assertEquals("P999", dictionary.phrase(999));
+    }
+
+    /**
+     * Tests that repeated phrases in a list share their id.
+     */
+    @Test
+    public void testNodesShareIds() {
+        DoublyLinkedList list = new DoublyLinkedList(new String[] {"C", "C", "G", "G"});
+        assertTrue(list.getHead().hasSamePhrase(list.getHead().getNext()));
+        assertFalse(list.getHead().hasSamePhrase(list.getTail()));
+        list.getHead().setPhrase("G");
+        assertTrue(list.getHead().hasSamePhrase(list.getTail()));
+    }
+}
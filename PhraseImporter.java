@@ -0,0 +1,205 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * The PhraseImporter class appends phrases from a text source to a composition as
+ * they are read, one phrase per line. Blank lines and lines starting with # are
+ * skipped. Nothing but the current line is held in memory besides the composition
+ * itself, so generated scores far larger than an array of their phrases would allow
+ * can be loaded.
+ *
+ * The importer reports progress every so many phrases and, after an import, how long
+ * it took and the peak heap usage while it ran.
+ */
+public class PhraseImporter {
+
+    /** The number of phrases between progress reports by default */
+    public static final int DEFAULT_PROGRESS_INTERVAL = 100_000;
+    /** Size of the read buffer in characters */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The ProgressListener interface is told how far an import has got.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called every progress interval and once when the import finishes.
+         *
+         * @param phrases The number of phrases imported so far.
+         * @param characters The number of characters read so far.
+         */
+        void progress(int phrases, long characters);
+    }
+
+    /** The composition phrases are appended to */
+    private final Composition composition;
+    /** Told about progress, or null */
+    private ProgressListener listener;
+    /** The number of phrases between progress reports */
+    private int progressInterval = DEFAULT_PROGRESS_INTERVAL;
+    /** Phrases imported by the last import */
+    private int phraseCount;
+    /** Characters read by the last import */
+    private long characterCount;
+    /** Duration of the last import in nanoseconds */
+    private long elapsedNanos;
+    /** Peak heap usage during the last import in bytes, or -1 if unknown */
+    private long peakHeapBytes = -1;
+
+    /**
+     * Constructor to initialize an importer that appends to a composition.
+     *
+     * @param composition The composition to append to.
+     */
+    public PhraseImporter(Composition composition) {
+        this.composition = composition;
+    }
+
+    /**
+     * Sets the listener told about progress.
+     *
+     * @param listener The listener, or null for none.
+     * @param interval The number of phrases between reports, at least 1.
+     */
+    public void setProgressListener(ProgressListener listener, int interval) {
+        this.listener = listener;
+        this.progressInterval = Math.max(1, interval);
+    }
+
+    /**
+     * Imports every phrase of a UTF-8 text file.
+     *
+     * @param file The file to read.
+     * @return The number of phrases imported.
+     * @throws IOException If the file cannot be read.
+     */
+    public int importFile(Path file) throws IOException {
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            return importFrom(in);
+        }
+    }
+
+    /**
+     * Imports every phrase from a reader. The reader is not closed.
+     *
+     * @param reader The phrase source.
+     * @return The number of phrases imported.
+     * @throws IOException If reading fails.
+     */
+    public int importFrom(Reader reader) throws IOException {
+        BufferedReader in = reader instanceof BufferedReader
+                ? (BufferedReader) reader : new BufferedReader(reader, BUFFER_SIZE);
+        start();
+        String line;
+        while ((line = in.readLine()) != null)
+            accept(line);
+        finish();
+        return phraseCount;
+    }
+
+    /**
+     * Imports every phrase of a stream of lines, in order. The stream is consumed but
+     * not closed.
+     *
+     * @param lines The phrase source.
+     * @return The number of phrases imported.
+     * @throws IOException If the stream reports an I/O error.
+     */
+    public int importFrom(Stream<String> lines) throws IOException {
+        start();
+        try {
+            lines.forEachOrdered(this::accept);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        finish();
+        return phraseCount;
+    }
+
+    /**
+     * Returns the number of phrases imported by the last import.
+     *
+     * @return The number of phrases.
+     */
+    public int getPhraseCount() {
+        return phraseCount;
+    }
+
+    /**
+     * Returns how long the last import took.
+     *
+     * @return The duration in milliseconds.
+     */
+    public double getElapsedMillis() {
+        return elapsedNanos / 1e6;
+    }
+
+    /**
+     * Returns the peak heap usage while the last import ran, summed over the heap
+     * memory pools.
+     *
+     * @return The peak heap usage in bytes, or -1 if the pools do not report it.
+     */
+    public long getPeakHeapBytes() {
+        return peakHeapBytes;
+    }
+
+    /**
+     * Resets the counters and the heap pools' peak usage before an import.
+     */
+    private void start() {
+        phraseCount = 0;
+        characterCount = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP && pool.isValid())
+                pool.resetPeakUsage();
+        elapsedNanos = System.nanoTime();
+    }
+
+    /**
+     * Appends the phrase on one line, unless the line is blank or a comment.
+     *
+     * @param line The line, without its line break.
+     */
+    private void accept(String line) {
+        characterCount += line.length() + 1;
+        String phrase = line.trim();
+        if (phrase.isEmpty() || phrase.charAt(0) == '#')
+            return;
+        composition.addAtEnd(phrase);
+        phraseCount++;
+        if (listener != null && phraseCount % progressInterval == 0)
+            listener.progress(phraseCount, characterCount);
+    }
+
+    /**
+     * Records the duration and peak heap usage after an import and sends the final
+     * progress report.
+     */
+    private void finish() {
+        elapsedNanos = System.nanoTime() - elapsedNanos;
+        long peak = 0;
+        boolean known = false;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid() && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+                known = true;
+            }
+        }
+        peakHeapBytes = known ? peak : -1;
+        if (listener != null && phraseCount % progressInterval != 0)
+            listener.progress(phraseCount, characterCount);
+    }
+}
@@ -0,0 +1,66 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for the PhraseImporter implementation.
+ */
+public class PhraseImporterTest {
+
+    /** Directory for input files */
+    @TempDir
+    Path folder;
+
+    /**
+     * Tests importing from a reader, skipping blank and comment lines.
+     */
+    @Test
+    public void testImportFromReader() throws IOException {
+        DoublyLinkedList list = new DoublyLinkedList(new String[] {"A"});
+        PhraseImporter importer = new PhraseImporter(list);
+        int count = importer.importFrom(new StringReader("C D E\n\n# chorus\n  G5q  \nF\n"));
+        assertEquals(3, count);
+        assertEquals(4, list.size());
+        assertEquals("C D E", list.getNode(1).getPhrase());
+        assertEquals("G5q", list.getNode(2).getPhrase());
+        assertEquals("F", list.getCurrent().getPhrase());
+        assertTrue(importer.getElapsedMillis() >= 0);
+    }
+
+    /**
+     * Tests importing from a file and a stream into other storage engines, with
+     * progress reports.
+     */
+    @Test
+    public void testImportFileAndStream() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 25; i++)
+            text.append('N').append(i % 4).append('\n');
+        Path file = folder.resolve("score.txt");
+        Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+
+        GapBufferComposition composition = new GapBufferComposition();
+        PhraseImporter importer = new PhraseImporter(composition);
+        List<Integer> reports = new ArrayList<>();
+        importer.setProgressListener((phrases, characters) -> reports.add(phrases), 10);
+        assertEquals(25, importer.importFile(file));
+        assertEquals(Arrays.asList(10, 20, 25), reports);
+        assertEquals(25, composition.size());
+        assertEquals("N0", composition.getCurrent().getPhrase());
+
+        IndexedComposition indexed = new IndexedComposition();
+        assertEquals(3, new PhraseImporter(indexed).importFrom(Stream.of("C", "", "D", "E")));
+        assertEquals("D", indexed.getNode(1).getPhrase());
+    }
+}
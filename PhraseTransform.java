@@ -0,0 +1,250 @@
+import java.util.Locale;
+
+/**
+ * The PhraseTransform interface rewrites the text of a phrase, such as transposing
+ * its notes or changing its tempo. Transforms are pure functions of the phrase text,
+ * so a TransformedComposition applies each one only once per distinct phrase and
+ * never changes the stored phrases. Transforms compose with andThen.
+ *
+ * The built-in transforms understand the parts of Staccato that the composer uses:
+ * notes such as C, Eb4q or F#5h+A5h, chords such as C3maj, numeric notes such as
+ * [60]q, rests, tempo tokens (T120) and instrument tokens (I[Piano] or I0). Other
+ * tokens are left as they are.
+ */
+public interface PhraseTransform {
+
+    /** The tempo, in beats per minute, of a phrase without a tempo token */
+    int DEFAULT_TEMPO = 120;
+
+    /**
+     * Rewrites a phrase.
+     *
+     * @param phrase The phrase text.
+     * @return The rewritten phrase text.
+     */
+    String apply(String phrase);
+
+    /**
+     * Returns a transform that applies this one and then another.
+     *
+     * @param next The transform to apply second.
+     * @return The combined transform.
+     */
+    default PhraseTransform andThen(PhraseTransform next) {
+        return phrase -> next.apply(apply(phrase));
+    }
+
+    /**
+     * Returns a transform that moves every note by a number of semitones. Notes that
+     * would leave the MIDI range are left unchanged, as are key signatures.
+     *
+     * @param semitones The number of semitones, negative to go down.
+     * @return The transform.
+     */
+    static PhraseTransform transpose(int semitones) {
+        return phrase -> {
+            StringBuilder out = new StringBuilder(phrase.length() + 8);
+            for (String token : phrase.trim().split("\\s+")) {
+                if (out.length() > 0)
+                    out.append(' ');
+                char first = token.isEmpty() ? ' ' : token.charAt(0);
+                if ((first >= 'A' && first <= 'G') || first == '[')
+                    out.append(transposeNotes(token, semitones));
+                else
+                    out.append(token);
+            }
+            return out.toString();
+        };
+    }
+
+    /**
+     * Returns a transform that multiplies the tempo by a factor. A phrase that does
+     * not start with a tempo token gets one for the scaled default tempo, and every
+     * tempo token is scaled. Named tempos such as T[Allegro] are read with jFugue's
+     * table of tempo names and become numeric tokens; applying the transform to a
+     * phrase with an unknown tempo name throws an IllegalArgumentException.
+     *
+     * @param factor The tempo factor, 2 for twice as fast.
+     * @return The transform.
+     * @throws IllegalArgumentException If the factor is not positive.
+     */
+    static PhraseTransform tempo(double factor) {
+        if (!(factor > 0))
+            throw new IllegalArgumentException("Tempo factor must be positive: " + factor);
+        return phrase -> {
+            String[] tokens = phrase.trim().split("\\s+");
+            StringBuilder out = new StringBuilder(phrase.length() + 8);
+            if (!isTempo(tokens[0]))
+                out.append('T').append(scaleTempo(DEFAULT_TEMPO, factor));
+            for (String token : tokens) {
+                if (token.isEmpty())
+                    continue;
+                if (out.length() > 0)
+                    out.append(' ');
+                if (isTempo(token))
+                    out.append('T').append(scaleTempo(tempoOf(token), factor));
+                else
+                    out.append(token);
+            }
+            return out.toString();
+        };
+    }
+
+    /**
+     * Returns a transform that plays every phrase with one instrument: instrument
+     * tokens are dropped and one for the given instrument starts the phrase.
+     *
+     * @param instrument A General MIDI program number or a jFugue instrument name,
+     *                   such as Piano or Violin.
+     * @return The transform.
+     * @throws IllegalArgumentException If the instrument is empty.
+     */
+    static PhraseTransform instrument(String instrument) {
+        if (instrument == null || instrument.trim().isEmpty())
+            throw new IllegalArgumentException("Instrument must not be empty");
+        String name = instrument.trim();
+        String token = name.chars().allMatch(Character::isDigit) ? "I" + name : "I[" + name + "]";
+        return phrase -> {
+            StringBuilder out = new StringBuilder(token);
+            for (String part : phrase.trim().split("\\s+"))
+                if (!part.isEmpty() && !(part.charAt(0) == 'I' && part.length() > 1
+                        && (part.charAt(1) == '[' || Character.isDigit(part.charAt(1)))))
+                    out.append(' ').append(part);
+            return out.toString();
+        };
+    }
+
+    /**
+     * Checks whether a token sets the tempo.
+     *
+     * @param token A Staccato token.
+     * @return True for tokens such as T120 and T[Allegro].
+     */
+    private static boolean isTempo(String token) {
+        return token.length() > 1 && token.charAt(0) == 'T'
+                && (token.charAt(1) == '[' || Character.isDigit(token.charAt(1)));
+    }
+
+    /**
+     * Returns the beats per minute a tempo token sets, reading names such as
+     * T[Allegro] with jFugue's table of tempo names.
+     *
+     * @param token A tempo token.
+     * @return The tempo in beats per minute.
+     * @throws IllegalArgumentException If the token names an unknown tempo.
+     */
+    private static int tempoOf(String token) {
+        if (Character.isDigit(token.charAt(1)))
+            return Integer.parseInt(token.substring(1));
+        String name = token.endsWith("]") ? token.substring(2, token.length() - 1) : "";
+        switch (name.toUpperCase(Locale.ROOT)) {
+            case "GRAVE": return 40;
+            case "LARGO": return 45;
+            case "LARGHETTO": return 50;
+            case "LENTO": return 55;
+            case "ADAGIO": return 60;
+            case "ADAGIETTO": return 65;
+            case "ANDANTE": return 70;
+            case "ANDANTINO": return 88;
+            case "MODERATO": return 100;
+            case "ALLEGRETTO": return 115;
+            case "ALLEGRO": return 120;
+            case "VIVACE": return 145;
+            case "PRESTO": return 180;
+            case "PRESTISSIMO": return 220;
+            default: throw new IllegalArgumentException("Unknown tempo: " + token);
+        }
+    }
+
+    /**
+     * Scales a tempo, keeping it at least one beat per minute.
+     *
+     * @param tempo The tempo in beats per minute.
+     * @param factor The factor.
+     * @return The scaled tempo.
+     */
+    private static long scaleTempo(int tempo, double factor) {
+        return Math.max(1, Math.round(tempo * factor));
+    }
+
+    /**
+     * Transposes every note of a token, including the notes of a harmony (C+E) or
+     * melody (C_E) joined into one token.
+     *
+     * @param token A token starting with a note.
+     * @param semitones The number of semitones.
+     * @return The transposed token.
+     */
+    private static String transposeNotes(String token, int semitones) {
+        StringBuilder out = new StringBuilder(token.length() + 2);
+        int start = 0;
+        for (int i = 0; i <= token.length(); i++) {
+            if (i == token.length() || token.charAt(i) == '+' || token.charAt(i) == '_') {
+                out.append(transposeNote(token.substring(start, i), semitones));
+                if (i < token.length())
+                    out.append(token.charAt(i));
+                start = i + 1;
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Transposes a single note, keeping its duration and any chord name. An octave is
+     * written only if the note had one or moves into another octave; notes without an
+     * octave are in octave 5, or 3 for chords.
+     *
+     * @param note A note such as C, Eb4q, C3maj or [60]q.
+     * @param semitones The number of semitones.
+     * @return The transposed note, or the note itself if it cannot be transposed.
+     */
+    private static String transposeNote(String note, int semitones) {
+        if (note.startsWith("[")) {
+            int close = note.indexOf(']');
+            try {
+                int value = Integer.parseInt(note.substring(1, close)) + semitones;
+                return value < 0 || value > 127 ? note : "[" + value + "]" + note.substring(close + 1);
+            } catch (RuntimeException e) {
+                return note;
+            }
+        }
+        if (note.isEmpty() || "CDEFGAB".indexOf(note.charAt(0)) < 0)
+            return note;
+        int pitch = new int[] {0, 2, 4, 5, 7, 9, 11}["CDEFGAB".indexOf(note.charAt(0))];
+        int i = 1;
+        boolean flats = false;
+        for (; i < note.length() && (note.charAt(i) == '#' || note.charAt(i) == 'b'); i++) {
+            flats = note.charAt(i) == 'b';
+            pitch += flats ? -1 : 1;
+        }
+        int octaveStart = i;
+        while (i < note.length() && Character.isDigit(note.charAt(i)))
+            i++;
+        String rest = note.substring(i);
+        boolean explicit = i > octaveStart;
+        int octave = explicit ? Integer.parseInt(note.substring(octaveStart, i)) : isChord(rest) ? 3 : 5;
+        int value = octave * 12 + pitch + semitones;
+        if (value < 0 || value > 127)
+            return note;
+        int shifted = Math.floorDiv(value, 12);
+        int pitchClass = Math.floorMod(value, 12);
+        String name = (flats ? "C DbD EbE F GbG AbA BbB " : "C C#D D#E F F#G G#A A#B ")
+                .substring(2 * pitchClass, 2 * pitchClass + 2).trim();
+        // A note written without an octave keeps it implicit while it stays in the same octave.
+        return explicit || shifted != octave ? name + shifted + rest : name + rest;
+    }
+
+    /**
+     * Checks whether the text after a note names a chord rather than a duration.
+     *
+     * @param rest The text after the note and octave.
+     * @return True if it starts with a chord name.
+     */
+    private static boolean isChord(String rest) {
+        String lower = rest.toLowerCase(Locale.ROOT);
+        for (String prefix : new String[] {"maj", "min", "aug", "dim", "dom", "sus", "add", "halfdim"})
+            if (lower.startsWith(prefix))
+                return true;
+        return false;
+    }
+}
@@ -0,0 +1,403 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaEventListener;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Sequencer;
+import javax.sound.midi.Synthesizer;
+
+import org.jfugue.player.ManagedPlayer;
+import org.jfugue.player.Player;
+import org.jfugue.player.SequencerManager;
+import org.jfugue.player.SynthesizerManager;
+
+/**
+ * The PlaybackEngine class owns one long-lived jFugue player that is shared by every
+ * playback call. Opening the engine warms up the sequencer, synthesizer and
+ * soundbank on a background thread so that the first note does not wait for them,
+ * and the engine reports how long each playback took to start.
+ *
+ * The end of a sequence is signalled by the sequencer's end-of-track meta event, so
+ * the next phrase starts as soon as the previous one ends. Waiting for the warm-up is
+ * bounded by START_TIMEOUT_SECONDS and waiting for a sequence by its length plus
+ * END_GRACE_MILLIS, so a MIDI device that never starts or never reports the end does
+ * not hang playback.
+ *
+ * A player on another thread can read getStopCount before it plays and pass the
+ * count to play or playNext; the sequence is then refused if stop was called in
+ * between, so a stopped player cannot start one more sequence after being stopped.
+ */
+public class PlaybackEngine {
+
+    /** The longest wait, in seconds, for the engine to warm up */
+    public static final int START_TIMEOUT_SECONDS = 10;
+    /** How long after its length a sequence may take to report its end, in milliseconds */
+    public static final int END_GRACE_MILLIS = 2000;
+    /** The type of the meta event a sequencer sends at the end of a sequence */
+    private static final int END_OF_TRACK = 0x2F;
+
+    /** The engine shared by all compositions */
+    private static final PlaybackEngine shared = new PlaybackEngine();
+    /** Serializes opening and closing jFugue's sequencer and synthesizer, which are shared */
+    private static final Object devices = new Object();
+
+    /** Completes with the warmed-up player, or null while the engine is closed */
+    private CompletableFuture<Player> ready;
+    /** Serializes playback, since there is a single sequencer */
+    private final Object playLock = new Object();
+    /** Makes starting a sequence and stopping it exclusive, so no stop is missed */
+    private final Object startLock = new Object();
+    /** The number of times stop was called; guarded by startLock */
+    private int stopCount;
+    /** The player that last started a sequence, or null; guarded by startLock */
+    private ManagedPlayer lastStarted;
+    /** Time taken by the last warm-up in nanoseconds, or -1 if none finished */
+    private volatile long warmUpNanos = -1;
+    /** Time from the last play request to the sequencer starting, in nanoseconds */
+    private volatile long timeToFirstNoteNanos = -1;
+    /** When the last sequence finished, from System.nanoTime */
+    private long lastFinishedNanos;
+    /** Counted down when the sequence being played ends or is stopped, or null */
+    private volatile CountDownLatch playing;
+    /** Listens on the sequencer for the end of each sequence */
+    private final MetaEventListener endOfTrack = message -> {
+        if (message.getType() == END_OF_TRACK)
+            signalEnd();
+    };
+
+    /**
+     * Returns the engine shared by all compositions.
+     *
+     * @return The shared engine.
+     */
+    public static PlaybackEngine getShared() {
+        return shared;
+    }
+
+    /**
+     * Opens the engine and starts warming it up in the background. Opening an engine
+     * that is already open does nothing.
+     */
+    public synchronized void open() {
+        if (ready != null)
+            return;
+        CompletableFuture<Player> future = new CompletableFuture<>();
+        Thread warmUp = new Thread(() -> {
+            long start = System.nanoTime();
+            try {
+                Player player = new Player();
+                openDevices();
+                // Compile a note and play an empty sequence so that the parser classes
+                // are loaded and the sequencer and synthesizer are running.
+                player.getSequence("C");
+                Sequence silence = new Sequence(Sequence.PPQ, 128);
+                silence.createTrack();
+                CountDownLatch done = new CountDownLatch(1);
+                playing = done;
+                player.getManagedPlayer().start(silence);
+                if (!done.await(START_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                    throw new TimeoutException("The MIDI device did not start within "
+                            + START_TIMEOUT_SECONDS + " seconds");
+                warmUpNanos = System.nanoTime() - start;
+                future.complete(player);
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+            synchronized (this) {
+                // Closed while warming up: nobody will use the devices just opened.
+                if (ready != future)
+                    closeDevices();
+            }
+        }, "playback-warmup");
+        warmUp.setDaemon(true);
+        warmUp.start();
+        ready = future;
+    }
+
+    /**
+     * Stops any playback and closes the player's sequencer and synthesizer. The
+     * engine can be opened again.
+     */
+    public synchronized void close() {
+        if (ready == null)
+            return;
+        stop();
+        if (ready.isDone())
+            closeDevices();
+        ready = null;
+    }
+
+    /**
+     * Returns whether the engine is open.
+     *
+     * @return True if the engine is open.
+     */
+    public synchronized boolean isOpen() {
+        return ready != null;
+    }
+
+    /**
+     * Plays a sequence and waits until it has finished. The engine is opened first if
+     * needed, and the time until the sequencer starts is recorded.
+     *
+     * @param sequence The sequence to play.
+     */
+    public void play(Sequence sequence) {
+        play(sequence, false, -1);
+    }
+
+    /**
+     * Plays a sequence and waits until it has finished, unless the engine was
+     * stopped since a stop count was read.
+     *
+     * @param sequence The sequence to play.
+     * @param stopCount The value of getStopCount read before deciding to play.
+     * @return False if the sequence was refused because of a stop.
+     */
+    public boolean play(Sequence sequence, int stopCount) {
+        return play(sequence, false, stopCount);
+    }
+
+    /**
+     * Plays a sequence that directly follows the one played before it, such as the
+     * next phrase of a composition, and waits until it has finished. With metrics
+     * enabled, the silence between the two is recorded as a phrase gap.
+     *
+     * @param sequence The sequence to play.
+     */
+    public void playNext(Sequence sequence) {
+        play(sequence, true, -1);
+    }
+
+    /**
+     * Plays a sequence that directly follows the one played before it, unless the
+     * engine was stopped since a stop count was read.
+     *
+     * @param sequence The sequence to play.
+     * @param stopCount The value of getStopCount read before deciding to play.
+     * @return False if the sequence was refused because of a stop.
+     */
+    public boolean playNext(Sequence sequence, int stopCount) {
+        return play(sequence, true, stopCount);
+    }
+
+    /**
+     * Returns the number of times stop has been called.
+     *
+     * @return The stop count.
+     */
+    public int getStopCount() {
+        synchronized (startLock) {
+            return stopCount;
+        }
+    }
+
+    /**
+     * Plays a sequence and waits until it has finished.
+     *
+     * @param sequence The sequence to play.
+     * @param follows Whether the sequence directly follows the previous one.
+     * @param expectedStops The stop count the caller read, or -1 to play regardless.
+     * @return False if the sequence was refused because of a stop.
+     */
+    private boolean play(Sequence sequence, boolean follows, int expectedStops) {
+        long requested = System.nanoTime();
+        synchronized (playLock) {
+            // Checked here too, so that a stopped player does not wait for the engine.
+            if (expectedStops != -1 && expectedStops != getStopCount())
+                return false;
+            ManagedPlayer managedPlayer = awaitPlayer().getManagedPlayer();
+            CountDownLatch done = new CountDownLatch(1);
+            synchronized (startLock) {
+                if (expectedStops != -1 && expectedStops != stopCount)
+                    return false;
+                playing = done;
+                lastStarted = managedPlayer;
+                try {
+                    managedPlayer.start(sequence);
+                } catch (InvalidMidiDataException | MidiUnavailableException e) {
+                    System.out.println("Playback failed: " + e.getMessage());
+                    return true;
+                }
+            }
+            long started = System.nanoTime();
+            timeToFirstNoteNanos = started - requested;
+            if (Metrics.ENABLED) {
+                Metrics.getShared().recordTimeToFirstNote(timeToFirstNoteNanos);
+                if (follows)
+                    Metrics.getShared().recordPhraseGap(started - lastFinishedNanos);
+            }
+            awaitEnd(managedPlayer, done, sequence);
+            lastFinishedNanos = System.nanoTime();
+            return true;
+        }
+    }
+
+    /**
+     * Pauses the sequence that is playing, if any.
+     */
+    public void pause() {
+        ManagedPlayer managedPlayer = currentManagedPlayer();
+        if (managedPlayer != null && managedPlayer.isPlaying())
+            managedPlayer.pause();
+    }
+
+    /**
+     * Resumes a paused sequence, if any.
+     */
+    public void resume() {
+        ManagedPlayer managedPlayer = currentManagedPlayer();
+        if (managedPlayer != null && managedPlayer.isPaused())
+            managedPlayer.resume();
+    }
+
+    /**
+     * Stops the sequence that is playing, if any, so that the play call waiting for
+     * it returns, and refuses the sequences of players that read the stop count
+     * before this call.
+     */
+    public void stop() {
+        synchronized (startLock) {
+            stopCount++;
+            if (lastStarted != null && lastStarted.isStarted() && !lastStarted.isFinished())
+                lastStarted.finish();
+            signalEnd();
+        }
+    }
+
+    /**
+     * Returns the time from the last play request until the sequencer started.
+     *
+     * @return The time to first note in milliseconds, or -1 if nothing was played.
+     */
+    public double getTimeToFirstNoteMillis() {
+        long nanos = timeToFirstNoteNanos;
+        return nanos < 0 ? -1 : nanos / 1e6;
+    }
+
+    /**
+     * Returns how long the last warm-up took.
+     *
+     * @return The warm-up time in milliseconds, or -1 if no warm-up has finished.
+     */
+    public double getWarmUpMillis() {
+        long nanos = warmUpNanos;
+        return nanos < 0 ? -1 : nanos / 1e6;
+    }
+
+    /**
+     * Waits for the warm-up to finish and returns the shared player. The wait is
+     * bounded; a warm-up that fails or times out is retried on the next call.
+     *
+     * @return The warmed-up player.
+     * @throws IllegalStateException If the engine could not be opened in time.
+     */
+    private Player awaitPlayer() {
+        CompletableFuture<Player> future;
+        synchronized (this) {
+            open();
+            future = ready;
+        }
+        try {
+            return future.get(START_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while opening the playback engine", e);
+        } catch (ExecutionException | TimeoutException e) {
+            synchronized (this) {
+                if (ready == future)
+                    close();
+            }
+            if (e instanceof TimeoutException)
+                throw new IllegalStateException("The playback engine did not start within "
+                        + START_TIMEOUT_SECONDS + " seconds", e);
+            throw new IllegalStateException("Could not open the playback engine", e.getCause());
+        }
+    }
+
+    /**
+     * Returns the managed player of the warmed-up player without waiting.
+     *
+     * @return The managed player, or null if the engine is closed or still warming up.
+     */
+    private synchronized ManagedPlayer currentManagedPlayer() {
+        if (ready == null || !ready.isDone() || ready.isCompletedExceptionally())
+            return null;
+        return ready.join().getManagedPlayer();
+    }
+
+    /**
+     * Blocks until the sequence being played ends, is stopped, or takes more than
+     * END_GRACE_MILLIS longer than its length while not paused, in which case it is
+     * stopped.
+     *
+     * @param managedPlayer The player playing the sequence.
+     * @param done The latch counted down when the sequence ends.
+     * @param sequence The sequence being played.
+     */
+    private static void awaitEnd(ManagedPlayer managedPlayer, CountDownLatch done, Sequence sequence) {
+        long limit = TimeUnit.MICROSECONDS.toMillis(sequence.getMicrosecondLength()) + END_GRACE_MILLIS;
+        try {
+            while (!done.await(limit, TimeUnit.MILLISECONDS)) {
+                if (!managedPlayer.isPaused()) {
+                    System.out.println("Playback did not report its end in time and was stopped.");
+                    managedPlayer.finish();
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            managedPlayer.finish();
+        }
+    }
+
+    /**
+     * Wakes the play call waiting for the current sequence, if any.
+     */
+    private void signalEnd() {
+        CountDownLatch latch = playing;
+        if (latch != null)
+            latch.countDown();
+    }
+
+    /**
+     * Opens the sequencer and synthesizer if a previous close closed them, and
+     * listens for the end of each sequence.
+     *
+     * @throws MidiUnavailableException If a device cannot be opened.
+     */
+    private void openDevices() throws MidiUnavailableException {
+        synchronized (devices) {
+            Sequencer sequencer = SequencerManager.getInstance().getSequencer();
+            if (!sequencer.isOpen())
+                sequencer.open();
+            Synthesizer synthesizer = SynthesizerManager.getInstance().getSynthesizer();
+            if (!synthesizer.isOpen())
+                synthesizer.open();
+            sequencer.removeMetaEventListener(endOfTrack);
+            sequencer.addMetaEventListener(endOfTrack);
+        }
+    }
+
+    /**
+     * Closes the sequencer and synthesizer, so that the MIDI devices and the audio
+     * line are released.
+     */
+    private void closeDevices() {
+        synchronized (devices) {
+            try {
+                Sequencer sequencer = SequencerManager.getInstance().getSequencer();
+                sequencer.removeMetaEventListener(endOfTrack);
+                sequencer.close();
+                SynthesizerManager.getInstance().getSynthesizer().close();
+            } catch (MidiUnavailableException e) {
+                // Nothing was opened.
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * The PlaybackSnapshot class is a read-once, unchanging view of the phrases of a
+ * composition from some node to the end, safe to read from a playback thread while
+ * the composition keeps being edited.
+ *
+ * Taking a snapshot of a linked composition is O(1): the snapshot simply keeps
+ * reading the live nodes. Before the composition makes its first structural change
+ * after that, it detaches the snapshot, which copies the phrase ids it has not read
+ * yet into an array (copy-on-write). All reads and the detach happen under the
+ * snapshot's lock, so the playback thread never sees a half-edited list.
+ *
+ * A snapshot can also read an array of phrase ids that has a gap in it, such as the
+ * buffer of a GapBufferComposition, which then copies its buffer before its next
+ * change instead of when the snapshot is taken.
+ */
+public class PlaybackSnapshot {
+
+    /** The next live node to read while attached */
+    private Node next;
+    /** The phrase ids once detached, or null while attached */
+    private int[] ids;
+    /** Position of the next id in the array */
+    private int position;
+    /** First position of the gap in the array that is skipped */
+    private int gapStart;
+    /** First position after the gap */
+    private int gapEnd;
+
+    /**
+     * Constructor to initialize a snapshot that reads live nodes until detached.
+     *
+     * @param start The first node of the snapshot, may be null.
+     */
+    PlaybackSnapshot(Node start) {
+        this.next = start;
+    }
+
+    /**
+     * Constructor to initialize a snapshot over a fixed array of phrase ids.
+     *
+     * @param ids The phrase ids; the array is not copied.
+     */
+    PlaybackSnapshot(int[] ids) {
+        this(ids, 0, ids.length, ids.length);
+    }
+
+    /**
+     * Constructor to initialize a snapshot over an array of phrase ids with a gap
+     * that is skipped. The array must not change while the snapshot reads it.
+     *
+     * @param ids The phrase ids; the array is not copied.
+     * @param position The position of the first id to read.
+     * @param gapStart The first position of the gap.
+     * @param gapEnd The first position after the gap.
+     */
+    PlaybackSnapshot(int[] ids, int position, int gapStart, int gapEnd) {
+        this.ids = ids;
+        this.position = position;
+        this.gapStart = gapStart;
+        this.gapEnd = gapEnd;
+    }
+
+    /**
+     * Creates a detached snapshot by copying the phrase ids from a node to the end.
+     * This is O(n) and is used by compositions that cannot share their storage.
+     *
+     * @param start The first node to copy, may be null.
+     * @return The snapshot.
+     */
+    public static PlaybackSnapshot copyOf(Node start) {
+        PlaybackSnapshot snapshot = new PlaybackSnapshot(start);
+        snapshot.detach();
+        return snapshot;
+    }
+
+    /**
+     * Returns whether there are phrases left to read.
+     *
+     * @return True if nextPhraseId can be called.
+     */
+    public synchronized boolean hasNext() {
+        return ids != null ? (position == gapStart ? gapEnd : position) < ids.length : next != null;
+    }
+
+    /**
+     * Reads the next phrase id.
+     *
+     * @return The phrase id.
+     * @throws NoSuchElementException If all phrases have been read.
+     */
+    public synchronized int nextPhraseId() {
+        if (ids != null) {
+            if (position == gapStart)
+                position = gapEnd;
+            if (position >= ids.length)
+                throw new NoSuchElementException();
+            return ids[position++];
+        }
+        if (next == null)
+            throw new NoSuchElementException();
+        int phraseId = next.getPhraseId();
+        next = next.getNext();
+        return phraseId;
+    }
+
+    /**
+     * Returns whether the snapshot has stopped reading live nodes.
+     *
+     * @return True if the snapshot is detached.
+     */
+    public synchronized boolean isDetached() {
+        return ids != null;
+    }
+
+    /**
+     * Copies the unread phrase ids so that the snapshot no longer reads live nodes.
+     * Compositions call this before their first structural change after the snapshot
+     * was taken.
+     */
+    synchronized void detach() {
+        if (ids != null)
+            return;
+        int[] remaining = new int[16];
+        int count = 0;
+        for (Node temp = next; temp != null; temp = temp.getNext()) {
+            if (count == remaining.length)
+                remaining = Arrays.copyOf(remaining, count * 2);
+            remaining[count++] = temp.getPhraseId();
+        }
+        ids = Arrays.copyOf(remaining, count);
+        position = 0;
+        gapStart = gapEnd = count;
+        next = null;
+    }
+}
@@ -0,0 +1,139 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sound.midi.Sequence;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for the PlaybackSnapshot implementation.
+ * It tests that snapshots keep showing the phrases they were taken from while the
+ * composition is edited.
+ */
+public class PlaybackSnapshotTest {
+
+    /**
+     * Reads every remaining phrase of a snapshot.
+     */
+    private static List<String> readAll(PlaybackSnapshot snapshot) {
+        List<String> phrases = new ArrayList<>();
+        while (snapshot.hasNext())
+            phrases.add(PhraseDictionary.getShared().phrase(snapshot.nextPhraseId()));
+        return phrases;
+    }
+
+    /**
+     * Tests that a snapshot reads live nodes until the list changes, then detaches.
+     */
+    @Test
+    public void testCopyOnWrite() {
+        DoublyLinkedList list = new DoublyLinkedList(new String[] {"1", "2", "3", "4"});
+        PlaybackSnapshot snapshot = list.snapshot();
+        assertFalse(snapshot.isDetached());
+        assertEquals(PhraseDictionary.getShared().intern("1"), snapshot.nextPhraseId());
+
+        list.remove(2);
+        list.addAtBeginning("0");
+        assertTrue(snapshot.isDetached());
+        assertEquals(List.of("2", "3", "4"), readAll(snapshot));
+    }
+
+    /**
+     * Tests snapshots from the current node for every storage engine.
+     */
+    @Test
+    public void testSnapshotFromCurrent() {
+        for (StorageEngine engine : StorageEngine.values()) {
+            Composition composition = engine.create(new String[] {"1", "2", "3", "4"});
+            composition.setCurrent(1);
+            PlaybackSnapshot snapshot = composition.snapshotFromCurrent();
+            composition.removeCurrent();
+            composition.addAtEnd("5");
+            assertEquals(List.of("2", "3", "4"), readAll(snapshot), engine.name());
+        }
+    }
+
+    /**
+     * Tests that a gap buffer snapshot shares the buffer and skips its gap, and that
+     * the buffer is copied before the next change.
+     */
+    @Test
+    public void testGapBufferSharesBuffer() {
+        GapBufferComposition composition = new GapBufferComposition(new String[] {"1", "2", "3", "4", "5"});
+        composition.setCurrent(2);
+        composition.addAtCurrent("x");
+        composition.removeCurrent();
+        PlaybackSnapshot whole = composition.snapshot();
+        PlaybackSnapshot fromCurrent = composition.snapshotFromCurrent();
+        composition.getNode(3).setPhrase("four");
+        composition.addAtBeginning("0");
+        composition.remove(5);
+        assertEquals(List.of("1", "2", "3", "4", "5"), readAll(whole));
+        assertEquals(List.of("3", "4", "5"), readAll(fromCurrent));
+        assertEquals(List.of("0", "1", "2", "3", "four"), readAll(composition.snapshot()));
+    }
+
+    /**
+     * Tests that bulk edits and splices also detach snapshots.
+     */
+    @Test
+    public void testBulkEditsDetach() {
+        DoublyLinkedList list = new DoublyLinkedList(new String[] {"1", "2", "3"});
+        DoublyLinkedList other = new DoublyLinkedList(new String[] {"a"});
+        PlaybackSnapshot first = list.snapshot();
+        PlaybackSnapshot second = other.snapshot();
+        list.splice(other);
+        list.removeRange(0, 2);
+        assertEquals(List.of("1", "2", "3"), readAll(first));
+        assertEquals(List.of("a"), readAll(second));
+    }
+
+    /**
+     * Tests that changing a phrase directly on a node detaches snapshots, for every
+     * storage engine and for views inside a repeat.
+     */
+    @Test
+    public void testPhraseChangesDetach() {
+        for (StorageEngine engine : StorageEngine.values()) {
+            Composition composition = engine.create(new String[] {"1", "2", "3"});
+            PlaybackSnapshot snapshot = composition.snapshot();
+            composition.getNode(1).setPhrase("x");
+            composition.getHead().setPhrase("y");
+            assertEquals(List.of("1", "2", "3"), readAll(snapshot), engine.name());
+        }
+        DoublyLinkedList list = new DoublyLinkedList(new String[] {"1", "2"});
+        list.repeatRange(0, 2, 3, 2);
+        PlaybackSnapshot snapshot = list.snapshot();
+        for (Node node : list)
+            node.setPhrase("z");
+        assertEquals(List.of("1", "2", "1", "2", "1", "2", "1", "2"), readAll(snapshot));
+    }
+
+    /**
+     * Tests that the engine refuses a sequence asked for by a player that was
+     * stopped after it read the stop count.
+     */
+    @Test
+    public void testStoppedPlayerIsRefused() throws Exception {
+        PlaybackEngine engine = new PlaybackEngine();
+        int stopCount = engine.getStopCount();
+        engine.stop();
+        Sequence sequence = new Sequence(Sequence.PPQ, 128);
+        assertFalse(engine.play(sequence, stopCount));
+        assertFalse(engine.playNext(sequence, stopCount));
+        assertFalse(engine.isOpen());
+    }
+
+    /**
+     * Tests that background playback of a snapshot runs to the end.
+     */
+    @Test
+    public void testBackgroundPlayback() throws InterruptedException {
+        BackgroundPlayback playback = new BackgroundPlayback(new PlaybackSnapshot(new int[0]), false);
+        playback.start();
+        playback.join();
+        assertTrue(playback.isFinished());
+    }
+}
@@ -0,0 +1,585 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+
+/**
+ * The RenderCache class keeps the rendered MIDI of a composition in segments of
+ * consecutive phrases, so that after an edit only the segments it touched are
+ * rendered again. The list reports every insertion and removal by index; the cache
+ * marks the segment holding it dirty and adjusts the segment's phrase count.
+ * Refreshing stitches only the dirty segments again and patches the tick offsets of
+ * the segments after them. Playback and export take the segments one by one, so
+ * nothing copies the whole composition.
+ *
+ * Phrase counts and tick lengths of the segments are kept in two Fenwick trees, so
+ * finding the segment holding an index and the tick at which a segment starts take
+ * O(log s) for s segments, and a segment whose length changed is patched in O(log s)
+ * instead of shifting every later segment. A segment that grows past twice the
+ * segment size is split, and an empty segment is dropped; both rebuild the trees,
+ * which is O(s) but happens at most once per segment size of edits.
+ *
+ * A phrase changed through Node.setPhrase is reported by the list that holds the
+ * node, by node rather than by index, so that the list does not have to count its
+ * position. The cache knows the node each segment starts at and walks back from
+ * the changed node to the nearest start, at most two segments' worth of phrases.
+ * A segment starting inside a repeat is known by the repeat's origin and origin
+ * offset, which a split does not change, and the list tells the cache when a split
+ * gives such a start an ordinary node of its own. The cache also keeps the repeats
+ * linked into the list by origin, so a segment whose start was left behind by a
+ * split finds the repeat now holding it.
+ */
+public class RenderCache {
+
+    /** The number of phrases per segment when segments are created or split */
+    public static final int SEGMENT_SIZE = 64;
+    /** Estimated bytes per segment: the segment, its lookup entries and tree slots */
+    private static final long BYTES_PER_SEGMENT = 160;
+    /** Estimated bytes per rendered MIDI event: the event, its message and its bytes */
+    private static final long BYTES_PER_EVENT = 96;
+
+    /** Source of compiled phrase fragments */
+    private final PhraseCache cache;
+    /** The segments, in order */
+    private final ArrayList<Segment> segments = new ArrayList<>();
+    /** Segments that have to be rendered again */
+    private final ArrayList<Segment> dirty = new ArrayList<>();
+    /** The segments starting at an ordinary node, by that node */
+    private final IdentityHashMap<Node, Segment> startsAtNode = new IdentityHashMap<>();
+    /** The segments starting inside a repeat, by the repeat's origin and origin offset */
+    private final IdentityHashMap<RepeatNode, HashMap<Long, Segment>> startsInRun = new IdentityHashMap<>();
+    /** The repeats in the list, by origin and by the origin offset of their first phrase */
+    private final IdentityHashMap<RepeatNode, TreeMap<Long, RepeatNode>> runs = new IdentityHashMap<>();
+    /** Fenwick tree over the phrase counts of the segments */
+    private long[] phraseTree = new long[1];
+    /** Fenwick tree over the tick lengths of the segments */
+    private long[] tickTree = new long[1];
+    /** Number of segments rendered by the last refresh */
+    private int rendered;
+
+    /**
+     * Constructor to initialize a cache over every node from a start node onward.
+     * Every segment starts dirty.
+     *
+     * @param head The first node of the composition, may be null.
+     * @param cache The compiled-phrase cache.
+     */
+    public RenderCache(Node head, PhraseCache cache) {
+        this.cache = cache;
+        for (Node link = head; link != null; link = link.nextLink())
+            addRun(link);
+        Node first = head;
+        while (first != null) {
+            Segment segment = new Segment(first, 0);
+            addStart(segment);
+            Node temp = first;
+            while (temp != null && segment.count < SEGMENT_SIZE) {
+                segment.count++;
+                temp = temp.getNext();
+            }
+            segments.add(segment);
+            markDirty(segment);
+            first = temp;
+        }
+        rebuildTrees();
+    }
+
+    /**
+     * Records that nodes were linked in. Nodes inserted between two segments join the
+     * earlier one.
+     *
+     * @param index The index of the first inserted node.
+     * @param count The number of inserted nodes.
+     * @param first The first inserted node.
+     */
+    public void inserted(int index, int count, Node first) {
+        int linked = 0;
+        for (Node link = first; linked < count; link = link.nextLink()) {
+            addRun(link);
+            linked += link.length();
+        }
+        if (segments.isEmpty()) {
+            Segment segment = new Segment(first, count);
+            addStart(segment);
+            segments.add(segment);
+            markDirty(segment);
+            rebuildTrees();
+            splitIfLarge(0);
+            return;
+        }
+        int k = index == 0 ? 0 : findSegment(index - 1);
+        Segment segment = segments.get(k);
+        if (index == 0)
+            moveStart(segment, first);
+        segment.count += count;
+        addTo(phraseTree, k, count);
+        markDirty(segment);
+        splitIfLarge(k);
+    }
+
+    /**
+     * Records that a run of consecutive nodes was unlinked.
+     *
+     * @param index The index the first removed node had.
+     * @param count The number of removed nodes.
+     * @param after The node that followed the removed ones, or null.
+     */
+    public void removed(int index, int count, Node after) {
+        int k = findSegment(index);
+        int offset = index - (int) prefix(phraseTree, k);
+        boolean emptied = false;
+        while (count > 0) {
+            Segment segment = segments.get(k);
+            int taken = Math.min(count, segment.count - offset);
+            segment.count -= taken;
+            addTo(phraseTree, k, -taken);
+            count -= taken;
+            if (segment.count == 0) {
+                emptied = true;
+                removeStart(segment);
+            } else {
+                if (offset == 0)
+                    moveStart(segment, after);
+                markDirty(segment);
+            }
+            offset = 0;
+            k++;
+        }
+        if (emptied) {
+            segments.removeIf(segment -> segment.count == 0);
+            dirty.removeIf(segment -> segment.count == 0);
+            rebuildTrees();
+        }
+    }
+
+    /**
+     * Records that the phrase of a node was replaced. The segment holding the node is
+     * found by walking back to the nearest segment start.
+     *
+     * @param node The changed node.
+     */
+    public void changed(Node node) {
+        for (Node temp = node; temp != null; temp = temp.getPrev()) {
+            Segment segment = startingAt(temp);
+            if (segment != null) {
+                markDirty(segment);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Records that a repeat was split and a phrase of it got an ordinary node of its
+     * own. A segment starting at that phrase now starts at the new node.
+     *
+     * @param run The repeat that was split.
+     * @param offset The offset in the repeat of the phrase that got its own node.
+     * @param plain The new node.
+     * @param rest The repeat holding the phrases after it, or null if there are none.
+     */
+    public void split(RepeatNode run, int offset, Node plain, RepeatNode rest) {
+        Segment segment = startingAt(run.position(offset));
+        if (segment != null)
+            moveStart(segment, plain);
+        if (offset == 0)
+            removeRun(run);
+        if (rest != null)
+            addRun(rest);
+    }
+
+    /**
+     * Records that a repeat was taken out of the list.
+     *
+     * @param run The repeat.
+     */
+    public void removedRun(RepeatNode run) {
+        removeRun(run);
+    }
+
+    /**
+     * Renders every dirty segment again and patches the tick offsets after it.
+     *
+     * @return The number of segments rendered.
+     */
+    public int refresh() {
+        rendered = dirty.size();
+        for (Segment segment : dirty) {
+            liveFirst(segment);
+            segment.render(cache);
+            long change = segment.ticks - (prefix(tickTree, segment.position + 1) - prefix(tickTree, segment.position));
+            addTo(tickTree, segment.position, change);
+        }
+        dirty.clear();
+        return rendered;
+    }
+
+    /**
+     * Returns an estimate of the heap memory held by the cache: its segments and
+     * the events of the segments rendered so far.
+     *
+     * @return The estimate in bytes.
+     */
+    public long getEstimatedBytes() {
+        long bytes = BYTES_PER_SEGMENT * segments.size();
+        for (Segment segment : segments)
+            if (segment.sequence != null)
+                for (Track track : segment.sequence.getTracks())
+                    bytes += BYTES_PER_EVENT * track.size();
+        return bytes;
+    }
+
+    /**
+     * Returns the number of segments rendered by the last refresh.
+     *
+     * @return The number of segments.
+     */
+    public int getRenderedCount() {
+        return rendered;
+    }
+
+    /**
+     * Returns the number of segments.
+     *
+     * @return The segment count.
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Returns the rendered MIDI of a segment. The segment must not be dirty; call
+     * refresh after editing.
+     *
+     * @param k The position of the segment.
+     * @return The stitched sequence of its phrases, starting at tick 0.
+     */
+    public Sequence getSegment(int k) {
+        return segments.get(k).sequence;
+    }
+
+    /**
+     * Returns the length of a segment in ticks, including silence at its end.
+     *
+     * @param k The position of the segment.
+     * @return The tick length.
+     */
+    public long getSegmentTicks(int k) {
+        return segments.get(k).ticks;
+    }
+
+    /**
+     * Returns the tick at which a segment starts, in O(log s). Assumes every phrase
+     * is compiled at the same resolution.
+     *
+     * @param k The position of the segment.
+     * @return The tick offset.
+     */
+    public long getTickOffset(int k) {
+        return prefix(tickTree, k);
+    }
+
+    /**
+     * Returns the length of the whole composition in ticks.
+     *
+     * @return The tick length.
+     */
+    public long getTickLength() {
+        return prefix(tickTree, segments.size());
+    }
+
+    /**
+     * Returns the position of the segment holding a phrase, in O(log s).
+     *
+     * @param index The index of the phrase.
+     * @return The position of its segment.
+     */
+    public int findSegment(int index) {
+        // Fenwick descent: the largest k whose prefix count is at most index.
+        int k = 0;
+        long remaining = index;
+        for (int step = Integer.highestOneBit(phraseTree.length); step > 0; step >>= 1) {
+            if (k + step < phraseTree.length && phraseTree[k + step] <= remaining) {
+                k += step;
+                remaining -= phraseTree[k];
+            }
+        }
+        return k;
+    }
+
+    /**
+     * Lays the rendered segments end to end in one sequence. This copies every event
+     * once but compiles nothing; to play or export, take the segments instead.
+     *
+     * @return The whole composition as one sequence.
+     */
+    public Sequence toSequence() {
+        SequenceBuilder builder = new SequenceBuilder(cache);
+        for (Segment segment : segments)
+            builder.appendFragment(segment.sequence, segment.ticks);
+        return builder.build();
+    }
+
+    /**
+     * Adds a segment to the dirty list unless it is already on it.
+     *
+     * @param segment The segment.
+     */
+    private void markDirty(Segment segment) {
+        if (!segment.dirty) {
+            segment.dirty = true;
+            dirty.add(segment);
+        }
+    }
+
+    /**
+     * Returns the segment starting at a node.
+     *
+     * @param node An ordinary node, a repeat or a position view.
+     * @return The segment, or null if none starts there.
+     */
+    private Segment startingAt(Node node) {
+        RepeatNode run = runOf(node);
+        if (run == null)
+            return startsAtNode.get(node);
+        HashMap<Long, Segment> starts = startsInRun.get(run.getOrigin());
+        return starts == null ? null : starts.get(run.getOriginOffset(offsetOf(node)));
+    }
+
+    /**
+     * Records the node a segment starts at, so that changed can find the segment.
+     *
+     * @param segment The segment.
+     */
+    private void addStart(Segment segment) {
+        Node first = segment.first;
+        RepeatNode run = runOf(first);
+        if (run != null)
+            startsInRun.computeIfAbsent(run.getOrigin(), origin -> new HashMap<>())
+                    .put(run.getOriginOffset(offsetOf(first)), segment);
+        else if (first != null)
+            startsAtNode.put(first, segment);
+    }
+
+    /**
+     * Forgets the node a segment starts at.
+     *
+     * @param segment The segment.
+     */
+    private void removeStart(Segment segment) {
+        Node first = segment.first;
+        RepeatNode run = runOf(first);
+        if (run == null) {
+            if (first != null)
+                startsAtNode.remove(first, segment);
+            return;
+        }
+        HashMap<Long, Segment> starts = startsInRun.get(run.getOrigin());
+        if (starts != null && starts.remove(run.getOriginOffset(offsetOf(first)), segment) && starts.isEmpty())
+            startsInRun.remove(run.getOrigin());
+    }
+
+    /**
+     * Returns the node a segment starts at, finding it again if a split left the
+     * segment's start view behind, past the end of its repeat.
+     *
+     * @param segment The segment.
+     * @return The node or position view holding the segment's first phrase.
+     */
+    private Node liveFirst(Segment segment) {
+        Node first = segment.first;
+        RepeatNode run = runOf(first);
+        if (run == null || offsetOf(first) < run.length())
+            return first;
+        long originOffset = run.getOriginOffset(offsetOf(first));
+        Map.Entry<Long, RepeatNode> holder = runs.get(run.getOrigin()).floorEntry(originOffset);
+        // The origin offset, and with it the key of the start, stays the same.
+        segment.first = holder.getValue().position((int) (originOffset - holder.getKey()));
+        return segment.first;
+    }
+
+    /**
+     * Adds a link to the repeats in the list if it is one.
+     *
+     * @param link The link.
+     */
+    private void addRun(Node link) {
+        if (link instanceof RepeatNode) {
+            RepeatNode run = (RepeatNode) link;
+            runs.computeIfAbsent(run.getOrigin(), origin -> new TreeMap<>()).put(run.getOriginOffset(0), run);
+        }
+    }
+
+    /**
+     * Removes a repeat from the repeats in the list.
+     *
+     * @param run The repeat.
+     */
+    private void removeRun(RepeatNode run) {
+        TreeMap<Long, RepeatNode> pieces = runs.get(run.getOrigin());
+        if (pieces != null && pieces.remove(run.getOriginOffset(0), run) && pieces.isEmpty())
+            runs.remove(run.getOrigin());
+    }
+
+    /**
+     * Returns the repeat a node is a phrase of.
+     *
+     * @param node A node, may be null.
+     * @return The repeat, or null for an ordinary node.
+     */
+    private static RepeatNode runOf(Node node) {
+        if (node instanceof RepeatNode)
+            return (RepeatNode) node;
+        if (node instanceof RepeatNode.Position)
+            return ((RepeatNode.Position) node).getRun();
+        return null;
+    }
+
+    /**
+     * Returns the offset of a node in the repeat it is a phrase of.
+     *
+     * @param node A repeat or position view.
+     * @return The offset.
+     */
+    private static int offsetOf(Node node) {
+        return node instanceof RepeatNode.Position ? ((RepeatNode.Position) node).getOffset() : 0;
+    }
+
+    /**
+     * Changes the node a segment starts at.
+     *
+     * @param segment The segment.
+     * @param first The new first node.
+     */
+    private void moveStart(Segment segment, Node first) {
+        removeStart(segment);
+        segment.first = first;
+        addStart(segment);
+    }
+
+    /**
+     * Splits a segment into pieces of the segment size if it has grown past twice
+     * that size.
+     *
+     * @param k The position of the segment.
+     */
+    private void splitIfLarge(int k) {
+        Segment segment = segments.get(k);
+        if (segment.count <= 2 * SEGMENT_SIZE)
+            return;
+        ArrayList<Segment> pieces = new ArrayList<>();
+        Node first = liveFirst(segment);
+        int remaining = segment.count;
+        while (remaining > 0) {
+            Segment piece = new Segment(first, Math.min(SEGMENT_SIZE, remaining));
+            for (int i = 0; i < piece.count; i++)
+                first = first.getNext();
+            remaining -= piece.count;
+            pieces.add(piece);
+        }
+        segments.remove(k);
+        segments.addAll(k, pieces);
+        dirty.remove(segment);
+        removeStart(segment);
+        for (Segment piece : pieces) {
+            addStart(piece);
+            markDirty(piece);
+        }
+        rebuildTrees();
+    }
+
+    /**
+     * Renumbers the segments and rebuilds both Fenwick trees from their counts and
+     * lengths.
+     */
+    private void rebuildTrees() {
+        int size = segments.size();
+        phraseTree = new long[size + 1];
+        tickTree = new long[size + 1];
+        for (int k = 0; k < size; k++) {
+            Segment segment = segments.get(k);
+            segment.position = k;
+            phraseTree[k + 1] += segment.count;
+            tickTree[k + 1] += segment.ticks;
+            int parent = (k + 1) + ((k + 1) & -(k + 1));
+            if (parent <= size) {
+                phraseTree[parent] += phraseTree[k + 1];
+                tickTree[parent] += tickTree[k + 1];
+            }
+        }
+    }
+
+    /**
+     * Adds a value to one entry of a Fenwick tree.
+     *
+     * @param tree The tree.
+     * @param k The position of the entry, from 0.
+     * @param delta The value to add.
+     */
+    private static void addTo(long[] tree, int k, long delta) {
+        for (int i = k + 1; i < tree.length; i += i & -i)
+            tree[i] += delta;
+    }
+
+    /**
+     * Sums the first entries of a Fenwick tree.
+     *
+     * @param tree The tree.
+     * @param k The number of entries to sum.
+     * @return The sum.
+     */
+    private static long prefix(long[] tree, int k) {
+        long sum = 0;
+        for (int i = k; i > 0; i -= i & -i)
+            sum += tree[i];
+        return sum;
+    }
+
+    /**
+     * The Segment class is a run of consecutive phrases rendered together.
+     */
+    private static class Segment {
+
+        /** The first node of the run */
+        private Node first;
+        /** The number of nodes in the run */
+        private int count;
+        /** The position of the segment, kept up to date when segments are added or dropped */
+        private int position;
+        /** Whether the segment has to be rendered again */
+        private boolean dirty;
+        /** The stitched sequence of the run */
+        private Sequence sequence;
+        /** The length of the run in ticks */
+        private long ticks;
+
+        /**
+         * Constructor to initialize an unrendered segment.
+         *
+         * @param first The first node of the run.
+         * @param count The number of nodes in the run.
+         */
+        Segment(Node first, int count) {
+            this.first = first;
+            this.count = count;
+        }
+
+        /**
+         * Stitches the phrases of the run into one sequence.
+         *
+         * @param cache The compiled-phrase cache.
+         */
+        void render(PhraseCache cache) {
+            SequenceBuilder builder = new SequenceBuilder(cache);
+            Node temp = first;
+            for (int i = 0; i < count; i++, temp = temp.getNext())
+                builder.append(temp.getPhraseId());
+            sequence = builder.build();
+            ticks = builder.getTickLength();
+            dirty = false;
+        }
+    }
+}
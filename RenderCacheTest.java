@@ -0,0 +1,141 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for RenderCache through the render methods of DoublyLinkedList.
+ * Incremental renders are compared with renders of a fresh list holding the same
+ * phrases.
+ */
+public class RenderCacheTest {
+
+    /**
+     * Describes every event of a sequence as its tick and message bytes.
+     */
+    private static List<String> events(Sequence sequence) {
+        List<String> events = new ArrayList<>();
+        for (Track track : sequence.getTracks())
+            for (int i = 0; i < track.size(); i++) {
+                MidiEvent event = track.get(i);
+                events.add(event.getTick() + ":" + Arrays.toString(event.getMessage().getMessage()));
+            }
+        return events;
+    }
+
+    /**
+     * Renders the phrases of a list from scratch.
+     */
+    private static List<String> freshRender(DoublyLinkedList list) {
+        List<String> phrases = new ArrayList<>();
+        for (Node temp = list.getHead(); temp != null; temp = temp.getNext())
+            phrases.add(temp.getPhrase());
+        return events(new DoublyLinkedList(phrases.toArray(new String[0])).render());
+    }
+
+    /**
+     * Creates a list of phrases "C", "D", "E", ... repeated to a given length.
+     */
+    private static DoublyLinkedList notes(int count) {
+        String[] phrases = new String[count];
+        for (int i = 0; i < count; i++)
+            phrases[i] = String.valueOf("CDEFGAB".charAt(i % 7));
+        return new DoublyLinkedList(phrases);
+    }
+
+    /**
+     * Tests that single edits render only the segment they touch.
+     */
+    @Test
+    public void testSingleEditsRenderOneSegment() {
+        DoublyLinkedList list = notes(1000);
+        RenderCache render = list.getRenderCache();
+        assertEquals(render.getSegmentCount(), render.getRenderedCount());
+
+        list.setCurrent(500);
+        list.addAtCurrent("G A");
+        assertEquals(1, list.getRenderCache().getRenderedCount());
+        assertEquals(freshRender(list), events(list.render()));
+
+        list.removeCurrent();
+        assertEquals(1, list.getRenderCache().getRenderedCount());
+
+        list.setCurrent(700);
+        list.replaceCurrent("C C C");
+        assertEquals(1, list.getRenderCache().getRenderedCount());
+        assertEquals(freshRender(list), events(list.render()));
+
+        list.getNode(10).setPhrase("B");
+        assertEquals(1, list.getRenderCache().getRenderedCount());
+        assertEquals(freshRender(list), events(list.render()));
+
+        assertEquals(0, list.getRenderCache().getRenderedCount());
+    }
+
+    /**
+     * Tests that tick offsets of later segments follow a change in length.
+     */
+    @Test
+    public void testOffsetsArePatched() {
+        DoublyLinkedList list = notes(300);
+        RenderCache render = list.getRenderCache();
+        long before = render.getTickOffset(3);
+        list.setCurrent(5);
+        list.replaceCurrent("C D");
+        render = list.getRenderCache();
+        assertEquals(render.getSegmentTicks(0), render.getTickOffset(1));
+        assertTrue(render.getTickOffset(3) > before);
+        assertEquals(render.getTickLength(), list.render().getTickLength());
+    }
+
+    /**
+     * Tests that phrases set through views of a rendered repeat split it without
+     * dropping the cache, render one segment each, and that the segments still line
+     * up after the split pieces are moved.
+     */
+    @Test
+    public void testEditsInsideRepeats() {
+        DoublyLinkedList list = notes(14);
+        list.repeatRange(0, 14, 200, 14);
+        RenderCache render = list.getRenderCache();
+        list.getNode(1000).setPhrase("G A");
+        assertSame(render, list.getRenderCache());
+        assertEquals(1, render.getRenderedCount());
+        list.getNode(1001).setPhrase("B");
+        list.getNode(2000).setPhrase("C D");
+        list.move(1001, 5);
+        list.removeRange(990, 995);
+        assertEquals(freshRender(list), events(list.render()));
+        list.getNode(1500).setPhrase("E");
+        assertEquals(1, list.getRenderCache().getRenderedCount());
+        assertEquals(freshRender(list), events(list.render()));
+    }
+
+    /**
+     * Tests random edits of every kind, and moves between markers, against renders
+     * from scratch.
+     */
+    @Test
+    public void testRandomEdits() {
+        DoublyLinkedList list = notes(400);
+        list.setCurrent(0);
+        list.setMarker("a");
+        list.setCurrent(200);
+        list.setMarker("b");
+        list.getRenderCache();
+        String[] alphabet = {"C", "D", "E", "F", "G", "A", "B"};
+        DoublyLinkedListTest.randomEdits(new Random(21), 300, 100, alphabet, step -> {
+            if (step % 10 == 0 && list.getMarker("a") != null && list.getMarker("b") != null)
+                list.moveToMarker("a", "b");
+            assertEquals(freshRender(list), events(list.render()), "step " + step);
+        }, list);
+    }
+}
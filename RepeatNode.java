@@ -0,0 +1,291 @@
+/**
+ * The RepeatNode class is a single link of a doubly linked list that stands for a
+ * run of repeated phrases: a pattern of phrase ids played over and over, possibly
+ * starting part way into the pattern. Repeating a 16-phrase loop 10,000 times is one
+ * node and one 16-entry array instead of 160,000 nodes. The pattern is copied from
+ * the source when the repeat is made and never changes, so it can be shared by the
+ * pieces of a split repeat.
+ *
+ * The node itself is the first phrase of the run. getNext and getPrev step through
+ * the run one phrase at a time, returning lightweight Position views, so code that
+ * walks the list sees every repeated phrase as if the copies existed. Like the views
+ * of a GapBufferComposition, positions inside a repeat cannot be relinked. Setting
+ * the phrase of one makes the list split the run around it, which gives the phrase
+ * an ordinary node of its own.
+ *
+ * A view stays valid when its run is split. A split shortens the run to the phrases
+ * before it and points the run's next link at the node that took the next phrase,
+ * so a view left beyond the end of its run walks on from there to the node or run
+ * now holding its phrase. A run split at its first phrase is shortened to nothing
+ * and only forwards its views this way.
+ *
+ * Every run remembers the run it was first cut from and its offset there, so a
+ * phrase keeps the same origin and origin offset through any number of splits until
+ * it gets an ordinary node of its own. The render cache uses this to find its
+ * segments inside repeats again after a split.
+ */
+public class RepeatNode extends Node {
+
+    /** The phrase ids of the repeated pattern, shared and never changed */
+    private final int[] pattern;
+    /** The index in the pattern of the first phrase of the run */
+    private final int start;
+    /** The number of phrases in the run */
+    private int length;
+    /** The run this one was cut from by splits, or this run */
+    private RepeatNode origin = this;
+    /** The offset in the origin of the first phrase of this run */
+    private long originOffset;
+
+    /**
+     * Constructor to initialize a run of a pattern.
+     *
+     * @param pattern The phrase ids of the pattern, not copied.
+     * @param start The index in the pattern of the first phrase of the run.
+     * @param length The number of phrases in the run.
+     * @throws IllegalArgumentException If the pattern is empty or the length is not positive.
+     */
+    RepeatNode(int[] pattern, int start, int length) {
+        super(pattern.length == 0 ? PhraseDictionary.NO_PHRASE : pattern[start % pattern.length]);
+        if (pattern.length == 0 || length < 1)
+            throw new IllegalArgumentException("A repeat needs a pattern and at least one phrase");
+        this.pattern = pattern;
+        this.start = start % pattern.length;
+        this.length = length;
+    }
+
+    /**
+     * Returns the phrase id at an offset in the run.
+     *
+     * @param offset The offset, from 0.
+     * @return The phrase id.
+     */
+    int getPhraseId(int offset) {
+        return pattern[(int) ((start + (long) offset) % pattern.length)];
+    }
+
+    /**
+     * Returns the number of phrases in the pattern. The phrase ids at offsets 0 up to
+     * this number are every entry of the pattern, once each.
+     *
+     * @return The pattern length.
+     */
+    int getPatternLength() {
+        return pattern.length;
+    }
+
+    /**
+     * Counts the phrases of the run holding a phrase id, in O(p) for a pattern of
+     * length p, however long the run is.
+     *
+     * @param phraseId The phrase id.
+     * @return The number of offsets in the run holding it.
+     */
+    long count(int phraseId) {
+        long count = 0;
+        for (int j = 0; j < pattern.length && j < length; j++)
+            if (getPhraseId(j) == phraseId)
+                count += (length - 1 - j) / pattern.length + 1;
+        return count;
+    }
+
+    /**
+     * Creates a run of part of this run, sharing its pattern and its origin.
+     *
+     * @param offset The offset of the first phrase of the part.
+     * @param count The number of phrases in the part.
+     * @return The new, unlinked run.
+     */
+    RepeatNode slice(int offset, int count) {
+        RepeatNode slice = new RepeatNode(pattern, (int) ((start + (long) offset) % pattern.length), count);
+        slice.origin = origin;
+        slice.originOffset = originOffset + offset;
+        return slice;
+    }
+
+    /**
+     * Creates a copy of this run that shares its pattern but is its own origin, for
+     * a copy that lives beside the original.
+     *
+     * @return The new, unlinked run.
+     */
+    RepeatNode copy() {
+        return new RepeatNode(pattern, start, length);
+    }
+
+    /**
+     * Returns the run this one was cut from by splits.
+     *
+     * @return The origin, which is this run if it was never cut from another.
+     */
+    RepeatNode getOrigin() {
+        return origin;
+    }
+
+    /**
+     * Returns the offset in the origin of a phrase of this run.
+     *
+     * @param offset The offset of the phrase in this run.
+     * @return Its offset in the origin.
+     */
+    long getOriginOffset(int offset) {
+        return originOffset + offset;
+    }
+
+    /**
+     * Returns the node for a phrase of the run.
+     *
+     * @param offset The offset of the phrase, from 0.
+     * @return This node for offset 0, otherwise a position view.
+     */
+    Node position(int offset) {
+        return offset == 0 ? this : new Position(this, offset);
+    }
+
+    /**
+     * Shortens the run, keeping its first phrases. Views of the phrases kept stay
+     * valid; views of the others follow the next link, which the list points at the
+     * node that takes the phrase after the ones kept.
+     *
+     * @param length The new number of phrases, 0 if the run is taken out of the list.
+     */
+    void shorten(int length) {
+        this.length = length;
+    }
+
+    @Override
+    int length() {
+        return length;
+    }
+
+    @Override
+    Node lastPosition() {
+        return position(length - 1);
+    }
+
+    @Override
+    public int getPhraseId() {
+        return length == 0 ? resolve().getPhraseId() : super.getPhraseId();
+    }
+
+    @Override
+    public Node getNext() {
+        if (length == 0)
+            return resolve().getNext();
+        return length > 1 ? new Position(this, 1) : nextLink();
+    }
+
+    @Override
+    public Node getPrev() {
+        return length == 0 ? resolve().getPrev() : super.getPrev();
+    }
+
+    @Override
+    Node resolve() {
+        return length == 0 ? skip(this, 0) : this;
+    }
+
+    /**
+     * Returns the node a number of phrases after another, skipping a repeat in one
+     * step when the target lies beyond it. A view left beyond the end of its run by
+     * a split is found again the same way.
+     *
+     * @param from A node, repeat or position view.
+     * @param count The number of phrases to skip.
+     * @return The node or position view, or null past the tail.
+     */
+    static Node skip(Node from, int count) {
+        Node link = from;
+        int offset = count;
+        if (from instanceof Position) {
+            link = ((Position) from).getRun();
+            offset += ((Position) from).getOffset();
+        }
+        while (link != null && offset >= link.length()) {
+            offset -= link.length();
+            link = link.nextLink();
+        }
+        if (link instanceof RepeatNode)
+            return ((RepeatNode) link).position(offset);
+        return link;
+    }
+
+    /**
+     * The Position class is a node view of one phrase inside a repeat, other than
+     * the first.
+     */
+    static class Position extends Node {
+
+        /** The repeat this view is part of */
+        private final RepeatNode run;
+        /** The offset of the phrase in the run */
+        private final int offset;
+
+        /**
+         * Constructor to initialize a view of a phrase in a run.
+         *
+         * @param run The repeat.
+         * @param offset The offset of the phrase, from 1.
+         */
+        Position(RepeatNode run, int offset) {
+            super(run.getPhraseId(offset));
+            this.run = run;
+            this.offset = offset;
+        }
+
+        /**
+         * Returns the repeat this view is part of.
+         *
+         * @return The repeat.
+         */
+        RepeatNode getRun() {
+            return run;
+        }
+
+        /**
+         * Returns the offset of the phrase in the run.
+         *
+         * @return The offset.
+         */
+        int getOffset() {
+            return offset;
+        }
+
+        @Override
+        DoublyLinkedList getList() {
+            return run.getList();
+        }
+
+        @Override
+        public int getPhraseId() {
+            return offset < run.length ? super.getPhraseId() : resolve().getPhraseId();
+        }
+
+        @Override
+        public Node getNext() {
+            if (offset >= run.length)
+                return resolve().getNext();
+            return offset + 1 < run.length ? new Position(run, offset + 1) : run.nextLink();
+        }
+
+        @Override
+        public Node getPrev() {
+            return offset < run.length ? run.position(offset - 1) : resolve().getPrev();
+        }
+
+        @Override
+        Node resolve() {
+            return offset < run.length ? this : skip(this, 0);
+        }
+
+        @Override
+        public void setNext(Node next) {
+            throw new UnsupportedOperationException("Positions in a repeat cannot be relinked");
+        }
+
+        @Override
+        public void setPrev(Node prev) {
+            throw new UnsupportedOperationException("Positions in a repeat cannot be relinked");
+        }
+    }
+}
@@ -0,0 +1,151 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for RepeatNode through the repeat methods of DoublyLinkedList.
+ * Lists holding repeats are compared with a gap buffer holding real copies.
+ */
+public class RepeatNodeTest {
+
+    /**
+     * Lists the phrases of a composition by walking forward from the head.
+     */
+    private static List<String> forward(Composition composition) {
+        List<String> phrases = new ArrayList<>();
+        for (Node temp = composition.getHead(); temp != null; temp = temp.getNext())
+            phrases.add(temp.getPhrase());
+        return phrases;
+    }
+
+    /**
+     * Lists the phrases of a composition by walking backward from the tail.
+     */
+    private static List<String> backward(Composition composition) {
+        List<String> phrases = new ArrayList<>();
+        for (Node temp = composition.getTail(); temp != null; temp = temp.getPrev())
+            phrases.add(0, temp.getPhrase());
+        return phrases;
+    }
+
+    /**
+     * Counts the links of a list, each repeat counting once.
+     */
+    private static int links(DoublyLinkedList list) {
+        int links = 0;
+        for (Node temp = list.getHead(); temp != null; temp = temp.nextLink())
+            links++;
+        return links;
+    }
+
+    /**
+     * Tests that a long loop is held in a few links and still walks as every copy.
+     */
+    @Test
+    public void testLoopIsCompact() {
+        String[] loop = new String[16];
+        for (int i = 0; i < loop.length; i++)
+            loop[i] = String.valueOf("CDEFGAB".charAt(i % 7)) + (i / 7 + 4);
+        DoublyLinkedList list = new DoublyLinkedList(loop);
+        list.repeatRange(0, 16, 10_000, 16);
+        assertEquals(16 * 10_001, list.size());
+        assertTrue(links(list) <= 18, "links: " + links(list));
+        assertEquals(16 * 10_001 - 1, list.getCurrentIndex());
+
+        List<String> phrases = forward(list);
+        assertEquals(list.size(), phrases.size());
+        for (int i = 0; i < phrases.size(); i++)
+            assertEquals(loop[i % 16], phrases.get(i));
+        assertEquals(phrases, backward(list));
+    }
+
+    /**
+     * Tests that indexing, moving and removing inside a repeat split only around
+     * the phrase involved.
+     */
+    @Test
+    public void testSplitOnDemand() {
+        DoublyLinkedList list = new DoublyLinkedList(new String[] {"A", "B"});
+        list.repeatRange(0, 2, 1000, 2);
+        int before = links(list);
+
+        list.setCurrent(1001);
+        assertEquals("B", list.getCurrent().getPhrase());
+        assertEquals(before + 2, links(list));
+        list.moveForward();
+        assertEquals("A", list.getCurrent().getPhrase());
+        list.moveBackward();
+        list.moveBackward();
+        assertEquals("A", list.getCurrent().getPhrase());
+        assertEquals(1000, list.getCurrentIndex());
+
+        Node removed = list.remove(501);
+        assertEquals("B", removed.getPhrase());
+        assertEquals(2001, list.size());
+        assertEquals("A", list.getNode(501).getPhrase());
+
+        list.getNode(700).setPhrase("X");
+        assertEquals("X", forward(list).get(700));
+        assertArrayEquals(new int[] {700}, list.findMotif("X"));
+    }
+
+    /**
+     * Tests that setting the phrase of a view inside a repeat splits it on demand,
+     * and that views taken before a split still stand for their phrase.
+     */
+    @Test
+    public void testSetPhraseOnViews() {
+        DoublyLinkedList list = new DoublyLinkedList(new String[] {"A"});
+        list.repeatPhraseToEnd(0, 5);
+        list.getHead().getNext().setPhrase("X");
+        assertEquals(List.of("A", "X", "A", "A", "A", "A"), forward(list));
+
+        DoublyLinkedList loop = new DoublyLinkedList(new String[] {"C", "D"});
+        loop.repeatRange(0, 2, 50, 2);
+        Node held = loop.getHead().getNext().getNext().getNext().getNext();
+        Node first = loop.getHead().getNext().getNext();
+        first.setPhrase("E");
+        assertEquals("C", held.getPhrase());
+        assertEquals("E", first.getPhrase());
+        assertEquals("E", held.getPrev().getPrev().getPhrase());
+        held.setPhrase("F");
+        assertEquals(List.of("C", "D", "E", "D", "F", "D"), forward(loop).subList(0, 6));
+
+        int index = 0;
+        for (Node node : loop)
+            node.setPhrase(node.getPhrase() + (index++ % 2 == 0 ? "q" : "h"));
+        for (Node temp = list.getHead(); temp != null; temp = temp.getNext())
+            temp.setPhrase("B");
+        assertEquals(List.of("B", "B", "B", "B", "B", "B"), forward(list));
+        List<String> phrases = forward(loop);
+        assertEquals(102, phrases.size());
+        assertEquals(List.of("Cq", "Dh", "Eq", "Dh", "Fq", "Dh", "Cq"), phrases.subList(0, 7));
+        assertEquals(phrases, backward(loop));
+        assertArrayEquals(new int[] {4}, loop.findMotif("Fq"));
+    }
+
+    /**
+     * Tests random edits on a list with repeats against a gap buffer with copies.
+     */
+    @Test
+    public void testRandomEdits() {
+        DoublyLinkedList list = new DoublyLinkedList(new String[] {"A", "B", "C"});
+        GapBufferComposition copies = new GapBufferComposition(new String[] {"A", "B", "C"});
+        String[] alphabet = {"A", "B", "C", "D", "E", "F", "G"};
+        DoublyLinkedListTest.randomEdits(new Random(22), 500, 20, alphabet, step -> {
+            assertEquals(copies.size(), list.size(), "step " + step);
+            assertEquals(copies.getCurrentIndex(), list.getCurrentIndex(), "step " + step);
+            if (copies.getCurrent() != null)
+                assertEquals(copies.getCurrent().getPhrase(), list.getCurrent().getPhrase(), "step " + step);
+            if (step % 50 == 0) {
+                assertEquals(forward(copies), forward(list), "step " + step);
+                assertEquals(forward(copies), backward(list), "step " + step);
+            }
+        }, list, copies);
+        assertEquals(forward(copies), forward(list));
+    }
+}
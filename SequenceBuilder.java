@@ -0,0 +1,158 @@
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+
+/**
+ * The SequenceBuilder class stitches the compiled sequences of consecutive phrases
+ * into a single MIDI sequence, shifting each phrase by the length of everything
+ * before it. Playing the result in one call avoids the gaps left between separate
+ * player calls. Building is linear in the number of MIDI events because every
+ * phrase fragment comes from the compiled-phrase cache and is only copied once.
+ */
+public class SequenceBuilder {
+
+    /** MIDI meta message type that marks the end of a track */
+    private static final int END_OF_TRACK = 0x2F;
+
+    /** Source of compiled phrase fragments */
+    private final PhraseCache cache;
+    /** The sequence being built, created from the first fragment */
+    private Sequence sequence;
+    /** Tick at which the next phrase starts */
+    private long offset;
+    /** Number of phrases appended so far */
+    private int phraseCount;
+
+    /**
+     * Constructor to initialize a builder that takes fragments from a cache.
+     *
+     * @param cache The compiled-phrase cache.
+     */
+    public SequenceBuilder(PhraseCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Appends a phrase after everything added so far.
+     *
+     * @param phrase The phrase to append.
+     */
+    public void append(String phrase) {
+        appendFragment(cache.get(phrase));
+    }
+
+    /**
+     * Appends a phrase, given by its dictionary id, after everything added so far.
+     *
+     * @param phraseId The id of the phrase to append.
+     */
+    public void append(int phraseId) {
+        appendFragment(cache.get(phraseId));
+    }
+
+    /**
+     * Appends a compiled fragment after everything added so far. Fragment tracks
+     * are copied to the tracks with the same number, and ticks are rescaled if the
+     * fragment uses a different resolution.
+     *
+     * @param fragment The compiled sequence of one phrase.
+     */
+    public void appendFragment(Sequence fragment) {
+        appendFragment(fragment, fragment.getTickLength());
+    }
+
+    /**
+     * Appends a fragment that lasts a given number of ticks, which may be longer than
+     * its last event, such as a run of phrases stitched earlier that ends in a rest.
+     *
+     * @param fragment The sequence to append.
+     * @param length The length of the fragment in its own resolution.
+     */
+    public void appendFragment(Sequence fragment, long length) {
+        if (sequence == null)
+            sequence = emptyLike(fragment);
+        Track[] source = fragment.getTracks();
+        while (sequence.getTracks().length < source.length)
+            sequence.createTrack();
+        Track[] target = sequence.getTracks();
+        int fromResolution = fragment.getResolution();
+        int toResolution = sequence.getResolution();
+        for (int t = 0; t < source.length; t++) {
+            Track track = source[t];
+            for (int i = 0; i < track.size(); i++) {
+                MidiEvent event = track.get(i);
+                MidiMessage message = event.getMessage();
+                if (message instanceof MetaMessage && ((MetaMessage) message).getType() == END_OF_TRACK)
+                    continue;
+                long tick = rescale(event.getTick(), fromResolution, toResolution);
+                target[t].add(new MidiEvent(message, offset + tick));
+            }
+        }
+        offset += rescale(length, fromResolution, toResolution);
+        phraseCount++;
+    }
+
+    /**
+     * Returns the sequence built so far. An empty sequence is returned if nothing
+     * was appended.
+     *
+     * @return The stitched sequence.
+     */
+    public Sequence build() {
+        if (sequence == null) {
+            try {
+                sequence = new Sequence(Sequence.PPQ, 128);
+            } catch (InvalidMidiDataException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * Returns the tick at which the next phrase would start.
+     *
+     * @return The total length in ticks of the appended phrases.
+     */
+    public long getTickLength() {
+        return offset;
+    }
+
+    /**
+     * Returns the number of phrases appended so far.
+     *
+     * @return The phrase count.
+     */
+    public int getPhraseCount() {
+        return phraseCount;
+    }
+
+    /**
+     * Creates an empty sequence with the same timing as another one.
+     *
+     * @param model The sequence to copy the timing from.
+     * @return A new sequence without tracks.
+     */
+    private static Sequence emptyLike(Sequence model) {
+        try {
+            return new Sequence(model.getDivisionType(), model.getResolution());
+        } catch (InvalidMidiDataException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Converts a tick count between two resolutions.
+     *
+     * @param tick The tick in the source resolution.
+     * @param from The source resolution.
+     * @param to The target resolution.
+     * @return The tick in the target resolution.
+     */
+    static long rescale(long tick, int from, int to) {
+        return from == to ? tick : tick * to / from;
+    }
+}
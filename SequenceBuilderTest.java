@@ -0,0 +1,76 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for the SequenceBuilder implementation.
+ * It tests that phrase fragments are laid end to end in a single sequence.
+ */
+public class SequenceBuilderTest {
+
+    /**
+     * Creates a one-track fragment holding a single note of the given length.
+     */
+    private static Sequence note(int resolution, int key, long length) throws InvalidMidiDataException {
+        Sequence sequence = new Sequence(Sequence.PPQ, resolution);
+        Track track = sequence.createTrack();
+        track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, key, 64), 0));
+        track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 0, key, 0), length));
+        return sequence;
+    }
+
+    /**
+     * Tests that each fragment starts where the previous one ended.
+     */
+    @Test
+    public void testFragmentsAreOffset() throws InvalidMidiDataException {
+        SequenceBuilder builder = new SequenceBuilder(null);
+        builder.appendFragment(note(128, 60, 128));
+        builder.appendFragment(note(128, 62, 256));
+        builder.appendFragment(note(64, 64, 64));
+        Sequence sequence = builder.build();
+
+        assertEquals(3, builder.getPhraseCount());
+        assertEquals(512, builder.getTickLength());
+        Track track = sequence.getTracks()[0];
+        assertEquals(62, ((ShortMessage) track.get(2).getMessage()).getData1());
+        assertEquals(128, track.get(2).getTick());
+        assertEquals(384, track.get(4).getTick());
+        assertEquals(64, ((ShortMessage) track.get(4).getMessage()).getData1());
+        assertEquals(512, track.get(5).getTick());
+    }
+
+    /**
+     * Tests that phrases are compiled through the cache only once.
+     */
+    @Test
+    public void testUsesCache() {
+        PhraseCache cache = new PhraseCache(8, phrase -> {
+            try {
+                return note(128, 60, 128);
+            } catch (InvalidMidiDataException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        SequenceBuilder builder = new SequenceBuilder(cache);
+        for (int i = 0; i < 4; i++)
+            builder.append("C");
+        assertEquals(512, builder.getTickLength());
+        assertEquals(1, cache.getMisses());
+        assertEquals(3, cache.getHits());
+    }
+
+    /**
+     * Tests that building with no phrases gives an empty sequence.
+     */
+    @Test
+    public void testEmpty() {
+        assertEquals(0, new SequenceBuilder(null).build().getTickLength());
+    }
+}
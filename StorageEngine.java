@@ -0,0 +1,46 @@
+/**
+ * The StorageEngine enum lists the ways a composition can be stored and creates a
+ * composition of the chosen kind.
+ */
+public enum StorageEngine {
+
+    /** Nodes in a doubly linked list; positional operations walk from the head */
+    LINKED_LIST {
+        @Override
+        public Composition create(String[] phrases) {
+            return new DoublyLinkedList(phrases);
+        }
+    },
+
+    /** Nodes threaded through a position tree; positional operations take O(log n) */
+    INDEXED {
+        @Override
+        public Composition create(String[] phrases) {
+            return new IndexedComposition(phrases);
+        }
+    },
+
+    /** Phrase ids in a gap buffer; edits at the cursor take O(1) amortized */
+    GAP_BUFFER {
+        @Override
+        public Composition create(String[] phrases) {
+            return new GapBufferComposition(phrases);
+        }
+    },
+
+    /** Slots in a temporary memory-mapped file; the phrases live off the heap */
+    MAPPED {
+        @Override
+        public Composition create(String[] phrases) {
+            return MappedComposition.createTemporary(phrases);
+        }
+    };
+
+    /**
+     * Creates a composition using this storage engine.
+     *
+     * @param phrases The initial phrases.
+     * @return A new composition holding the phrases.
+     */
+    public abstract Composition create(String[] phrases);
+}
@@ -0,0 +1,62 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The ThreadSupport class starts background work on virtual threads when the running
+ * Java version has them (Java 21 and later) and on daemon platform threads otherwise,
+ * so the composer still runs on older Java versions.
+ */
+public final class ThreadSupport {
+
+    /**
+     * Private constructor; this class only has static methods.
+     */
+    private ThreadSupport() {
+    }
+
+    /**
+     * Starts a task on a new virtual thread, or on a new daemon thread if virtual
+     * threads are not available.
+     *
+     * @param name The name of the thread.
+     * @param task The task to run.
+     * @return The started thread.
+     */
+    public static Thread start(String name, Runnable task) {
+        try {
+            Thread thread = (Thread) Thread.class.getMethod("startVirtualThread", Runnable.class)
+                    .invoke(null, task);
+            thread.setName(name);
+            return thread;
+        } catch (ReflectiveOperationException e) {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            thread.start();
+            return thread;
+        }
+    }
+
+    /**
+     * Creates an executor that runs every task on its own virtual thread, or on a
+     * cached pool of daemon threads if virtual threads are not available.
+     *
+     * @param name The prefix for thread names of the fallback pool.
+     * @return The executor.
+     */
+    public static ExecutorService newPerTaskExecutor(String name) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            ThreadFactory factory = task -> {
+                Thread thread = new Thread(task, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            return Executors.newCachedThreadPool(factory);
+        }
+    }
+}
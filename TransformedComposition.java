@@ -0,0 +1,382 @@
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The TransformedComposition class is a view of another composition with a phrase
+ * transform applied, such as a transposition, a tempo change or an instrument
+ * override. The stored phrases are never rewritten: every node of the view reads the
+ * phrase of the node it wraps and transforms it when asked, so playback, export and
+ * saving all see the transformed piece as the phrases stream through. Each distinct
+ * phrase is transformed only once and the result is remembered.
+ *
+ * Views compose: view.transpose(2).tempo(1.5) is a single view over the same source
+ * with both transforms applied in order. Edits and navigation go to the source, with
+ * phrases given as they should be stored; nodes of the view cannot be changed or
+ * relinked. To get a new list holding the transformed phrases, use materialize,
+ * which transforms all phrases in one parallel pass.
+ */
+public class TransformedComposition implements Composition {
+
+    /** Estimated bytes per remembered transformed id: a map node and two boxed ids */
+    private static final long BYTES_PER_TRANSFORMED = 64;
+
+    /** The composition being viewed */
+    private final Composition source;
+    /** The transform applied to every phrase */
+    private final PhraseTransform transform;
+    /** The transformed id of every phrase id seen so far; read by playback threads */
+    private final ConcurrentHashMap<Integer, Integer> transformed = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor to initialize a view of a composition.
+     *
+     * @param source The composition to view.
+     * @param transform The transform to apply to its phrases.
+     */
+    public TransformedComposition(Composition source, PhraseTransform transform) {
+        this.source = source;
+        this.transform = transform;
+    }
+
+    /**
+     * Returns the composition being viewed.
+     *
+     * @return The source composition.
+     */
+    public Composition getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the transform applied to every phrase.
+     *
+     * @return The transform.
+     */
+    public PhraseTransform getTransform() {
+        return transform;
+    }
+
+    /**
+     * Returns a view of the same source with another transform applied after this
+     * view's transform.
+     *
+     * @param next The transform to add.
+     * @return The new view.
+     */
+    public TransformedComposition with(PhraseTransform next) {
+        return new TransformedComposition(source, transform.andThen(next));
+    }
+
+    /**
+     * Returns a view of the same source, also transposed.
+     *
+     * @param semitones The number of semitones, negative to go down.
+     * @return The new view.
+     */
+    public TransformedComposition transpose(int semitones) {
+        return with(PhraseTransform.transpose(semitones));
+    }
+
+    /**
+     * Returns a view of the same source, also with its tempo scaled.
+     *
+     * @param factor The tempo factor, 2 for twice as fast.
+     * @return The new view.
+     */
+    public TransformedComposition tempo(double factor) {
+        return with(PhraseTransform.tempo(factor));
+    }
+
+    /**
+     * Returns a view of the same source, also played with one instrument.
+     *
+     * @param instrument A General MIDI program number or a jFugue instrument name.
+     * @return The new view.
+     */
+    public TransformedComposition instrument(String instrument) {
+        return with(PhraseTransform.instrument(instrument));
+    }
+
+    /**
+     * Returns the id of the transformed phrase for a stored phrase id, transforming
+     * the phrase the first time it is seen.
+     *
+     * @param phraseId The stored phrase id.
+     * @return The transformed phrase id.
+     */
+    public int transformId(int phraseId) {
+        if (phraseId == PhraseDictionary.NO_PHRASE)
+            return phraseId;
+        return transformed.computeIfAbsent(phraseId, id -> {
+            PhraseDictionary dictionary = PhraseDictionary.getShared();
+            return dictionary.intern(transform.apply(dictionary.phrase(id)));
+        });
+    }
+
+    /**
+     * Creates a new list holding the transformed phrases, with the same current
+     * index. The stored phrase ids are read in one walk, then transformed in a
+     * parallel bulk pass on the common fork-join pool, with every distinct phrase
+     * transformed once, and the nodes are linked in a final walk.
+     *
+     * @return The new list.
+     */
+    public DoublyLinkedList materialize() {
+        int count = source.size();
+        int[] stored = new int[count];
+        int filled = 0;
+        for (Node temp = source.getHead(); temp != null; temp = temp.getNext())
+            stored[filled++] = temp.getPhraseId();
+        int[] result = new int[count];
+        Arrays.parallelSetAll(result, i -> transformId(stored[i]));
+
+        Node head = null, tail = null, current = null;
+        int currentIndex = source.getCurrentIndex();
+        for (int i = 0; i < count; i++) {
+            Node node = new Node(result[i]);
+            if (tail == null)
+                head = node;
+            else {
+                tail.setNext(node);
+                node.setPrev(tail);
+            }
+            tail = node;
+            if (i == currentIndex)
+                current = node;
+        }
+        return new DoublyLinkedList(head, tail, count, current, current == null ? -1 : currentIndex);
+    }
+
+    @Override
+    public Node getCurrent() {
+        return wrap(source.getCurrent());
+    }
+
+    @Override
+    public int getCurrentIndex() {
+        return source.getCurrentIndex();
+    }
+
+    @Override
+    public int size() {
+        return source.size();
+    }
+
+    /**
+     * Returns an estimate of the heap memory held by the source and the transformed
+     * ids remembered by this view.
+     *
+     * @return The estimate in bytes.
+     */
+    @Override
+    public long getEstimatedBytes() {
+        return source.getEstimatedBytes() + BYTES_PER_TRANSFORMED * transformed.size();
+    }
+
+    @Override
+    public void setCurrent(int index) {
+        source.setCurrent(index);
+    }
+
+    @Override
+    public Node getNode(int index) {
+        return wrap(source.getNode(index));
+    }
+
+    @Override
+    public Node getHead() {
+        return wrap(source.getHead());
+    }
+
+    @Override
+    public Node getTail() {
+        return wrap(source.getTail());
+    }
+
+    @Override
+    public void moveForward() {
+        source.moveForward();
+    }
+
+    @Override
+    public void moveBackward() {
+        source.moveBackward();
+    }
+
+    @Override
+    public void addAtEnd(String phrase) {
+        source.addAtEnd(phrase);
+    }
+
+    @Override
+    public void addAtBeginning(String phrase) {
+        source.addAtBeginning(phrase);
+    }
+
+    @Override
+    public void addAtCurrent(String phrase) {
+        source.addAtCurrent(phrase);
+    }
+
+    @Override
+    public void add(String phrase, int index) {
+        source.add(phrase, index);
+    }
+
+    @Override
+    public void repeatPhraseToEnd(int index) {
+        source.repeatPhraseToEnd(index);
+    }
+
+    @Override
+    public void repeatPhraseToEnd(int index, int times) {
+        source.repeatPhraseToEnd(index, times);
+    }
+
+    @Override
+    public Node removeCurrent() {
+        return wrap(source.removeCurrent());
+    }
+
+    @Override
+    public Node remove(int index) {
+        return wrap(source.remove(index));
+    }
+
+    @Override
+    public void move(int currentIndex, int newIndex) {
+        source.move(currentIndex, newIndex);
+    }
+
+    @Override
+    public void addAll(String[] phrases) {
+        source.addAll(phrases);
+    }
+
+    @Override
+    public void addAll(String[] phrases, int index) {
+        source.addAll(phrases, index);
+    }
+
+    @Override
+    public int removeRange(int from, int to) {
+        return source.removeRange(from, to);
+    }
+
+    @Override
+    public void repeatRange(int from, int to, int times, int index) {
+        source.repeatRange(from, to, times, index);
+    }
+
+    @Override
+    public void setMarker(String name) {
+        source.setMarker(name);
+    }
+
+    @Override
+    public void removeMarker(String name) {
+        source.removeMarker(name);
+    }
+
+    @Override
+    public Set<String> getMarkerNames() {
+        return source.getMarkerNames();
+    }
+
+    @Override
+    public Node getMarker(String name) {
+        return wrap(source.getMarker(name));
+    }
+
+    @Override
+    public void jumpToMarker(String name) {
+        source.jumpToMarker(name);
+    }
+
+    @Override
+    public void moveToMarker(String source, String target) {
+        this.source.moveToMarker(source, target);
+    }
+
+    @Override
+    public void moveRangeToMarker(String from, String to, String target) {
+        source.moveRangeToMarker(from, to, target);
+    }
+
+    @Override
+    public void showAllPhrases() {
+        StringBuilder out = new StringBuilder();
+        for (Node temp = getHead(); temp != null; temp = temp.getNext()) {
+            if (out.length() > 0)
+                out.append(' ');
+            out.append(temp.getPhrase());
+        }
+        System.out.print(out);
+    }
+
+    /**
+     * Returns a view of a source node.
+     *
+     * @param node The source node, or null.
+     * @return The view, or null.
+     */
+    private Node wrap(Node node) {
+        return node == null ? null : new TransformedNode(node);
+    }
+
+    /**
+     * The TransformedNode class is a node view that transforms the phrase of the node
+     * it wraps.
+     */
+    private class TransformedNode extends Node {
+
+        /** The source node */
+        private final Node node;
+
+        /**
+         * Constructor to initialize a view of a source node.
+         *
+         * @param node The source node.
+         */
+        TransformedNode(Node node) {
+            super(PhraseDictionary.NO_PHRASE);
+            this.node = node;
+        }
+
+        @Override
+        public String getPhrase() {
+            return PhraseDictionary.getShared().phrase(getPhraseId());
+        }
+
+        @Override
+        public int getPhraseId() {
+            return transformId(node.getPhraseId());
+        }
+
+        @Override
+        public void setPhrase(String phrase) {
+            throw new UnsupportedOperationException("Phrases of a transformed view cannot be changed");
+        }
+
+        @Override
+        public Node getNext() {
+            return wrap(node.getNext());
+        }
+
+        @Override
+        public Node getPrev() {
+            return wrap(node.getPrev());
+        }
+
+        @Override
+        public void setNext(Node next) {
+            throw new UnsupportedOperationException("Nodes of a transformed view cannot be relinked");
+        }
+
+        @Override
+        public void setPrev(Node prev) {
+            throw new UnsupportedOperationException("Nodes of a transformed view cannot be relinked");
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for TransformedComposition and the built-in phrase transforms.
+ */
+public class TransformedCompositionTest {
+
+    /**
+     * Lists the phrases of a composition by walking forward from the head.
+     */
+    private static List<String> phrases(Composition composition) {
+        List<String> phrases = new ArrayList<>();
+        for (Node temp = composition.getHead(); temp != null; temp = temp.getNext())
+            phrases.add(temp.getPhrase());
+        return phrases;
+    }
+
+    /**
+     * Tests transposing notes, harmonies, chords and numeric notes.
+     */
+    @Test
+    public void testTranspose() {
+        PhraseTransform up = PhraseTransform.transpose(2);
+        assertEquals("D F4q C#6", up.apply("C Eb4q B"));
+        assertEquals("D5h+F#5h R I[Piano]", up.apply("C5h+E5h R I[Piano]"));
+        assertEquals("D3maj [62]q", up.apply("C3maj [60]q"));
+        assertEquals("B4 A4 F C#", PhraseTransform.transpose(-1).apply("C Bb4 Gb D"));
+        assertEquals("[127] [126]", PhraseTransform.transpose(1).apply("[127] [125]"));
+    }
+
+    /**
+     * Tests that tempo scaling adds or scales tempo tokens.
+     */
+    @Test
+    public void testTempo() {
+        PhraseTransform faster = PhraseTransform.tempo(1.5);
+        assertEquals("T180 C D", faster.apply("C D"));
+        assertEquals("T90 C T150 D", faster.apply("T60 C T100 D"));
+        assertEquals("T180 C", faster.apply("T[Allegro] C"));
+        assertEquals("T90 C T270 D", faster.apply("T[Adagio] C T[presto] D"));
+        assertThrows(IllegalArgumentException.class, () -> faster.apply("T[Quickly] C"));
+        assertThrows(IllegalArgumentException.class, () -> faster.apply("C T[Allegro"));
+        assertThrows(IllegalArgumentException.class, () -> PhraseTransform.tempo(0));
+    }
+
+    /**
+     * Tests that an instrument override replaces instrument tokens.
+     */
+    @Test
+    public void testInstrument() {
+        assertEquals("I[Violin] C D", PhraseTransform.instrument("Violin").apply("I[Piano] C I5 D"));
+        assertEquals("I40 C", PhraseTransform.instrument("40").apply("C"));
+        assertThrows(IllegalArgumentException.class, () -> PhraseTransform.instrument(" "));
+    }
+
+    /**
+     * Tests that a view transforms phrases as they are read, composes with other
+     * transforms and leaves the source unchanged while following its edits.
+     */
+    @Test
+    public void testView() {
+        DoublyLinkedList source = new DoublyLinkedList(new String[] {"C", "E", "G"});
+        TransformedComposition view = new TransformedComposition(source, PhraseTransform.transpose(12))
+                .tempo(2);
+        assertEquals(List.of("T240 C6", "T240 E6", "T240 G6"), phrases(view));
+        assertEquals(List.of("C", "E", "G"), phrases(source));
+
+        view.addAtEnd("B");
+        assertEquals("B", source.getTail().getPhrase());
+        assertEquals("T240 B6", view.getTail().getPhrase());
+        assertEquals("T240 G6", view.getTail().getPrev().getPhrase());
+        assertEquals(source.getCurrentIndex(), view.getCurrentIndex());
+        assertThrows(UnsupportedOperationException.class, () -> view.getHead().setPhrase("D"));
+    }
+
+    /**
+     * Tests that a materialized list holds the phrases the view streams.
+     */
+    @Test
+    public void testMaterialize() {
+        String[] loop = new String[500];
+        for (int i = 0; i < loop.length; i++)
+            loop[i] = String.valueOf("CDEFGAB".charAt(i % 7)) + (i % 3 + 3) + "q";
+        GapBufferComposition source = new GapBufferComposition(loop);
+        source.setCurrent(123);
+        TransformedComposition view = new TransformedComposition(source, PhraseTransform.transpose(-3))
+                .instrument("Flute");
+        DoublyLinkedList list = view.materialize();
+        assertEquals(phrases(view), phrases(list));
+        assertEquals(500, list.size());
+        assertEquals(123, list.getCurrentIndex());
+        assertEquals(view.getCurrent().getPhrase(), list.getCurrent().getPhrase());
+    }
+}
@@ -0,0 +1,172 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmarks for the editing operations of every storage engine, at sizes from a
+ * thousand to a million phrases, with sequential or random index patterns.
+ *
+ * The composer is reached through method handles; see Handles.
+ *
+ * Each benchmark that adds or removes a phrase undoes its change with an O(1)
+ * operation at the cursor (removeCurrent or addAtCurrent), so the composition keeps
+ * its size for the whole iteration and the cost measured is that of the named
+ * operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompositionBenchmark {
+
+    /** Number of precomputed indices; a power of two */
+    private static final int INDEX_COUNT = 4096;
+
+    private static final MethodHandle ENGINE = Handles.statik("StorageEngine", "valueOf", Handles.type("StorageEngine"), String.class);
+    private static final MethodHandle CREATE = Handles.virtual("StorageEngine", "create", Handles.type("Composition"), String[].class);
+    private static final MethodHandle ADD_AT_END = Handles.virtual("Composition", "addAtEnd", void.class, String.class);
+    private static final MethodHandle ADD_AT_CURRENT = Handles.virtual("Composition", "addAtCurrent", void.class, String.class);
+    private static final MethodHandle ADD = Handles.virtual("Composition", "add", void.class, String.class, int.class);
+    private static final MethodHandle REMOVE = Handles.virtual("Composition", "remove", Handles.type("Node"), int.class);
+    private static final MethodHandle REMOVE_CURRENT = Handles.virtual("Composition", "removeCurrent", Handles.type("Node"));
+    private static final MethodHandle MOVE = Handles.virtual("Composition", "move", void.class, int.class, int.class);
+    private static final MethodHandle SET_CURRENT = Handles.virtual("Composition", "setCurrent", void.class, int.class);
+    private static final MethodHandle GET_CURRENT = Handles.virtual("Composition", "getCurrent", Handles.type("Node"));
+    private static final MethodHandle REPEAT = Handles.virtual("Composition", "repeatPhraseToEnd", void.class, int.class);
+    private static final MethodHandle GET_HEAD = Handles.virtual("Composition", "getHead", Handles.type("Node"));
+    private static final MethodHandle GET_NEXT = Handles.virtual("Node", "getNext", Handles.type("Node"));
+    private static final MethodHandle GET_PHRASE = Handles.virtual("Node", "getPhrase", String.class);
+    private static final MethodHandle GET_PHRASE_ID = Handles.virtual("Node", "getPhraseId", int.class);
+
+    /** The storage engine under test */
+    @Param({"LINKED_LIST", "INDEXED", "GAP_BUFFER"})
+    public String engine;
+
+    /** The number of phrases in the composition */
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int size;
+
+    /** How the indices used by positional operations are chosen */
+    @Param({"SEQUENTIAL", "RANDOM"})
+    public String pattern;
+
+    /** The composition being edited */
+    private Object composition;
+    /** Indices used by positional operations, cycled through */
+    private int[] indices;
+    /** Position of the next index */
+    private int next;
+
+    /**
+     * Builds a composition of the chosen size and the index pattern. The composition
+     * is rebuilt every iteration so that move benchmarks start from the same state.
+     */
+    @Setup(Level.Iteration)
+    public void setUp() throws Throwable {
+        String[] phrases = new String[size];
+        for (int i = 0; i < size; i++)
+            phrases[i] = "N" + (i % 64);
+        composition = (Object) CREATE.invokeExact((Object) ENGINE.invokeExact(engine), phrases);
+        indices = new int[INDEX_COUNT];
+        Random random = new Random(42);
+        for (int i = 0; i < INDEX_COUNT; i++)
+            indices[i] = pattern.equals("RANDOM") ? random.nextInt(size - 1) : (int) ((long) i * (size - 1) / INDEX_COUNT);
+        next = 0;
+    }
+
+    /**
+     * Returns the next index of the pattern, always below size - 1.
+     */
+    private int nextIndex() {
+        return indices[next++ & (INDEX_COUNT - 1)];
+    }
+
+    /**
+     * Appends a phrase, then removes it again.
+     */
+    @Benchmark
+    public void addAtEnd() throws Throwable {
+        ADD_AT_END.invokeExact(composition, "X");
+        Object removed = (Object) REMOVE_CURRENT.invokeExact(composition);
+    }
+
+    /**
+     * Inserts a phrase before the current one, then removes it again.
+     */
+    @Benchmark
+    public void addAtCurrent() throws Throwable {
+        ADD_AT_CURRENT.invokeExact(composition, "X");
+        Object removed = (Object) REMOVE_CURRENT.invokeExact(composition);
+    }
+
+    /**
+     * Inserts a phrase at an index, then removes it again.
+     */
+    @Benchmark
+    public void addAtIndex() throws Throwable {
+        ADD.invokeExact(composition, "X", nextIndex());
+        Object removed = (Object) REMOVE_CURRENT.invokeExact(composition);
+    }
+
+    /**
+     * Removes the phrase at an index, then puts it back.
+     */
+    @Benchmark
+    public void removeAtIndex() throws Throwable {
+        Object removed = (Object) REMOVE.invokeExact(composition, nextIndex());
+        ADD_AT_CURRENT.invokeExact(composition, (String) GET_PHRASE.invokeExact(removed));
+    }
+
+    /**
+     * Moves a phrase from one index to another.
+     */
+    @Benchmark
+    public void move() throws Throwable {
+        MOVE.invokeExact(composition, nextIndex(), nextIndex());
+    }
+
+    /**
+     * Makes the phrase at an index current.
+     */
+    @Benchmark
+    public Object setCurrent() throws Throwable {
+        SET_CURRENT.invokeExact(composition, nextIndex());
+        return (Object) GET_CURRENT.invokeExact(composition);
+    }
+
+    /**
+     * Copies the phrase at an index to the end, then removes the copy.
+     */
+    @Benchmark
+    public void repeatPhraseToEnd() throws Throwable {
+        REPEAT.invokeExact(composition, nextIndex());
+        Object removed = (Object) REMOVE_CURRENT.invokeExact(composition);
+    }
+
+    /**
+     * Visits every phrase from head to tail.
+     */
+    @Benchmark
+    public void traverse(Blackhole blackhole) throws Throwable {
+        for (Object temp = (Object) GET_HEAD.invokeExact(composition); temp != null; temp = (Object) GET_NEXT.invokeExact(temp))
+            blackhole.consume((int) GET_PHRASE_ID.invokeExact(temp));
+    }
+}
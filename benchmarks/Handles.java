@@ -0,0 +1,115 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * The Handles class looks up the composer classes for the benchmarks. The composer
+ * lives in the default package, which JMH does not accept for benchmark classes and
+ * which a named package cannot import, so the benchmarks call it through method
+ * handles. Handles held in static final fields are constants to the JIT compiler and
+ * are inlined like direct calls.
+ *
+ * Every composer type in a handle's signature is replaced by Object, so call sites
+ * use invokeExact with Object for compositions, nodes and caches.
+ */
+final class Handles {
+
+    /** Looks up public members of public classes */
+    private static final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+    private Handles() {
+    }
+
+    /**
+     * Loads a composer class by name.
+     *
+     * @param name The simple class name.
+     * @return The class.
+     */
+    static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Composer class not on the class path: " + name, e);
+        }
+    }
+
+    /**
+     * Finds an instance method, with the receiver and composer types erased to Object.
+     *
+     * @param owner The class name.
+     * @param name The method name.
+     * @param returnType The declared return type.
+     * @param parameterTypes The declared parameter types.
+     * @return The method handle.
+     */
+    static MethodHandle virtual(String owner, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            MethodType type = MethodType.methodType(returnType, parameterTypes);
+            return erase(lookup.findVirtual(type(owner), name, type));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot find " + owner + "." + name, e);
+        }
+    }
+
+    /**
+     * Finds a static method, with composer types erased to Object.
+     *
+     * @param owner The class name.
+     * @param name The method name.
+     * @param returnType The declared return type.
+     * @param parameterTypes The declared parameter types.
+     * @return The method handle.
+     */
+    static MethodHandle statik(String owner, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            MethodType type = MethodType.methodType(returnType, parameterTypes);
+            return erase(lookup.findStatic(type(owner), name, type));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot find " + owner + "." + name, e);
+        }
+    }
+
+    /**
+     * Finds a constructor, with composer types erased to Object.
+     *
+     * @param owner The class name.
+     * @param parameterTypes The declared parameter types.
+     * @return The method handle.
+     */
+    static MethodHandle constructor(String owner, Class<?>... parameterTypes) {
+        try {
+            return erase(lookup.findConstructor(type(owner), MethodType.methodType(void.class, parameterTypes)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot find a constructor of " + owner, e);
+        }
+    }
+
+    /**
+     * Replaces every composer type in a handle's signature by Object.
+     *
+     * @param handle The handle.
+     * @return The handle with the erased type.
+     */
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++)
+            if (isComposerType(type.parameterType(i)))
+                type = type.changeParameterType(i, Object.class);
+        if (isComposerType(type.returnType()))
+            type = type.changeReturnType(Object.class);
+        return handle.asType(type);
+    }
+
+    /**
+     * Returns whether a type belongs to the composer, that is, the default package.
+     *
+     * @param type The type.
+     * @return True for composer classes.
+     */
+    private static boolean isComposerType(Class<?> type) {
+        return !type.isPrimitive() && !type.isArray() && type.getPackageName().isEmpty();
+    }
+}
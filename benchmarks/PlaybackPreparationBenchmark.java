@@ -0,0 +1,114 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.Sequence;
+
+import org.jfugue.player.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for turning phrases into MIDI sequences, measured separately from
+ * audio output: nothing here opens the sequencer or synthesizer. They compare
+ * compiling a phrase from scratch, fetching it from the phrase cache, and stitching
+ * a whole composition into one gapless sequence. The composer is reached through
+ * method handles; see Handles.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaybackPreparationBenchmark {
+
+    /** Phrases of varying length used by the benchmarks */
+    private static final String[] PHRASES = {
+            "C", "D E F", "G5q A5q B5h", "C4i D4i E4i F4i G4i A4i B4i C5i", "Rq", "[60]q [64]q [67]h"
+    };
+
+    private static final MethodHandle NEW_CACHE = Handles.constructor("PhraseCache", int.class);
+    private static final MethodHandle CACHE_GET = Handles.virtual("PhraseCache", "get", Sequence.class, int.class);
+    private static final MethodHandle DICTIONARY = Handles.statik("PhraseDictionary", "getShared", Handles.type("PhraseDictionary"));
+    private static final MethodHandle INTERN = Handles.virtual("PhraseDictionary", "intern", int.class, String.class);
+    private static final MethodHandle NEW_LIST = Handles.constructor("DoublyLinkedList", String[].class);
+    private static final MethodHandle NEW_BUILDER = Handles.constructor("SequenceBuilder", Handles.type("PhraseCache"));
+    private static final MethodHandle APPEND = Handles.virtual("SequenceBuilder", "append", void.class, int.class);
+    private static final MethodHandle BUILD = Handles.virtual("SequenceBuilder", "build", Sequence.class);
+    private static final MethodHandle GET_HEAD = Handles.virtual("Composition", "getHead", Handles.type("Node"));
+    private static final MethodHandle GET_NEXT = Handles.virtual("Node", "getNext", Handles.type("Node"));
+    private static final MethodHandle GET_PHRASE_ID = Handles.virtual("Node", "getPhraseId", int.class);
+
+    /** The number of phrases in the composition for the gapless benchmark */
+    @Param({"100", "1000"})
+    public int length;
+
+    /** Compiles phrases without caching */
+    private Player player;
+    /** A cache holding every phrase */
+    private Object cache;
+    /** Dictionary ids of the phrases */
+    private int[] phraseIds;
+    /** The composition stitched by the gapless benchmark */
+    private Object composition;
+    /** Position of the next phrase */
+    private int next;
+
+    /**
+     * Creates the compiler and fills the cache.
+     */
+    @Setup
+    public void setUp() throws Throwable {
+        player = new Player();
+        cache = (Object) NEW_CACHE.invokeExact(1024);
+        Object dictionary = (Object) DICTIONARY.invokeExact();
+        phraseIds = new int[PHRASES.length];
+        for (int i = 0; i < PHRASES.length; i++) {
+            phraseIds[i] = (int) INTERN.invokeExact(dictionary, PHRASES[i]);
+            Sequence warm = (Sequence) CACHE_GET.invokeExact(cache, phraseIds[i]);
+        }
+        String[] phrases = new String[length];
+        for (int i = 0; i < length; i++)
+            phrases[i] = PHRASES[i % PHRASES.length];
+        composition = (Object) NEW_LIST.invokeExact(phrases);
+    }
+
+    /**
+     * Compiles one phrase with jFugue, as playback did before phrases were cached.
+     */
+    @Benchmark
+    public Sequence compilePhrase() {
+        return player.getSequence(PHRASES[next++ % PHRASES.length]);
+    }
+
+    /**
+     * Fetches one compiled phrase from the cache.
+     */
+    @Benchmark
+    public Sequence cachedPhrase() throws Throwable {
+        return (Sequence) CACHE_GET.invokeExact(cache, phraseIds[next++ % phraseIds.length]);
+    }
+
+    /**
+     * Stitches every phrase of the composition into one sequence from cached
+     * fragments.
+     */
+    @Benchmark
+    public Sequence buildGapless() throws Throwable {
+        Object builder = (Object) NEW_BUILDER.invokeExact(cache);
+        for (Object temp = (Object) GET_HEAD.invokeExact(composition); temp != null; temp = (Object) GET_NEXT.invokeExact(temp))
+            APPEND.invokeExact(builder, (int) GET_PHRASE_ID.invokeExact(temp));
+        return (Sequence) BUILD.invokeExact(builder);
+    }
+}